@@ -1,5 +1,6 @@
 package io.upstartproject.avrocodec.dynamodb;
 
+import com.google.common.collect.Comparators;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.Binder;
@@ -13,11 +14,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
-import software.amazon.awssdk.enhanced.dynamodb.internal.AttributeValues;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondaryPartitionKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
 import software.amazon.awssdk.enhanced.dynamodb.model.TransactPutItemEnhancedRequest;
 import software.amazon.awssdk.enhanced.dynamodb.model.TransactWriteItemsEnhancedRequest;
 import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
@@ -37,6 +38,7 @@ import upstart.provisioning.ProvisionedResource;
 import upstart.util.collect.PairStream;
 import upstart.util.concurrent.BlockingBoundedActor;
 import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.NamedThreadFactory;
 import upstart.util.concurrent.Promise;
 import upstart.util.exceptions.Exceptions;
 
@@ -44,12 +46,17 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.lang.annotation.Annotation;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -58,19 +65,59 @@ import static com.google.common.base.Preconditions.checkState;
 public class DynamoDbSchemaRegistry implements SchemaRegistry {
   private static final Logger LOG = LoggerFactory.getLogger(DynamoDbSchemaRegistry.class);
   private final SchemaTable table;
+  private final DynamoDbRegistryConfig config;
   private final BlockingBoundedActor actor = new BlockingBoundedActor(10);
+  private final Supplier<ScheduledExecutorService> pollExecutorFactory;
+  private volatile ScheduledExecutorService pollExecutor = null;
+  // only accessed from the pollExecutor thread (after being initialized before the first poll is scheduled)
+  private Duration pollInterval;
 
   @Inject
-  public DynamoDbSchemaRegistry(SchemaTable table) {
+  public DynamoDbSchemaRegistry(SchemaTable table, DynamoDbRegistryConfig config) {
+    this(table, config, () -> Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("schema-poll").daemonize()));
+  }
+
+  DynamoDbSchemaRegistry(SchemaTable table, DynamoDbRegistryConfig config, Supplier<ScheduledExecutorService> pollExecutorFactory) {
     this.table = table;
+    this.config = config;
+    this.pollExecutorFactory = pollExecutorFactory;
   }
 
   @Override
   public CompletableFuture<?> startUp(SchemaListener schemaListener) {
     table.setListener(schemaListener);
+    if (config.backgroundPolling()) {
+      pollInterval = config.minPollInterval();
+      pollExecutor = pollExecutorFactory.get();
+      schedulePoll();
+    }
     return CompletableFutures.nullFuture();
   }
 
+  /**
+   * Polls adaptively: immediately after observing new schemas, the next poll follows after
+   * {@link DynamoDbRegistryConfig#minPollInterval}; each poll which finds nothing new doubles the interval, up to
+   * {@link DynamoDbRegistryConfig#maxPollInterval}.
+   * <p/>
+   * Polls are scheduled on a dedicated thread, which is stopped by {@link #shutDown}.
+   */
+  private void schedulePoll() {
+    pollExecutor.schedule(this::poll, pollInterval.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  private void poll() {
+    actor.requestAsync(table::refresh, MoreExecutors.directExecutor())
+            .whenCompleteAsync((newSchemas, e) -> {
+              if (e != null) {
+                LOG.warn("Failed to poll for new schemas", e);
+              }
+              pollInterval = e == null && newSchemas > 0
+                      ? config.minPollInterval()
+                      : Comparators.min(pollInterval.multipliedBy(2), config.maxPollInterval());
+              if (!pollExecutor.isShutdown()) schedulePoll();
+            }, pollExecutor);
+  }
+
   @Override
   public CompletableFuture<?> insert(List<? extends SchemaDescriptor> schemas) {
     return actor.requestAsync(() -> table.insert(schemas), MoreExecutors.directExecutor());
@@ -83,11 +130,12 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
 
   @Override
   public CompletableFuture<Void> refresh() {
-    return actor.requestAsync(table::refresh, MoreExecutors.directExecutor());
+    return actor.requestAsync(table::refresh, MoreExecutors.directExecutor()).toVoid();
   }
 
   @Override
   public CompletableFuture<?> shutDown() {
+    if (pollExecutor != null) pollExecutor.shutdownNow();
     return CompletableFutures.nullFuture();
   }
 
@@ -124,7 +172,7 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
       return CompletableFutures.applyInSequence(
               pages.stream(),
               this::insertPage
-      ).thenReplaceFuture(this::refresh);
+      ).thenReplaceFuture(() -> refresh().toVoid());
     }
 
     private Promise<Void> insertPage(List<? extends SchemaDescriptor> page) {
@@ -173,28 +221,51 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
       return PairStream.of(knownSchemas);
     }
 
-    public Promise<Void> refresh() {
-      return Promise.of(itemFlux(table.scan(b -> {
-        b.consistentRead(true);
-        if (latestObservedSeqNo >= 0) {
-          // so verbose ... does anyone at amazon actually work with these APIs?
-          var filter = Expression.builder()
-                  .expression("#seqNo > :seqNo")
-                  .expressionNames(Map.of("#seqNo", "seqNo"))
-                  .expressionValues(Map.of(":seqNo", AttributeValues.numberValue(latestObservedSeqNo)))
-                  .build();
-          b.filterExpression(filter);
-        }
-      })).reduce(0, (ignored, item) -> {
+    /**
+     * Observes the schemas added since the previous refresh.
+     * <p/>
+     * All schemas share a single partition, sorted by seqNo, so this is a consistent Query for the seqNos beyond the
+     * latest observed: its cost is proportional to the number of new schemas, rather than the size of the table.
+     * If the results reveal a gap in the sequence (ie, a seqNo which was deleted, or which we somehow missed), we fall
+     * back to a full scan to reconcile with the whole table.
+     *
+     * @return the number of newly-observed schemas
+     */
+    public Promise<Integer> refresh() {
+      if (latestObservedSeqNo < 0) return fullScan();
+      int startSeqNo = latestObservedSeqNo;
+      return Promise.of(itemFlux(table.query(b -> b
+                      .consistentRead(true)
+                      .queryConditional(QueryConditional.sortGreaterThan(SchemaDocument.sortKey(startSeqNo)))
+              )).collectList().toFuture())
+              .thenCompose(items -> {
+                for (int i = 0; i < items.size(); i++) {
+                  if (items.get(i).getSeqNo() != startSeqNo + 1 + i) {
+                    LOG.info("Detected a gap in schema seqNos after {} (found {}), reconciling with a full scan", startSeqNo + i, items.get(i).getSeqNo());
+                    return fullScan();
+                  }
+                }
+                return Promise.completed(observe(items));
+              });
+    }
+
+    private Promise<Integer> fullScan() {
+      return Promise.of(itemFlux(table.scan(b -> b.consistentRead(true))).collectList().toFuture())
+              .thenApply(this::observe);
+    }
+
+    private int observe(List<SchemaDocument> items) {
+      int added = 0;
+      for (SchemaDocument item : items) {
         int seqNo = item.getSeqNo();
-        assert seqNo > latestObservedSeqNo : "SeqNo was out of order: " + seqNo + " <= " + latestObservedSeqNo;
-        latestObservedSeqNo = seqNo;
+        latestObservedSeqNo = Math.max(latestObservedSeqNo, seqNo);
         SchemaDescriptor descriptor = item.toSchemaDescriptor();
         if (knownSchemas.putIfAbsent(descriptor, seqNo) == null) {
           listener.onSchemaAdded(descriptor);
+          added++;
         }
-        return ignored;
-      }).then().toFuture());
+      }
+      return added;
     }
 
     public CompletableFuture<Void> delete(SchemaDescriptor schema) {
@@ -342,5 +413,31 @@ public class DynamoDbSchemaRegistry implements SchemaRegistry {
     default String repoTableNameSuffix() {
       return "schemarepo";
     }
+
+    /**
+     * Whether to poll for schemas added by other processes in the background (rather than only upon
+     * {@link SchemaRegistry#refresh}). Off by default: schemas are also fetched on demand when an unknown
+     * fingerprint is encountered.
+     */
+    @Value.Default
+    default boolean backgroundPolling() {
+      return false;
+    }
+
+    @Value.Default
+    default Duration minPollInterval() {
+      return Duration.ofSeconds(5);
+    }
+
+    @Value.Default
+    default Duration maxPollInterval() {
+      return Duration.ofMinutes(5);
+    }
+
+    @Value.Check
+    default void checkPollIntervals() {
+      checkArgument(minPollInterval().compareTo(Duration.ZERO) > 0, "minPollInterval must be positive: %s", minPollInterval());
+      checkArgument(maxPollInterval().compareTo(minPollInterval()) >= 0, "maxPollInterval must be at least minPollInterval: %s", maxPollInterval());
+    }
   }
 }
@@ -0,0 +1,74 @@
+package io.upstartproject.avrocodec.dynamodb;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.upstartproject.avrocodec.SchemaDescriptor;
+import io.upstartproject.avrocodec.SchemaFingerprint;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import upstart.test.FakeTime;
+import upstart.util.concurrent.Promise;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DynamoDbSchemaRegistryPollingTest {
+  private final FakeTime time = new FakeTime(Instant.EPOCH, ZoneOffset.UTC);
+  private final DynamoDbSchemaRegistry.SchemaTable table = mock(DynamoDbSchemaRegistry.SchemaTable.class);
+  private final List<Long> pollSeconds = new ArrayList<>();
+  private final DynamoDbSchemaRegistry registry = new DynamoDbSchemaRegistry(
+          table,
+          ImmutableDynamoDbRegistryConfig.builder()
+                  .backgroundPolling(true)
+                  .minPollInterval(Duration.ofSeconds(5))
+                  .maxPollInterval(Duration.ofSeconds(40))
+                  .build(),
+          () -> time.scheduledExecutor(MoreExecutors.newDirectExecutorService())
+  );
+
+  @Test
+  void pollIntervalGrowsWhileIdleAndResetsAfterNewSchemas() {
+    Set<Long> productivePolls = Set.of(75L);
+    when(table.refresh()).thenAnswer(invocation -> {
+      long now = time.instant().getEpochSecond();
+      pollSeconds.add(now);
+      return Promise.completed(productivePolls.contains(now) ? 1 : 0);
+    });
+    registry.startUp(new NoopListener()).join();
+
+    time.advance(Duration.ofSeconds(74));
+    // doubling while idle: intervals of 5s, 10s, 20s
+    assertThat(pollSeconds).containsExactly(5L, 15L, 35L).inOrder();
+
+    time.advance(Duration.ofSeconds(56));
+    // the poll at 75s observed a new schema, so the interval restarts at 5s
+    assertThat(pollSeconds).containsExactly(5L, 15L, 35L, 75L, 80L, 90L, 110L).inOrder();
+
+    time.advance(Duration.ofSeconds(200));
+    // capped at 40s
+    assertThat(pollSeconds.subList(7, pollSeconds.size())).containsExactly(150L, 190L, 230L, 270L, 310L).inOrder();
+  }
+
+  @AfterEach
+  void shutDown() {
+    registry.shutDown().join();
+  }
+
+  private static class NoopListener implements SchemaRegistry.SchemaListener {
+    @Override
+    public void onSchemaAdded(SchemaDescriptor schema) {
+    }
+
+    @Override
+    public void onSchemaRemoved(SchemaFingerprint fingerprint) {
+    }
+  }
+}
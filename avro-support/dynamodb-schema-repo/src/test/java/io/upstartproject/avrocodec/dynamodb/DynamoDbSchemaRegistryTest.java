@@ -51,12 +51,32 @@ class DynamoDbSchemaRegistryTest extends UpstartModule {
   }
 
   @Inject @DataStore(TEST_DATASTORE) AvroPublisher avroPublisher;
+  @Inject @DataStore(TEST_DATASTORE) DynamoDbSchemaRegistry.SchemaTable table;
 
   @Test
   void roundTrip() {
     avroPublisher.getPreRegisteredPacker(MessageEnvelope.class).schema();
   }
 
+  @Test
+  void refreshIsIncrementalAndReconcilesGaps(
+          @Named("test.schemarepo") DynamoDbTable<DynamoDbSchemaRegistry.SchemaTable.SchemaDocument> schemaTable
+  ) {
+    int latestSeqNo = table.getKnownSchemas().values().max(Integer::compare).orElseThrow();
+    assertThat(table.refresh().join()).isEqualTo(0);
+
+    schemaTable.putItem(new DynamoDbSchemaRegistry.SchemaTable.SchemaDocument(SchemaDescriptor.of(INCOMPATIBLE_SCHEMA1), latestSeqNo + 1));
+    assertThat(table.refresh().join()).isEqualTo(1);
+
+    // skip a seqNo, as if it were deleted before we observed it
+    schemaTable.putItem(new DynamoDbSchemaRegistry.SchemaTable.SchemaDocument(SchemaDescriptor.of(UNRELATED_SCHEMA), latestSeqNo + 3));
+    assertThat(table.refresh().join()).isEqualTo(1);
+    assertThat(table.getKnownSchemas().toMap()).containsEntry(SchemaDescriptor.of(UNRELATED_SCHEMA), latestSeqNo + 3);
+
+    // the gap is not rediscovered once reconciled
+    assertThat(table.refresh().join()).isEqualTo(0);
+  }
+
   @Nested
   class WithInterceptedRepo {
     private final ThreadPauseHelper pauseHelper = new ThreadPauseHelper(Deadline.withinSeconds(5));
@@ -166,6 +186,17 @@ class DynamoDbSchemaRegistryTest extends UpstartModule {
             ]
           }
           """;
+  static final String UNRELATED_SCHEMA = """
+          {
+            "namespace": "io.upstartproject.avro.test",
+            "name": "UnrelatedTestRecord",
+            "published": true,
+            "type": "record",
+            "fields": [
+              {"name": "field", "type": "long", "default": 0}
+            ]
+          }
+          """;
   static final String INCOMPATIBLE_SCHEMA2 = """
           {
             "namespace": "io.upstartproject.avro.test",
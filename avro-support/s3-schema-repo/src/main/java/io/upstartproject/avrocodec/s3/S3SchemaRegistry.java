@@ -3,10 +3,13 @@ package io.upstartproject.avrocodec.s3;
 import io.upstartproject.avrocodec.BaseSchemaRegistry;
 import upstart.util.collect.PairStream;
 import upstart.util.collect.PersistentList;
+import upstart.util.concurrent.AsyncSemaphore;
 import upstart.util.concurrent.CompletableFutures;
 import upstart.util.concurrent.FutureCell;
 import io.upstartproject.avrocodec.SchemaDescriptor;
 import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.BytesWrapper;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
@@ -19,23 +22,45 @@ import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.ObjectVersion;
 
 import javax.inject.Inject;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * A {@link io.upstartproject.avrocodec.SchemaRegistry} which stores each schema as a version of an S3 object (named
+ * by the schema's full name) in a versioned bucket.
+ * <p/>
+ * To make startup fast with many schemas, the content of the versions is also collected into a
+ * {@link SchemaSnapshotStore snapshot} object, which is loaded at startup (optionally via a local disk-cache);
+ * only versions missing from the snapshot are fetched individually, with at most
+ * {@link S3RepoConfig#maxConcurrentFetches} in flight.
+ * <p/>
+ * Snapshots are only written by registries configured with {@link S3RepoConfig#compactSnapshots} (typically, the
+ * processes which publish new schemas), so that reading never issues a PUT: such a registry writes a new snapshot
+ * whenever a refresh needs to fetch at least {@link S3RepoConfig#snapshotCompactionThreshold} versions individually.
+ */
 public class S3SchemaRegistry extends BaseSchemaRegistry {
+  private static final Logger LOG = LoggerFactory.getLogger(S3SchemaRegistry.class);
   private final S3RepoConfig config;
   private final Supplier<S3AsyncClient> clientSupplier;
   private final String schemaPathPrefix;
   private final Set<S3SchemaEntry> reportedVersions = ConcurrentHashMap.newKeySet();
+  private final Map<S3SchemaEntry, SchemaDescriptor> loadedDescriptors = new ConcurrentHashMap<>();
   private final FutureCell<Void> refreshCell = FutureCell.<Void>builder().build(CompletableFutures.nullFuture());
+  private final AsyncSemaphore fetchSemaphore;
+  private volatile Map<SchemaSnapshotStore.VersionRef, SchemaDescriptor> snapshotContents = Map.of();
   private S3AsyncClient client;
+  private SchemaSnapshotStore snapshotStore;
 
   @Inject
   public S3SchemaRegistry(S3RepoConfig config, Supplier<S3AsyncClient> clientSupplier) {
@@ -43,18 +68,28 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
     // TODO: should we confirm a leading slash here?
     this.clientSupplier = clientSupplier;
     schemaPathPrefix = config.repoPath().endsWith("/") ? config.repoPath() : config.repoPath() + "/";
+    fetchSemaphore = new AsyncSemaphore(config.maxConcurrentFetches());
   }
 
   @Override
   public CompletableFuture<?> startUpAsync() {
     return CompletableFutures.sequence(supplyOnDedicatedThread("STARTING", () -> {
       client = clientSupplier.get();
+      snapshotStore = new SchemaSnapshotStore(client, config.repoBucket(), config.snapshotKey(), config.localCacheDirectory());
       return client.getBucketVersioning(b -> b.bucket(config.repoBucket()))
               .thenAccept(versioningResponse -> {
                 BucketVersioningStatus status = versioningResponse.status();
                 checkState(status == BucketVersioningStatus.ENABLED,
                         "S3SchemaRepo requires S3 object-versioning, but bucket %s does not have versioning enabled (status=%s)", config.repoBucket(), status);
-              });
+              }).thenCompose(ignored -> snapshotStore.load()
+                      .thenAccept(snapshot -> {
+                        LOG.debug("Loaded {} schema(s) from snapshot {}", snapshot.size(), config.snapshotKey());
+                        snapshotContents = snapshot;
+                      })
+                      .exceptionally(e -> {
+                        LOG.warn("Unable to load schema snapshot {}, fetching all schemas individually", config.snapshotKey(), e);
+                        return null;
+                      }));
     }));
   }
 
@@ -75,8 +110,9 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
 
   @Override
   public CompletableFuture<?> delete(SchemaDescriptor schema) {
-    return reportedVersions.stream()
-            .filter(entry -> entry.loadDescriptor().isDone() && entry.loadDescriptor().join().equals(schema))
+    return PairStream.of(loadedDescriptors)
+            .filterValues(schema::equals)
+            .keys()
             .findFirst()
             .map(S3SchemaEntry::delete)
             .orElseThrow(() -> new IllegalStateException("Tried to delete an unrecognized schema: " + schema));
@@ -86,6 +122,7 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
   public CompletableFuture<Void> refresh() {
     return refreshCell.visitAsync(ignored -> {
       ListObjectVersionsRequest request = ListObjectVersionsRequest.builder().bucket(config.repoBucket()).prefix(schemaPathPrefix).build();
+      AtomicInteger fetchedCount = new AtomicInteger();
       return fetchVersionList(request, PersistentList.nil())
               .thenCompose(responses ->
                       responses.stream()
@@ -93,15 +130,46 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
                               .map(this::buildEntry)
                               .filter(reportedVersions::add)
                               .sorted(S3SchemaEntry.COMPARATOR) // sort to report all versions in their deterministic creation-order
-                              .map(S3SchemaEntry::loadDescriptor)
+                              .map(entry -> loadDescriptor(entry, fetchedCount))
+                              // all loads are already underway; report each once its predecessors have been reported
                               .reduce(
                                       (CompletableFuture<Void>) CompletableFutures.<Void>nullFuture(),
-                                      (accum, descriptorFuture) -> descriptorFuture.thenCombine(accum, (descriptor, ignored2) -> {
-                                        notifySchemaAdded(descriptor);
-                                        return null;
-                                      }),
-                                      CompletableFuture::allOf
-                              ));
+                                      (accum, descriptorFuture) -> accum.thenCompose(ignored2 -> descriptorFuture)
+                                              .thenAccept(this::notifySchemaAdded),
+                                      (a, b) -> a.thenCompose(ignored2 -> b)
+                              ))
+              .thenRun(() -> {
+                if (config.compactSnapshots() && fetchedCount.get() >= config.snapshotCompactionThreshold()) writeSnapshot();
+              });
+    });
+  }
+
+  private CompletableFuture<SchemaDescriptor> loadDescriptor(S3SchemaEntry entry, AtomicInteger fetchedCount) {
+    SchemaDescriptor snapshotDescriptor = snapshotContents.get(entry.versionRef());
+    CompletableFuture<SchemaDescriptor> descriptor;
+    if (snapshotDescriptor != null) {
+      descriptor = CompletableFuture.completedFuture(snapshotDescriptor);
+    } else {
+      fetchedCount.incrementAndGet();
+      descriptor = fetchSemaphore.submit(entry::loadDescriptor);
+    }
+    return descriptor.thenApply(loaded -> {
+      loadedDescriptors.put(entry, loaded);
+      return loaded;
+    });
+  }
+
+  private void writeSnapshot() {
+    Map<SchemaSnapshotStore.VersionRef, SchemaDescriptor> snapshot = PairStream.of(loadedDescriptors)
+            .mapKeys(S3SchemaEntry::versionRef)
+            .toImmutableMap();
+    snapshotStore.write(snapshot).whenComplete((ignored, e) -> {
+      if (e == null) {
+        LOG.debug("Wrote schema snapshot {} with {} schema(s)", config.snapshotKey(), snapshot.size());
+        snapshotContents = snapshot;
+      } else {
+        LOG.warn("Unable to write schema snapshot {}", config.snapshotKey(), e);
+      }
     });
   }
 
@@ -158,6 +226,10 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
               .thenApply(SchemaDescriptor::of);
     }
 
+    default SchemaSnapshotStore.VersionRef versionRef() {
+      return new SchemaSnapshotStore.VersionRef(key(), versionId());
+    }
+
     @Value.Lazy
     default CompletableFuture<?> delete() {
       return CompletableFutures.recover(client().deleteObjects(b -> b.bucket(config().repoBucket())
@@ -169,5 +241,35 @@ public class S3SchemaRegistry extends BaseSchemaRegistry {
   public interface S3RepoConfig {
     String repoBucket();
     String repoPath();
+
+    /**
+     * The key of the snapshot object; must not be beneath {@link #repoPath}
+     */
+    default String snapshotKey() {
+      return repoPath().replaceAll("/+$", "") + ".snapshot";
+    }
+
+    /**
+     * A directory where the latest snapshot may be cached between restarts
+     */
+    default Optional<Path> localCacheDirectory() {
+      return Optional.empty();
+    }
+
+    default int maxConcurrentFetches() {
+      return 16;
+    }
+
+    /**
+     * Whether this registry should write a new snapshot when it has fetched many versions individually; disabled by
+     * default, so that read-only processes never write to the bucket
+     */
+    default boolean compactSnapshots() {
+      return false;
+    }
+
+    default int snapshotCompactionThreshold() {
+      return 20;
+    }
   }
 }
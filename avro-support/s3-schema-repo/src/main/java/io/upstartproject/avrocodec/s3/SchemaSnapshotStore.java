@@ -0,0 +1,138 @@
+package io.upstartproject.avrocodec.s3;
+
+import io.upstartproject.avrocodec.SchemaDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.BytesWrapper;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import upstart.util.concurrent.Promise;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reads and writes a compacted snapshot of the schemas in an {@link S3SchemaRegistry}: a single S3 object holding the
+ * content of many schema-object versions, so that a starting registry can learn most schemas with one GET rather than
+ * one per version.
+ * <p/>
+ * Because S3 object-versions are immutable, the snapshot is purely an accelerator: entries are only used for versions
+ * which are still present in the registry's listing, and versions missing from the snapshot are simply fetched
+ * individually. A stale snapshot is therefore harmless, and concurrent writers may safely overwrite each other.
+ * <p/>
+ * If a local cache directory is configured, the most recently read (or written) snapshot is also kept on disk,
+ * along with its ETag; at startup, a HEAD request confirms whether the cached copy is current before the snapshot is
+ * downloaded again.
+ */
+class SchemaSnapshotStore {
+  private static final Logger LOG = LoggerFactory.getLogger(SchemaSnapshotStore.class);
+  private static final String FORMAT_HEADER = "s3-schema-snapshot-v1";
+  private static final String ETAG_PREFIX = "etag=";
+
+  private final S3AsyncClient client;
+  private final String bucket;
+  private final String snapshotKey;
+  private final Optional<Path> cacheFile;
+
+  SchemaSnapshotStore(S3AsyncClient client, String bucket, String snapshotKey, Optional<Path> cacheDirectory) {
+    this.client = client;
+    this.bucket = bucket;
+    this.snapshotKey = snapshotKey;
+    cacheFile = cacheDirectory.map(dir -> dir.resolve(
+            (bucket + "_" + snapshotKey).replaceAll("[^A-Za-z0-9._-]", "_")));
+  }
+
+  /**
+   * @return the snapshot contents, keyed by object-version; empty if no snapshot has been written
+   */
+  Promise<Map<VersionRef, SchemaDescriptor>> load() {
+    Promise<String> content = cacheFile.isPresent()
+            ? Promise.of(client.headObject(b -> b.bucket(bucket).key(snapshotKey)))
+                    .thenCompose(head -> readCache(head.eTag())
+                            .<Promise<String>>map(Promise::completed)
+                            .orElseGet(this::download))
+            : download();
+    return content.thenApply(SchemaSnapshotStore::parse)
+            .recover(S3Exception.class, e -> e.statusCode() == 404, e -> Map.of());
+  }
+
+  Promise<Void> write(Map<VersionRef, SchemaDescriptor> entries) {
+    String content = serialize(entries);
+    return Promise.of(client.putObject(b -> b.bucket(bucket).key(snapshotKey), AsyncRequestBody.fromString(content)))
+            .thenAccept(response -> writeCache(response.eTag(), content));
+  }
+
+  private Promise<String> download() {
+    return Promise.of(client.getObject(b -> b.bucket(bucket).key(snapshotKey), AsyncResponseTransformer.toBytes()))
+            .thenApply(response -> {
+              String content = response.asUtf8String();
+              writeCache(response.response().eTag(), content);
+              return content;
+            });
+  }
+
+  private Optional<String> readCache(String eTag) {
+    return cacheFile.filter(Files::exists).flatMap(file -> {
+      try {
+        String cached = Files.readString(file);
+        int headerEnd = cached.indexOf('\n');
+        if (headerEnd > 0 && cached.substring(0, headerEnd).equals(ETAG_PREFIX + eTag)) {
+          LOG.debug("Using cached schema-snapshot {} (ETag {})", file, eTag);
+          return Optional.of(cached.substring(headerEnd + 1));
+        }
+      } catch (IOException e) {
+        LOG.warn("Unable to read cached schema-snapshot {}", file, e);
+      }
+      return Optional.empty();
+    });
+  }
+
+  private void writeCache(String eTag, String content) {
+    cacheFile.ifPresent(file -> {
+      try {
+        Files.createDirectories(file.getParent());
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmpFile, ETAG_PREFIX + eTag + '\n' + content);
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        LOG.warn("Unable to write cached schema-snapshot {}", file, e);
+      }
+    });
+  }
+
+  // one line per version: key, versionId and (single-line) schema JSON, separated by tabs, which JSON never contains unescaped
+  static String serialize(Map<VersionRef, SchemaDescriptor> entries) {
+    StringBuilder builder = new StringBuilder(FORMAT_HEADER).append('\n');
+    entries.forEach((version, descriptor) -> builder.append(version.key()).append('\t')
+            .append(version.versionId()).append('\t')
+            .append(descriptor.schema().toString()).append('\n'));
+    return builder.toString();
+  }
+
+  static Map<VersionRef, SchemaDescriptor> parse(String content) {
+    String[] lines = content.split("\n");
+    if (lines.length == 0 || !lines[0].equals(FORMAT_HEADER)) {
+      LOG.warn("Ignoring schema-snapshot with unrecognized format");
+      return Map.of();
+    }
+    Map<VersionRef, SchemaDescriptor> entries = new HashMap<>();
+    for (int i = 1; i < lines.length; i++) {
+      String[] fields = lines[i].split("\t", 3);
+      if (fields.length == 3) {
+        entries.put(new VersionRef(fields[0], fields[1]), SchemaDescriptor.of(fields[2]));
+      }
+    }
+    return entries;
+  }
+
+  record VersionRef(String key, String versionId) {
+  }
+}
@@ -0,0 +1,242 @@
+package io.upstartproject.avrocodec.s3;
+
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avrocodec.SchemaDescriptor;
+import io.upstartproject.avrocodec.SchemaFingerprint;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.BucketVersioningStatus;
+import software.amazon.awssdk.services.s3.model.GetBucketVersioningRequest;
+import software.amazon.awssdk.services.s3.model.GetBucketVersioningResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectVersionsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectVersion;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class S3SchemaRegistryTest {
+  private static final String BUCKET = "test-schema-repo";
+  private static final String REPO_PATH = "repo-root";
+  private static final String SNAPSHOT_KEY = "repo-root.snapshot";
+  private static final List<SchemaDescriptor> SCHEMAS = List.of(
+          SchemaDescriptor.of(MessageEnvelope.getClassSchema()),
+          testSchema("FirstRecord"),
+          testSchema("SecondRecord")
+  );
+
+  private final StubS3Client client = new StubS3Client();
+  private final List<SchemaDescriptor> addedSchemas = new ArrayList<>();
+
+  @Test
+  void startupLoadsSnapshotAndFetchesOnlyMissingVersions() {
+    SCHEMAS.forEach(client::putSchema);
+    snapshotStore().write(Map.of(
+            client.versionRef(0), SCHEMAS.get(0),
+            client.versionRef(1), SCHEMAS.get(1)
+    )).join();
+
+    startRegistry(new TestConfig(false, 1));
+
+    assertThat(addedSchemas).containsExactlyElementsIn(SCHEMAS).inOrder();
+    assertThat(client.versionGets.get()).isEqualTo(1);
+  }
+
+  @Test
+  void readersNeverWriteSnapshots() {
+    SCHEMAS.forEach(client::putSchema);
+
+    startRegistry(new TestConfig(false, 1));
+
+    assertThat(addedSchemas).containsExactlyElementsIn(SCHEMAS).inOrder();
+    assertThat(client.versionGets.get()).isEqualTo(3);
+    assertThat(client.snapshotPuts.get()).isEqualTo(0);
+  }
+
+  @Test
+  void compactionWritesSnapshotOfLoadedVersions() {
+    SCHEMAS.forEach(client::putSchema);
+
+    startRegistry(new TestConfig(true, 3));
+
+    await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> assertThat(client.snapshotPuts.get()).isEqualTo(1));
+    assertThat(snapshotStore().load().join()).isEqualTo(Map.of(
+            client.versionRef(0), SCHEMAS.get(0),
+            client.versionRef(1), SCHEMAS.get(1),
+            client.versionRef(2), SCHEMAS.get(2)
+    ));
+  }
+
+  @Test
+  void compactionWaitsForThreshold() {
+    SCHEMAS.forEach(client::putSchema);
+
+    startRegistry(new TestConfig(true, 4));
+
+    assertThat(client.versionGets.get()).isEqualTo(3);
+    assertThat(client.snapshotPuts.get()).isEqualTo(0);
+  }
+
+  private void startRegistry(TestConfig config) {
+    S3SchemaRegistry registry = new S3SchemaRegistry(config, () -> client);
+    registry.startUp(new SchemaRegistry.SchemaListener() {
+      @Override
+      public void onSchemaAdded(SchemaDescriptor schema) {
+        addedSchemas.add(schema);
+      }
+
+      @Override
+      public void onSchemaRemoved(SchemaFingerprint fingerprint) {
+      }
+    }).join();
+    registry.refresh().join();
+  }
+
+  private SchemaSnapshotStore snapshotStore() {
+    return new SchemaSnapshotStore(client, BUCKET, SNAPSHOT_KEY, Optional.empty());
+  }
+
+  private static SchemaDescriptor testSchema(String name) {
+    return SchemaDescriptor.of("""
+            {"type": "record", "name": "%s", "namespace": "io.upstartproject.avro.test", "fields": [{"name": "value", "type": "string"}]}
+            """.formatted(name));
+  }
+
+  record TestConfig(boolean compactSnapshots, int snapshotCompactionThreshold) implements S3SchemaRegistry.S3RepoConfig {
+    @Override
+    public String repoBucket() {
+      return BUCKET;
+    }
+
+    @Override
+    public String repoPath() {
+      return REPO_PATH;
+    }
+  }
+
+  /**
+   * An in-memory versioned bucket, supporting just the requests issued by the registry and its snapshot-store.
+   */
+  static class StubS3Client implements S3AsyncClient {
+    final List<ObjectVersion> versions = new ArrayList<>();
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final AtomicInteger versionGets = new AtomicInteger();
+    final AtomicInteger snapshotPuts = new AtomicInteger();
+
+    void putSchema(SchemaDescriptor schema) {
+      String key = REPO_PATH + "/" + schema.fullName();
+      String versionId = "v" + versions.size();
+      versions.add(ObjectVersion.builder()
+              .key(key)
+              .versionId(versionId)
+              .lastModified(Instant.EPOCH.plusSeconds(versions.size()))
+              .build());
+      objects.put(key + "@" + versionId, schema.schema().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    SchemaSnapshotStore.VersionRef versionRef(int index) {
+      ObjectVersion version = versions.get(index);
+      return new SchemaSnapshotStore.VersionRef(version.key(), version.versionId());
+    }
+
+    @Override
+    public CompletableFuture<GetBucketVersioningResponse> getBucketVersioning(GetBucketVersioningRequest request) {
+      return CompletableFuture.completedFuture(GetBucketVersioningResponse.builder().status(BucketVersioningStatus.ENABLED).build());
+    }
+
+    @Override
+    public CompletableFuture<ListObjectVersionsResponse> listObjectVersions(ListObjectVersionsRequest request) {
+      return CompletableFuture.completedFuture(ListObjectVersionsResponse.builder()
+              .versions(versions.stream().filter(version -> version.key().startsWith(request.prefix())).toList())
+              .isTruncated(false)
+              .build());
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> getObject(
+            GetObjectRequest request,
+            AsyncResponseTransformer<GetObjectResponse, ReturnT> transformer
+    ) {
+      String objectKey = request.versionId() == null ? request.key() : request.key() + "@" + request.versionId();
+      byte[] content = objects.get(objectKey);
+      if (content == null) {
+        return CompletableFuture.failedFuture(NoSuchKeyException.builder().statusCode(404).build());
+      }
+      if (request.versionId() != null) versionGets.incrementAndGet();
+      CompletableFuture<ReturnT> result = transformer.prepare();
+      transformer.onResponse(GetObjectResponse.builder().eTag("etag-" + content.length).build());
+      transformer.onStream(AsyncRequestBody.fromBytes(content));
+      return result;
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody requestBody) {
+      if (request.key().equals(SNAPSHOT_KEY)) snapshotPuts.incrementAndGet();
+      return readFully(requestBody).thenApply(content -> {
+        objects.put(request.key(), content);
+        return PutObjectResponse.builder().eTag("etag-" + content.length).build();
+      });
+    }
+
+    @Override
+    public String serviceName() {
+      return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static CompletableFuture<byte[]> readFully(AsyncRequestBody body) {
+      CompletableFuture<byte[]> result = new CompletableFuture<>();
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      body.subscribe(new Subscriber<>() {
+        @Override
+        public void onSubscribe(Subscription subscription) {
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+          byte[] bytes = new byte[byteBuffer.remaining()];
+          byteBuffer.get(bytes);
+          buffer.writeBytes(bytes);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          result.completeExceptionally(t);
+        }
+
+        @Override
+        public void onComplete() {
+          result.complete(buffer.toByteArray());
+        }
+      });
+      return result;
+    }
+  }
+}
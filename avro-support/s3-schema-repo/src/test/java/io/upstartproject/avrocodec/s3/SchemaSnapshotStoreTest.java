@@ -0,0 +1,144 @@
+package io.upstartproject.avrocodec.s3;
+
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avrocodec.SchemaDescriptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import upstart.aws.s3.test.MockS3;
+import upstart.aws.s3.test.MockS3Test;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@MockS3Test(initialBuckets = SchemaSnapshotStoreTest.BUCKET)
+class SchemaSnapshotStoreTest {
+  static final String BUCKET = "test-schema-repo";
+  private static final String SNAPSHOT_KEY = "repo-root.snapshot";
+  private static final SchemaDescriptor ENVELOPE_SCHEMA = SchemaDescriptor.of(MessageEnvelope.getClassSchema());
+  private static final SchemaDescriptor OTHER_SCHEMA = SchemaDescriptor.of("""
+          {"type": "record", "name": "TestRecord", "namespace": "io.upstartproject.avro.test", "fields": [{"name": "value", "type": "string"}]}
+          """);
+
+  @TempDir Path cacheDir;
+  private CountingClient client;
+
+  @BeforeEach
+  void setup(MockS3 mockS3) {
+    client = new CountingClient(mockS3.configureClientBuilder(S3AsyncClient.builder())
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+            .build());
+  }
+
+  @AfterEach
+  void closeClient() {
+    client.close();
+  }
+
+  @Test
+  void missingSnapshotIsEmpty() {
+    assertThat(store(Optional.empty()).load().join()).isEmpty();
+    assertThat(store(Optional.of(cacheDir)).load().join()).isEmpty();
+  }
+
+  @Test
+  void snapshotIsLoadedWithOneRequest() {
+    Map<SchemaSnapshotStore.VersionRef, SchemaDescriptor> entries = Map.of(
+            new SchemaSnapshotStore.VersionRef("repo-root/io.upstartproject.avro.MessageEnvelope", "v1"), ENVELOPE_SCHEMA,
+            new SchemaSnapshotStore.VersionRef("repo-root/io.upstartproject.avro.test.TestRecord", "v7"), OTHER_SCHEMA
+    );
+    store(Optional.empty()).write(entries).join();
+
+    assertThat(store(Optional.empty()).load().join()).isEqualTo(entries);
+    assertThat(client.gets.get()).isEqualTo(1);
+  }
+
+  @Test
+  void localCacheIsValidatedByETag() {
+    Map<SchemaSnapshotStore.VersionRef, SchemaDescriptor> entries = Map.of(
+            new SchemaSnapshotStore.VersionRef("repo-root/io.upstartproject.avro.MessageEnvelope", "v1"), ENVELOPE_SCHEMA
+    );
+    // written by another process, so not yet cached locally
+    store(Optional.empty()).write(entries).join();
+
+    assertThat(store(Optional.of(cacheDir)).load().join()).isEqualTo(entries);
+    assertThat(client.gets.get()).isEqualTo(1);
+
+    // unchanged: served from the cache after a HEAD
+    assertThat(store(Optional.of(cacheDir)).load().join()).isEqualTo(entries);
+    assertThat(client.gets.get()).isEqualTo(1);
+    assertThat(client.heads.get()).isEqualTo(2);
+
+    // replaced by another process: the cached copy is stale
+    Map<SchemaSnapshotStore.VersionRef, SchemaDescriptor> updated = Map.of(
+            new SchemaSnapshotStore.VersionRef("repo-root/io.upstartproject.avro.test.TestRecord", "v2"), OTHER_SCHEMA
+    );
+    store(Optional.empty()).write(updated).join();
+    assertThat(store(Optional.of(cacheDir)).load().join()).isEqualTo(updated);
+    assertThat(client.gets.get()).isEqualTo(2);
+  }
+
+  @Test
+  void unrecognizedContentIsIgnored() {
+    client.putObject(b -> b.bucket(BUCKET).key(SNAPSHOT_KEY), AsyncRequestBody.fromString("something else\n")).join();
+
+    assertThat(store(Optional.empty()).load().join()).isEmpty();
+  }
+
+  private SchemaSnapshotStore store(Optional<Path> cacheDirectory) {
+    return new SchemaSnapshotStore(client, BUCKET, SNAPSHOT_KEY, cacheDirectory);
+  }
+
+  static class CountingClient implements S3AsyncClient {
+    final S3AsyncClient delegate;
+    final AtomicInteger gets = new AtomicInteger();
+    final AtomicInteger heads = new AtomicInteger();
+
+    CountingClient(S3AsyncClient delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public <ReturnT> CompletableFuture<ReturnT> getObject(GetObjectRequest request, AsyncResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+      gets.incrementAndGet();
+      return delegate.getObject(request, transformer);
+    }
+
+    @Override
+    public CompletableFuture<HeadObjectResponse> headObject(HeadObjectRequest request) {
+      heads.incrementAndGet();
+      return delegate.headObject(request);
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody requestBody) {
+      return delegate.putObject(request, requestBody);
+    }
+
+    @Override
+    public String serviceName() {
+      return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package upstart.aws.kinesis;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes multiple user-records sharing a partition-key into a single Kinesis record, using the aggregation format
+ * of the Kinesis Producer Library (KPL), which is transparently de-aggregated by the KCL and other KPL-aware
+ * consumers:
+ * <pre>
+ *   [magic: F3 89 9A C2][protobuf AggregatedRecord][md5(AggregatedRecord)]
+ * </pre>
+ * Only the subset of the AggregatedRecord message we need (a single partition-key, records with data) is written,
+ * so we encode the protobuf fields by hand rather than depending on protobuf.
+ */
+final class AggregatedRecordEncoder {
+  private static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+  private static final int DIGEST_LENGTH = 16;
+  // AggregatedRecord fields
+  private static final int PARTITION_KEY_TABLE_TAG = (1 << 3) | 2;
+  private static final int RECORDS_TAG = (3 << 3) | 2;
+  // Record fields
+  private static final int PARTITION_KEY_INDEX_TAG = 1 << 3;
+  private static final int DATA_TAG = (3 << 3) | 2;
+
+  private AggregatedRecordEncoder() {
+  }
+
+  /**
+   * The number of bytes occupied by the aggregation-envelope for the given partition-key, excluding any records
+   */
+  static int envelopeSize(byte[] partitionKey) {
+    return MAGIC.length + lengthDelimitedFieldSize(partitionKey.length) + DIGEST_LENGTH;
+  }
+
+  /**
+   * The number of bytes added to an aggregated record by including a record with the given data-length
+   */
+  static int recordSize(int dataLength) {
+    return lengthDelimitedFieldSize(recordMessageSize(dataLength));
+  }
+
+  static byte[] encode(byte[] partitionKey, List<byte[]> records) {
+    int messageSize = lengthDelimitedFieldSize(partitionKey.length);
+    for (byte[] record : records) {
+      messageSize += recordSize(record.length);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + messageSize + DIGEST_LENGTH);
+    buffer.put(MAGIC);
+    writeVarint(buffer, PARTITION_KEY_TABLE_TAG);
+    writeVarint(buffer, partitionKey.length);
+    buffer.put(partitionKey);
+    for (byte[] record : records) {
+      writeVarint(buffer, RECORDS_TAG);
+      writeVarint(buffer, recordMessageSize(record.length));
+      writeVarint(buffer, PARTITION_KEY_INDEX_TAG);
+      writeVarint(buffer, 0);
+      writeVarint(buffer, DATA_TAG);
+      writeVarint(buffer, record.length);
+      buffer.put(record);
+    }
+    byte[] digest = Hashing.md5().hashBytes(buffer.array(), MAGIC.length, messageSize).asBytes();
+    buffer.put(digest);
+    return buffer.array();
+  }
+
+  static byte[] partitionKeyBytes(String partitionKey) {
+    return partitionKey.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int recordMessageSize(int dataLength) {
+    // partition_key_index (always 0) + data
+    return 2 + lengthDelimitedFieldSize(dataLength);
+  }
+
+  private static int lengthDelimitedFieldSize(int length) {
+    return 1 + varintSize(length) + length;
+  }
+
+  private static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void writeVarint(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+}
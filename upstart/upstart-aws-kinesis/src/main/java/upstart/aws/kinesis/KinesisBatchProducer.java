@@ -0,0 +1,422 @@
+package upstart.aws.kinesis;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import upstart.ExecutorServiceScheduler;
+import upstart.config.UpstartModule;
+import upstart.config.annotations.ConfigPath;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.util.concurrent.AsyncSemaphore;
+import upstart.util.concurrent.BatchAccumulator;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.PendingFutureSet;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.Scheduler;
+import upstart.util.concurrent.services.IdleService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends records to a {@link KinesisStreamService} in batches: records are buffered for up to
+ * {@link KinesisProducerConfig#linger} and sent via {@code PutRecords} calls of up to
+ * {@link KinesisProducerConfig#maxBatchEntries} entries, to amortize round-trips and per-request shard quotas.
+ * <p/>
+ * If {@link KinesisProducerConfig#aggregate} is enabled, records sharing a partition-key within a batch are further
+ * combined into a single Kinesis record using the KPL aggregation format (see {@link AggregatedRecordEncoder}); such
+ * records must be read with a KPL-aware consumer (eg, the KCL).
+ * <p/>
+ * Entries rejected by Kinesis (eg, due to throttling) are retried individually with jittered exponential backoff,
+ * up to {@link KinesisProducerConfig#maxAttempts} times. Requests which fail with a client-error (other than
+ * throttling) are not retried. Records larger than {@value #MAX_RECORD_BYTES} bytes (partition-key + data) are failed
+ * immediately by {@link #send}, because Kinesis would reject the entire request containing them.
+ * <p/>
+ * Metrics are recorded in the {@link TaggedMetricRegistry}, tagged with the stream-name:
+ * <ul>
+ *   <li>{@code kinesis.producer.putRecords.latency}: timer for each PutRecords request</li>
+ *   <li>{@code kinesis.producer.batch.entries}, {@code kinesis.producer.batch.bytes}: size of each request</li>
+ *   <li>{@code kinesis.producer.records.retried}, {@code kinesis.producer.records.failed}: meters of entries
+ *   retried, and abandoned after exhausting their attempts</li>
+ * </ul>
+ * Use {@link #flush} to send any buffered records promptly.
+ * <p/>
+ * To use, install the {@link Module} and obtain producers from the {@link Factory}. The {@link Factory} is a managed
+ * service: when it shuts down, it flushes every producer it created, waiting up to
+ * {@link KinesisProducerConfig#shutdownTimeout} for their buffered records to be delivered.
+ */
+public class KinesisBatchProducer {
+  private static final Logger LOG = LoggerFactory.getLogger(KinesisBatchProducer.class);
+  public static final int MAX_PUT_RECORDS_ENTRIES = 500;
+  public static final int MAX_PUT_RECORDS_BYTES = 5 * 1024 * 1024;
+  public static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+  private final KinesisStreamService stream;
+  private final KinesisProducerConfig config;
+  private final Scheduler scheduler;
+  private final BatchAccumulator<Batch> accumulator;
+  private final AsyncSemaphore requestSemaphore;
+  private final PendingFutureSet<PutRecordsResultEntry> pendingRecords = new PendingFutureSet<>();
+  private final Timer requestLatency;
+  private final Histogram batchEntries;
+  private final Histogram batchBytes;
+  private final Meter retriedEntries;
+  private final Meter failedEntries;
+
+  protected KinesisBatchProducer(
+          KinesisStreamService stream,
+          KinesisProducerConfig config,
+          TaggedMetricRegistry metricRegistry,
+          BatchAccumulator.Factory batchAccumulatorFactory,
+          Scheduler scheduler
+  ) {
+    this.stream = stream;
+    this.config = config;
+    this.scheduler = scheduler;
+    accumulator = batchAccumulatorFactory.create(Batch::new, this::send, config.linger(), config.linger(), scheduler);
+    requestSemaphore = new AsyncSemaphore(config.maxConcurrentRequests());
+
+    Map<String, String> tags = ImmutableMap.of("stream", stream.streamName());
+    requestLatency = metricRegistry.timer("kinesis.producer.putRecords.latency", tags);
+    batchEntries = metricRegistry.histogram("kinesis.producer.batch.entries", tags);
+    batchBytes = metricRegistry.histogram("kinesis.producer.batch.bytes", tags);
+    retriedEntries = metricRegistry.meter("kinesis.producer.records.retried", tags);
+    failedEntries = metricRegistry.meter("kinesis.producer.records.failed", tags);
+  }
+
+  public KinesisStreamService stream() {
+    return stream;
+  }
+
+  public Promise<PutRecordsResultEntry> send(String partitionKey, byte[] bytes) {
+    int recordBytes = AggregatedRecordEncoder.partitionKeyBytes(partitionKey).length + bytes.length;
+    if (recordBytes > MAX_RECORD_BYTES) {
+      failedEntries.mark();
+      return Promise.failedPromise(new IllegalArgumentException(String.format(
+              "Record for stream '%s' exceeds the Kinesis limit of %s bytes (partition-key + data): %s",
+              stream.streamName(), MAX_RECORD_BYTES, recordBytes
+      )));
+    }
+    Promise<PutRecordsResultEntry> promise = pendingRecords.track(new Promise<>());
+    accumulator.accumulate(new PendingRecord(partitionKey, bytes, promise), (record, batch) -> batch.add(record)
+            ? BatchAccumulator.accepted(!batch.isFull())
+            : BatchAccumulator.rejected(record));
+    return promise;
+  }
+
+  public Promise<PutRecordsResultEntry> send(String partitionKey, SdkBytes bytes) {
+    return send(partitionKey, bytes.asByteArrayUnsafe());
+  }
+
+  /**
+   * Immediately sends any buffered records.
+   *
+   * @return a {@link Promise} which completes when all records sent prior to this call have been delivered (or
+   * fails if any could not be delivered)
+   */
+  public Promise<Void> flush() {
+    accumulator.flush();
+    return Promise.of(pendingRecords.flush());
+  }
+
+  private void send(Batch batch) {
+    send(batch.entries, 1);
+  }
+
+  private void send(List<Entry> entries, int attempt) {
+    requestSemaphore.submit(() -> putRecords(entries, attempt));
+  }
+
+  private Promise<PutRecordsResponse> putRecords(List<Entry> entries, int attempt) {
+    List<PutRecordsRequestEntry> requestEntries = new ArrayList<>(entries.size());
+    long bytes = 0;
+    for (Entry entry : entries) {
+      requestEntries.add(entry.requestEntry());
+      bytes += entry.size();
+    }
+    batchEntries.update(entries.size());
+    batchBytes.update(bytes);
+
+    Timer.Context timerContext = requestLatency.time();
+    return Promise.of(stream.client().putRecords(b -> b.streamName(stream.streamName()).records(requestEntries)))
+            .whenComplete((response, e) -> {
+              timerContext.stop();
+              if (e != null) {
+                retryOrFail(entries, attempt, e);
+              } else {
+                onResponse(entries, attempt, response);
+              }
+            });
+  }
+
+  private void onResponse(List<Entry> entries, int attempt, PutRecordsResponse response) {
+    List<PutRecordsResultEntry> results = response.records();
+    if (results.size() != entries.size()) {
+      retryOrFail(entries, attempt, new IllegalStateException("Unexpected PutRecords result count: " + results.size() + " != " + entries.size()));
+      return;
+    }
+    List<Entry> failed = new ArrayList<>(response.failedRecordCount() == null ? 0 : response.failedRecordCount());
+    PutRecordsResultEntry lastFailure = null;
+    for (int i = 0; i < results.size(); i++) {
+      PutRecordsResultEntry result = results.get(i);
+      if (result.errorCode() == null) {
+        entries.get(i).succeeded(result);
+      } else {
+        failed.add(entries.get(i));
+        lastFailure = result;
+      }
+    }
+    if (!failed.isEmpty()) {
+      retryOrFail(failed, attempt, new RecordRejectedException(stream.streamName(), lastFailure));
+    }
+  }
+
+  private void retryOrFail(List<Entry> entries, int attempt, Throwable failure) {
+    Throwable cause = CompletableFutures.unwrapExecutionException(failure);
+    if (attempt >= config.maxAttempts() || isClientError(cause)) {
+      LOG.warn("Abandoning {} record(s) for stream '{}' after {} attempt(s)", entries.size(), stream.streamName(), attempt, cause);
+      failedEntries.mark(entries.size());
+      for (Entry entry : entries) {
+        entry.failed(cause);
+      }
+    } else {
+      Duration backoff = backoff(attempt);
+      LOG.debug("Retrying {} record(s) for stream '{}' in {}: {}", entries.size(), stream.streamName(), backoff, cause.toString());
+      retriedEntries.mark(entries.size());
+      scheduler.schedule(backoff, () -> send(entries, attempt + 1));
+    }
+  }
+
+  /**
+   * Client-errors (eg, a ValidationException) reject the whole request, and would fail identically if retried
+   */
+  private static boolean isClientError(Throwable e) {
+    return e instanceof SdkServiceException serviceException
+            && serviceException.statusCode() >= 400
+            && serviceException.statusCode() < 500
+            && !serviceException.isThrottlingException();
+  }
+
+  private Duration backoff(int attempt) {
+    long maxNanos = Math.min(config.maxBackoff().toNanos(), config.initialBackoff().toNanos() << Math.min(attempt - 1, 30));
+    // "equal jitter": wait at least half of the exponential delay
+    return Duration.ofNanos(maxNanos / 2 + ThreadLocalRandom.current().nextLong(maxNanos / 2 + 1));
+  }
+
+  private record PendingRecord(String partitionKey, byte[] data, Promise<PutRecordsResultEntry> promise) {
+  }
+
+  /**
+   * One entry in a PutRecords request: either a single record, or (when aggregating) several records sharing a
+   * partition-key.
+   */
+  private static class Entry {
+    private final String partitionKey;
+    private final byte[] partitionKeyBytes;
+    private final List<PendingRecord> records = new ArrayList<>(1);
+    private int aggregatedSize;
+
+    Entry(PendingRecord record) {
+      partitionKey = record.partitionKey();
+      partitionKeyBytes = AggregatedRecordEncoder.partitionKeyBytes(partitionKey);
+      aggregatedSize = AggregatedRecordEncoder.envelopeSize(partitionKeyBytes);
+      add(record);
+    }
+
+    void add(PendingRecord record) {
+      records.add(record);
+      aggregatedSize += AggregatedRecordEncoder.recordSize(record.data().length);
+    }
+
+    /**
+     * The size counted against the Kinesis record-size limits (ie, partition-key + data)
+     */
+    int size() {
+      return partitionKeyBytes.length + (records.size() == 1 ? records.get(0).data().length : aggregatedSize);
+    }
+
+    int sizeWith(PendingRecord record) {
+      return partitionKeyBytes.length + aggregatedSize + AggregatedRecordEncoder.recordSize(record.data().length);
+    }
+
+    PutRecordsRequestEntry requestEntry() {
+      byte[] data = records.size() == 1
+              ? records.get(0).data()
+              : AggregatedRecordEncoder.encode(partitionKeyBytes, records.stream().map(PendingRecord::data).toList());
+      return PutRecordsRequestEntry.builder()
+              .partitionKey(partitionKey)
+              .data(SdkBytes.fromByteArrayUnsafe(data))
+              .build();
+    }
+
+    void succeeded(PutRecordsResultEntry result) {
+      for (PendingRecord record : records) {
+        record.promise().complete(result);
+      }
+    }
+
+    void failed(Throwable cause) {
+      for (PendingRecord record : records) {
+        record.promise().completeExceptionally(cause);
+      }
+    }
+  }
+
+  private class Batch {
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> entriesByPartitionKey = config.aggregate() ? new HashMap<>() : null;
+    private int bytes = 0;
+
+    boolean add(PendingRecord record) {
+      if (entriesByPartitionKey != null) {
+        Entry entry = entriesByPartitionKey.get(record.partitionKey());
+        if (entry != null) {
+          int grownSize = entry.sizeWith(record);
+          if (grownSize <= config.maxAggregatedRecordBytes() && bytes - entry.size() + grownSize <= config.maxBatchBytes()) {
+            bytes += grownSize - entry.size();
+            entry.add(record);
+            return true;
+          }
+        }
+      }
+
+      Entry entry = new Entry(record);
+      // an empty batch must accept any record, lest we reject it forever (send has already rejected any record
+      // exceeding the Kinesis limit, but maxBatchBytes may be configured lower)
+      if (!entries.isEmpty() && (entries.size() >= config.maxBatchEntries() || bytes + entry.size() > config.maxBatchBytes())) {
+        return false;
+      }
+      entries.add(entry);
+      bytes += entry.size();
+      if (entriesByPartitionKey != null) entriesByPartitionKey.put(record.partitionKey(), entry);
+      return true;
+    }
+
+    boolean isFull() {
+      return entries.size() >= config.maxBatchEntries() && entriesByPartitionKey == null;
+    }
+  }
+
+  public static class RecordRejectedException extends RuntimeException {
+    private final String errorCode;
+
+    RecordRejectedException(String streamName, PutRecordsResultEntry result) {
+      super("Kinesis rejected record(s) for stream '" + streamName + "': " + result.errorCode() + " (" + result.errorMessage() + ")");
+      errorCode = result.errorCode();
+    }
+
+    public String errorCode() {
+      return errorCode;
+    }
+  }
+
+  @ConfigPath("upstart.aws.kinesis.producer")
+  public interface KinesisProducerConfig {
+    /** How long to buffer records before sending a batch */
+    Duration linger();
+
+    /** Maximum number of entries per PutRecords request (at most {@value #MAX_PUT_RECORDS_ENTRIES}) */
+    int maxBatchEntries();
+
+    /** Maximum total size of a PutRecords request (at most {@value #MAX_PUT_RECORDS_BYTES}) */
+    int maxBatchBytes();
+
+    /** Whether to combine records sharing a partition-key into KPL-aggregated records */
+    boolean aggregate();
+
+    /** Maximum size of an aggregated record (at most {@value #MAX_RECORD_BYTES}) */
+    int maxAggregatedRecordBytes();
+
+    int maxConcurrentRequests();
+
+    int maxAttempts();
+
+    Duration initialBackoff();
+
+    Duration maxBackoff();
+
+    /** How long to wait for buffered records to be delivered when shutting down */
+    Duration shutdownTimeout();
+
+    default void validate() {
+      checkArgument(maxBatchEntries() > 0 && maxBatchEntries() <= MAX_PUT_RECORDS_ENTRIES, "maxBatchEntries must be in [1, %s]: %s", MAX_PUT_RECORDS_ENTRIES, maxBatchEntries());
+      checkArgument(maxBatchBytes() > 0 && maxBatchBytes() <= MAX_PUT_RECORDS_BYTES, "maxBatchBytes must be in [1, %s]: %s", MAX_PUT_RECORDS_BYTES, maxBatchBytes());
+      checkArgument(maxAggregatedRecordBytes() > 0 && maxAggregatedRecordBytes() <= MAX_RECORD_BYTES, "maxAggregatedRecordBytes must be in [1, %s]: %s", MAX_RECORD_BYTES, maxAggregatedRecordBytes());
+      checkArgument(maxConcurrentRequests() > 0, "maxConcurrentRequests must be positive: %s", maxConcurrentRequests());
+      checkArgument(maxAttempts() > 0, "maxAttempts must be positive: %s", maxAttempts());
+    }
+  }
+
+  public static class Module extends UpstartModule {
+    @Override
+    protected void configure() {
+      install(new ExecutorServiceScheduler.Module());
+      bindConfig(KinesisProducerConfig.class);
+      serviceManager().manage(Factory.class);
+    }
+  }
+
+  @Singleton
+  public static class Factory extends IdleService {
+    private final Set<KinesisBatchProducer> producers = Sets.newConcurrentHashSet();
+    private final KinesisProducerConfig defaultConfig;
+    private final TaggedMetricRegistry metricRegistry;
+    private final BatchAccumulator.Factory batchAccumulatorFactory;
+    private final Scheduler scheduler;
+
+    @Inject
+    public Factory(
+            KinesisProducerConfig defaultConfig,
+            TaggedMetricRegistry metricRegistry,
+            BatchAccumulator.Factory batchAccumulatorFactory,
+            Scheduler scheduler
+    ) {
+      this.defaultConfig = defaultConfig;
+      this.metricRegistry = metricRegistry;
+      this.batchAccumulatorFactory = batchAccumulatorFactory;
+      this.scheduler = scheduler;
+    }
+
+    public KinesisBatchProducer create(KinesisStreamService stream) {
+      return create(stream, defaultConfig);
+    }
+
+    public KinesisBatchProducer create(KinesisStreamService stream, KinesisProducerConfig config) {
+      config.validate();
+      KinesisBatchProducer producer = new KinesisBatchProducer(stream, config, metricRegistry, batchAccumulatorFactory, scheduler);
+      producers.add(producer);
+      return producer;
+    }
+
+    @Override
+    protected void startUp() {
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+      CompletableFutures.allOf(producers.stream().map(producer -> producer.flush().exceptionally(e -> {
+        LOG.warn("Failed to deliver buffered records to stream {}", producer.stream().streamName(), e);
+        return null;
+      }))).get(defaultConfig.shutdownTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+}
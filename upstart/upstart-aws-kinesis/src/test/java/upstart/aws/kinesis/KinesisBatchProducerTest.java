@@ -0,0 +1,238 @@
+package upstart.aws.kinesis;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.KinesisException;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import upstart.ExecutorServiceScheduler;
+import upstart.metrics.MetricReservoirConfig;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.util.concurrent.BatchAccumulator;
+import upstart.util.concurrent.Promise;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KinesisBatchProducerTest {
+  private final FakeKinesisClient client = new FakeKinesisClient();
+  private final KinesisStreamService stream = new KinesisStreamService(KinesisStreamService.StreamConfig.named("test-stream"), client);
+  private final ExecutorServiceScheduler scheduler = new ExecutorServiceScheduler(
+          () -> Duration.ZERO,
+          Executors.newSingleThreadScheduledExecutor(),
+          Clock.systemUTC()
+  );
+  private final TaggedMetricRegistry metricRegistry = new TaggedMetricRegistry(ImmutableSet.of(), new ReservoirConfig());
+
+  @AfterEach
+  void shutdownScheduler() {
+    scheduler.scheduledExecutorService().shutdownNow();
+  }
+
+  @Test
+  void coalescesRecordsIntoPutRecordsRequests() throws Exception {
+    KinesisBatchProducer producer = producer(new TestConfig(false, 3));
+
+    List<Promise<PutRecordsResultEntry>> results = IntStream.range(0, 7)
+            .mapToObj(i -> producer.send("key-" + i, bytes("record-" + i)))
+            .toList();
+    producer.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(client.requests.stream().map(r -> r.records().size()).toList()).containsExactly(3, 3, 1);
+    assertThat(results.get(6).join().sequenceNumber()).isNotNull();
+    assertThat(metricRegistry.histogram("kinesis.producer.batch.entries", Map.of("stream", "test-stream")).getCount()).isEqualTo(3);
+  }
+
+  @Test
+  void retriesOnlyFailedEntries() throws Exception {
+    KinesisBatchProducer producer = producer(new TestConfig(false, 500));
+    client.failuresRemaining.put("throttled", 2);
+
+    Promise<PutRecordsResultEntry> throttled = producer.send("throttled", bytes("a"));
+    Promise<PutRecordsResultEntry> accepted = producer.send("accepted", bytes("b"));
+    producer.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(accepted.join().errorCode()).isNull();
+    assertThat(throttled.join().errorCode()).isNull();
+    assertThat(client.requests.stream().map(r -> r.records().size()).toList()).containsExactly(2, 1, 1);
+    assertThat(metricRegistry.meter("kinesis.producer.records.retried", Map.of("stream", "test-stream")).getCount()).isEqualTo(2);
+  }
+
+  @Test
+  void oversizedRecordsAreFailedWithoutAffectingTheirBatch() throws Exception {
+    KinesisBatchProducer producer = producer(new TestConfig(false, 500));
+
+    Promise<PutRecordsResultEntry> before = producer.send("before", bytes("a"));
+    Promise<PutRecordsResultEntry> oversized = producer.send("oversized", new byte[KinesisBatchProducer.MAX_RECORD_BYTES]);
+    Promise<PutRecordsResultEntry> after = producer.send("after", bytes("b"));
+    assertThat(oversized.isCompletedExceptionally()).isTrue();
+    producer.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(before.join().errorCode()).isNull();
+    assertThat(after.join().errorCode()).isNull();
+    assertThat(client.requests).hasSize(1);
+    assertThat(client.requests.get(0).records().stream().map(PutRecordsRequestEntry::partitionKey).toList())
+            .containsExactly("before", "after");
+    assertThat(metricRegistry.meter("kinesis.producer.records.failed", Map.of("stream", "test-stream")).getCount()).isEqualTo(1);
+  }
+
+  @Test
+  void clientErrorsAreNotRetried() {
+    KinesisBatchProducer producer = producer(new TestConfig(false, 500));
+    client.requestFailure = KinesisException.builder()
+            .statusCode(400)
+            .awsErrorDetails(AwsErrorDetails.builder().errorCode("ValidationException").build())
+            .message("1 validation error detected")
+            .build();
+
+    Promise<PutRecordsResultEntry> result = producer.send("key", bytes("a"));
+    producer.flush();
+
+    ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+    assertThat(failure).hasCauseThat().isInstanceOf(KinesisException.class);
+    assertThat(client.requests).hasSize(1);
+    assertThat(metricRegistry.meter("kinesis.producer.records.retried", Map.of("stream", "test-stream")).getCount()).isEqualTo(0);
+  }
+
+  @Test
+  void aggregatesRecordsByPartitionKey() throws Exception {
+    KinesisBatchProducer producer = producer(new TestConfig(true, 500));
+
+    for (int i = 0; i < 5; i++) {
+      producer.send("a", bytes("a-" + i));
+    }
+    producer.send("b", bytes("b-0"));
+    producer.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(client.requests).hasSize(1);
+    List<PutRecordsRequestEntry> entries = client.requests.get(0).records();
+    assertThat(entries.stream().map(PutRecordsRequestEntry::partitionKey).toList()).containsExactly("a", "b");
+    byte[] aggregated = entries.get(0).data().asByteArray();
+    assertThat(aggregated[0]).isEqualTo((byte) 0xF3);
+    assertThat(aggregated.length).isEqualTo(AggregatedRecordEncoder.envelopeSize(bytes("a")) + 5 * AggregatedRecordEncoder.recordSize(3));
+    assertThat(entries.get(1).data().asUtf8String()).isEqualTo("b-0");
+  }
+
+  @Test
+  void shutdownFlushesBufferedRecords() {
+    KinesisBatchProducer.Factory factory = factory(new TestConfig(false, 500));
+    factory.startAsync().awaitRunning();
+    Promise<PutRecordsResultEntry> result = factory.create(stream).send("key", bytes("buffered"));
+    assertThat(result.isDone()).isFalse();
+
+    factory.stopAsync().awaitTerminated();
+
+    assertThat(result.join().sequenceNumber()).isNotNull();
+    assertThat(client.requests).hasSize(1);
+  }
+
+  private KinesisBatchProducer producer(TestConfig config) {
+    return factory(config).create(stream);
+  }
+
+  private KinesisBatchProducer.Factory factory(TestConfig config) {
+    return new KinesisBatchProducer.Factory(config, metricRegistry, new BatchAccumulator.Factory(), scheduler);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  record TestConfig(
+          Duration linger,
+          int maxBatchEntries,
+          int maxBatchBytes,
+          boolean aggregate,
+          int maxAggregatedRecordBytes,
+          int maxConcurrentRequests,
+          int maxAttempts,
+          Duration initialBackoff,
+          Duration maxBackoff,
+          Duration shutdownTimeout
+  ) implements KinesisBatchProducer.KinesisProducerConfig {
+    TestConfig(boolean aggregate, int maxBatchEntries) {
+      this(Duration.ofSeconds(10), maxBatchEntries, KinesisBatchProducer.MAX_PUT_RECORDS_BYTES, aggregate, 51200, 1, 3, Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofSeconds(5));
+    }
+  }
+
+  record ReservoirConfig() implements MetricReservoirConfig {
+    @Override
+    public ReservoirType type() {
+      return ReservoirType.ExponentiallyDecaying;
+    }
+
+    @Override
+    public int significantDigits() {
+      return 2;
+    }
+
+    @Override
+    public Duration window() {
+      return Duration.ofMinutes(1);
+    }
+  }
+
+  /**
+   * An in-process stand-in for Kinesis which accepts PutRecords requests, optionally rejecting the first
+   * attempts for specific partition-keys, or failing every request
+   */
+  static class FakeKinesisClient implements KinesisAsyncClient {
+    final List<PutRecordsRequest> requests = new CopyOnWriteArrayList<>();
+    final Map<String, Integer> failuresRemaining = new ConcurrentHashMap<>();
+    volatile AwsServiceException requestFailure = null;
+    private long sequenceNumber = 0;
+
+    @Override
+    public synchronized CompletableFuture<PutRecordsResponse> putRecords(PutRecordsRequest request) {
+      requests.add(request);
+      if (requestFailure != null) return CompletableFuture.failedFuture(requestFailure);
+      List<PutRecordsResultEntry> results = new ArrayList<>();
+      int failed = 0;
+      for (PutRecordsRequestEntry entry : request.records()) {
+        Integer remaining = failuresRemaining.computeIfPresent(entry.partitionKey(), (k, n) -> n > 0 ? n - 1 : null);
+        if (remaining != null) {
+          failed++;
+          results.add(PutRecordsResultEntry.builder()
+                  .errorCode("ProvisionedThroughputExceededException")
+                  .errorMessage("Rate exceeded")
+                  .build());
+        } else {
+          results.add(PutRecordsResultEntry.builder()
+                  .shardId("shardId-000000000000")
+                  .sequenceNumber(Long.toString(++sequenceNumber))
+                  .build());
+        }
+      }
+      return CompletableFuture.completedFuture(PutRecordsResponse.builder().records(results).failedRecordCount(failed).build());
+    }
+
+    @Override
+    public String serviceName() {
+      return "kinesis";
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
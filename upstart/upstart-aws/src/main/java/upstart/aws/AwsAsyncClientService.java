@@ -5,6 +5,7 @@ import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
 import software.amazon.awssdk.core.SdkClient;
 import software.amazon.awssdk.core.client.builder.SdkAsyncClientBuilder;
 import software.amazon.awssdk.core.client.config.SdkAdvancedAsyncClientOption;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import upstart.guice.PrivateBinding;
 import upstart.managedservices.ServiceLifecycle;
 
@@ -30,7 +31,7 @@ public class AwsAsyncClientService<C extends SdkClient, B extends AwsClientBuild
 
   @Override
   protected void configureBuilder(B builder) {
-    clientFactory.configureAsyncClientBuilder(builder, getCallbackExecutor(threadPool));
+    clientFactory.configureAsyncClientBuilder(builder, clientFactory.getDefaultConfig(), clientType.serviceName(), getCallbackExecutor(threadPool));
   }
 
   protected Executor getCallbackExecutor(AwsCallbackThreadPool defaultThreadPool) {
@@ -49,11 +50,24 @@ public class AwsAsyncClientService<C extends SdkClient, B extends AwsClientBuild
   public static class AwsAsyncClientFactory {
     private final AwsClientFactory clientFactory;
     private final SdkAsyncHttpClientService httpClientService;
+    private final SdkAsyncHttpClientService.AsyncClientConfig asyncConfig;
+    private final SdkHttpPoolMetrics poolMetrics;
 
     @Inject
-    public AwsAsyncClientFactory(AwsClientFactory clientFactory, SdkAsyncHttpClientService httpClientService) {
+    public AwsAsyncClientFactory(
+            AwsClientFactory clientFactory,
+            SdkAsyncHttpClientService httpClientService,
+            SdkAsyncHttpClientService.AsyncClientConfig asyncConfig,
+            SdkHttpPoolMetrics poolMetrics
+    ) {
       this.clientFactory = clientFactory;
       this.httpClientService = httpClientService;
+      this.asyncConfig = asyncConfig;
+      this.poolMetrics = poolMetrics;
+    }
+
+    public AwsConfig getDefaultConfig() {
+      return clientFactory.getDefaultConfig();
     }
 
     public <BuilderT extends AwsClientBuilder<BuilderT, ClientT> & SdkAsyncClientBuilder<BuilderT, ClientT>, ClientT> BuilderT configureAsyncClientBuilder(BuilderT builder, Executor completionExecutor) {
@@ -65,9 +79,34 @@ public class AwsAsyncClientService<C extends SdkClient, B extends AwsClientBuild
             AwsConfig config,
             Executor completionExecutor
     ) {
-      return clientFactory.configureClientBuilder(builder, config)
-              .httpClient(httpClientService)
+      return configureAsyncClientBuilder(builder, config, httpClientService, completionExecutor);
+    }
+
+    /**
+     * Configures the builder to use the http-client for the given AWS service (see {@link SdkAsyncHttpClientService#clientFor})
+     */
+    public <BuilderT extends AwsClientBuilder<BuilderT, ClientT> & SdkAsyncClientBuilder<BuilderT, ClientT>, ClientT> BuilderT configureAsyncClientBuilder(
+            BuilderT builder,
+            AwsConfig config,
+            String serviceName,
+            Executor completionExecutor
+    ) {
+      return configureAsyncClientBuilder(builder, config, httpClientService.clientFor(serviceName), completionExecutor);
+    }
+
+    private <BuilderT extends AwsClientBuilder<BuilderT, ClientT> & SdkAsyncClientBuilder<BuilderT, ClientT>, ClientT> BuilderT configureAsyncClientBuilder(
+            BuilderT builder,
+            AwsConfig config,
+            SdkAsyncHttpClient httpClient,
+            Executor completionExecutor
+    ) {
+      clientFactory.configureClientBuilder(builder, config)
+              .httpClient(httpClient)
               .asyncConfiguration(b -> b.advancedOption(SdkAdvancedAsyncClientOption.FUTURE_COMPLETION_EXECUTOR, completionExecutor));
+      if (asyncConfig.publishPoolMetrics()) {
+        builder.overrideConfiguration(builder.overrideConfiguration().toBuilder().addMetricPublisher(poolMetrics).build());
+      }
+      return builder;
     }
   }
 }
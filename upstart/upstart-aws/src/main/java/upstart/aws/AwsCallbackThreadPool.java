@@ -1,24 +1,55 @@
 package upstart.aws;
 
+import com.codahale.metrics.Gauge;
 import upstart.managedservices.ServiceLifecycle;
+import upstart.metrics.TaggedMetricRegistry;
 import upstart.util.concurrent.NamedThreadFactory;
 import upstart.util.concurrent.services.ThreadPoolService;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.time.Duration;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs the completion-callbacks for AWS async clients, on at most
+ * {@link SdkAsyncHttpClientService.AsyncClientConfig#callbackThreads} threads (which time out when idle).
+ * Saturation is visible via the {@code aws.callbacks.active} and {@code aws.callbacks.queued} gauges.
+ */
 @Singleton
 @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
 public class AwsCallbackThreadPool extends ThreadPoolService {
-  AwsCallbackThreadPool() {
+  private final int threads;
+  private final ThreadPoolExecutor executor;
+
+  @Inject
+  AwsCallbackThreadPool(SdkAsyncHttpClientService.AsyncClientConfig config, TaggedMetricRegistry metricRegistry) {
     super(Duration.ofSeconds(1));
+    threads = config.callbackThreads();
+    executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new NamedThreadFactory("aws-cb")
+    );
+    executor.allowCoreThreadTimeOut(true);
+    // replace any gauges left by a previous instance (eg, in another injector sharing the registry)
+    registerGauge(metricRegistry, "aws.callbacks.active", executor::getActiveCount);
+    registerGauge(metricRegistry, "aws.callbacks.queued", () -> executor.getQueue().size());
+  }
+
+  private static void registerGauge(TaggedMetricRegistry metricRegistry, String name, Gauge<Integer> gauge) {
+    metricRegistry.remove(name);
+    metricRegistry.register(name, gauge);
   }
 
   @Override
   protected ExecutorService buildExecutorService() {
-    // TODO: make this more configurable via a generic ThreadPoolConfig facility
-    return Executors.newCachedThreadPool(new NamedThreadFactory("aws-cb"));
+    return executor;
   }
 }
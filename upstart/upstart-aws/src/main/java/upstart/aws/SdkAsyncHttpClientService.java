@@ -1,10 +1,19 @@
 package upstart.aws;
 
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.handler.ssl.SslProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.http.Protocol;
 import software.amazon.awssdk.http.async.AsyncExecuteRequest;
 import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import upstart.config.annotations.ConfigPath;
+import upstart.config.annotations.DeserializedImmutable;
 import upstart.util.concurrent.NamedThreadFactory;
 import upstart.util.concurrent.services.IdleService;
 import upstart.managedservices.ServiceLifecycle;
@@ -12,13 +21,28 @@ import upstart.managedservices.ServiceLifecycle;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 
+/**
+ * Provides the {@link SdkAsyncHttpClient} used by all {@link AwsAsyncClientService AWS async clients}.
+ * <p/>
+ * All clients share a single netty {@link EventLoopGroup} (using native epoll where available, if
+ * {@link AsyncClientConfig#preferEpoll} is set). By default, they also share a single connection-pool per endpoint,
+ * configured by {@link AsyncClientConfig}; services listed in {@link AsyncClientConfig#services} instead get their own
+ * pools (still on the shared event-loop), with the given limits and {@link Protocol} (eg, HTTP/2 for
+ * {@code SubscribeToShard} with kinesis).
+ */
 @Singleton
 @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
 public class SdkAsyncHttpClientService extends IdleService implements SdkAsyncHttpClient {
+  private static final Logger LOG = LoggerFactory.getLogger(SdkAsyncHttpClientService.class);
   private final AsyncClientConfig config;
+  private final Map<String, SdkAsyncHttpClient> serviceClients = new ConcurrentHashMap<>();
+  private EventLoopGroup eventLoopGroup;
   private SdkAsyncHttpClient delegate;
 
   @Inject
@@ -28,10 +52,38 @@ public class SdkAsyncHttpClientService extends IdleService implements SdkAsyncHt
 
   @Override
   protected void startUp() {
-    delegate = NettyNioAsyncHttpClient.builder()
+    NamedThreadFactory threadFactory = new NamedThreadFactory("aws-netty");
+    if (config.preferEpoll() && Epoll.isAvailable()) {
+      eventLoopGroup = new EpollEventLoopGroup(config.eventLoopThreads(), threadFactory.daemonize());
+    } else {
+      eventLoopGroup = new NioEventLoopGroup(config.eventLoopThreads(), threadFactory.daemonize());
+    }
+    LOG.debug("Started shared {} for AWS clients", eventLoopGroup.getClass().getSimpleName());
+    delegate = buildClient(ServicePoolConfig.builder().build());
+  }
+
+  /**
+   * @return the client to be used for the given AWS service: a dedicated one if the service has its own entry in
+   * {@link AsyncClientConfig#services}, or else this shared instance
+   */
+  public SdkAsyncHttpClient clientFor(String serviceName) {
+    ServicePoolConfig serviceConfig = config.services().get(serviceName);
+    if (serviceConfig == null) return this;
+    return serviceClients.computeIfAbsent(serviceName, ignored -> buildClient(serviceConfig));
+  }
+
+  public EventLoopGroup eventLoopGroup() {
+    return eventLoopGroup;
+  }
+
+  private SdkAsyncHttpClient buildClient(ServicePoolConfig overrides) {
+    return NettyNioAsyncHttpClient.builder()
+            .eventLoopGroup(SdkEventLoopGroup.create(eventLoopGroup))
             .sslProvider(SslProvider.OPENSSL)
-            .connectionAcquisitionTimeout(config.connectionAcquisitionTimeout())
-            .maxConcurrency(config.maxConcurrency())
+            .connectionAcquisitionTimeout(overrides.connectionAcquisitionTimeout().orElse(config.connectionAcquisitionTimeout()))
+            .maxConcurrency(overrides.maxConcurrency().orElse(config.maxConcurrency()))
+            .maxPendingConnectionAcquires(overrides.maxPendingConnectionAcquires().orElse(config.maxPendingConnectionAcquires()))
+            .protocol(overrides.protocol().orElse(config.protocol()))
             .build();
   }
 
@@ -45,7 +97,11 @@ public class SdkAsyncHttpClientService extends IdleService implements SdkAsyncHt
     // this shutdown routine takes a full 2 seconds for some reason, and we shouldn't be concerned about waiting for it,
     // so just do it in a separate thread
     Executors.newSingleThreadExecutor(new NamedThreadFactory("NettyNioAsyncHttpClient[D]").daemonize())
-            .submit(delegate::close);
+            .submit(() -> {
+              serviceClients.values().forEach(SdkAsyncHttpClient::close);
+              delegate.close();
+              eventLoopGroup.shutdownGracefully();
+            });
   }
 
   @Override
@@ -63,10 +119,45 @@ public class SdkAsyncHttpClientService extends IdleService implements SdkAsyncHt
     throw new UnsupportedOperationException("Don't close the SdkAsyncHttpClient directly");
   }
 
-  // TODO: make this configurable on a per-service/per-client basis, like the AwsConfig
   @ConfigPath("upstart.aws.asyncDefaults")
   public interface AsyncClientConfig {
     Duration connectionAcquisitionTimeout();
+
+    /** Maximum number of connections (or HTTP/2 streams) per endpoint */
     int maxConcurrency();
+
+    /** Maximum number of requests which may wait for a connection before failing immediately */
+    int maxPendingConnectionAcquires();
+
+    Protocol protocol();
+
+    /** Number of threads in the shared event-loop; 0 uses netty's default (twice the number of cores) */
+    int eventLoopThreads();
+
+    boolean preferEpoll();
+
+    /** Maximum number of threads in the {@link AwsCallbackThreadPool} */
+    int callbackThreads();
+
+    /** Whether to export connection-pool metrics via {@link SdkHttpPoolMetrics} */
+    boolean publishPoolMetrics();
+
+    /** Per-service overrides (keyed by service-name, eg {@code kinesis}), each of which gets a dedicated pool */
+    Map<String, ServicePoolConfig> services();
+  }
+
+  @DeserializedImmutable
+  public interface ServicePoolConfig {
+    static ImmutableServicePoolConfig.Builder builder() {
+      return ImmutableServicePoolConfig.builder();
+    }
+
+    Optional<Duration> connectionAcquisitionTimeout();
+
+    Optional<Integer> maxConcurrency();
+
+    Optional<Integer> maxPendingConnectionAcquires();
+
+    Optional<Protocol> protocol();
   }
 }
@@ -0,0 +1,78 @@
+package upstart.aws;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import upstart.metrics.MetricFamily;
+import upstart.metrics.TaggedMetricRegistry;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link MetricPublisher} which exports the connection-pool metrics reported by the netty http-client for each
+ * request, tagged with the AWS service-name (normalized to the lowercase name used for
+ * {@link SdkAsyncHttpClientService.AsyncClientConfig#services} overrides, eg {@code dynamodb} or {@code kinesis}):
+ * <ul>
+ *   <li>{@code aws.http.pool.leased}: histogram of the connections (or streams) in use when each request acquired one</li>
+ *   <li>{@code aws.http.pool.pendingAcquires}: histogram of the requests waiting for a connection</li>
+ *   <li>{@code aws.http.pool.acquireLatency}: timer for the time each request waited for a connection</li>
+ * </ul>
+ * Attached to each AWS async client when {@link SdkAsyncHttpClientService.AsyncClientConfig#publishPoolMetrics} is set.
+ */
+@Singleton
+public class SdkHttpPoolMetrics implements MetricPublisher {
+  private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-z0-9]");
+  private final MetricFamily<Histogram> leased;
+  private final MetricFamily<Histogram> pendingAcquires;
+  private final MetricFamily<Timer> acquireLatency;
+
+  @Inject
+  public SdkHttpPoolMetrics(TaggedMetricRegistry metricRegistry) {
+    leased = metricRegistry.histogramFamily("aws.http.pool.leased", "service");
+    pendingAcquires = metricRegistry.histogramFamily("aws.http.pool.pendingAcquires", "service");
+    acquireLatency = metricRegistry.timerFamily("aws.http.pool.acquireLatency", "service");
+  }
+
+  @Override
+  public void publish(MetricCollection metricCollection) {
+    String service = firstValue(metricCollection.metricValues(CoreMetric.SERVICE_ID))
+            .map(SdkHttpPoolMetrics::serviceKey)
+            .orElse("unknown");
+    record(service, metricCollection);
+  }
+
+  /**
+   * Converts an SDK {@link CoreMetric#SERVICE_ID} (eg "DynamoDB", "CloudWatch Logs") to the corresponding
+   * {@link AwsClientType#serviceName} (eg "dynamodb", "cloudwatchlogs").
+   */
+  static String serviceKey(String serviceId) {
+    return NON_ALPHANUMERIC.matcher(serviceId.toLowerCase(Locale.ROOT)).replaceAll("");
+  }
+
+  private void record(String service, MetricCollection collection) {
+    firstValue(collection.metricValues(HttpMetric.LEASED_CONCURRENCY))
+            .ifPresent(value -> leased.get(service).update(value));
+    firstValue(collection.metricValues(HttpMetric.PENDING_CONCURRENCY_ACQUIRES))
+            .ifPresent(value -> pendingAcquires.get(service).update(value));
+    firstValue(collection.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION))
+            .ifPresent(duration -> acquireLatency.get(service).update(duration.toNanos(), TimeUnit.NANOSECONDS));
+    collection.children().forEach(child -> record(service, child));
+  }
+
+  private static <T> Optional<T> firstValue(List<T> values) {
+    return values.isEmpty() ? Optional.empty() : Optional.of(values.get(0));
+  }
+
+  @Override
+  public void close() {
+  }
+}
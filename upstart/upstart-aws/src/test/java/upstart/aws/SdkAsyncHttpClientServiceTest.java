@@ -0,0 +1,71 @@
+package upstart.aws;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollector;
+import upstart.config.EnvironmentConfig;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.test.UpstartLibraryServiceTest;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest(AwsAsyncModule.class)
+@EnvironmentConfig.Fixture("""
+        upstart.aws.asyncDefaults.services.kinesis {
+          protocol: HTTP2
+          maxConcurrency: 10
+        }
+        """)
+class SdkAsyncHttpClientServiceTest {
+  @Inject SdkAsyncHttpClientService httpClientService;
+  @Inject SdkHttpPoolMetrics poolMetrics;
+  @Inject TaggedMetricRegistry metricRegistry;
+  @Inject SdkAsyncHttpClientService.AsyncClientConfig config;
+
+  @Test
+  void servicesWithOverridesGetDedicatedClients() {
+    assertThat(httpClientService.clientFor("s3")).isSameInstanceAs(httpClientService);
+
+    var kinesisClient = httpClientService.clientFor("kinesis");
+    assertThat(kinesisClient).isNotSameInstanceAs(httpClientService);
+    assertThat(httpClientService.clientFor("kinesis")).isSameInstanceAs(kinesisClient);
+    assertThat(httpClientService.eventLoopGroup().isShuttingDown()).isFalse();
+  }
+
+  @Test
+  void poolMetricsArePublishedPerService() {
+    MetricCollector apiCall = MetricCollector.create("ApiCall");
+    apiCall.reportMetric(CoreMetric.SERVICE_ID, "DynamoDB");
+    MetricCollector httpClient = apiCall.createChild("ApiCallAttempt").createChild("HttpClient");
+    httpClient.reportMetric(HttpMetric.LEASED_CONCURRENCY, 7);
+    httpClient.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, 2);
+    httpClient.reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofMillis(5));
+
+    poolMetrics.publish(apiCall.collect());
+
+    Map<String, String> tags = Map.of("service", "dynamodb");
+    assertThat(metricRegistry.histogram("aws.http.pool.leased", tags).getSnapshot().getMax()).isEqualTo(7);
+    assertThat(metricRegistry.histogram("aws.http.pool.pendingAcquires", tags).getSnapshot().getMax()).isEqualTo(2);
+    assertThat(metricRegistry.timer("aws.http.pool.acquireLatency", tags).getSnapshot().getMax())
+            .isAtLeast(TimeUnit.MILLISECONDS.toNanos(4));
+  }
+
+  @Test
+  void serviceTagsMatchClientTypeNames() {
+    assertThat(SdkHttpPoolMetrics.serviceKey("Kinesis")).isEqualTo("kinesis");
+    assertThat(SdkHttpPoolMetrics.serviceKey("CloudWatch Logs")).isEqualTo("cloudwatchlogs");
+  }
+
+  @Test
+  void callbackGaugesTolerateRepeatedConstruction() {
+    new AwsCallbackThreadPool(config, metricRegistry);
+    new AwsCallbackThreadPool(config, metricRegistry);
+    assertThat(metricRegistry.getGauges().keySet()).containsAtLeast("aws.callbacks.active", "aws.callbacks.queued");
+  }
+}
@@ -0,0 +1,265 @@
+package upstart.aws.test.dynamodb;
+
+import com.google.common.base.Throwables;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import upstart.config.UpstartModule;
+import upstart.dynamodb.DynamoDbBatchOperations;
+import upstart.dynamodb.DynamoDbBatchOperations.BatchResult;
+import upstart.dynamodb.DynamoDbClientService;
+import upstart.dynamodb.DynamoDbModule;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.util.concurrent.Scheduler;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@LocalDynamoDbTest
+@UpstartLibraryServiceTest
+class DynamoDbBatchOperationsTest extends UpstartModule {
+  @Inject DynamoDbClientService dbService;
+  @Inject DynamoDbBatchOperations batchOperations;
+  @Inject Scheduler scheduler;
+  @Inject TaggedMetricRegistry metricRegistry;
+  private String tableName;
+
+  @Override
+  protected void configure() {
+    install(new DynamoDbModule());
+  }
+
+  @BeforeEach
+  void createTable(DynamoDbClient client) {
+    tableName = "batch-" + UUID.randomUUID();
+    client.createTable(b -> b
+            .tableName(tableName)
+            .keySchema(sb -> sb.attributeName("id").keyType(KeyType.HASH))
+            .attributeDefinitions(AttributeDefinition.builder().attributeName("id").attributeType(ScalarAttributeType.S).build())
+            .provisionedThroughput(tb -> tb.readCapacityUnits(100L).writeCapacityUnits(100L))
+    );
+  }
+
+  @Test
+  void writesAndReadsLargeStreamsInChunks() {
+    BatchResult written = batchOperations.putItems(tableName, IntStream.range(0, 260).mapToObj(i -> item(i))).join();
+    assertThat(written.items()).isEqualTo(260);
+    assertThat(written.requests()).isEqualTo(11);
+    assertThat(written.consumedCapacityUnits()).isGreaterThan(0.0);
+    assertThat(metricRegistry.meter("dynamodb.batch.consumedCapacity.milliUnits", Map.of("table", tableName, "operation", "write")).getCount())
+            .isEqualTo(Math.round(written.consumedCapacityUnits() * 1000));
+
+    // 250 present keys, plus 10 which were never written
+    List<Map<String, AttributeValue>> found = batchOperations.getItems(
+            tableName,
+            IntStream.range(10, 270).mapToObj(DynamoDbBatchOperationsTest::key)
+    ).join();
+    assertThat(found.stream().map(item -> item.get("value").s()).collect(Collectors.toSet()))
+            .isEqualTo(IntStream.range(10, 260).mapToObj(i -> "value-" + i).collect(Collectors.toSet()));
+
+    BatchResult deleted = batchOperations.deleteItems(tableName, IntStream.range(0, 130).mapToObj(DynamoDbBatchOperationsTest::key)).join();
+    assertThat(deleted.items()).isEqualTo(130);
+
+    assertThat(batchOperations.getItems(tableName, IntStream.range(0, 260).mapToObj(DynamoDbBatchOperationsTest::key)).join())
+            .hasSize(130);
+  }
+
+  @Test
+  void retriesUnprocessedItems() {
+    PartiallyProcessingClient client = new PartiallyProcessingClient(dbService.client());
+    DynamoDbBatchOperations operations = operations(client, new TestConfig(10));
+
+    BatchResult result = operations.putItems(tableName, IntStream.range(0, 50).mapToObj(i -> item(i))).join();
+
+    assertThat(result.items()).isEqualTo(50);
+    assertThat(result.retries()).isGreaterThan(0L);
+    assertThat(client.requests.get()).isEqualTo(result.requests());
+    assertThat(batchOperations.getItems(tableName, IntStream.range(0, 50).mapToObj(DynamoDbBatchOperationsTest::key)).join())
+            .hasSize(50);
+  }
+
+  @Test
+  void failsWhenItemsRemainUnprocessed() {
+    DynamoDbBatchOperations operations = operations(new PartiallyProcessingClient(dbService.client()), new TestConfig(2));
+
+    CompletableFuture<BatchResult> result = operations.putItems(tableName, IntStream.range(0, 25).mapToObj(i -> item(i)));
+
+    Throwable failure = result.handle((r, e) -> e).join();
+    assertThat(Throwables.getRootCause(failure)).isInstanceOf(DynamoDbBatchOperations.UnprocessedItemsException.class);
+  }
+
+  @Test
+  void retriesThrottledRequests() {
+    ThrottlingClient client = new ThrottlingClient(dbService.client(), 2);
+    DynamoDbBatchOperations operations = operations(client, new TestConfig(3));
+
+    BatchResult result = operations.putItems(tableName, IntStream.range(0, 50).mapToObj(i -> item(i))).join();
+
+    assertThat(result.items()).isEqualTo(50);
+    assertThat(result.retries()).isEqualTo(100L);
+    assertThat(result.requests()).isEqualTo(6L);
+    assertThat(batchOperations.getItems(tableName, IntStream.range(0, 50).mapToObj(DynamoDbBatchOperationsTest::key)).join())
+            .hasSize(50);
+  }
+
+  @Test
+  void failsWhenRequestsRemainThrottled() {
+    DynamoDbBatchOperations operations = operations(new ThrottlingClient(dbService.client(), 3), new TestConfig(3));
+
+    Throwable failure = operations.putItems(tableName, IntStream.range(0, 25).mapToObj(i -> item(i))).handle((r, e) -> e).join();
+
+    assertThat(Throwables.getRootCause(failure)).isInstanceOf(ProvisionedThroughputExceededException.class);
+  }
+
+  @Test
+  void synchronouslyCompletingRequestsDoNotGrowTheStack() {
+    DynamoDbAsyncClient client = new DynamoDbAsyncClient() {
+      @Override
+      public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+        return CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build());
+      }
+
+      @Override
+      public String serviceName() {
+        return "dynamodb";
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    WriteRequest write = WriteRequest.builder().deleteRequest(b -> b.key(key(0))).build();
+
+    BatchResult result = operations(client, new TestConfig(1))
+            .write(tableName, Stream.generate(() -> write).limit(2_500_000))
+            .join();
+
+    assertThat(result.requests()).isEqualTo(100_000L);
+  }
+
+  @Test
+  void emptyStreamCompletesImmediately() {
+    assertThat(batchOperations.putItems(tableName, Stream.empty()).join().requests()).isEqualTo(0);
+  }
+
+  private DynamoDbBatchOperations operations(DynamoDbAsyncClient client, DynamoDbBatchOperations.BatchConfig config) {
+    return new DynamoDbBatchOperations(new DynamoDbClientService(client), config, scheduler, metricRegistry);
+  }
+
+  private static Map<String, AttributeValue> key(int i) {
+    return Map.of("id", AttributeValue.builder().s("id-" + i).build());
+  }
+
+  private static Map<String, AttributeValue> item(int i) {
+    return Map.of(
+            "id", AttributeValue.builder().s("id-" + i).build(),
+            "value", AttributeValue.builder().s("value-" + i).build()
+    );
+  }
+
+  record TestConfig(int maxConcurrentBatches, int maxAttempts, Duration initialBackoff, Duration maxBackoff)
+          implements DynamoDbBatchOperations.BatchConfig {
+    TestConfig(int maxAttempts) {
+      this(4, maxAttempts, Duration.ofMillis(1), Duration.ofMillis(10));
+    }
+  }
+
+  /**
+   * Simulates throttling: only the first half of each batch is written; the rest is returned as unprocessed.
+   */
+  static class PartiallyProcessingClient implements DynamoDbAsyncClient {
+    final DynamoDbAsyncClient delegate;
+    final AtomicInteger requests = new AtomicInteger();
+
+    PartiallyProcessingClient(DynamoDbAsyncClient delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+      requests.incrementAndGet();
+      Map.Entry<String, List<WriteRequest>> entry = request.requestItems().entrySet().iterator().next();
+      List<WriteRequest> writes = entry.getValue();
+      int processedCount = (writes.size() + 1) / 2;
+      return delegate.batchWriteItem(request.toBuilder()
+                      .requestItems(Map.of(entry.getKey(), writes.subList(0, processedCount)))
+                      .build())
+              .thenApply(response -> response.toBuilder()
+                      .unprocessedItems(writes.size() > processedCount
+                              ? Map.of(entry.getKey(), writes.subList(processedCount, writes.size()))
+                              : Map.of())
+                      .build());
+    }
+
+    @Override
+    public String serviceName() {
+      return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+
+  /**
+   * Fails the first {@code failuresPerBatch} attempts to write each distinct batch with a throttling exception.
+   */
+  static class ThrottlingClient implements DynamoDbAsyncClient {
+    final DynamoDbAsyncClient delegate;
+    final int failuresPerBatch;
+    final Map<Set<WriteRequest>, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+    ThrottlingClient(DynamoDbAsyncClient delegate, int failuresPerBatch) {
+      this.delegate = delegate;
+      this.failuresPerBatch = failuresPerBatch;
+    }
+
+    @Override
+    public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+      Set<WriteRequest> batch = request.requestItems().values().stream()
+              .flatMap(List::stream)
+              .collect(Collectors.toSet());
+      if (attempts.computeIfAbsent(batch, ignored -> new AtomicInteger()).incrementAndGet() <= failuresPerBatch) {
+        return CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder()
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ProvisionedThroughputExceededException").build())
+                .build());
+      }
+      return delegate.batchWriteItem(request);
+    }
+
+    @Override
+    public String serviceName() {
+      return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,453 @@
+package upstart.dynamodb;
+
+import com.codahale.metrics.Meter;
+import com.google.common.collect.Iterators;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import upstart.config.annotations.ConfigPath;
+import upstart.metrics.MetricFamily;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.Scheduler;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bulk reads and writes against a single DynamoDB table, for streams of any size.
+ * <p/>
+ * Requests are split into chunks of at most {@link DynamoDbClientService#MAX_ITEMS_PER_DYNAMODB_BATCH} writes
+ * (BatchWriteItem) or {@link #MAX_KEYS_PER_BATCH_GET} keys (BatchGetItem), and up to
+ * {@link BatchConfig#maxConcurrentBatches} chunks are kept in flight at once. The input stream is consumed lazily,
+ * only as capacity becomes available.
+ * <p/>
+ * Items or keys which DynamoDB returns as unprocessed (typically due to throttling) are retried after an exponential,
+ * jittered backoff; if any remain unprocessed after {@link BatchConfig#maxAttempts}, the operation fails with an
+ * {@link UnprocessedItemsException}. Requests which fail outright with a retryable error (throttling, or a
+ * server-side failure) are retried in the same way, failing with the last error once attempts are exhausted.
+ * <p/>
+ * The {@link BatchResult} describes the work done, including the total capacity consumed. Consumed capacity is also
+ * recorded in the {@code dynamodb.batch.consumedCapacity.milliUnits} meter (in thousandths of a capacity-unit, since
+ * reads may consume fractional units), tagged with the {@code table} and {@code operation} ("write" or "get").
+ * <p/>
+ * Note that DynamoDB rejects batches which contain more than one request for the same key, so callers must
+ * ensure that each key appears at most once in a stream (or at least, not within the same chunk).
+ */
+@Singleton
+public class DynamoDbBatchOperations {
+  private static final Logger LOG = LoggerFactory.getLogger(DynamoDbBatchOperations.class);
+  public static final int MAX_KEYS_PER_BATCH_GET = 100;
+
+  private final DynamoDbAsyncClient client;
+  private final BatchConfig config;
+  private final Scheduler scheduler;
+  private final MetricFamily<Meter> consumedCapacityMeters;
+
+  @Inject
+  public DynamoDbBatchOperations(
+          DynamoDbClientService dbService,
+          BatchConfig config,
+          Scheduler scheduler,
+          TaggedMetricRegistry metricRegistry
+  ) {
+    config.validate();
+    this.client = dbService.client();
+    this.config = config;
+    this.scheduler = scheduler;
+    consumedCapacityMeters = metricRegistry.meterFamily("dynamodb.batch.consumedCapacity.milliUnits", "table", "operation");
+  }
+
+  public Promise<BatchResult> putItems(String tableName, Stream<Map<String, AttributeValue>> items) {
+    return write(tableName, items.map(item -> WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build()));
+  }
+
+  public Promise<BatchResult> deleteItems(String tableName, Stream<Map<String, AttributeValue>> keys) {
+    return write(tableName, keys.map(key -> WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key).build()).build()));
+  }
+
+  /**
+   * Applies the given puts and/or deletes.
+   */
+  public Promise<BatchResult> write(String tableName, Stream<WriteRequest> writes) {
+    BatchResult.Accumulator result = new BatchResult.Accumulator(consumedCapacityMeters.get(tableName, "write"));
+    return new Pipeline<>(
+            Iterators.partition(writes.iterator(), DynamoDbClientService.MAX_ITEMS_PER_DYNAMODB_BATCH),
+            chunk -> writeChunk(tableName, chunk, 1, result)
+    ).start().thenApply(ignored -> result.build());
+  }
+
+  /**
+   * Retrieves the items with the given keys, passing each (in no particular order) to the given itemConsumer, which
+   * may be invoked concurrently from multiple threads. Keys without a corresponding item are ignored.
+   */
+  public Promise<BatchResult> getItems(
+          String tableName,
+          Stream<Map<String, AttributeValue>> keys,
+          Consumer<? super Map<String, AttributeValue>> itemConsumer
+  ) {
+    return getItems(tableName, keys, readOptions -> { }, itemConsumer);
+  }
+
+  /**
+   * Like {@link #getItems(String, Stream, Consumer)}, with readOptions to customize each request (eg, to use
+   * {@link KeysAndAttributes.Builder#consistentRead consistent reads} or a
+   * {@link KeysAndAttributes.Builder#projectionExpression projection}).
+   */
+  public Promise<BatchResult> getItems(
+          String tableName,
+          Stream<Map<String, AttributeValue>> keys,
+          Consumer<KeysAndAttributes.Builder> readOptions,
+          Consumer<? super Map<String, AttributeValue>> itemConsumer
+  ) {
+    BatchResult.Accumulator result = new BatchResult.Accumulator(consumedCapacityMeters.get(tableName, "get"));
+    return new Pipeline<>(
+            Iterators.partition(keys.iterator(), MAX_KEYS_PER_BATCH_GET),
+            chunk -> getChunk(tableName, chunk, readOptions, itemConsumer, 1, result)
+    ).start().thenApply(ignored -> result.build());
+  }
+
+  public Promise<List<Map<String, AttributeValue>>> getItems(String tableName, Stream<Map<String, AttributeValue>> keys) {
+    List<Map<String, AttributeValue>> items = Collections.synchronizedList(new ArrayList<>());
+    return getItems(tableName, keys, items::add).thenApply(ignored -> items);
+  }
+
+  private CompletableFuture<Void> writeChunk(String tableName, List<WriteRequest> chunk, int attempt, BatchResult.Accumulator result) {
+    result.requests.increment();
+    return client.batchWriteItem(b -> b
+                    .requestItems(Map.of(tableName, chunk))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL))
+            .handle((response, e) -> {
+              if (e != null) {
+                return retryFailedRequest(tableName, chunk.size(), attempt, result, e,
+                        () -> writeChunk(tableName, chunk, attempt + 1, result));
+              }
+              result.recordCapacity(response.consumedCapacity());
+              List<WriteRequest> unprocessed = unprocessedWrites(tableName, response);
+              result.items.add(chunk.size() - unprocessed.size());
+              return unprocessed.isEmpty()
+                      ? CompletableFuture.<Void>completedFuture(null)
+                      : retryUnprocessed(tableName, unprocessed.size(), attempt, result,
+                              () -> writeChunk(tableName, unprocessed, attempt + 1, result));
+            }).thenCompose(Function.identity());
+  }
+
+  private CompletableFuture<Void> getChunk(
+          String tableName,
+          List<Map<String, AttributeValue>> chunk,
+          Consumer<KeysAndAttributes.Builder> readOptions,
+          Consumer<? super Map<String, AttributeValue>> itemConsumer,
+          int attempt,
+          BatchResult.Accumulator result
+  ) {
+    KeysAndAttributes.Builder keysAndAttributes = KeysAndAttributes.builder();
+    readOptions.accept(keysAndAttributes);
+    KeysAndAttributes request = keysAndAttributes.keys(chunk).build();
+    result.requests.increment();
+    return client.batchGetItem(b -> b
+                    .requestItems(Map.of(tableName, request))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL))
+            .handle((response, e) -> {
+              if (e != null) {
+                return retryFailedRequest(tableName, chunk.size(), attempt, result, e,
+                        () -> getChunk(tableName, chunk, readOptions, itemConsumer, attempt + 1, result));
+              }
+              result.recordCapacity(response.consumedCapacity());
+              List<Map<String, AttributeValue>> found = response.responses().getOrDefault(tableName, List.of());
+              found.forEach(itemConsumer);
+              List<Map<String, AttributeValue>> unprocessed = unprocessedKeys(tableName, response);
+              result.items.add(found.size());
+              return unprocessed.isEmpty()
+                      ? CompletableFuture.<Void>completedFuture(null)
+                      : retryUnprocessed(tableName, unprocessed.size(), attempt, result,
+                              () -> getChunk(tableName, unprocessed, readOptions, itemConsumer, attempt + 1, result));
+            }).thenCompose(Function.identity());
+  }
+
+  private static List<WriteRequest> unprocessedWrites(String tableName, BatchWriteItemResponse response) {
+    return response.hasUnprocessedItems()
+            ? response.unprocessedItems().getOrDefault(tableName, List.of())
+            : List.of();
+  }
+
+  private static List<Map<String, AttributeValue>> unprocessedKeys(String tableName, BatchGetItemResponse response) {
+    if (!response.hasUnprocessedKeys()) return List.of();
+    KeysAndAttributes unprocessed = response.unprocessedKeys().get(tableName);
+    return unprocessed == null || !unprocessed.hasKeys() ? List.of() : unprocessed.keys();
+  }
+
+  private CompletableFuture<Void> retryUnprocessed(
+          String tableName,
+          int unprocessedCount,
+          int attempt,
+          BatchResult.Accumulator result,
+          Supplier<CompletableFuture<Void>> retry
+  ) {
+    if (attempt >= config.maxAttempts()) {
+      return CompletableFuture.failedFuture(new UnprocessedItemsException(tableName, unprocessedCount, attempt));
+    }
+    Duration backoff = backoff(attempt);
+    LOG.debug("Retrying {} unprocessed item(s) for table '{}' in {}", unprocessedCount, tableName, backoff);
+    result.retries.add(unprocessedCount);
+    return afterBackoff(backoff, retry);
+  }
+
+  private CompletableFuture<Void> retryFailedRequest(
+          String tableName,
+          int itemCount,
+          int attempt,
+          BatchResult.Accumulator result,
+          Throwable failure,
+          Supplier<CompletableFuture<Void>> retry
+  ) {
+    Throwable cause = CompletableFutures.unwrapExecutionException(failure);
+    if (attempt >= config.maxAttempts() || !isRetryable(cause)) return CompletableFuture.failedFuture(cause);
+    Duration backoff = backoff(attempt);
+    LOG.debug("Retrying request for {} item(s) for table '{}' in {} after failure: {}", itemCount, tableName, backoff, cause.toString());
+    result.retries.add(itemCount);
+    return afterBackoff(backoff, retry);
+  }
+
+  private static boolean isRetryable(Throwable e) {
+    if (e instanceof AwsServiceException serviceException
+            && (serviceException.isThrottlingException() || serviceException.statusCode() >= 500)) {
+      return true;
+    }
+    return e instanceof SdkException sdkException && sdkException.retryable();
+  }
+
+  private CompletableFuture<Void> afterBackoff(Duration backoff, Supplier<CompletableFuture<Void>> retry) {
+    Promise<Void> promise = new Promise<>();
+    try {
+      scheduler.schedule(backoff, () -> {
+        try {
+          promise.completeWith(retry.get());
+        } catch (RuntimeException e) {
+          promise.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the scheduler has shut down
+      promise.completeExceptionally(e);
+    }
+    return promise;
+  }
+
+  private Duration backoff(int attempt) {
+    long maxNanos = Math.min(config.maxBackoff().toNanos(), config.initialBackoff().toNanos() << Math.min(attempt - 1, 30));
+    // "equal jitter": wait at least half of the exponential delay
+    return Duration.ofNanos(maxNanos / 2 + ThreadLocalRandom.current().nextLong(maxNanos / 2 + 1));
+  }
+
+  /**
+   * Pulls chunks from the iterator as in-flight chunks complete, keeping at most
+   * {@link BatchConfig#maxConcurrentBatches} in flight. After any failure, no more chunks are started, and the
+   * result fails once the in-flight chunks have settled.
+   * <p/>
+   * Dispatching is trampolined: a chunk which completes while another thread (or an enclosing call on the same
+   * thread, for chunks which complete synchronously) is already dispatching just requests another pass of that
+   * loop, so the stack does not grow with the number of chunks.
+   */
+  private class Pipeline<T> {
+    private final Iterator<List<T>> chunks;
+    private final Function<List<T>, CompletableFuture<Void>> operation;
+    private final Promise<Void> result = new Promise<>();
+    private int inFlight = 0;
+    private Throwable failure = null;
+    private boolean dispatching = false;
+    private boolean redispatch = false;
+
+    Pipeline(Iterator<List<T>> chunks, Function<List<T>, CompletableFuture<Void>> operation) {
+      this.chunks = chunks;
+      this.operation = operation;
+    }
+
+    Promise<Void> start() {
+      dispatch();
+      return result;
+    }
+
+    private void dispatch() {
+      synchronized (this) {
+        if (dispatching) {
+          redispatch = true;
+          return;
+        }
+        dispatching = true;
+      }
+
+      boolean again;
+      do {
+        if (dispatchOnce()) return;
+        synchronized (this) {
+          again = redispatch;
+          redispatch = false;
+          dispatching = again;
+        }
+      } while (again);
+    }
+
+    /**
+     * @return true if the pipeline has finished, and its result has been completed
+     */
+    private boolean dispatchOnce() {
+      List<List<T>> ready = new ArrayList<>();
+      boolean finished;
+      synchronized (this) {
+        boolean exhausted = false;
+        try {
+          while (failure == null && inFlight < config.maxConcurrentBatches() && !(exhausted = !chunks.hasNext())) {
+            ready.add(chunks.next());
+            inFlight++;
+          }
+        } catch (RuntimeException e) {
+          // the caller's stream failed
+          if (failure == null) failure = e;
+        }
+        finished = inFlight == 0 && (failure != null || exhausted);
+      }
+
+      if (finished) {
+        if (failure == null) {
+          result.complete(null);
+        } else {
+          result.completeExceptionally(failure);
+        }
+        return true;
+      }
+
+      for (List<T> chunk : ready) {
+        CompletableFuture<Void> future;
+        try {
+          future = operation.apply(chunk);
+        } catch (RuntimeException e) {
+          future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((ignored, e) -> {
+          synchronized (this) {
+            inFlight--;
+            if (e != null && failure == null) failure = e;
+          }
+          dispatch();
+        });
+      }
+      return false;
+    }
+  }
+
+  public static class BatchResult {
+    private final long items;
+    private final long requests;
+    private final long retries;
+    private final double consumedCapacityUnits;
+
+    private BatchResult(long items, long requests, long retries, double consumedCapacityUnits) {
+      this.items = items;
+      this.requests = requests;
+      this.retries = retries;
+      this.consumedCapacityUnits = consumedCapacityUnits;
+    }
+
+    /** The number of items written, or found */
+    public long items() {
+      return items;
+    }
+
+    /** The number of batch-requests sent (including retries) */
+    public long requests() {
+      return requests;
+    }
+
+    /** The number of items or keys which were retried after being returned unprocessed, or after a failed request */
+    public long retries() {
+      return retries;
+    }
+
+    /** The total capacity-units consumed, as reported by DynamoDB */
+    public double consumedCapacityUnits() {
+      return consumedCapacityUnits;
+    }
+
+    @Override
+    public String toString() {
+      return "BatchResult{items=" + items + ", requests=" + requests + ", retries=" + retries
+              + ", consumedCapacityUnits=" + consumedCapacityUnits + '}';
+    }
+
+    static class Accumulator {
+      final LongAdder items = new LongAdder();
+      final LongAdder requests = new LongAdder();
+      final LongAdder retries = new LongAdder();
+      final DoubleAdder consumedCapacity = new DoubleAdder();
+      private final Meter consumedCapacityMilliUnits;
+
+      Accumulator(Meter consumedCapacityMilliUnits) {
+        this.consumedCapacityMilliUnits = consumedCapacityMilliUnits;
+      }
+
+      void recordCapacity(List<ConsumedCapacity> capacities) {
+        for (ConsumedCapacity capacity : capacities) {
+          if (capacity.capacityUnits() != null) {
+            consumedCapacity.add(capacity.capacityUnits());
+            consumedCapacityMilliUnits.mark(Math.round(capacity.capacityUnits() * 1000));
+          }
+        }
+      }
+
+      BatchResult build() {
+        return new BatchResult(items.sum(), requests.sum(), retries.sum(), consumedCapacity.sum());
+      }
+    }
+  }
+
+  public static class UnprocessedItemsException extends RuntimeException {
+    public UnprocessedItemsException(String tableName, int unprocessedCount, int attempts) {
+      super(unprocessedCount + " item(s) for table '" + tableName + "' remained unprocessed after " + attempts + " attempt(s)");
+    }
+  }
+
+  @ConfigPath("upstart.dynamodb.batch")
+  public interface BatchConfig {
+    int maxConcurrentBatches();
+
+    int maxAttempts();
+
+    Duration initialBackoff();
+
+    Duration maxBackoff();
+
+    default void validate() {
+      checkArgument(maxConcurrentBatches() > 0, "maxConcurrentBatches must be positive: %s", maxConcurrentBatches());
+      checkArgument(maxAttempts() > 0, "maxAttempts must be positive: %s", maxAttempts());
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package upstart.dynamodb;
 
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import upstart.ExecutorServiceScheduler;
 import upstart.aws.AwsClientModule;
 import upstart.config.UpstartModule;
 
@@ -8,5 +9,7 @@ public class DynamoDbModule extends UpstartModule {
   @Override
   protected void configure() {
     AwsClientModule.installWithDefaultConfig(binder(), DynamoDbAsyncClient.class);
+    install(new ExecutorServiceScheduler.Module());
+    bindConfig(DynamoDbBatchOperations.BatchConfig.class);
   }
 }
@@ -72,7 +72,28 @@ public class HikariJdbiModule extends JdbiModule {
 
     @Override
     public Jdbi buildJdbi() {
+      enableStatementCache(config);
       return Jdbi.create(new HikariDataSource(config));
     }
+
+    @Override
+    public int maxConnections() {
+      return config.getMaximumPoolSize();
+    }
+
+    /**
+     * HikariCP doesn't cache prepared statements itself, leaving that to the driver. Most drivers (eg, PostgreSQL, H2)
+     * cache them by default, but MySQL/MariaDB require opting in: we do so here unless the config specifies otherwise.
+     */
+    static void enableStatementCache(HikariConfig config) {
+      String jdbcUrl = config.getJdbcUrl();
+      if (jdbcUrl != null && (jdbcUrl.startsWith("jdbc:mysql:") || jdbcUrl.startsWith("jdbc:mariadb:"))) {
+        Properties properties = config.getDataSourceProperties();
+        properties.putIfAbsent("cachePrepStmts", "true");
+        properties.putIfAbsent("prepStmtCacheSize", "250");
+        properties.putIfAbsent("prepStmtCacheSqlLimit", "2048");
+        properties.putIfAbsent("useServerPrepStmts", "true");
+      }
+    }
   }
 }
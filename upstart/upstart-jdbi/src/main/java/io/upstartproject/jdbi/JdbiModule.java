@@ -7,6 +7,7 @@ import com.google.inject.binder.LinkedBindingBuilder;
 import com.google.inject.multibindings.Multibinder;
 import org.jdbi.v3.core.spi.JdbiPlugin;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import upstart.ExecutorServiceScheduler;
 import upstart.config.UpstartModule;
 import upstart.guice.AnnotationKeyedPrivateModule;
 import upstart.proxy.DynamicProxyBindingBuilder;
@@ -42,6 +43,8 @@ public class JdbiModule extends UpstartModule {
       }
     });
 
+    install(new ExecutorServiceScheduler.Module());
+    bindConfig(JdbiService.AsyncJdbiConfig.class);
     pluginBinder(binder());
     serviceManager().manage(Key.get(JdbiService.class, bindingAnnotation));
   }
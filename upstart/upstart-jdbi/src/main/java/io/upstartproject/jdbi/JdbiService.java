@@ -1,37 +1,107 @@
 package io.upstartproject.jdbi;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import org.immutables.value.Value;
 import org.jdbi.v3.core.HandleCallback;
 import org.jdbi.v3.core.HandleConsumer;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.core.extension.ExtensionCallback;
 import org.jdbi.v3.core.extension.ExtensionConsumer;
 import org.jdbi.v3.core.spi.JdbiPlugin;
+import org.jdbi.v3.core.statement.PreparedBatch;
 import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import upstart.config.annotations.ConfigPath;
 import upstart.guice.PrivateBinding;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.util.concurrent.BatchAccumulator;
+import upstart.util.concurrent.NamedThreadFactory;
+import upstart.util.concurrent.PendingFutureSet;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.Scheduler;
 import upstart.util.concurrent.services.InitializingService;
+import upstart.util.context.AsyncContext;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.lang.annotation.Annotation;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Manages the {@link Jdbi} instance for a {@link Database}.
+ * <p/>
+ * In addition to the blocking methods (which run on the calling thread), the {@code *Async} methods return
+ * {@link Promise Promises}, and run on a dedicated thread-pool with one thread per connection in the database's
+ * connection-pool (see {@link JdbiInitializer#maxConnections}), so that callers are never blocked on JDBC calls and
+ * tasks never hold a thread while waiting for a connection. At most {@link AsyncJdbiConfig#maxQueuedTasks} tasks may
+ * wait for a thread; beyond that, submissions fail with a {@link RejectedExecutionException}.
+ * <p/>
+ * {@link #insertBatched} coalesces single-row statements: rows submitted with the same SQL within
+ * {@link AsyncJdbiConfig#batchWindow} are executed together as a single JDBC batch (in one transaction) of up to
+ * {@link AsyncJdbiConfig#maxBatchSize} rows. If the batch fails, every row in it fails.
+ * <p/>
+ * Metrics are recorded in the {@link TaggedMetricRegistry}, tagged with the database name:
+ * <ul>
+ *   <li>{@code jdbi.async.queueWait}: timer for the time each async task waited for a thread</li>
+ *   <li>{@code jdbi.async.execution}: timer for the time each async task spent executing</li>
+ *   <li>{@code jdbi.async.rejected}: meter of tasks rejected due to a full queue</li>
+ *   <li>{@code jdbi.batch.rows}: histogram of the number of rows in each coalesced batch</li>
+ * </ul>
+ */
 @Singleton
 public class JdbiService extends InitializingService {
   private final JdbiInitializer initializer;
   private final Set<JdbiPlugin> plugins;
   private final Annotation bindingAnnotation;
+  private final AsyncJdbiConfig asyncConfig;
+  private final BatchAccumulator.Factory batchAccumulatorFactory;
+  private final Scheduler scheduler;
+  private final Map<String, BatchAccumulator<InsertBatch>> insertAccumulators = new ConcurrentHashMap<>();
+  private final PendingFutureSet<Integer> pendingInserts = new PendingFutureSet<>();
+  private final Timer queueWait;
+  private final Timer execution;
+  private final Meter rejected;
+  private final Histogram batchRows;
+  private ThreadPoolExecutor executor;
   private Jdbi jdbi;
 
   @Inject
   public JdbiService(
           @PrivateBinding JdbiInitializer initializer,
           @PrivateBinding Set<JdbiPlugin> plugins,
-          @PrivateBinding Annotation bindingAnnotation
+          @PrivateBinding Annotation bindingAnnotation,
+          AsyncJdbiConfig asyncConfig,
+          TaggedMetricRegistry metricRegistry,
+          BatchAccumulator.Factory batchAccumulatorFactory,
+          Scheduler scheduler
           ) {
     this.initializer = initializer;
     this.plugins = plugins;
     this.bindingAnnotation = bindingAnnotation;
+    this.asyncConfig = asyncConfig;
+    this.batchAccumulatorFactory = batchAccumulatorFactory;
+    this.scheduler = scheduler;
+
+    Map<String, String> tags = ImmutableMap.of("database", databaseName());
+    queueWait = metricRegistry.timer("jdbi.async.queueWait", tags);
+    execution = metricRegistry.timer("jdbi.async.execution", tags);
+    rejected = metricRegistry.meter("jdbi.async.rejected", tags);
+    batchRows = metricRegistry.histogram("jdbi.batch.rows", tags);
   }
 
   @Override
@@ -40,6 +110,30 @@ public class JdbiService extends InitializingService {
     jdbi.installPlugin(new SqlObjectPlugin());
     plugins.forEach(jdbi::installPlugin);
     jdbi.useHandle(h -> h.createQuery("SELECT 1").mapTo(Integer.class).one()); // test connectivity
+
+    int threads = initializer.maxConnections();
+    executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(asyncConfig.maxQueuedTasks()),
+            new NamedThreadFactory("jdbi-" + databaseName()).daemonize()
+    );
+  }
+
+  @Override
+  protected void shutDown() {
+    insertAccumulators.values().forEach(BatchAccumulator::flush);
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(asyncConfig.shutdownGracePeriod().toMillis(), TimeUnit.MILLISECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
   }
 
   public Jdbi getJdbi() {
@@ -82,7 +176,160 @@ public class JdbiService extends InitializingService {
     jdbi.useTransaction(level, callback);
   }
 
+  public <R, E> Promise<R> withExtensionAsync(Class<E> extensionType, ExtensionCallback<R, E, ?> callback) {
+    return submit(() -> jdbi.withExtension(extensionType, callback));
+  }
+
+  public <R> Promise<R> withHandleAsync(HandleCallback<R, ?> callback) {
+    return submit(() -> jdbi.withHandle(callback));
+  }
+
+  public Promise<Void> useHandleAsync(HandleConsumer<?> consumer) {
+    return withHandleAsync(consumer.asCallback());
+  }
+
+  public <R> Promise<R> inTransactionAsync(HandleCallback<R, ?> callback) {
+    return submit(() -> jdbi.inTransaction(callback));
+  }
+
+  public Promise<Void> useTransactionAsync(HandleConsumer<?> callback) {
+    return inTransactionAsync(callback.asCallback());
+  }
+
+  public <R> Promise<R> inTransactionAsync(TransactionIsolationLevel level, HandleCallback<R, ?> callback) {
+    return submit(() -> jdbi.inTransaction(level, callback));
+  }
+
+  /**
+   * Executes a single-row statement (typically an INSERT) with the given named arguments, coalesced into a JDBC batch
+   * with other rows submitted with the same {@code sql}.
+   *
+   * @return a {@link Promise} holding the row's update-count, which completes when its batch has been executed
+   */
+  public Promise<Integer> insertBatched(String sql, Map<String, ?> namedArguments) {
+    Promise<Integer> promise = pendingInserts.track(new Promise<>());
+    insertAccumulators.computeIfAbsent(sql, this::newInsertAccumulator)
+            .accumulate(new PendingRow(namedArguments, promise), (row, batch) -> {
+              batch.rows.add(row);
+              return BatchAccumulator.accepted(batch.rows.size() < asyncConfig.maxBatchSize());
+            });
+    return promise;
+  }
+
+  /**
+   * Immediately executes any rows buffered by {@link #insertBatched}.
+   *
+   * @return a {@link Promise} which completes when all rows submitted prior to this call have been executed (or
+   * fails if any could not be)
+   */
+  public Promise<Void> flushInserts() {
+    insertAccumulators.values().forEach(BatchAccumulator::flush);
+    return Promise.of(pendingInserts.flush());
+  }
+
+  private BatchAccumulator<InsertBatch> newInsertAccumulator(String sql) {
+    return batchAccumulatorFactory.create(
+            () -> new InsertBatch(sql),
+            this::executeBatch,
+            asyncConfig.batchWindow(),
+            asyncConfig.batchWindow(),
+            scheduler
+    );
+  }
+
+  private void executeBatch(InsertBatch batch) {
+    batchRows.update(batch.rows.size());
+    submit(() -> jdbi.inTransaction(handle -> {
+      PreparedBatch preparedBatch = handle.prepareBatch(batch.sql);
+      for (PendingRow row : batch.rows) {
+        preparedBatch.add(row.namedArguments());
+      }
+      return preparedBatch.execute();
+    })).whenComplete((counts, e) -> {
+      for (int i = 0; i < batch.rows.size(); i++) {
+        Promise<Integer> promise = batch.rows.get(i).promise();
+        if (e == null) {
+          promise.complete(counts[i]);
+        } else {
+          promise.completeExceptionally(e);
+        }
+      }
+    });
+  }
+
+  private <T> Promise<T> submit(Callable<T> task) {
+    long submittedNanos = System.nanoTime();
+    return Promise.thatCompletes(promise -> {
+      Runnable timedTask = AsyncContext.snapshot().wrapRunnable(() -> {
+        long startNanos = System.nanoTime();
+        queueWait.update(startNanos - submittedNanos, TimeUnit.NANOSECONDS);
+        promise.tryComplete(() -> {
+          try {
+            return task.call();
+          } finally {
+            execution.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+          }
+        });
+      });
+      try {
+        executor.execute(timedTask);
+      } catch (RejectedExecutionException e) {
+        rejected.mark();
+        throw e;
+      }
+    });
+  }
+
+  private String databaseName() {
+    return bindingAnnotation instanceof Database database ? database.value() : bindingAnnotation.toString();
+  }
+
+  private record PendingRow(Map<String, ?> namedArguments, Promise<Integer> promise) {
+  }
+
+  private static class InsertBatch {
+    final String sql;
+    final List<PendingRow> rows = new ArrayList<>();
+
+    InsertBatch(String sql) {
+      this.sql = sql;
+    }
+  }
+
   public interface JdbiInitializer {
+    /**
+     * The default pool-size used by HikariCP
+     */
+    int DEFAULT_MAX_CONNECTIONS = 10;
+
     Jdbi buildJdbi();
+
+    /**
+     * The maximum number of concurrent connections offered by the {@link Jdbi} instance; determines the number of
+     * threads used for {@link JdbiService}'s async methods.
+     */
+    default int maxConnections() {
+      return DEFAULT_MAX_CONNECTIONS;
+    }
+  }
+
+  @ConfigPath("upstart.jdbi.async")
+  public interface AsyncJdbiConfig {
+    /** Maximum number of async tasks which may wait for a thread */
+    int maxQueuedTasks();
+
+    /** How long {@link #insertBatched} buffers rows before executing a batch */
+    Duration batchWindow();
+
+    /** Maximum number of rows per coalesced batch */
+    int maxBatchSize();
+
+    Duration shutdownGracePeriod();
+
+    @Value.Check
+    default void checkValid() {
+      checkArgument(maxQueuedTasks() > 0, "maxQueuedTasks must be positive: %s", maxQueuedTasks());
+      checkArgument(maxBatchSize() > 0, "maxBatchSize must be positive: %s", maxBatchSize());
+    }
   }
 }
@@ -0,0 +1,110 @@
+package io.upstartproject.jdbi;
+
+import com.google.common.collect.ImmutableMap;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.EnvironmentConfig;
+import upstart.config.UpstartModule;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.util.concurrent.Promise;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@UpstartLibraryServiceTest
+@EnvironmentConfig.Fixture("""
+        test.db {
+          jdbcUrl: "jdbc:h2:mem:async-test;DB_CLOSE_DELAY=-1"
+          maximumPoolSize: 2
+        }
+        upstart.jdbi.async {
+          batchWindow: 1s
+          maxBatchSize: 4
+        }
+        """)
+class JdbiServiceAsyncTest extends UpstartModule {
+  private static final String INSERT_SQL = "INSERT INTO item (id, name) VALUES (:id, :name)";
+  private static final Map<String, String> TAGS = ImmutableMap.of("database", "test.db");
+
+  @Inject @Database("test.db") JdbiService jdbiService;
+  @Inject TaggedMetricRegistry metricRegistry;
+
+  @Override
+  protected void configure() {
+    install(HikariJdbiModule.fromUpstartHikariConfig("test.db"));
+  }
+
+  @BeforeEach
+  void createTable() {
+    // field-injection happens after @BeforeEach, so use a fresh Jdbi here
+    Jdbi.create("jdbc:h2:mem:async-test;DB_CLOSE_DELAY=-1").useHandle(handle -> {
+      handle.execute("DROP TABLE IF EXISTS item");
+      handle.execute("CREATE TABLE item (id INT PRIMARY KEY, name VARCHAR(64))");
+    });
+  }
+
+  @Test
+  void asyncCallsRunOnDedicatedThreads() {
+    String threadName = jdbiService.withHandleAsync(handle -> Thread.currentThread().getName()).join();
+    assertThat(threadName).startsWith("jdbi-test.db-");
+
+    jdbiService.useTransactionAsync(handle -> handle.execute("INSERT INTO item VALUES (1, 'one')")).join();
+    assertThat(jdbiService.withHandleAsync(handle -> handle.createQuery("SELECT name FROM item").mapTo(String.class).one()).join())
+            .isEqualTo("one");
+
+    assertThat(metricRegistry.timer("jdbi.async.queueWait", TAGS).getCount()).isAtLeast(3L);
+    assertThat(metricRegistry.timer("jdbi.async.execution", TAGS).getCount()).isAtLeast(3L);
+  }
+
+  @Test
+  void singleRowInsertsAreCoalesced() {
+    // 9 rows with a batch-size of 4: two full batches are executed immediately, the remaining row awaits a flush
+    List<Promise<Integer>> results = IntStream.range(0, 9)
+            .mapToObj(i -> jdbiService.insertBatched(INSERT_SQL, Map.of("id", i, "name", "item-" + i)))
+            .toList();
+
+    results.subList(0, 8).forEach(result -> assertThat(result.join()).isEqualTo(1));
+    assertThat(results.get(8).isDone()).isFalse();
+
+    jdbiService.flushInserts().join();
+    assertThat(results.get(8).join()).isEqualTo(1);
+    assertThat(countItems()).isEqualTo(9);
+    assertThat(metricRegistry.histogram("jdbi.batch.rows", TAGS).getSnapshot().getMax()).isEqualTo(4);
+  }
+
+  @Test
+  void failedBatchFailsEveryRow() {
+    Promise<Integer> first = jdbiService.insertBatched(INSERT_SQL, Map.of("id", 1, "name", "first"));
+    Promise<Integer> duplicate = jdbiService.insertBatched(INSERT_SQL, Map.of("id", 1, "name", "duplicate"));
+
+    assertThat(jdbiService.flushInserts().handle((r, e) -> e).join()).isNotNull();
+    assertThat(first.isCompletedExceptionally()).isTrue();
+    assertThat(duplicate.isCompletedExceptionally()).isTrue();
+    assertThat(countItems()).isEqualTo(0);
+  }
+
+  @Test
+  void invalidSizesAreRejectedWhenConfigIsBuilt() {
+    ImmutableAsyncJdbiConfig.Builder config = ImmutableAsyncJdbiConfig.builder()
+            .maxQueuedTasks(10)
+            .batchWindow(Duration.ofMillis(5))
+            .maxBatchSize(4)
+            .shutdownGracePeriod(Duration.ofSeconds(1));
+
+    assertThat(config.build().maxQueuedTasks()).isEqualTo(10);
+    assertThrows(IllegalArgumentException.class, () -> config.maxQueuedTasks(0).build());
+    assertThrows(IllegalArgumentException.class, () -> config.maxQueuedTasks(10).maxBatchSize(0).build());
+  }
+
+  private int countItems() {
+    return jdbiService.withHandle(handle -> handle.createQuery("SELECT COUNT(*) FROM item").mapTo(Integer.class).one());
+  }
+}
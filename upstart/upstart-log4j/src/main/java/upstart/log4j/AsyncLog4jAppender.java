@@ -0,0 +1,233 @@
+package upstart.log4j;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+import upstart.util.concurrent.NamedThreadFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link Appender} which hands {@link LoggingEvent LoggingEvents} off to a dedicated consumer-thread via a bounded,
+ * lock-free {@link EventRingBuffer}, so that formatting and writing events (via the wrapped {@link #delegate})
+ * happens off the logging thread.
+ * <p/>
+ * The consumer drains events in batches of up to {@code batchSize}; if the delegate is a {@link WriterAppender},
+ * its output is flushed once per batch rather than once per event.
+ * <p/>
+ * When the buffer is full, the configured {@link AsyncLog4jAppenderConfig.OverflowPolicy} determines whether the
+ * logging thread waits for space, or the event is discarded (and counted in {@link #droppedCount}).
+ * <p/>
+ * Buffered events are delivered by {@link #flush}, which is invoked when the application shuts down (via
+ * {@link UpstartLog4jProvider#flush}, and a JVM shutdown-hook as a last resort) and when the appender is
+ * {@link #close closed}.
+ */
+public class AsyncLog4jAppender extends AppenderSkeleton {
+  private static final long MAX_CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long PRODUCER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final Appender delegate;
+  private final EventRingBuffer<LoggingEvent> buffer;
+  private final int batchSize;
+  private final AsyncLog4jAppenderConfig.OverflowPolicy overflowPolicy;
+  private final Level overflowThreshold;
+  private final int overflowSampleInterval;
+  private final Duration shutdownTimeout;
+  private final Thread consumerThread;
+  private final Thread shutdownHook;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong overflowCount = new AtomicLong();
+  private volatile long deliveredCount = 0;
+  private volatile boolean consumerParked = false;
+  private volatile boolean stopped = false;
+
+  public AsyncLog4jAppender(Appender delegate, AsyncLog4jAppenderConfig config) {
+    this.delegate = delegate;
+    buffer = new EventRingBuffer<>(config.bufferSize());
+    batchSize = config.batchSize();
+    overflowPolicy = config.overflowPolicy();
+    overflowThreshold = UpstartLog4jProvider.toLevel(config.overflowThreshold());
+    overflowSampleInterval = config.overflowSampleInterval();
+    shutdownTimeout = config.shutdownTimeout();
+
+    consumerThread = new NamedThreadFactory("async-log").daemonize().newThread(this::consumeEvents);
+    consumerThread.start();
+    shutdownHook = new Thread(this::flush, consumerThread.getName() + "-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  public Appender delegate() {
+    return delegate;
+  }
+
+  /**
+   * The number of events currently waiting in the buffer
+   */
+  public int queueDepth() {
+    return buffer.size();
+  }
+
+  /**
+   * The number of events discarded due to buffer-overflow (or being appended after {@link #close})
+   */
+  public long droppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Overrides the synchronized {@link AppenderSkeleton#doAppend} to avoid contending for a lock on the logging
+   * thread. Filters and layouts are applied by the {@link #delegate} on the consumer-thread.
+   */
+  @Override
+  public void doAppend(LoggingEvent event) {
+    if (isAsSevereAsThreshold(event.getLevel())) append(event);
+  }
+
+  @Override
+  protected void append(LoggingEvent event) {
+    if (stopped) {
+      droppedCount.incrementAndGet();
+      return;
+    }
+    if (Thread.currentThread() == consumerThread || !consumerThread.isAlive()) {
+      // the delegate is logging from within the consumer-thread (so waiting for space would never end), or the
+      // consumer-thread has died: deliver synchronously rather than losing the event
+      delegate.doAppend(event);
+      return;
+    }
+
+    // capture thread-local state before handing the event to another thread
+    event.getNDC();
+    event.getThreadName();
+    event.getMDCCopy();
+    event.getRenderedMessage();
+
+    if (!buffer.offer(event) && !(acceptOverflow(event) && awaitOffer(event))) {
+      droppedCount.incrementAndGet();
+      return;
+    }
+    if (consumerParked) LockSupport.unpark(consumerThread);
+  }
+
+  private boolean acceptOverflow(LoggingEvent event) {
+    return switch (overflowPolicy) {
+      case Block -> true;
+      case DropBelowLevel -> event.getLevel().isGreaterOrEqual(overflowThreshold);
+      case Sample -> overflowCount.getAndIncrement() % overflowSampleInterval == 0;
+    };
+  }
+
+  private boolean awaitOffer(LoggingEvent event) {
+    do {
+      LockSupport.unpark(consumerThread);
+      LockSupport.parkNanos(this, PRODUCER_BACKOFF_NANOS);
+      if (buffer.offer(event)) return true;
+    } while (!stopped && consumerThread.isAlive());
+    if (!stopped) {
+      // the consumer-thread died while we waited
+      delegate.doAppend(event);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Waits (up to the configured {@code shutdownTimeout}) for all events accepted before this call to be delivered
+   * to the delegate.
+   *
+   * @return true if all events were delivered; false if the timeout elapsed first
+   */
+  public boolean flush() {
+    return flush(shutdownTimeout);
+  }
+
+  /**
+   * Waits (up to the given timeout) for all events accepted before this call to be delivered to the delegate.
+   *
+   * @return true if all events were delivered; false if the timeout elapsed first
+   */
+  public boolean flush(Duration timeout) {
+    long target = buffer.offeredCount();
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (deliveredCount < target) {
+      if (!consumerThread.isAlive() || System.nanoTime() - deadline >= 0) return false;
+      LockSupport.unpark(consumerThread);
+      LockSupport.parkNanos(this, PRODUCER_BACKOFF_NANOS);
+    }
+    return true;
+  }
+
+  private void consumeEvents() {
+    List<LoggingEvent> batch = new ArrayList<>(batchSize);
+    while (true) {
+      buffer.drainTo(batch::add, batchSize);
+      if (!batch.isEmpty()) {
+        deliver(batch);
+        batch.clear();
+      } else if (stopped) {
+        return;
+      } else {
+        consumerParked = true;
+        if (buffer.size() == 0) LockSupport.parkNanos(this, MAX_CONSUMER_PARK_NANOS);
+        consumerParked = false;
+      }
+    }
+  }
+
+  private void deliver(List<LoggingEvent> batch) {
+    WriterAppender writerAppender = delegate instanceof WriterAppender w ? w : null;
+    // batching only defers flushes; a writer configured without immediateFlush is left alone
+    boolean flushBatches = writerAppender != null && writerAppender.getImmediateFlush();
+    int last = batch.size() - 1;
+    try {
+      for (int i = 0; i <= last; i++) {
+        // only flush the writer after the last event in the batch
+        if (flushBatches) writerAppender.setImmediateFlush(i == last);
+        try {
+          delegate.doAppend(batch.get(i));
+        } catch (Throwable e) {
+          // an Error must not kill the consumer-thread, or producers would have nowhere to deliver events
+          LogLog.error("Async appender [" + name + "] failed to deliver event", e);
+        }
+      }
+    } finally {
+      if (flushBatches) writerAppender.setImmediateFlush(true);
+      deliveredCount += batch.size();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    if (!flush()) {
+      LogLog.warn("Async appender [" + name + "] timed out flushing events after " + shutdownTimeout);
+    }
+    stopped = true;
+    LockSupport.unpark(consumerThread);
+    try {
+      consumerThread.join(shutdownTimeout.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // already shutting down
+    }
+    delegate.close();
+  }
+
+  @Override
+  public boolean requiresLayout() {
+    return false;
+  }
+}
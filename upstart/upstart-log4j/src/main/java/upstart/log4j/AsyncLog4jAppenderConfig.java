@@ -0,0 +1,104 @@
+package upstart.log4j;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import upstart.config.annotations.DeserializedImmutable;
+import upstart.log.UpstartLogConfig;
+import org.apache.log4j.Appender;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Wraps another {@link #appender} with an {@link AsyncLog4jAppender}, so that log-events are formatted and written
+ * on a dedicated thread rather than the thread doing the logging. For example:
+ * <pre>{@code
+ * stdout {
+ *   kind: async
+ *   overflowPolicy: DropBelowLevel
+ *   overflowThreshold: WARN
+ *   appender {
+ *     kind: console
+ *     layout.kind: json
+ *   }
+ * }
+ * }</pre>
+ */
+@DeserializedImmutable
+@JsonTypeName("async")
+public abstract class AsyncLog4jAppenderConfig implements Log4jAppenderConfig {
+  /**
+   * The appender which will receive events from the buffer
+   */
+  abstract Log4jAppenderConfig appender();
+
+  /**
+   * The maximum number of buffered events (rounded up to a power of 2)
+   */
+  @Value.Default
+  public int bufferSize() {
+    return 8192;
+  }
+
+  /**
+   * The maximum number of events to deliver to the {@link #appender} between flushes
+   */
+  @Value.Default
+  public int batchSize() {
+    return 256;
+  }
+
+  @Value.Default
+  public OverflowPolicy overflowPolicy() {
+    return OverflowPolicy.Block;
+  }
+
+  /**
+   * For {@link OverflowPolicy#DropBelowLevel}: the minimum level of events that will wait for space in a full buffer
+   */
+  @Value.Default
+  public UpstartLogConfig.LogThreshold overflowThreshold() {
+    return UpstartLogConfig.LogThreshold.WARN;
+  }
+
+  /**
+   * For {@link OverflowPolicy#Sample}: one of every {@code overflowSampleInterval} events that arrive while the
+   * buffer is full will wait for space
+   */
+  @Value.Default
+  public int overflowSampleInterval() {
+    return 100;
+  }
+
+  /**
+   * The maximum time to wait for buffered events to be delivered when flushing at shutdown
+   */
+  @Value.Default
+  public Duration shutdownTimeout() {
+    return Duration.ofSeconds(5);
+  }
+
+  @Value.Check
+  void checkValid() {
+    checkArgument(bufferSize() > 0, "bufferSize must be positive: %s", bufferSize());
+    checkArgument(batchSize() > 0, "batchSize must be positive: %s", batchSize());
+    checkArgument(overflowSampleInterval() > 0, "overflowSampleInterval must be positive: %s", overflowSampleInterval());
+  }
+
+  @Override
+  public Appender configureAppender(String name, UpstartLogConfig config) {
+    Appender delegate = appender().configureAppender(name, config);
+    delegate.setName(name);
+    return new AsyncLog4jAppender(delegate, this);
+  }
+
+  public enum OverflowPolicy {
+    /** The logging thread waits until there is space in the buffer */
+    Block,
+    /** Events below the {@link #overflowThreshold} are dropped; others wait for space */
+    DropBelowLevel,
+    /** A sample of events (one per {@link #overflowSampleInterval}) waits for space; the rest are dropped */
+    Sample
+  }
+}
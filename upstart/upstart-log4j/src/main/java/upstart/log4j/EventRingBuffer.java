@@ -0,0 +1,95 @@
+package upstart.log4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded, lock-free multi-producer/single-consumer queue backed by a fixed array of slots.
+ * <p/>
+ * Each slot carries a sequence-number which tells producers and the consumer whose turn it is to use that slot:
+ * producers claim a position by advancing the shared {@link #tail} with a CAS, write their element, and then
+ * publish it by advancing the slot's sequence; the (single) consumer releases each slot for the next lap around the
+ * ring in the same way. {@link #offer} never blocks: it just returns false when the ring is full.
+ */
+final class EventRingBuffer<T> {
+  private final Object[] elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head = 0; // only written by the consumer
+
+  EventRingBuffer(int minCapacity) {
+    checkArgument(minCapacity > 0 && minCapacity <= 1 << 30, "Invalid capacity: %s", minCapacity);
+    int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+    if (capacity == 0) capacity = 1;
+    elements = new Object[capacity];
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    mask = capacity - 1;
+  }
+
+  int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * The total number of elements ever successfully offered to this buffer
+   */
+  long offeredCount() {
+    return tail.get();
+  }
+
+  int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, elements.length));
+  }
+
+  boolean offer(T element) {
+    long pos = tail.get();
+    while (true) {
+      int idx = (int) pos & mask;
+      long available = sequences.get(idx) - pos;
+      if (available == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          elements[idx] = element;
+          sequences.set(idx, pos + 1); // publishes the element to the consumer
+          return true;
+        }
+        pos = tail.get();
+      } else if (available < 0) {
+        return false; // the consumer hasn't yet released this slot from the previous lap: we're full
+      } else {
+        pos = tail.get(); // another producer claimed this position; try again
+      }
+    }
+  }
+
+  /**
+   * Removes up to {@code maxElements} elements, passing each to the given consumer. Must only be invoked by the
+   * single consumer-thread.
+   *
+   * @return the number of elements drained
+   */
+  @SuppressWarnings("unchecked")
+  int drainTo(Consumer<? super T> consumer, int maxElements) {
+    long pos = head;
+    int drained = 0;
+    while (drained < maxElements) {
+      int idx = (int) pos & mask;
+      if (sequences.get(idx) != pos + 1) break; // not yet published
+      T element = (T) elements[idx];
+      elements[idx] = null;
+      sequences.set(idx, pos + elements.length); // releases the slot to producers on the next lap
+      pos++;
+      drained++;
+      consumer.accept(element);
+    }
+    head = pos;
+    return drained;
+  }
+}
@@ -1,13 +1,16 @@
 package upstart.log4j;
 
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.google.common.base.Throwables;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharStreams;
 import upstart.config.ObjectMapperFactory;
 import upstart.config.UpstartEnvironment;
@@ -16,23 +19,54 @@ import org.apache.log4j.Layout;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.ThrowableInformation;
-import org.immutables.value.Value;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
-import java.util.Optional;
 
+/**
+ * Formats {@link LoggingEvent LoggingEvents} as single-line json objects.
+ * <p/>
+ * For some hope of consistency, this structure is designed to mimic the data generated by the logstash
+ * json-formatter, with extra fields added for custom payload.
+ * <p/>
+ * Because this layout sits on the path of every log-call, it streams fields directly into a reused (per-thread)
+ * {@link JsonGenerator} and buffer, rather than building an intermediate object for each event: the static
+ * {@link UpstartLogConfig#context context} is serialized just once, and timestamps are formatted without
+ * allocating.
+ */
 public class JsonLog4jLayout extends Layout {
   private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ISO_INSTANT;
+  private static final int INITIAL_BUFFER_SIZE = 512;
+  private static final int MAX_REUSABLE_BUFFER_SIZE = 64 * 1024;
+
+  private static final SerializableString TIMESTAMP = new SerializedString("@timestamp");
+  private static final SerializableString LEVEL = new SerializedString("level");
+  private static final SerializableString MESSAGE = new SerializedString("message");
+  private static final SerializableString PAYLOAD = new SerializedString("payload");
+  private static final SerializableString PAYLOAD_EXCEPTION = new SerializedString("payload_exception");
+  private static final SerializableString PAYLOAD_TYPE = new SerializedString("payload_type");
+  private static final SerializableString LOGGER_NAME = new SerializedString("logger_name");
+  private static final SerializableString EXCEPTION = new SerializedString("exception");
+  private static final SerializableString THREAD_NAME = new SerializedString("thread_name");
+  private static final SerializableString VERSION = new SerializedString("@version");
+  private static final SerializableString EXCEPTION_CLASS = new SerializedString("exception_class");
+  private static final SerializableString EXCEPTION_MESSAGE = new SerializedString("exception_message");
+  private static final SerializableString STACKTRACE = new SerializedString("stacktrace");
+  private static final String MISSING_EXCEPTION_MESSAGE = "[exception missing]";
 
   private final ObjectMapper objectMapper;
-  private final Optional<Map<String, Object>> context;
+  private final ObjectWriter payloadWriter;
+  private final String contextFields;
+  private final ThreadLocal<FormatterState> formatterState = ThreadLocal.withInitial(FormatterState::new);
 
   public JsonLog4jLayout(ObjectMapper objectMapper, UpstartLogConfig config) {
     this.objectMapper = objectMapper.copy().setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
-    this.context = Optional.of(config.context()).filter(m -> !m.isEmpty());
+    this.payloadWriter = this.objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.contextFields = serializeContextFields(this.objectMapper, config.context());
   }
 
   /**
@@ -44,17 +78,35 @@ public class JsonLog4jLayout extends Layout {
     this(ObjectMapperFactory.buildAmbientObjectMapper(), UpstartEnvironment.loadAmbientConfigValue(UpstartLogConfig.class));
   }
 
+  /**
+   * Pre-renders the context entries as a json fragment (",\"key\":value,...") to be appended verbatim to every event
+   */
+  private static String serializeContextFields(ObjectMapper objectMapper, Map<String, Object> context) {
+    String json;
+    try {
+      json = objectMapper.writeValueAsString(new ContextJson(context));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to serialize log context", e);
+    }
+    return json.length() > 2 ? "," + json.substring(1, json.length() - 1) : "";
+  }
+
   @Override
   public String format(LoggingEvent event) {
-    LoggingEventJson json = LoggingEventJson.of(event, context);
+    FormatterState state = formatterState.get();
+    Object payload = event.getMDC(UpstartLog4jProvider.STRUCTURED_LOG_PAYLOAD);
     try {
-      return serialize(json);
+      writeEvent(state, event, payload, null);
+      return state.finish();
     } catch (Exception e) {
       LogLog.error("Unable to serialize LoggingEvent: " + event.getRenderedMessage(), e);
+      state.reset();
       try {
         // assume the exception resulted from trying to serialize the payload
-        return serialize(json.applyPayloadException(e));
+        writeEvent(state, event, payload, e);
+        return state.finish();
       } catch (Exception ex) {
+        state.reset();
         // emit *something* to reflect that there's a problem
         // TODO: could use some other mechanism to try to emit LoggingEvent data, but need correct json-formatting
         return "{\"logError\":\"" + ex.getClass().getName() + "\"}" + Layout.LINE_SEP;
@@ -62,10 +114,74 @@ public class JsonLog4jLayout extends Layout {
     }
   }
 
-  public String serialize(LoggingEventJson event) throws IOException {
-    StringBuilder builder = new StringBuilder();
-    objectMapper.writeValue(CharStreams.asWriter(builder), event);
-    return builder.append(Layout.LINE_SEP).toString();
+  private void writeEvent(FormatterState state, LoggingEvent event, Object payload, Exception payloadException) throws IOException {
+    JsonGenerator generator = state.generator;
+    generator.writeStartObject();
+    generator.writeFieldName(TIMESTAMP);
+    state.writeTimestamp(event.getTimeStamp());
+    writeNonEmptyString(generator, LEVEL, event.getLevel().toString());
+    writeNonEmptyString(generator, MESSAGE, event.getRenderedMessage());
+    if (payload != null) {
+      if (payloadException == null) {
+        if (!isEmpty(payload)) {
+          generator.writeFieldName(PAYLOAD);
+          payloadWriter.writeValue(generator, payload);
+        }
+      } else {
+        generator.writeFieldName(PAYLOAD_EXCEPTION);
+        writeThrowable(generator, payloadException);
+      }
+      generator.writeFieldName(PAYLOAD_TYPE);
+      generator.writeString(payload.getClass().getName());
+    }
+    writeNonEmptyString(generator, LOGGER_NAME, event.getLoggerName());
+    ThrowableInformation throwableInfo = event.getThrowableInformation();
+    if (throwableInfo != null) {
+      generator.writeFieldName(EXCEPTION);
+      writeThrowableInfo(generator, throwableInfo);
+    }
+    writeNonEmptyString(generator, THREAD_NAME, event.getThreadName());
+    generator.writeFieldName(VERSION);
+    generator.writeNumber(1);
+    generator.writeRaw(contextFields);
+    generator.writeEndObject();
+  }
+
+  private boolean isEmpty(Object payload) throws IOException {
+    SerializerProvider provider = objectMapper.getSerializerProviderInstance();
+    JsonSerializer<Object> serializer = provider.findValueSerializer(payload.getClass());
+    return serializer.isEmpty(provider, payload);
+  }
+
+  private static void writeThrowableInfo(JsonGenerator generator, ThrowableInformation info) throws IOException {
+    Throwable throwable = info.getThrowable();
+    if (throwable != null) {
+      writeThrowable(generator, throwable);
+    } else {
+      generator.writeStartObject();
+      String[] strRep = info.getThrowableStrRep();
+      if (strRep != null) {
+        writeNonEmptyString(generator, STACKTRACE, String.join("\n", strRep));
+      } else {
+        writeNonEmptyString(generator, EXCEPTION_MESSAGE, MISSING_EXCEPTION_MESSAGE); // shouldn't happen?
+      }
+      generator.writeEndObject();
+    }
+  }
+
+  private static void writeThrowable(JsonGenerator generator, Throwable throwable) throws IOException {
+    generator.writeStartObject();
+    writeNonEmptyString(generator, EXCEPTION_CLASS, throwable.getClass().getName());
+    writeNonEmptyString(generator, EXCEPTION_MESSAGE, throwable.getMessage());
+    writeNonEmptyString(generator, STACKTRACE, Throwables.getStackTraceAsString(throwable));
+    generator.writeEndObject();
+  }
+
+  private static void writeNonEmptyString(JsonGenerator generator, SerializableString fieldName, String value) throws IOException {
+    if (value != null && !value.isEmpty()) {
+      generator.writeFieldName(fieldName);
+      generator.writeString(value);
+    }
   }
 
   @Override
@@ -77,89 +193,94 @@ public class JsonLog4jLayout extends Layout {
   public void activateOptions() {
   }
 
-  /** for some hope of consistency, this structure is designed to mimic the data generated by the logstash json-formatter,
-   *  with extra fields added for custom payload
-   */
-  @Value.Immutable
-  @JsonSerialize
-  interface LoggingEventJson {
-
-    @JsonProperty("@timestamp")
-    String timestamp();
-    String level();
-    String message();
-    Optional<Object> payload();
-    Optional<ThrowableInfoJson> payload_exception();
-
-    @Value.Default
-    default Optional<Class<?>> payload_type() { return payload().map(Object::getClass); }
-
-    String logger_name();
-
-    @JsonIgnore
-    Optional<Map<String, Object>> context();
+  private class FormatterState {
+    private final StringBuilder buffer = new StringBuilder(INITIAL_BUFFER_SIZE);
+    // "yyyy-MM-ddTHH:mm:ss.SSSZ"
+    private final char[] timestamp = new char[24];
+    private long timestampEpochDay = Long.MIN_VALUE;
+    private JsonGenerator generator;
 
-    @JsonAnyGetter
-    default Map<String, Object> getContext() {
-      return context().orElse(ImmutableMap.of());
+    FormatterState() {
+      "0000-00-00T00:00:00.000Z".getChars(0, timestamp.length, timestamp, 0);
+      reset();
     }
 
-    Optional<ThrowableInfoJson> exception();
-    String thread_name();
-
-    @JsonProperty("@version")
-    default int version() {
-      return 1;
+    void reset() {
+      buffer.setLength(0);
+      try {
+        generator = objectMapper.getFactory().createGenerator(CharStreams.asWriter(buffer));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      objectMapper.getSerializationConfig().initialize(generator);
+      generator.setRootValueSeparator(null);
     }
 
-    static LoggingEventJson of(LoggingEvent event, Optional<Map<String, Object>> context) {
-      return ImmutableLoggingEventJson.builder()
-              .timestamp(TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(event.getTimeStamp())))
-              .level(event.getLevel().toString())
-              .message(event.getRenderedMessage())
-              .payload(Optional.ofNullable(event.getMDC(UpstartLog4jProvider.STRUCTURED_LOG_PAYLOAD)))
-              .logger_name(event.getLoggerName())
-              .context(context)
-              .exception(Optional.ofNullable(event.getThrowableInformation()).map(ThrowableInfoJson::from))
-              .thread_name(event.getThreadName())
-              .build();
+    String finish() throws IOException {
+      generator.flush();
+      String result = buffer.append(Layout.LINE_SEP).toString();
+      buffer.setLength(0);
+      if (buffer.capacity() > MAX_REUSABLE_BUFFER_SIZE) {
+        // don't hold onto the memory for outsized events
+        buffer.trimToSize();
+        buffer.ensureCapacity(INITIAL_BUFFER_SIZE);
+      }
+      return result;
     }
 
-    default LoggingEventJson applyPayloadException(Throwable e) {
-      return ImmutableLoggingEventJson.builder()
-              .from(this)
-              .payload(Optional.empty())
-              .payload_exception(ThrowableInfoJson.from(e))
-              .build();
+    /**
+     * Equivalent to {@link DateTimeFormatter#ISO_INSTANT} for millisecond timestamps, but only allocates
+     * when the date changes (or for years outside 0000-9999).
+     */
+    void writeTimestamp(long epochMillis) throws IOException {
+      long epochSecond = Math.floorDiv(epochMillis, 1000);
+      int millis = (int) Math.floorMod(epochMillis, 1000);
+      long epochDay = Math.floorDiv(epochSecond, 86400);
+      if (epochDay != timestampEpochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+          generator.writeString(TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(epochMillis)));
+          return;
+        }
+        writeDigits(year, 0, 4);
+        writeDigits(date.getMonthValue(), 5, 2);
+        writeDigits(date.getDayOfMonth(), 8, 2);
+        timestampEpochDay = epochDay;
+      }
+      int secondOfDay = (int) Math.floorMod(epochSecond, 86400);
+      writeDigits(secondOfDay / 3600, 11, 2);
+      writeDigits((secondOfDay / 60) % 60, 14, 2);
+      writeDigits(secondOfDay % 60, 17, 2);
+      if (millis == 0) {
+        timestamp[19] = 'Z';
+        generator.writeString(timestamp, 0, 20);
+      } else {
+        timestamp[19] = '.';
+        writeDigits(millis, 20, 3);
+        timestamp[23] = 'Z';
+        generator.writeString(timestamp, 0, 24);
+      }
     }
 
-    @Value.Immutable
-    @JsonSerialize
-    interface ThrowableInfoJson {
-
-      Optional<Class<? extends Throwable>> exception_class();
-      Optional<String> exception_message();
-      Optional<String> stacktrace();
+    private void writeDigits(int value, int offset, int width) {
+      for (int i = offset + width - 1; i >= offset; i--) {
+        timestamp[i] = (char) ('0' + value % 10);
+        value /= 10;
+      }
+    }
+  }
 
-      ThrowableInfoJson MISSING = ImmutableThrowableInfoJson.builder().exception_message("[exception missing]").build();
+  private static class ContextJson {
+    private final Map<String, Object> context;
 
-      static ThrowableInfoJson from(Throwable throwable) {
-        return ImmutableThrowableInfoJson.builder()
-                .exception_class(throwable.getClass())
-                .exception_message(Optional.ofNullable(throwable.getMessage()))
-                .stacktrace(Throwables.getStackTraceAsString(throwable))
-                .build();
-      }
+    ContextJson(Map<String, Object> context) {
+      this.context = context;
+    }
 
-      static ThrowableInfoJson from(ThrowableInformation info) {
-        Throwable throwable = info.getThrowable();
-        if (throwable != null) return from(throwable);
-        return Optional.ofNullable(info.getThrowableStrRep())
-                .<ThrowableInfoJson>map(strRep -> ImmutableThrowableInfoJson.builder()
-                        .stacktrace(String.join("\n", strRep))
-                        .build()
-                ).orElse(MISSING); // shouldn't happen?
-      }
+    @JsonAnyGetter
+    public Map<String, Object> getContext() {
+      return context;
     }
   }
 }
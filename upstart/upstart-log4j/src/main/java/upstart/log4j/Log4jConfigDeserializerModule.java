@@ -10,7 +10,8 @@ public class Log4jConfigDeserializerModule extends SimpleModule {
     registerSubtypes(
             ConsoleLog4jAppenderConfig.JsonLayoutConfig.class,
             ConsoleLog4jAppenderConfig.PatternLayoutConfig.class,
-            ConsoleLog4jAppenderConfig.class
+            ConsoleLog4jAppenderConfig.class,
+            AsyncLog4jAppenderConfig.class
     );
   }
 }
@@ -1,5 +1,6 @@
 package upstart.log4j;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import upstart.log.UpstartLogConfig;
 import upstart.log.UpstartLogProvider;
@@ -11,8 +12,13 @@ import org.apache.log4j.MDC;
 import org.kohsuke.MetaInfServices;
 import org.slf4j.Logger;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,6 +33,7 @@ public class UpstartLog4jProvider implements UpstartLogProvider {
           )
   );
   static final String STRUCTURED_LOG_PAYLOAD = "STRUCTURED_LOG_PAYLOAD";
+  private final List<Runnable> gaugesListeners = new CopyOnWriteArrayList<>();
 
   public void logWithPayload(Logger logger, LogLevel level, Object structuredLogEvent, String message) {
     if (level.isEnabled(logger)) {
@@ -44,6 +51,7 @@ public class UpstartLog4jProvider implements UpstartLogProvider {
     setThreshold(LogManager.getRootLogger(), config.rootLogger());
     config.levels().forEach(UpstartLog4jProvider::setThreshold);
     config.appenders().forEach((name, appenderConfig) -> configureAppender(name, appenderConfig, config));
+    gaugesListeners.forEach(Runnable::run);
   }
 
   private static void configureAppender(String name, UpstartLogConfig.AppenderConfig appenderConfig, UpstartLogConfig config) {
@@ -52,8 +60,48 @@ public class UpstartLog4jProvider implements UpstartLogProvider {
     Appender appender = log4jConfig.configureAppender(name, config);
     appender.setName(name);
     org.apache.log4j.Logger rootLogger = LogManager.getRootLogger();
+    Appender replaced = rootLogger.getAppender(name);
     rootLogger.removeAppender(name);
     rootLogger.addAppender(appender);
+    if (replaced != null) replaced.close();
+  }
+
+  @Override
+  public void flush() {
+    asyncAppenders().forEach(AsyncLog4jAppender::flush);
+  }
+
+  @Override
+  public Map<String, LongSupplier> gauges() {
+    ImmutableMap.Builder<String, LongSupplier> gauges = ImmutableMap.builder();
+    asyncAppenders().map(Appender::getName).forEach(name -> {
+      // look up the appender on each read, in case it is replaced by a later applyLogConfig
+      gauges.put("upstart.log." + name + ".queueDepth", () -> asyncAppender(name).map(AsyncLog4jAppender::queueDepth).orElse(0));
+      gauges.put("upstart.log." + name + ".dropped", () -> asyncAppender(name).map(AsyncLog4jAppender::droppedCount).orElse(0L));
+    });
+    return gauges.build();
+  }
+
+  @Override
+  public void addGaugesListener(Runnable listener) {
+    gaugesListeners.add(listener);
+  }
+
+  @Override
+  public void removeGaugesListener(Runnable listener) {
+    gaugesListeners.remove(listener);
+  }
+
+  private static Stream<AsyncLog4jAppender> asyncAppenders() {
+    return Collections.list(LogManager.getRootLogger().getAllAppenders()).stream()
+            .filter(AsyncLog4jAppender.class::isInstance)
+            .map(AsyncLog4jAppender.class::cast);
+  }
+
+  private static Optional<AsyncLog4jAppender> asyncAppender(String name) {
+    return Optional.ofNullable(LogManager.getRootLogger().getAppender(name))
+            .filter(AsyncLog4jAppender.class::isInstance)
+            .map(AsyncLog4jAppender.class::cast);
   }
 
   private static void setThreshold(String name, UpstartLogConfig.LogThreshold threshold) {
@@ -0,0 +1,85 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}. Unlike the codahale reservoirs, recording a value
+ * is wait-free: writers never contend with one another or with readers.
+ * <p/>
+ * Each call to {@link #getSnapshot} flips the recorder to capture the values recorded since the previous snapshot
+ * as an interval, and reports the union of all intervals captured within the configured {@code window}. The
+ * resulting {@link HdrHistogramSnapshot HdrHistogramSnapshots} retain full percentile accuracy (to the configured
+ * number of significant digits), and may be {@link HdrHistogramSnapshot#merge merged} with one another.
+ * <p/>
+ * Negative values are recorded as zero.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+  private final int significantDigits;
+  private final long windowNanos;
+  private final Clock clock;
+  private final Recorder recorder;
+  private final Deque<Interval> intervals = new ArrayDeque<>();
+  private Histogram recycledHistogram;
+
+  public HdrHistogramReservoir(int significantDigits, Duration window) {
+    this(significantDigits, window, Clock.defaultClock());
+  }
+
+  public HdrHistogramReservoir(int significantDigits, Duration window, Clock clock) {
+    checkArgument(!window.isNegative() && !window.isZero(), "window must be positive: %s", window);
+    this.significantDigits = significantDigits;
+    this.windowNanos = window.toNanos();
+    this.clock = clock;
+    recorder = new Recorder(significantDigits);
+  }
+
+  /**
+   * Note that this requires taking a {@link #getSnapshot snapshot}, which is relatively expensive.
+   */
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    recorder.recordValue(Math.max(value, 0));
+  }
+
+  @Override
+  public synchronized HdrHistogramSnapshot getSnapshot() {
+    long now = clock.getTick();
+    intervals.addLast(new Interval(now, recorder.getIntervalHistogram(recycledHistogram)));
+    recycledHistogram = null;
+
+    long horizon = now - windowNanos;
+    while (intervals.getFirst().endTick < horizon) {
+      recycledHistogram = intervals.removeFirst().histogram;
+    }
+
+    Histogram windowHistogram = new Histogram(significantDigits);
+    for (Interval interval : intervals) {
+      windowHistogram.add(interval.histogram);
+    }
+    return new HdrHistogramSnapshot(windowHistogram);
+  }
+
+  private static class Interval {
+    final long endTick;
+    final Histogram histogram;
+
+    Interval(long endTick, Histogram histogram) {
+      this.endTick = endTick;
+      this.histogram = histogram;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+import java.util.zip.DataFormatException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link Snapshot} of an HdrHistogram, as produced by {@link HdrHistogramReservoir}.
+ * <p/>
+ * Snapshots may be {@link #merge merged} to summarize a metric across multiple tags, or across multiple nodes
+ * by exchanging their compact {@link #encode encoded} form.
+ */
+public class HdrHistogramSnapshot extends Snapshot {
+  private final Histogram histogram;
+
+  HdrHistogramSnapshot(Histogram histogram) {
+    this.histogram = histogram;
+  }
+
+  /**
+   * Combines the given snapshots (which must all be {@link HdrHistogramSnapshot HdrHistogramSnapshots}) into one,
+   * retaining the highest precision among them.
+   */
+  public static HdrHistogramSnapshot merge(Iterable<? extends Snapshot> snapshots) {
+    int significantDigits = 0;
+    for (Snapshot snapshot : snapshots) {
+      significantDigits = Math.max(significantDigits, hdrSnapshot(snapshot).histogram.getNumberOfSignificantValueDigits());
+    }
+    Histogram merged = new Histogram(significantDigits);
+    for (Snapshot snapshot : snapshots) {
+      merged.add(hdrSnapshot(snapshot).histogram);
+    }
+    return new HdrHistogramSnapshot(merged);
+  }
+
+  /**
+   * Restores a snapshot from the form produced by {@link #encode}.
+   */
+  public static HdrHistogramSnapshot decode(byte[] encoded) {
+    try {
+      return new HdrHistogramSnapshot(Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded), 0));
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Invalid encoded HdrHistogramSnapshot", e);
+    }
+  }
+
+  private static HdrHistogramSnapshot hdrSnapshot(Snapshot snapshot) {
+    checkArgument(snapshot instanceof HdrHistogramSnapshot, "Only HdrHistogramSnapshots can be merged: %s", snapshot);
+    return (HdrHistogramSnapshot) snapshot;
+  }
+
+  /**
+   * Encodes this snapshot in HdrHistogram's compressed format, for transmission to other nodes.
+   * @see #decode
+   */
+  public byte[] encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+    int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+    return Arrays.copyOf(buffer.array(), length);
+  }
+
+  /**
+   * @return a copy of the underlying {@link Histogram}
+   */
+  public Histogram histogram() {
+    return histogram.copy();
+  }
+
+  @Override
+  public double getValue(double quantile) {
+    checkArgument(quantile >= 0.0 && quantile <= 1.0 && !Double.isNaN(quantile), "%s is not in [0..1]", quantile);
+    return histogram.getValueAtPercentile(quantile * 100);
+  }
+
+  /**
+   * Returns one representative value for each distinct bucket of recorded values (rather than every recorded value).
+   */
+  @Override
+  public long[] getValues() {
+    return recordedBucketValues().toArray();
+  }
+
+  @Override
+  public int size() {
+    return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+  }
+
+  @Override
+  public long getMax() {
+    return histogram.getMaxValue();
+  }
+
+  @Override
+  public double getMean() {
+    return histogram.getMean();
+  }
+
+  @Override
+  public long getMin() {
+    return histogram.getMinValue();
+  }
+
+  @Override
+  public double getStdDev() {
+    return histogram.getStdDeviation();
+  }
+
+  @Override
+  public void dump(OutputStream output) {
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+      recordedBucketValues().forEach(out::println);
+    }
+  }
+
+  private LongStream recordedBucketValues() {
+    LongStream.Builder builder = LongStream.builder();
+    for (HistogramIterationValue value : histogram.recordedValues()) {
+      builder.add(value.getValueIteratedTo());
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,148 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import jdk.jfr.EventSettings;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.config.UpstartModule;
+import upstart.config.annotations.ConfigPath;
+import upstart.util.concurrent.services.IdleService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Streams JDK Flight Recorder events into the {@link TaggedMetricRegistry}, to expose runtime behavior that the
+ * MXBean-based {@link JvmMetricsModule} cannot observe: GC pause distribution, allocation rate, safepoint time,
+ * monitor contention, and virtual-thread pinning.
+ * <p/>
+ * The {@link JfrEventSet event-sets} to record, and the minimum duration of events to record for each, are
+ * configured via {@link JfrMetricsConfig} ({@code upstart.metrics.jfr}).
+ */
+public class JfrMetricsModule extends UpstartModule {
+  @Override
+  protected void configure() {
+    bindConfig(JfrMetricsConfig.class);
+    serviceManager().manage(JfrMetricsService.class);
+  }
+
+  @ConfigPath("upstart.metrics.jfr")
+  public interface JfrMetricsConfig {
+    Set<JfrEventSet> eventSets();
+
+    /**
+     * Minimum durations for recorded events; events shorter than their threshold are not recorded (or reported).
+     * Event-sets without a configured threshold use the JDK's default settings.
+     */
+    Map<JfrEventSet, Duration> thresholds();
+
+    default Optional<Duration> threshold(JfrEventSet eventSet) {
+      return Optional.ofNullable(thresholds().get(eventSet));
+    }
+  }
+
+  public enum JfrEventSet {
+    /** Timer: {@code jvm.jfr.gc.pause[collector]} */
+    GarbageCollection("jdk.GarbageCollection") {
+      @Override
+      void subscribe(RecordingStream stream, TaggedMetricRegistry registry) {
+        MetricFamily<Timer> pauses = registry.timerFamily("jvm.jfr.gc.pause", "collector");
+        stream.onEvent(eventName, event -> pauses.get(event.getString("name")).update(event.getDuration("sumOfPauses")));
+      }
+    },
+    /** Meter: {@code jvm.jfr.allocation.bytes}, estimated from sampled allocations */
+    Allocation("jdk.ObjectAllocationSample") {
+      @Override
+      void subscribe(RecordingStream stream, TaggedMetricRegistry registry) {
+        Meter allocatedBytes = registry.meter("jvm.jfr.allocation.bytes");
+        stream.onEvent(eventName, event -> allocatedBytes.mark(event.getLong("weight")));
+      }
+    },
+    /**
+     * Timer: {@code jvm.jfr.safepoint.sync}, the time taken to bring all threads to a safepoint (excluding the
+     * safepoint operation itself)
+     */
+    Safepoints("jdk.SafepointStateSynchronization") {
+      @Override
+      void subscribe(RecordingStream stream, TaggedMetricRegistry registry) {
+        Timer safepoints = registry.timer("jvm.jfr.safepoint.sync");
+        stream.onEvent(eventName, event -> safepoints.update(event.getDuration()));
+      }
+    },
+    /** Timer: {@code jvm.jfr.monitor.contention[monitorClass]} */
+    MonitorContention("jdk.JavaMonitorEnter") {
+      @Override
+      void subscribe(RecordingStream stream, TaggedMetricRegistry registry) {
+        MetricFamily<Timer> contention = registry.timerFamily("jvm.jfr.monitor.contention", 100, "monitorClass");
+        stream.onEvent(eventName, event -> {
+          RecordedClass monitorClass = event.getClass("monitorClass");
+          contention.get(monitorClass == null ? "unknown" : monitorClass.getName()).update(event.getDuration());
+        });
+      }
+    },
+    /** Histogram: {@code jvm.jfr.virtualThread.pinned} (in nanoseconds). Only emitted by JDK 21+ */
+    VirtualThreadPinning("jdk.VirtualThreadPinned") {
+      @Override
+      void subscribe(RecordingStream stream, TaggedMetricRegistry registry) {
+        Histogram pinned = registry.histogram("jvm.jfr.virtualThread.pinned");
+        stream.onEvent(eventName, event -> pinned.update(event.getDuration().toNanos()));
+      }
+    };
+
+    final String eventName;
+
+    JfrEventSet(String eventName) {
+      this.eventName = eventName;
+    }
+
+    abstract void subscribe(RecordingStream stream, TaggedMetricRegistry registry);
+
+    void enable(RecordingStream stream, Optional<Duration> threshold) {
+      EventSettings settings = stream.enable(eventName);
+      threshold.ifPresent(settings::withThreshold);
+    }
+  }
+
+  @Singleton
+  static class JfrMetricsService extends IdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(JfrMetricsService.class);
+    private final JfrMetricsConfig config;
+    private final TaggedMetricRegistry registry;
+    private RecordingStream stream;
+
+    @Inject
+    JfrMetricsService(JfrMetricsConfig config, TaggedMetricRegistry registry) {
+      this.config = config;
+      this.registry = registry;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+      stream = new RecordingStream();
+      // events are consumed immediately and not retained, so skip the overhead of sorting and allocating them
+      stream.setOrdered(false);
+      stream.setReuse(true);
+      for (JfrEventSet eventSet : config.eventSets()) {
+        eventSet.enable(stream, config.threshold(eventSet));
+        eventSet.subscribe(stream, registry);
+      }
+      stream.onError(e -> LOG.warn("Error processing JFR event stream", e));
+      stream.startAsync();
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+      stream.close();
+      // close doesn't wait for the dispatch-thread, which may still be delivering a batch of events
+      stream.awaitTermination(Duration.ofSeconds(5));
+    }
+  }
+}
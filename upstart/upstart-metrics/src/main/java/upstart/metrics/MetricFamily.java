@@ -0,0 +1,142 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Metric;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A group of tagged metrics sharing a name and a fixed set of tag-keys, for recording metrics whose tag-values
+ * vary from one call to the next (eg, per-tenant or per-status metrics).
+ * <p/>
+ * The name and tag-keys are bound once, when the family is obtained from the {@link TaggedMetricRegistry}. Each
+ * metric is then resolved from its tag-values via nested lookups keyed directly by those values, so fetching an
+ * existing metric performs no name-encoding, sorting, or string-building.
+ * <p/>
+ * To protect against unbounded tag-values, each family is limited to {@code maxCardinality} distinct metrics;
+ * beyond that limit, all new combinations of tag-values are recorded in a single overflow metric. The overflow metric
+ * carries only the reserved {@link #OVERFLOW_TAG} (rather than the family's own tag-keys), so it cannot collide with
+ * any real combination of tag-values.
+ *
+ * @see TaggedMetricRegistry#counterFamily
+ * @see TaggedMetricRegistry#timerFamily
+ */
+public class MetricFamily<M extends Metric> {
+  private static final Logger LOG = LoggerFactory.getLogger(MetricFamily.class);
+  public static final String OVERFLOW_TAG = "cardinalityOverflow";
+
+  private final String name;
+  private final String[] tagKeys;
+  private final int maxCardinality;
+  private final Function<String, M> metricFactory;
+  private final ConcurrentMap<String, Object> metricsByTagValue = new ConcurrentHashMap<>();
+  private int cardinality = 0;
+  // assigned (under the lock) when the family first exceeds maxCardinality; read without locking thereafter
+  private volatile M overflowMetric;
+
+  MetricFamily(String name, String[] tagKeys, int maxCardinality, Function<String, M> metricFactory) {
+    checkArgument(tagKeys.length > 0, "MetricFamily requires at least one tag-key: %s", name);
+    checkArgument(maxCardinality > 0, "maxCardinality must be positive: %s", maxCardinality);
+    checkArgument(!Arrays.asList(tagKeys).contains(OVERFLOW_TAG), "'%s' is a reserved tag-key: %s", OVERFLOW_TAG, name);
+    this.name = name;
+    this.tagKeys = tagKeys.clone();
+    this.maxCardinality = maxCardinality;
+    this.metricFactory = metricFactory;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public M get(String tagValue) {
+    checkArity(1);
+    Object metric = metricsByTagValue.get(tagValue);
+    return metric != null ? cast(metric) : registerOrOverflow(tagValue);
+  }
+
+  public M get(String tagValue1, String tagValue2) {
+    checkArity(2);
+    Object metric = nested(metricsByTagValue.get(tagValue1), tagValue2);
+    return metric != null ? cast(metric) : registerOrOverflow(tagValue1, tagValue2);
+  }
+
+  public M get(String... tagValues) {
+    checkArity(tagValues.length);
+    Object metric = metricsByTagValue.get(tagValues[0]);
+    for (int i = 1; i < tagValues.length && metric != null; i++) {
+      metric = nested(metric, tagValues[i]);
+    }
+    return metric != null ? cast(metric) : registerOrOverflow(tagValues);
+  }
+
+  // once the family is saturated, new tag-values go straight to the overflow metric without contending for the lock
+  private M registerOrOverflow(String... tagValues) {
+    M overflow = overflowMetric;
+    return overflow != null ? overflow : register(tagValues);
+  }
+
+  private synchronized M register(String... tagValues) {
+    ConcurrentMap<String, Object> level = metricsByTagValue;
+    int lastIdx = tagValues.length - 1;
+    for (int i = 0; i < lastIdx; i++) {
+      Object next = level.get(tagValues[i]);
+      if (next == null) {
+        if (cardinality >= maxCardinality) return overflowMetric();
+        next = new ConcurrentHashMap<String, Object>();
+        level.put(tagValues[i], next);
+      }
+      level = nestedMap(next);
+    }
+
+    Object metric = level.get(tagValues[lastIdx]);
+    if (metric == null) {
+      if (cardinality >= maxCardinality) return overflowMetric();
+      metric = createMetric(tagValues);
+      level.put(tagValues[lastIdx], metric);
+      cardinality++;
+    }
+    return cast(metric);
+  }
+
+  private M overflowMetric() {
+    M metric = overflowMetric;
+    if (metric == null) {
+      LOG.warn("MetricFamily '{}' exceeded maxCardinality ({}); additional tag-values will be recorded with tag '{}'", name, maxCardinality, OVERFLOW_TAG);
+      overflowMetric = metric = metricFactory.apply(TaggedMetricName.encodedName(name, ImmutableMap.of(OVERFLOW_TAG, "true")));
+    }
+    return metric;
+  }
+
+  private M createMetric(String[] tagValues) {
+    ImmutableMap.Builder<String, String> tags = ImmutableMap.builderWithExpectedSize(tagKeys.length);
+    for (int i = 0; i < tagKeys.length; i++) {
+      tags.put(tagKeys[i], tagValues[i]);
+    }
+    return metricFactory.apply(TaggedMetricName.encodedName(name, tags.build()));
+  }
+
+  private void checkArity(int tagValueCount) {
+    checkArgument(tagValueCount == tagKeys.length, "MetricFamily '%s' expects %s tag-values %s, got %s", name, tagKeys.length, Arrays.asList(tagKeys), tagValueCount);
+  }
+
+  private static Object nested(Object level, String tagValue) {
+    return level == null ? null : nestedMap(level).get(tagValue);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ConcurrentMap<String, Object> nestedMap(Object level) {
+    return (ConcurrentMap<String, Object>) level;
+  }
+
+  @SuppressWarnings("unchecked")
+  private M cast(Object metric) {
+    return (M) metric;
+  }
+}
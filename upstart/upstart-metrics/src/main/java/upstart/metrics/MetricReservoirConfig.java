@@ -0,0 +1,49 @@
+package upstart.metrics;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import upstart.config.annotations.ConfigPath;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Selects the {@link Reservoir} used by the {@link TaggedMetricRegistry} for every {@link com.codahale.metrics.Timer}
+ * and {@link com.codahale.metrics.Histogram} it creates.
+ */
+@ConfigPath("upstart.metrics.reservoir")
+public interface MetricReservoirConfig {
+  ReservoirType type();
+
+  /**
+   * The number of significant decimal digits retained for recorded values (0-5). Only used by
+   * {@link ReservoirType#HdrHistogram}.
+   */
+  int significantDigits();
+
+  /**
+   * The span of recent history reflected by each snapshot. Only used by {@link ReservoirType#HdrHistogram}.
+   */
+  Duration window();
+
+  default Supplier<Reservoir> reservoirSupplier() {
+    return type().reservoirSupplier(significantDigits(), window());
+  }
+
+  enum ReservoirType {
+    HdrHistogram {
+      @Override
+      Supplier<Reservoir> reservoirSupplier(int significantDigits, Duration window) {
+        return () -> new HdrHistogramReservoir(significantDigits, window);
+      }
+    },
+    ExponentiallyDecaying {
+      @Override
+      Supplier<Reservoir> reservoirSupplier(int significantDigits, Duration window) {
+        return ExponentiallyDecayingReservoir::new;
+      }
+    };
+
+    abstract Supplier<Reservoir> reservoirSupplier(int significantDigits, Duration window);
+  }
+}
@@ -7,6 +7,7 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Reservoir;
 import com.codahale.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +18,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -24,9 +26,13 @@ import static com.google.common.base.Preconditions.checkArgument;
 /**
  * A MetricRegistry that supports tagged metrics. Also supports nesting of other MetricRegistries
  * with name-prefixes, with tracking of subsequent changes to those registries.
+ * <p/>
+ * {@link Timer Timers} and {@link Histogram Histograms} created by this registry use the {@link Reservoir}
+ * selected by the {@link MetricReservoirConfig}.
  *
  * @see #meter(String, Map)
  * @see #timer(String, Map)
+ * @see #timerFamily(String, String...)
  * @see #register(String, Map, Metric)
  * @see #registerNestedRegistry(String, MetricRegistry)
  */
@@ -34,12 +40,19 @@ import static com.google.common.base.Preconditions.checkArgument;
 public class TaggedMetricRegistry extends MetricRegistry {
   private static final Logger LOG = LoggerFactory.getLogger(TaggedMetricRegistry.class);
 
+  public static final int DEFAULT_MAX_FAMILY_CARDINALITY = 1000;
+
   private static final Pattern LEGAL_METRIC_NAME = Pattern.compile("^[\\w.-]+(\\[|$)");
 
   private final ConcurrentMap<MetricRegistry, String> namesByRegistry = new ConcurrentHashMap<>();
+  private final MetricSupplier<Histogram> histogramSupplier;
+  private final MetricSupplier<Timer> timerSupplier;
 
   @Inject
-  public TaggedMetricRegistry(Set<TaggedMetricReporter> reporters) {
+  public TaggedMetricRegistry(Set<TaggedMetricReporter> reporters, MetricReservoirConfig reservoirConfig) {
+    Supplier<Reservoir> reservoirSupplier = reservoirConfig.reservoirSupplier();
+    histogramSupplier = () -> new Histogram(reservoirSupplier.get());
+    timerSupplier = () -> new Timer(reservoirSupplier.get());
     if (!reporters.isEmpty()) {
       for (TaggedMetricReporter reporter : reporters) {
         reporter.initMetricRegistry(this);
@@ -68,26 +81,90 @@ public class TaggedMetricRegistry extends MetricRegistry {
     return register(TaggedMetricName.encodedName(name, tags), metric);
   }
 
+  /**
+   * @see MetricRegistry#gauge(String, MetricSupplier)
+   */
+  @SuppressWarnings("rawtypes")
+  public <T extends Gauge> T gauge(String name, Map<String, String> tags, MetricSupplier<T> supplier) {
+    return gauge(TaggedMetricName.encodedName(name, tags), supplier);
+  }
+
   public Counter counter(String name, Map<String, String> tags) {
     return super.counter(TaggedMetricName.encodedName(name, tags));
   }
 
+  @Override
+  public Histogram histogram(String name) {
+    return histogram(name, histogramSupplier);
+  }
+
   public Histogram histogram(String name, Map<String, String> tags) {
-    return super.histogram(TaggedMetricName.encodedName(name, tags));
+    return histogram(TaggedMetricName.encodedName(name, tags));
   }
 
   public Meter meter(String name, Map<String, String> tags) {
     return super.meter(TaggedMetricName.encodedName(name, tags));
   }
 
+  @Override
+  public Timer timer(String name) {
+    return timer(name, timerSupplier);
+  }
+
   public Timer timer(String name, Map<String, String> tags) {
-    return super.timer(TaggedMetricName.encodedName(name, tags));
+    return timer(TaggedMetricName.encodedName(name, tags));
   }
 
   public boolean remove(String name, Map<String, String> tags) {
     return remove(TaggedMetricName.encodedName(name, tags));
   }
 
+  /**
+   * Binds the given name and tag-keys into a {@link MetricFamily} of {@link Counter Counters}, for efficiently
+   * resolving counters with varying tag-values. The family is limited to {@link #DEFAULT_MAX_FAMILY_CARDINALITY}
+   * distinct counters.
+   */
+  public MetricFamily<Counter> counterFamily(String name, String... tagKeys) {
+    return counterFamily(name, DEFAULT_MAX_FAMILY_CARDINALITY, tagKeys);
+  }
+
+  public MetricFamily<Counter> counterFamily(String name, int maxCardinality, String... tagKeys) {
+    return new MetricFamily<>(name, tagKeys, maxCardinality, this::counter);
+  }
+
+  /**
+   * @see #counterFamily(String, String...)
+   */
+  public MetricFamily<Histogram> histogramFamily(String name, String... tagKeys) {
+    return histogramFamily(name, DEFAULT_MAX_FAMILY_CARDINALITY, tagKeys);
+  }
+
+  public MetricFamily<Histogram> histogramFamily(String name, int maxCardinality, String... tagKeys) {
+    return new MetricFamily<>(name, tagKeys, maxCardinality, this::histogram);
+  }
+
+  /**
+   * @see #counterFamily(String, String...)
+   */
+  public MetricFamily<Meter> meterFamily(String name, String... tagKeys) {
+    return meterFamily(name, DEFAULT_MAX_FAMILY_CARDINALITY, tagKeys);
+  }
+
+  public MetricFamily<Meter> meterFamily(String name, int maxCardinality, String... tagKeys) {
+    return new MetricFamily<>(name, tagKeys, maxCardinality, this::meter);
+  }
+
+  /**
+   * @see #counterFamily(String, String...)
+   */
+  public MetricFamily<Timer> timerFamily(String name, String... tagKeys) {
+    return timerFamily(name, DEFAULT_MAX_FAMILY_CARDINALITY, tagKeys);
+  }
+
+  public MetricFamily<Timer> timerFamily(String name, int maxCardinality, String... tagKeys) {
+    return new MetricFamily<>(name, tagKeys, maxCardinality, this::timer);
+  }
+
   /**
    * Registers all metrics attached to the given {@link MetricRegistry} as metrics in this one, with their names
    * prefixed with the given {@code namePrefix}.
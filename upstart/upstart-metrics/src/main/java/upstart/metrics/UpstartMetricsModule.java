@@ -1,12 +1,36 @@
 package upstart.metrics;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Service;
 import com.google.inject.Binder;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
+import upstart.BootstrapTimings;
 import upstart.config.UpstartModule;
+import upstart.log.UpstartLogProvider;
+import upstart.managedservices.LifecycleProfile;
+import upstart.managedservices.ManagedServiceGraph;
+import upstart.managedservices.ServiceLifecycle;
 import org.kohsuke.MetaInfServices;
 
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
 @MetaInfServices(Module.class)
 public class UpstartMetricsModule extends UpstartModule {
   public static Multibinder<TaggedMetricReporter> reporterBinder(Binder binder) {
@@ -16,7 +40,161 @@ public class UpstartMetricsModule extends UpstartModule {
   @Override
   protected void configure() {
     UpstartMetricsModule.reporterBinder(binder()); // initialize multibinder in case no real reporters are registered
+    bindConfig(MetricReservoirConfig.class);
     bind(MetricRegistry.class).to(TaggedMetricRegistry.class);
     bind(TaggedMetricRegistry.class).asEagerSingleton();
+    bind(LogProviderGauges.class).asEagerSingleton();
+    BootstrapTimings.optionalBinder(binder());
+    bind(BootstrapTimingGauges.class).asEagerSingleton();
+    bind(LifecycleProfileGauges.class).asEagerSingleton();
+  }
+
+  /**
+   * Registers the given gauge, replacing any existing gauge with the same name: a registry shared by successive
+   * instances of an application would otherwise retain the previous instance's gauges, reporting its stale state.
+   */
+  private static void replaceGauge(MetricRegistry registry, String name, Gauge<Long> gauge) {
+    registry.remove(name);
+    registry.register(name, gauge);
+  }
+
+  /**
+   * Publishes the {@link UpstartLogProvider#gauges} reported by the log-subsystem (eg, async-appender queue-depths).
+   * While the services are running, gauges for appenders added when the log-config is re-applied are also published;
+   * the listener is removed when the services stop, so the (static) provider doesn't retain this registry.
+   */
+  static class LogProviderGauges extends Service.Listener {
+    private final MetricRegistry registry;
+    private final Optional<UpstartLogProvider> logProvider;
+    private final Runnable registerGauges = this::registerGauges;
+
+    @Inject
+    LogProviderGauges(
+            MetricRegistry registry,
+            @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure) ManagedServiceGraph serviceGraph
+    ) {
+      this(registry, serviceGraph, UpstartLogProvider.CLASSPATH_PROVIDER);
+    }
+
+    LogProviderGauges(MetricRegistry registry, Service serviceGraph, Optional<UpstartLogProvider> logProvider) {
+      this.registry = registry;
+      this.logProvider = logProvider;
+      registerGauges();
+      serviceGraph.addListener(this, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public void starting() {
+      logProvider.ifPresent(provider -> provider.addGaugesListener(registerGauges));
+    }
+
+    @Override
+    public void terminated(Service.State from) {
+      logProvider.ifPresent(provider -> provider.removeGaugesListener(registerGauges));
+    }
+
+    @Override
+    public void failed(Service.State from, Throwable failure) {
+      logProvider.ifPresent(provider -> provider.removeGaugesListener(registerGauges));
+    }
+
+    private void registerGauges() {
+      logProvider.ifPresent(provider -> provider.gauges().forEach(
+              (name, value) -> replaceGauge(registry, name, value::getAsLong)
+      ));
+    }
+  }
+
+  /**
+   * Publishes the {@link BootstrapTimings} of the application (in milliseconds), so that regressions in startup-time
+   * are visible. Injectors which weren't built by {@link upstart.UpstartService.Builder} have no timings to publish.
+   */
+  static class BootstrapTimingGauges {
+    @Inject
+    BootstrapTimingGauges(MetricRegistry registry, Optional<BootstrapTimings> bootstrapTimings) {
+      bootstrapTimings.ifPresent(timings -> register(registry, timings));
+    }
+
+    private static void register(MetricRegistry registry, BootstrapTimings timings) {
+      replaceGauge(registry, "upstart.bootstrap.configMillis", () -> timings.configLoad().toMillis());
+      replaceGauge(registry, "upstart.bootstrap.injectorMillis", () -> timings.injectorCreation().toMillis());
+      replaceGauge(registry, "upstart.bootstrap.serviceStartMillis",
+              () -> timings.serviceStartup().map(Duration::toMillis).orElse(-1L));
+    }
+  }
+
+  /**
+   * Publishes the {@link LifecycleProfile} of the application's services: the startup and shutdown durations (and
+   * time spent waiting for dependencies) of each service, tagged by {@code service}, and the total durations of the
+   * startup and shutdown critical paths. The gauges are registered once the services are running, and read the profile
+   * whenever they are reported (so shutdown timings are published as each service stops); durations which have not yet
+   * been recorded are reported as -1. Services which share a name are reported together, as the slowest of them.
+   */
+  static class LifecycleProfileGauges extends Service.Listener {
+    private static final Pattern ILLEGAL_TAG_CHARS = Pattern.compile("[\\[\\],:\\s]+");
+    private static final String SERVICE_TAG = "service";
+    private final TaggedMetricRegistry registry;
+    private final ManagedServiceGraph serviceGraph;
+    private final Supplier<LifecycleProfile> profile;
+
+    @Inject
+    LifecycleProfileGauges(
+            TaggedMetricRegistry registry,
+            @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure) ManagedServiceGraph serviceGraph
+    ) {
+      this.registry = registry;
+      this.serviceGraph = serviceGraph;
+      // computing the profile walks the whole graph, so share it across the gauges read by a single report
+      profile = Suppliers.memoizeWithExpiration(serviceGraph::lifecycleProfile, 1, TimeUnit.SECONDS);
+      serviceGraph.addListener(this, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public void running() {
+      Set<String> serviceNames = serviceGraph.lifecycleProfile().startup().stream()
+              .map(LifecycleProfile.Span::serviceName)
+              .collect(Collectors.toCollection(LinkedHashSet::new));
+      for (String serviceName : serviceNames) {
+        Map<String, String> tags = ImmutableMap.of(SERVICE_TAG, serviceTag(serviceName));
+        registerMillis("upstart.lifecycle.startupMillis", tags, () -> slowest(profile.get().startup(), serviceName, LifecycleProfile.Span::duration));
+        registerMillis("upstart.lifecycle.startupWaitMillis", tags, () -> slowest(profile.get().startup(), serviceName, LifecycleProfile.Span::waiting));
+        registerMillis("upstart.lifecycle.shutdownMillis", tags, () -> slowest(profile.get().shutdown(), serviceName, LifecycleProfile.Span::duration));
+        registerMillis("upstart.lifecycle.shutdownWaitMillis", tags, () -> slowest(profile.get().shutdown(), serviceName, LifecycleProfile.Span::waiting));
+      }
+      registerMillis("upstart.lifecycle.startupCriticalPathMillis", ImmutableMap.of(), () -> elapsed(profile.get().startupCriticalPath()));
+      registerMillis("upstart.lifecycle.shutdownCriticalPathMillis", ImmutableMap.of(), () -> elapsed(profile.get().shutdownCriticalPath()));
+    }
+
+    /**
+     * Service-names may contain characters which are reserved by the {@link TaggedMetricName} encoding
+     */
+    static String serviceTag(String serviceName) {
+      return ILLEGAL_TAG_CHARS.matcher(serviceName).replaceAll("_");
+    }
+
+    private void registerMillis(String name, Map<String, String> tags, Supplier<Optional<Duration>> value) {
+      replaceGauge(
+              registry,
+              TaggedMetricName.encodedName(name, tags),
+              () -> value.get().map(Duration::toMillis).orElse(-1L)
+      );
+    }
+
+    private static Optional<Duration> slowest(
+            List<LifecycleProfile.Span> spans,
+            String serviceName,
+            Function<LifecycleProfile.Span, Duration> duration
+    ) {
+      return spans.stream()
+              .filter(span -> span.serviceName().equals(serviceName))
+              .map(duration)
+              .max(Comparator.naturalOrder());
+    }
+
+    private static Optional<Duration> elapsed(List<LifecycleProfile.Span> criticalPath) {
+      return criticalPath.isEmpty()
+              ? Optional.empty()
+              : Optional.of(Duration.ofNanos(criticalPath.get(criticalPath.size() - 1).completedNanos() - criticalPath.get(0).requestedNanos()));
+    }
   }
 }
@@ -0,0 +1,68 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Clock;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class HdrHistogramReservoirTest {
+  private final FakeClock clock = new FakeClock();
+  private final HdrHistogramReservoir reservoir = new HdrHistogramReservoir(3, Duration.ofMinutes(1), clock);
+
+  @Test
+  void snapshotsReflectWindow() {
+    for (int i = 1; i <= 100; i++) {
+      reservoir.update(i);
+    }
+    HdrHistogramSnapshot snapshot = reservoir.getSnapshot();
+    assertThat(snapshot.size()).isEqualTo(100);
+    assertThat(snapshot.getMin()).isEqualTo(1);
+    assertThat(snapshot.getMax()).isEqualTo(100);
+    assertThat(snapshot.getValue(0.99)).isEqualTo(99.0);
+
+    clock.advance(30, TimeUnit.SECONDS);
+    reservoir.update(1000);
+    assertThat(reservoir.getSnapshot().size()).isEqualTo(101);
+
+    clock.advance(45, TimeUnit.SECONDS);
+    HdrHistogramSnapshot recent = reservoir.getSnapshot();
+    assertThat(recent.size()).isEqualTo(1);
+    assertThat(recent.getMax()).isEqualTo(1000);
+
+    clock.advance(2, TimeUnit.MINUTES);
+    assertThat(reservoir.getSnapshot().size()).isEqualTo(0);
+  }
+
+  @Test
+  void snapshotsMergeAcrossEncoding() {
+    HdrHistogramReservoir other = new HdrHistogramReservoir(2, Duration.ofMinutes(1), clock);
+    reservoir.update(10);
+    reservoir.update(20);
+    other.update(30);
+
+    HdrHistogramSnapshot remote = HdrHistogramSnapshot.decode(other.getSnapshot().encode());
+    HdrHistogramSnapshot merged = HdrHistogramSnapshot.merge(ImmutableList.of(reservoir.getSnapshot(), remote));
+
+    assertThat(merged.size()).isEqualTo(3);
+    assertThat(merged.getMin()).isEqualTo(10);
+    assertThat(merged.getMax()).isEqualTo(30);
+    assertThat(merged.getMean()).isWithin(0.01).of(20);
+  }
+
+  private static class FakeClock extends Clock {
+    long tick = 0;
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+
+    void advance(long amount, TimeUnit unit) {
+      tick += unit.toNanos(amount);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.metrics.JfrMetricsModule.JfrEventSet;
+import upstart.metrics.JfrMetricsModule.JfrMetricsConfig;
+import upstart.test.UpstartLibraryTest;
+import upstart.test.UpstartTest;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@UpstartTest
+@UpstartLibraryTest
+class JfrMetricsModuleTest extends UpstartModule {
+  @Inject JfrMetricsConfig config;
+
+  @Override
+  protected void configure() {
+    install(new JfrMetricsModule());
+  }
+
+  @Test
+  void defaultConfigIsLoaded() {
+    assertThat(config.eventSets()).containsExactlyElementsIn(JfrEventSet.values());
+    assertThat(config.thresholds()).containsExactly(
+            JfrEventSet.Safepoints, Duration.ofMillis(1),
+            JfrEventSet.MonitorContention, Duration.ofMillis(10),
+            JfrEventSet.VirtualThreadPinning, Duration.ofMillis(20)
+    );
+    assertThat(config.threshold(JfrEventSet.Safepoints)).isEqualTo(Optional.of(Duration.ofMillis(1)));
+    assertThat(config.threshold(JfrEventSet.GarbageCollection)).isEqualTo(Optional.empty());
+  }
+
+  @Test
+  void recordingFollowsServiceLifecycle() {
+    TaggedMetricRegistry registry = new TaggedMetricRegistry(ImmutableSet.of(), TestReservoirConfig.HDR_HISTOGRAM);
+    JfrMetricsModule.JfrMetricsService service = new JfrMetricsModule.JfrMetricsService(new GcOnlyConfig(), registry);
+
+    service.startAsync().awaitRunning();
+    await().atMost(Duration.ofSeconds(30)).untilAsserted(() -> {
+      System.gc();
+      assertThat(gcPauseCount(registry)).isGreaterThan(0);
+    });
+
+    service.stopAsync().awaitTerminated();
+    long countAfterStop = gcPauseCount(registry);
+    // the stream flushes about once per second, so any events recorded after stopping would arrive within 2s
+    await().during(Duration.ofSeconds(2)).atMost(Duration.ofSeconds(5)).untilAsserted(() -> {
+      System.gc();
+      assertThat(gcPauseCount(registry)).isEqualTo(countAfterStop);
+    });
+  }
+
+  private static long gcPauseCount(TaggedMetricRegistry registry) {
+    return registry.getTimers((name, metric) -> name.startsWith("jvm.jfr.gc.pause")).values().stream()
+            .mapToLong(Timer::getCount)
+            .sum();
+  }
+
+  private static class GcOnlyConfig implements JfrMetricsConfig {
+    @Override
+    public Set<JfrEventSet> eventSets() {
+      return ImmutableSet.of(JfrEventSet.GarbageCollection);
+    }
+
+    @Override
+    public Map<JfrEventSet, Duration> thresholds() {
+      return ImmutableMap.of();
+    }
+  }
+}
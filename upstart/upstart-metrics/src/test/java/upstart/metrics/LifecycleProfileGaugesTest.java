@@ -0,0 +1,108 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.managedservices.ManagedServiceGraph;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.test.UpstartLibraryTest;
+import upstart.test.UpstartTest;
+import upstart.util.concurrent.services.IdleService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@UpstartTest
+@UpstartLibraryTest
+class LifecycleProfileGaugesTest extends UpstartModule {
+  private static final String SERVICE_TAG = "NamedService{id_1}";
+
+  @Inject TaggedMetricRegistry registry;
+  @Inject @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure) ManagedServiceGraph serviceGraph;
+
+  @Override
+  protected void configure() {
+    install(new UpstartMetricsModule());
+    serviceManager().manage(NamedService.class);
+  }
+
+  @Test
+  void timingsAreTaggedByServiceAndReportedThroughShutdown() {
+    serviceGraph.startAsync().awaitRunning();
+    // listeners are notified after awaitRunning returns
+    await().atMost(Duration.ofSeconds(5)).untilAsserted(
+            () -> assertThat(gauge(registry, "upstart.lifecycle.startupMillis")).isAtLeast(50L)
+    );
+    assertThat(gauge(registry, "upstart.lifecycle.shutdownMillis")).isEqualTo(-1L);
+    assertThat(gaugeValue(registry, "upstart.lifecycle.startupCriticalPathMillis")).isAtLeast(50L);
+
+    serviceGraph.stopAsync().awaitTerminated();
+    // the profile is memoized for up to a second
+    await().atMost(Duration.ofSeconds(5)).untilAsserted(
+            () -> assertThat(gauge(registry, "upstart.lifecycle.shutdownMillis")).isAtLeast(50L)
+    );
+    assertThat(gauge(registry, "upstart.lifecycle.shutdownWaitMillis")).isAtLeast(0L);
+    assertThat(gaugeValue(registry, "upstart.lifecycle.shutdownCriticalPathMillis")).isAtLeast(50L);
+  }
+
+  @Test
+  void restartedApplicationsReplaceTheGauges() {
+    serviceGraph.startAsync().awaitRunning();
+    serviceGraph.stopAsync().awaitTerminated();
+    await().atMost(Duration.ofSeconds(5)).untilAsserted(
+            () -> assertThat(gauge(registry, "upstart.lifecycle.shutdownMillis")).isAtLeast(50L)
+    );
+
+    // a restarted application shares the registry, but has a new service-graph
+    ManagedServiceGraph restarted = new ManagedServiceGraph(List.of(new NamedService()), List.of());
+    new UpstartMetricsModule.LifecycleProfileGauges(registry, restarted);
+    restarted.startAsync().awaitRunning();
+    try {
+      await().atMost(Duration.ofSeconds(5)).untilAsserted(
+              () -> assertThat(gauge(registry, "upstart.lifecycle.shutdownMillis")).isEqualTo(-1L)
+      );
+    } finally {
+      restarted.stopAsync().awaitTerminated();
+    }
+  }
+
+  @Test
+  void serviceTagsOmitReservedCharacters() {
+    assertThat(UpstartMetricsModule.LifecycleProfileGauges.serviceTag("Resource{id: a, b}[R]"))
+            .isEqualTo("Resource{id_a_b}_R_");
+  }
+
+  private static long gauge(TaggedMetricRegistry registry, String name) {
+    return gaugeValue(registry, TaggedMetricName.encodedName(name, ImmutableMap.of("service", SERVICE_TAG)));
+  }
+
+  private static long gaugeValue(TaggedMetricRegistry registry, String encodedName) {
+    Gauge<?> gauge = registry.getGauges().get(encodedName);
+    assertThat(gauge).isNotNull();
+    return (Long) gauge.getValue();
+  }
+
+  @Singleton
+  static class NamedService extends IdleService {
+    @Override
+    protected void startUp() throws InterruptedException {
+      Thread.sleep(50);
+    }
+
+    @Override
+    protected void shutDown() throws InterruptedException {
+      Thread.sleep(50);
+    }
+
+    @Override
+    public String serviceName() {
+      return "NamedService{id: 1}";
+    }
+  }
+}
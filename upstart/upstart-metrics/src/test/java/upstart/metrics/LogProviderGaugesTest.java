@@ -0,0 +1,59 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import upstart.log.UpstartLogProvider;
+import upstart.util.concurrent.services.IdleService;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LogProviderGaugesTest {
+  private final TaggedMetricRegistry registry = new TaggedMetricRegistry(ImmutableSet.of(), TestReservoirConfig.HDR_HISTOGRAM);
+  private final UpstartLogProvider provider = mock(UpstartLogProvider.class);
+  private final NoopService serviceGraph = new NoopService();
+
+  @Test
+  void listenerIsOnlyRetainedWhileRunning() {
+    when(provider.gauges()).thenReturn(Map.of("upstart.log.a.queueDepth", () -> 1L));
+    new UpstartMetricsModule.LogProviderGauges(registry, serviceGraph, Optional.of(provider));
+    assertThat(registry.getGauges().keySet()).containsExactly("upstart.log.a.queueDepth");
+    verify(provider, never()).addGaugesListener(any());
+
+    serviceGraph.startAsync().awaitRunning();
+    ArgumentCaptor<Runnable> listener = ArgumentCaptor.forClass(Runnable.class);
+    verify(provider, timeout(5000)).addGaugesListener(listener.capture());
+
+    when(provider.gauges()).thenReturn(Map.of(
+            "upstart.log.a.queueDepth", () -> 1L,
+            "upstart.log.b.queueDepth", (LongSupplier) () -> 2L
+    ));
+    listener.getValue().run();
+    Gauge<?> added = registry.getGauges().get("upstart.log.b.queueDepth");
+    assertThat(added.getValue()).isEqualTo(2L);
+
+    serviceGraph.stopAsync().awaitTerminated();
+    verify(provider, timeout(5000)).removeGaugesListener(listener.getValue());
+  }
+
+  static class NoopService extends IdleService {
+    @Override
+    protected void startUp() {
+    }
+
+    @Override
+    protected void shutDown() {
+    }
+  }
+}
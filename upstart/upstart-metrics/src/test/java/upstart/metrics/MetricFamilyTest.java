@@ -0,0 +1,52 @@
+package upstart.metrics;
+
+import com.codahale.metrics.Counter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MetricFamilyTest {
+  private final TaggedMetricRegistry registry = new TaggedMetricRegistry(ImmutableSet.of(), TestReservoirConfig.HDR_HISTOGRAM);
+
+  @Test
+  void familyResolvesTaggedMetrics() {
+    MetricFamily<Counter> family = registry.counterFamily("requests", "tenant", "status");
+
+    Counter counter = family.get("acme", "200");
+    counter.inc();
+    assertThat(family.get("acme", "200")).isSameInstanceAs(counter);
+    assertThat(family.get(new String[]{"acme", "200"})).isSameInstanceAs(counter);
+    assertThat(registry.counter("requests", ImmutableMap.of("status", "200", "tenant", "acme"))).isSameInstanceAs(counter);
+    assertThat(family.get("acme", "500")).isNotSameInstanceAs(counter);
+
+    assertThrows(IllegalArgumentException.class, () -> family.get("acme"));
+  }
+
+  @Test
+  void cardinalityIsCapped() {
+    MetricFamily<Counter> family = registry.counterFamily("capped", 2, "tenant");
+    Counter a = family.get("a");
+    Counter b = family.get("b");
+    Counter overflow = family.get("c");
+
+    assertThat(overflow).isNoneOf(a, b);
+    assertThat(family.get("d")).isSameInstanceAs(overflow);
+    assertThat(family.get("a")).isSameInstanceAs(a);
+    assertThat(registry.getCounters()).containsKey(TaggedMetricName.encodedName("capped", ImmutableMap.of(MetricFamily.OVERFLOW_TAG, "true")));
+  }
+
+  @Test
+  void overflowDoesNotCollideWithRealTagValues() {
+    MetricFamily<Counter> family = registry.counterFamily("collision", 2, "tenant");
+    Counter real = family.get("overflow");
+    family.get("b");
+    Counter overflow = family.get("c");
+
+    assertThat(overflow).isNotSameInstanceAs(real);
+    assertThat(family.get("overflow")).isSameInstanceAs(real);
+  }
+}
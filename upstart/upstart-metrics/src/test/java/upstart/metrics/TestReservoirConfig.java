@@ -0,0 +1,10 @@
+package upstart.metrics;
+
+import java.time.Duration;
+
+/**
+ * A fixed {@link MetricReservoirConfig}, for constructing a {@link TaggedMetricRegistry} without an injector
+ */
+record TestReservoirConfig(ReservoirType type, int significantDigits, Duration window) implements MetricReservoirConfig {
+  static final TestReservoirConfig HDR_HISTOGRAM = new TestReservoirConfig(ReservoirType.HdrHistogram, 2, Duration.ofMinutes(1));
+}
@@ -0,0 +1,242 @@
+package upstart.aws.s3;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.upstartproject.hojack.Size;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import upstart.aws.s3.test.MockS3;
+import upstart.aws.s3.test.MockS3Test;
+import upstart.util.concurrent.Promise;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@MockS3Test(initialBuckets = S3MultipartUploaderTest.BUCKET)
+class S3MultipartUploaderTest {
+  static final String BUCKET = "test-bucket";
+  private static final long PART_SIZE = S3MultipartUploader.MIN_PART_SIZE;
+
+  @TempDir Path tempDir;
+  private final List<S3MultipartUploader> uploaders = new ArrayList<>();
+  private RecordingClient client;
+  private MockS3 mockS3;
+
+  @BeforeEach
+  void setup(MockS3 mockS3) {
+    this.mockS3 = mockS3;
+    client = new RecordingClient(mockS3.configureClientBuilder(S3AsyncClient.builder())
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+            .build());
+  }
+
+  @AfterEach
+  void shutDown() {
+    uploaders.forEach(uploader -> uploader.stop().join());
+    client.close();
+  }
+
+  @Test
+  void uploadsPartsConcurrentlyWithinBudget() throws Exception {
+    byte[] data = randomBytes(PART_SIZE * 3 + 123);
+    Path file = writeFile("large.avro", data);
+    S3MultipartUploader uploader = startUploader();
+
+    S3Key target = S3Bucket.of(BUCKET).key("logs/large.avro");
+    assertThat(uploader.upload(file, target).get(30, TimeUnit.SECONDS)).isEqualTo(target);
+
+    assertThat(sha256(mockS3.getObject(target).bytes())).isEqualTo(sha256(data));
+    assertThat(client.uploadedParts).containsExactly(1, 2, 3, 4);
+    assertThat(client.maxInFlightBytes.get()).isAtMost(2 * PART_SIZE);
+    assertThat(uploader.inFlightBytes()).isEqualTo(0);
+    assertThat(uploader.activeUploads()).isEqualTo(0);
+    assertThat(journals()).isEmpty();
+  }
+
+  @Test
+  void sendsSmallFilesInOneRequest() throws Exception {
+    byte[] data = randomBytes(1000);
+    Path file = writeFile("small.avro", data);
+    S3MultipartUploader uploader = startUploader();
+
+    S3Key target = S3Bucket.of(BUCKET).key("logs/small.avro");
+    uploader.upload(file, target).get(10, TimeUnit.SECONDS);
+
+    assertThat(sha256(mockS3.getObject(target).bytes())).isEqualTo(sha256(data));
+    assertThat(client.uploadedParts).isEmpty();
+  }
+
+  @Test
+  void resumesInterruptedUploadAfterRestart() throws Exception {
+    byte[] data = randomBytes(PART_SIZE * 2 + 456);
+    Path file = writeFile("interrupted.avro", data);
+    S3Key target = S3Bucket.of(BUCKET).key("logs/interrupted.avro");
+
+    client.failingPart = 3;
+    S3MultipartUploader interrupted = startUploader();
+    Promise<S3Key> failed = interrupted.upload(file, target);
+    assertThrows(Exception.class, () -> failed.get(30, TimeUnit.SECONDS));
+    interrupted.stop().join();
+    assertThat(journals()).hasSize(1);
+
+    client.failingPart = -1;
+    client.uploadedParts.clear();
+    S3MultipartUploader restarted = startUploader();
+    mockS3.assertObjectCreation(Duration.ofSeconds(30), BUCKET, target.key());
+
+    assertThat(sha256(mockS3.getObject(target).bytes())).isEqualTo(sha256(data));
+    // only the part which failed was sent again
+    assertThat(client.uploadedParts).containsExactly(3);
+    assertThat(client.createdUploads.get()).isEqualTo(1);
+    assertThat(restarted.upload(file, target).get(10, TimeUnit.SECONDS)).isEqualTo(target);
+  }
+
+  @Test
+  void retriesTransientPartFailures() throws Exception {
+    byte[] data = randomBytes(PART_SIZE * 2 + 789);
+    Path file = writeFile("flaky.avro", data);
+    S3Key target = S3Bucket.of(BUCKET).key("logs/flaky.avro");
+
+    client.failingPart = 2;
+    client.failingPartAttempts.set(2);
+    S3MultipartUploader uploader = startUploader();
+    assertThat(uploader.upload(file, target).get(30, TimeUnit.SECONDS)).isEqualTo(target);
+
+    assertThat(sha256(mockS3.getObject(target).bytes())).isEqualTo(sha256(data));
+    assertThat(client.failingPartAttempts.get()).isEqualTo(0);
+    assertThat(client.uploadedParts).containsExactly(1, 2, 3);
+    assertThat(journals()).isEmpty();
+  }
+
+  private S3MultipartUploader startUploader() {
+    S3MultipartUploader uploader = new S3MultipartUploader(new TestConfig(tempDir.resolve("state")), client, new MetricRegistry());
+    uploaders.add(uploader);
+    uploader.start().join();
+    client.uploader = uploader;
+    return uploader;
+  }
+
+  private Path writeFile(String name, byte[] data) throws Exception {
+    return Files.write(tempDir.resolve(name), data);
+  }
+
+  private List<Path> journals() throws Exception {
+    try (var files = Files.list(tempDir.resolve("state"))) {
+      return files.toList();
+    }
+  }
+
+  // compare digests rather than the (many megabytes of) content, to keep failure-messages readable
+  private static HashCode sha256(byte[] bytes) {
+    return Hashing.sha256().hashBytes(bytes);
+  }
+
+  private static byte[] randomBytes(long length) {
+    byte[] bytes = new byte[(int) length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  record TestConfig(
+          Path stateDirectory,
+          Size partSize,
+          Size maxInFlightBytes,
+          int maxConcurrentPartsPerUpload,
+          int ioThreads,
+          Duration shutdownTimeout,
+          int maxPartAttempts,
+          Duration partRetryBackoff
+  ) implements S3MultipartUploader.UploaderConfig {
+    TestConfig(Path stateDirectory) {
+      this(stateDirectory, Size.bytes(PART_SIZE), Size.bytes(PART_SIZE * 2), 4, 2, Duration.ofSeconds(10), 3, Duration.ofMillis(10));
+    }
+  }
+
+  static class RecordingClient implements S3AsyncClient {
+    final S3AsyncClient delegate;
+    final List<Integer> uploadedParts = new CopyOnWriteArrayList<>();
+    final AtomicLong maxInFlightBytes = new AtomicLong();
+    final AtomicLong createdUploads = new AtomicLong();
+    volatile S3MultipartUploader uploader;
+    volatile int failingPart = -1;
+    // how many more requests for the failingPart will fail
+    final AtomicInteger failingPartAttempts = new AtomicInteger(Integer.MAX_VALUE);
+
+    RecordingClient(S3AsyncClient delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody requestBody) {
+      maxInFlightBytes.accumulateAndGet(uploader.inFlightBytes(), Math::max);
+      if (request.partNumber() == failingPart && failingPartAttempts.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+        return Promise.failedPromise(new IllegalStateException("Injected failure for part " + failingPart));
+      }
+      return delegate.uploadPart(request, requestBody)
+              .thenApply(response -> {
+                uploadedParts.add(request.partNumber());
+                uploadedParts.sort(Integer::compare);
+                return response;
+              });
+    }
+
+    @Override
+    public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+      createdUploads.incrementAndGet();
+      return delegate.createMultipartUpload(request);
+    }
+
+    @Override
+    public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request) {
+      return delegate.completeMultipartUpload(request);
+    }
+
+    @Override
+    public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
+      return delegate.abortMultipartUpload(request);
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody requestBody) {
+      return delegate.putObject(request, requestBody);
+    }
+
+    @Override
+    public String serviceName() {
+      return delegate.serviceName();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+}
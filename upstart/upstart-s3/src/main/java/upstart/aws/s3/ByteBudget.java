@@ -0,0 +1,80 @@
+package upstart.aws.s3;
+
+import upstart.util.concurrent.Promise;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An asynchronous counting-semaphore measured in bytes, which bounds the total size of buffers held in flight.
+ * <p/>
+ * Requests are granted in FIFO order, so a large request is not starved by a stream of smaller ones. A request larger
+ * than the entire budget is clamped to the budget (ie, it waits until nothing else is in flight); callers must
+ * {@link #release} the same amount they {@link #acquire}d.
+ */
+class ByteBudget {
+  private final long capacity;
+  private final Queue<Waiter> waiters = new ArrayDeque<>();
+  private long available;
+
+  ByteBudget(long capacity) {
+    checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    this.capacity = capacity;
+    this.available = capacity;
+  }
+
+  Promise<Void> acquire(long bytes) {
+    long permits = clamp(bytes);
+    synchronized (this) {
+      if (waiters.isEmpty() && available >= permits) {
+        available -= permits;
+        return Promise.nullPromise();
+      }
+      Waiter waiter = new Waiter(permits);
+      waiters.offer(waiter);
+      return waiter.promise;
+    }
+  }
+
+  void release(long bytes) {
+    List<Waiter> granted = new ArrayList<>();
+    synchronized (this) {
+      available += clamp(bytes);
+      Waiter next;
+      while ((next = waiters.peek()) != null && available >= next.permits) {
+        available -= next.permits;
+        granted.add(waiters.remove());
+      }
+    }
+    // complete outside the lock: waiters' continuations may acquire again
+    for (Waiter waiter : granted) {
+      waiter.promise.complete(null);
+    }
+  }
+
+  synchronized long inFlightBytes() {
+    return capacity - available;
+  }
+
+  synchronized int waiting() {
+    return waiters.size();
+  }
+
+  private long clamp(long bytes) {
+    checkArgument(bytes >= 0, "bytes must not be negative: %s", bytes);
+    return Math.min(bytes, capacity);
+  }
+
+  private static class Waiter {
+    final long permits;
+    final Promise<Void> promise = new Promise<>();
+
+    Waiter(long permits) {
+      this.permits = permits;
+    }
+  }
+}
@@ -0,0 +1,449 @@
+package upstart.aws.s3;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.upstartproject.hojack.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import upstart.aws.AwsClientModule;
+import upstart.config.UpstartModule;
+import upstart.config.annotations.ConfigPath;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.util.concurrent.AsyncSemaphore;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.NamedThreadFactory;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.ShutdownException;
+import upstart.util.concurrent.services.IdleService;
+import upstart.util.exceptions.UncheckedIO;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Uploads local files (eg, those sealed by an {@code AvroPackedLogFileAccumulator}) to S3, streaming each file in
+ * {@link UploaderConfig#partSize}-sized parts which are sent concurrently via the multipart-upload API. Files no
+ * larger than a single part are sent with one {@code PutObject} request.
+ * <p/>
+ * Memory is bounded by {@link UploaderConfig#maxInFlightBytes}, which is shared by all uploads: a part is only read
+ * from disk once its bytes fit within the budget, and its buffer is released when S3 acknowledges it. Within one
+ * upload, at most {@link UploaderConfig#maxConcurrentPartsPerUpload} parts are sent at a time.
+ * <p/>
+ * Each request carries a {@code Content-MD5} checksum of its payload, so S3 rejects any part corrupted in transit;
+ * when S3 reports a plain MD5 ETag for a part, it is also verified against the local checksum. A failed part-request
+ * is retried (with the buffered part, after an exponentially-increasing {@link UploaderConfig#partRetryBackoff}) up
+ * to {@link UploaderConfig#maxPartAttempts} times before the upload fails.
+ * <p/>
+ * The progress of each multipart upload is journaled in the {@link UploaderConfig#stateDirectory}. If the process
+ * stops before an upload completes, the upload is resumed when this service next starts up, re-sending only the parts
+ * which were not acknowledged. (If S3 has since discarded the upload, it is restarted from the beginning.) Calling
+ * {@link #upload} for a file which is already being uploaded to the same target returns the in-progress upload.
+ * <p/>
+ * Metrics are recorded in the {@link MetricRegistry}:
+ * <ul>
+ *   <li>{@code s3.uploader.bytes}, {@code s3.uploader.parts}: meters of data acknowledged by S3</li>
+ *   <li>{@code s3.uploader.files.uploaded}, {@code s3.uploader.files.failed}: meters of completed uploads</li>
+ *   <li>{@code s3.uploader.parts.resumed}: meter of parts skipped because a resumed upload already had them</li>
+ *   <li>{@code s3.uploader.inFlight.bytes}: gauge of part-buffers currently held in memory</li>
+ * </ul>
+ * To use, install the {@link Module}, and configure at least {@code upstart.s3.uploader.stateDirectory}.
+ */
+@Singleton
+@ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
+public class S3MultipartUploader extends IdleService {
+  private static final Logger LOG = LoggerFactory.getLogger(S3MultipartUploader.class);
+  /** The smallest part-size accepted by S3 (for all but the final part of an upload) */
+  public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+  public static final int MAX_PARTS = 10_000;
+
+  private final UploaderConfig config;
+  private final S3AsyncClient s3;
+  private final ByteBudget inFlightBytes;
+  private final Map<Path, Upload> activeUploads = new ConcurrentHashMap<>();
+  private final Meter bytesMeter;
+  private final Meter partsMeter;
+  private final Meter resumedPartsMeter;
+  private final Meter uploadedFilesMeter;
+  private final Meter failedFilesMeter;
+  private ScheduledExecutorService ioExecutor;
+  private volatile boolean closed = false;
+
+  @Inject
+  public S3MultipartUploader(UploaderConfig config, S3AsyncClient s3, MetricRegistry metricRegistry) {
+    config.validate();
+    this.config = config;
+    this.s3 = s3;
+    inFlightBytes = new ByteBudget(config.maxInFlightBytes().toBytes());
+
+    bytesMeter = metricRegistry.meter("s3.uploader.bytes");
+    partsMeter = metricRegistry.meter("s3.uploader.parts");
+    resumedPartsMeter = metricRegistry.meter("s3.uploader.parts.resumed");
+    uploadedFilesMeter = metricRegistry.meter("s3.uploader.files.uploaded");
+    failedFilesMeter = metricRegistry.meter("s3.uploader.files.failed");
+    metricRegistry.gauge("s3.uploader.inFlight.bytes", () -> (Gauge<Long>) inFlightBytes::inFlightBytes);
+  }
+
+  /**
+   * Uploads the given file to the target. The file must not be modified until the returned {@link Promise}
+   * completes.
+   *
+   * @return a {@link Promise} for the target, which completes when the object has been created in S3
+   */
+  public Promise<S3Key> upload(Path file, S3Key target) {
+    if (closed) return Promise.failedPromise(new ShutdownException("S3MultipartUploader is closed; cannot upload " + file));
+    checkState(ioExecutor != null, "S3MultipartUploader has not been started");
+    Path journalFile = UploadJournal.journalFile(config.stateDirectory(), file, target);
+    return activeUploads.computeIfAbsent(journalFile, ignored -> new Upload(journalFile, file, target)).start();
+  }
+
+  public long inFlightBytes() {
+    return inFlightBytes.inFlightBytes();
+  }
+
+  public int activeUploads() {
+    return activeUploads.size();
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    ioExecutor = Executors.newScheduledThreadPool(config.ioThreads(), new NamedThreadFactory("s3-uploader-io").daemonize());
+    Files.createDirectories(config.stateDirectory());
+    List<Path> journalFiles;
+    try (Stream<Path> files = Files.list(config.stateDirectory())) {
+      journalFiles = files.filter(path -> path.getFileName().toString().endsWith(UploadJournal.SUFFIX)).toList();
+    }
+    for (Path journalFile : journalFiles) {
+      resume(journalFile);
+    }
+  }
+
+  private void resume(Path journalFile) {
+    UploadJournal journal;
+    try {
+      journal = UploadJournal.load(journalFile);
+    } catch (Exception e) {
+      LOG.warn("Discarding unreadable upload-journal {}", journalFile, e);
+      UncheckedIO.runUnchecked(() -> Files.deleteIfExists(journalFile));
+      return;
+    }
+    if (!Files.isRegularFile(journal.source())) {
+      LOG.warn("Source-file for interrupted upload is missing, aborting {}", journal);
+      abort(journal);
+      return;
+    }
+    upload(journal.source(), journal.target());
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    closed = true;
+    try {
+      // parts which have not yet been read will fail fast; wait for those already in flight
+      CompletableFutures.allOf(activeUploads.values().stream().map(upload -> upload.promise.exceptionally(e -> null)))
+              .get(config.shutdownTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    } finally {
+      ioExecutor.shutdown();
+    }
+  }
+
+  private void abort(UploadJournal journal) {
+    s3.abortMultipartUpload(b -> b.bucket(journal.target().bucket().value())
+                    .key(journal.target().key())
+                    .uploadId(journal.uploadId()))
+            .whenComplete((response, e) -> {
+              if (e != null && !(CompletableFutures.unwrapExecutionException(e) instanceof NoSuchUploadException)) {
+                LOG.warn("Failed to abort multipart upload {}", journal, e);
+              }
+            });
+    UncheckedIO.runUnchecked(journal::delete);
+  }
+
+  private class Upload {
+    final Path journalFile;
+    final Path file;
+    final S3Key target;
+    final Promise<S3Key> promise = new Promise<>();
+    final AsyncSemaphore partPermits = new AsyncSemaphore(config.maxConcurrentPartsPerUpload());
+    volatile UploadJournal journal;
+    volatile Throwable failure;
+    boolean started = false;
+
+    Upload(Path journalFile, Path file, S3Key target) {
+      this.journalFile = journalFile;
+      this.file = file;
+      this.target = target;
+    }
+
+    synchronized Promise<S3Key> start() {
+      if (!started) {
+        started = true;
+        promise.completeWith(run(true))
+                .whenComplete((key, e) -> {
+                  activeUploads.remove(journalFile, this);
+                  if (e == null) {
+                    uploadedFilesMeter.mark();
+                  } else {
+                    failedFilesMeter.mark();
+                    LOG.warn("Failed to upload {} to {}", file, target, e);
+                  }
+                });
+      }
+      return promise;
+    }
+
+    private Promise<S3Key> run(boolean mayRestart) {
+      return Promise.completeAsync(() -> {
+        long fileSize = Files.size(file);
+        if (journal == null) journal = loadJournal(fileSize);
+        if (journal != null) return uploadParts();
+        if (fileSize <= config.partSize().toBytes()) return putObject(fileSize);
+        return createMultipartUpload(fileSize).thenCompose(ignored -> uploadParts());
+      }, ioExecutor).recoverCompose(NoSuchUploadException.class, e -> {
+        if (!mayRestart || journal == null) throw new CompletionException(e);
+        // S3 has discarded the upload we were resuming (eg, due to a lifecycle-rule); start over
+        LOG.warn("Multipart upload was not found, restarting: {}", journal);
+        UncheckedIO.runUnchecked(journal::delete);
+        journal = null;
+        failure = null;
+        return run(false);
+      });
+    }
+
+    private UploadJournal loadJournal(long fileSize) {
+      if (!Files.exists(journalFile)) return null;
+      UploadJournal resumed;
+      try {
+        resumed = UploadJournal.load(journalFile);
+      } catch (Exception e) {
+        LOG.warn("Discarding unreadable upload-journal {}", journalFile, e);
+        UncheckedIO.runUnchecked(() -> Files.deleteIfExists(journalFile));
+        return null;
+      }
+      if (resumed.fileSize() != fileSize) {
+        LOG.warn("Source-file changed since upload was interrupted, restarting {}", resumed);
+        abort(resumed);
+        return null;
+      }
+      LOG.info("Resuming interrupted upload ({}/{} parts complete): {}", resumed.completedPartCount(), resumed.partCount(), resumed);
+      return resumed;
+    }
+
+    private Promise<S3Key> putObject(long fileSize) {
+      return inFlightBytes.acquire(fileSize)
+              .thenApplyAsync(ignored -> readChecked(0, (int) fileSize), ioExecutor)
+              .thenCompose(part -> withRetries("object " + target, () -> Promise.of(s3.putObject(
+                              b -> b.bucket(target.bucket().value()).key(target.key())
+                                      .contentLength(fileSize)
+                                      .contentMD5(part.md5Base64()),
+                              AsyncRequestBody.fromBytes(part.bytes)
+                      )).thenAccept(response -> part.verify(response.eTag())), 1))
+              .thenApply(ignored -> {
+                bytesMeter.mark(fileSize);
+                return target;
+              })
+              .whenComplete((ignored, e) -> inFlightBytes.release(fileSize));
+    }
+
+    private Promise<UploadJournal> createMultipartUpload(long fileSize) {
+      // S3 allows at most MAX_PARTS parts; grow the part-size if necessary for enormous files
+      long partSize = Math.max(config.partSize().toBytes(), (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+      return Promise.of(s3.createMultipartUpload(b -> b.bucket(target.bucket().value()).key(target.key())))
+              .thenApply(response -> journal = UncheckedIO.getUnchecked(
+                      () -> UploadJournal.create(journalFile, file, target, response.uploadId(), fileSize, partSize)));
+    }
+
+    private Promise<S3Key> uploadParts() {
+      UploadJournal journal = this.journal;
+      List<Promise<Void>> parts = IntStream.rangeClosed(1, journal.partCount())
+              .filter(partNumber -> {
+                boolean alreadyUploaded = journal.isCompleted(partNumber);
+                if (alreadyUploaded) resumedPartsMeter.mark();
+                return !alreadyUploaded;
+              })
+              .mapToObj(partNumber -> Promise.of(partPermits.submit(() -> uploadPart(journal, partNumber)))
+                      .whenComplete((ignored, e) -> {
+                        if (e != null && failure == null) failure = e;
+                      }))
+              .toList();
+
+      // let every dispatched part settle before reporting a failure, so the journal is complete if we're resumed
+      return Promise.allOf(parts.stream().map(part -> part.exceptionally(e -> null)))
+              .thenCompose(ignored -> {
+                if (failure != null) throw new CompletionException(failure);
+                return s3.completeMultipartUpload(b -> b
+                        .bucket(target.bucket().value())
+                        .key(target.key())
+                        .uploadId(journal.uploadId())
+                        .multipartUpload(mb -> mb.parts(journal.completedParts())));
+              })
+              .thenApply(response -> {
+                UncheckedIO.runUnchecked(journal::delete);
+                return target;
+              });
+    }
+
+    private Promise<Void> uploadPart(UploadJournal journal, int partNumber) {
+      long offset = (partNumber - 1) * journal.partSize();
+      int length = (int) Math.min(journal.partSize(), journal.fileSize() - offset);
+      return inFlightBytes.acquire(length)
+              .thenApplyAsync(ignored -> {
+                // don't read more parts once we're shutting down (or another part failed); they'll be resumed later
+                if (closed) throw new ShutdownException("S3MultipartUploader is closed, upload will resume upon restart: " + journal);
+                if (failure != null) throw new CancellationException("Abandoning part " + partNumber + " after failure of another part");
+                return readChecked(offset, length);
+              }, ioExecutor)
+              .thenCompose(part -> withRetries("part " + partNumber + " of " + journal, () -> Promise.of(s3.uploadPart(
+                              b -> b.bucket(target.bucket().value()).key(target.key())
+                                      .uploadId(journal.uploadId())
+                                      .partNumber(partNumber)
+                                      .contentLength((long) length)
+                                      .contentMD5(part.md5Base64()),
+                              AsyncRequestBody.fromBytes(part.bytes)
+                      ))
+                      .thenAccept(response -> {
+                        part.verify(response.eTag());
+                        UncheckedIO.runUnchecked(() -> journal.recordPart(partNumber, response.eTag()));
+                        bytesMeter.mark(length);
+                        partsMeter.mark();
+                      }), 1))
+              .whenComplete((ignored, e) -> inFlightBytes.release(length));
+    }
+
+    /**
+     * Issues the request, reissuing it after a backoff if it fails, up to {@link UploaderConfig#maxPartAttempts} times.
+     * Requests are not retried once we're shutting down (or another part has failed), nor if S3 has discarded the
+     * upload.
+     */
+    private Promise<Void> withRetries(String description, Supplier<Promise<Void>> request, int attempt) {
+      return request.get().recoverCompose(Throwable.class, e -> {
+        Throwable cause = CompletableFutures.unwrapExecutionException(e);
+        if (attempt >= config.maxPartAttempts() || closed || failure != null || cause instanceof NoSuchUploadException) {
+          throw new CompletionException(cause);
+        }
+        Duration backoff = config.partRetryBackoff().multipliedBy(1L << Math.min(attempt - 1, 16));
+        LOG.warn("Failed to upload {} (attempt {} of {}), retrying in {}", description, attempt, config.maxPartAttempts(), backoff, cause);
+        Promise<Void> retried = new Promise<>();
+        try {
+          ioExecutor.schedule(() -> retried.completeWith(withRetries(description, request, attempt + 1)), backoff.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rejected) {
+          cause.addSuppressed(rejected);
+          retried.completeExceptionally(cause);
+        }
+        return retried;
+      });
+    }
+
+    private ChecksummedPart readChecked(long offset, int length) {
+      return UncheckedIO.getUnchecked(() -> {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try (FileChannel channel = FileChannel.open(file)) {
+          while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+              throw new IOException("File was truncated during upload: " + file);
+            }
+          }
+        }
+        return new ChecksummedPart(bytes);
+      });
+    }
+  }
+
+  private static class ChecksummedPart {
+    final byte[] bytes;
+    final byte[] md5;
+
+    ChecksummedPart(byte[] bytes) {
+      this.bytes = bytes;
+      try {
+        md5 = MessageDigest.getInstance("MD5").digest(bytes);
+      } catch (NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    String md5Base64() {
+      return Base64.getEncoder().encodeToString(md5);
+    }
+
+    void verify(String eTag) {
+      // ETags are only the MD5 of the content for unencrypted (or SSE-S3) objects; skip other formats
+      String unquoted = eTag == null ? "" : eTag.replace("\"", "");
+      if (unquoted.length() == 32 && unquoted.chars().allMatch(HexFormat::isHexDigit)) {
+        checkState(unquoted.equalsIgnoreCase(HexFormat.of().formatHex(md5)), "Checksum mismatch: expected MD5 %s, S3 reported ETag %s", HexFormat.of().formatHex(md5), eTag);
+      }
+    }
+  }
+
+  @ConfigPath("upstart.s3.uploader")
+  public interface UploaderConfig {
+    /** Directory for journals of in-progress multipart uploads, which allow them to be resumed after a restart */
+    Path stateDirectory();
+
+    /** Size of each part of a multipart upload (at least 5MB); files no larger than this are sent in one request */
+    Size partSize();
+
+    /** Limit on the total size of part-buffers held in memory, across all uploads */
+    Size maxInFlightBytes();
+
+    int maxConcurrentPartsPerUpload();
+
+    /** Number of threads for reading parts from disk */
+    int ioThreads();
+
+    /** How long to wait for in-flight parts to be acknowledged when shutting down */
+    Duration shutdownTimeout();
+
+    /** Maximum number of times each part (or single-request object) is sent before the upload fails */
+    int maxPartAttempts();
+
+    /** Delay before the first retry of a failed part, which doubles with each subsequent attempt */
+    Duration partRetryBackoff();
+
+    default void validate() {
+      checkArgument(partSize().toBytes() >= MIN_PART_SIZE, "partSize must be at least 5MB: %s", partSize());
+      checkArgument(maxInFlightBytes().compareTo(partSize()) >= 0, "maxInFlightBytes (%s) must be at least partSize (%s)", maxInFlightBytes(), partSize());
+      checkArgument(maxConcurrentPartsPerUpload() > 0, "maxConcurrentPartsPerUpload must be positive: %s", maxConcurrentPartsPerUpload());
+      checkArgument(ioThreads() > 0, "ioThreads must be positive: %s", ioThreads());
+      checkArgument(maxPartAttempts() > 0, "maxPartAttempts must be positive: %s", maxPartAttempts());
+    }
+  }
+
+  public static class Module extends UpstartModule {
+    @Override
+    protected void configure() {
+      AwsClientModule.installWithDefaultConfig(binder(), S3AsyncClient.class);
+      bindConfig(UploaderConfig.class);
+      serviceManager().manage(S3MultipartUploader.class);
+    }
+  }
+}
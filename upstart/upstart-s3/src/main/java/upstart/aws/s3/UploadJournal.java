@@ -0,0 +1,154 @@
+package upstart.aws.s3;
+
+import com.google.common.hash.Hashing;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the progress of a multipart upload in a small text file, so that an interrupted upload can be resumed
+ * (by a later process) without re-sending the parts which S3 already acknowledged.
+ * <p/>
+ * The header (source, target, uploadId and sizes) is written atomically when the upload is created; each completed
+ * part is then appended as a {@code part=<number> <etag>} line. A torn final line (from a crash mid-append) is
+ * ignored when the journal is {@link #load loaded}, so that part is simply uploaded again.
+ */
+class UploadJournal {
+  static final String SUFFIX = ".upload";
+
+  private final Path journalFile;
+  private final Path source;
+  private final S3Key target;
+  private final String uploadId;
+  private final long fileSize;
+  private final long partSize;
+  private final Map<Integer, String> completedParts = new ConcurrentHashMap<>();
+
+  private UploadJournal(Path journalFile, Path source, S3Key target, String uploadId, long fileSize, long partSize) {
+    this.journalFile = journalFile;
+    this.source = source;
+    this.target = target;
+    this.uploadId = uploadId;
+    this.fileSize = fileSize;
+    this.partSize = partSize;
+  }
+
+  static Path journalFile(Path stateDirectory, Path source, S3Key target) {
+    String id = Hashing.sha256()
+            .hashString(source.toAbsolutePath() + "\n" + target.uri(), StandardCharsets.UTF_8)
+            .toString();
+    return stateDirectory.resolve(id + SUFFIX);
+  }
+
+  static UploadJournal create(Path journalFile, Path source, S3Key target, String uploadId, long fileSize, long partSize) throws IOException {
+    UploadJournal journal = new UploadJournal(journalFile, source.toAbsolutePath(), target, uploadId, fileSize, partSize);
+    String header = "source=" + journal.source + '\n'
+            + "target=" + target.uri() + '\n'
+            + "uploadId=" + uploadId + '\n'
+            + "fileSize=" + fileSize + '\n'
+            + "partSize=" + partSize + '\n';
+    Path tmpFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+    Files.writeString(tmpFile, header);
+    Files.move(tmpFile, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return journal;
+  }
+
+  static UploadJournal load(Path journalFile) throws IOException {
+    String content = Files.readString(journalFile);
+    // the final line may be torn if we crashed while appending it
+    String[] lines = content.substring(0, content.lastIndexOf('\n') + 1).split("\n");
+    Map<String, String> header = new HashMap<>();
+    Map<Integer, String> parts = new HashMap<>();
+    for (String line : lines) {
+      int eq = line.indexOf('=');
+      if (eq < 0) continue;
+      String key = line.substring(0, eq);
+      String value = line.substring(eq + 1);
+      if (key.equals("part")) {
+        String[] tokens = value.split(" ");
+        parts.put(Integer.parseInt(tokens[0]), tokens[1]);
+      } else {
+        header.put(key, value);
+      }
+    }
+    UploadJournal journal = new UploadJournal(
+            journalFile,
+            Path.of(require(header, "source", journalFile)),
+            S3Key.ofUri(require(header, "target", journalFile)),
+            require(header, "uploadId", journalFile),
+            Long.parseLong(require(header, "fileSize", journalFile)),
+            Long.parseLong(require(header, "partSize", journalFile))
+    );
+    journal.completedParts.putAll(parts);
+    return journal;
+  }
+
+  private static String require(Map<String, String> header, String key, Path journalFile) throws IOException {
+    String value = header.get(key);
+    if (value == null) throw new IOException("Corrupt upload-journal (missing '" + key + "'): " + journalFile);
+    return value;
+  }
+
+  Path source() {
+    return source;
+  }
+
+  S3Key target() {
+    return target;
+  }
+
+  String uploadId() {
+    return uploadId;
+  }
+
+  long fileSize() {
+    return fileSize;
+  }
+
+  long partSize() {
+    return partSize;
+  }
+
+  int partCount() {
+    return (int) ((fileSize + partSize - 1) / partSize);
+  }
+
+  boolean isCompleted(int partNumber) {
+    return completedParts.containsKey(partNumber);
+  }
+
+  int completedPartCount() {
+    return completedParts.size();
+  }
+
+  synchronized void recordPart(int partNumber, String eTag) throws IOException {
+    Files.writeString(journalFile, "part=" + partNumber + ' ' + eTag + '\n', StandardOpenOption.APPEND);
+    completedParts.put(partNumber, eTag);
+  }
+
+  List<CompletedPart> completedParts() {
+    return completedParts.entrySet().stream()
+            .map(entry -> CompletedPart.builder().partNumber(entry.getKey()).eTag(entry.getValue()).build())
+            .sorted(Comparator.comparing(CompletedPart::partNumber))
+            .toList();
+  }
+
+  void delete() throws IOException {
+    Files.deleteIfExists(journalFile);
+  }
+
+  @Override
+  public String toString() {
+    return "UploadJournal{" + source + " -> " + target + ", uploadId=" + uploadId + '}';
+  }
+}
@@ -0,0 +1,249 @@
+package upstart.telemetry.kafka;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.collect.ImmutableMap;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.avrocodec.events.PackagedEventSink;
+import io.upstartproject.avrocodec.upstart.DataStore;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.config.UpstartModule;
+import upstart.config.annotations.ConfigPath;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.metrics.MetricFamily;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.telemetry.EventLogModule;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.PendingFutureSet;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.services.ExecutionThreadService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PackagedEventSink} which publishes events to a kafka topic as serialized
+ * {@link io.upstartproject.avro.PackedRecord PackedRecord} envelopes (as produced by
+ * {@link PackagedEvent#serialize}), keyed by the event's {@link PackagedEvent#key key} (if any).
+ * <p/>
+ * {@link #publish Published} events are buffered in a bounded in-memory queue, and handed to a {@link KafkaProducer}
+ * by a dedicated sender-thread, so that serialization and broker back-pressure never block the caller. The producer
+ * batches records per-partition for up to {@link KafkaEventSinkConfig#linger}, with the configured
+ * {@link KafkaEventSinkConfig#compression}, and (by default) with idempotence enabled to avoid duplicates when
+ * retrying.
+ * <p/>
+ * Events are sent in the order they were published (preserving the relative order of events sharing a key). If
+ * events arrive faster than they can be sent and the queue fills, events are shed by their diagnostic
+ * {@link LogLevel}: a new event displaces the oldest queued event with a strictly lower level, or is itself dropped if
+ * no such event is queued. The futures for dropped events fail with a {@link RejectedExecutionException}.
+ * <p/>
+ * Metrics are recorded in the {@link TaggedMetricRegistry}, tagged with the topic:
+ * <ul>
+ *   <li>{@code telemetry.kafka.events.sent}: meter of events acknowledged by kafka</li>
+ *   <li>{@code telemetry.kafka.events.failed}: meter of events which could not be serialized or sent</li>
+ *   <li>{@code telemetry.kafka.events.dropped}: meter of events shed due to a full queue, also tagged with the
+ *   event's {@code level}</li>
+ *   <li>{@code telemetry.kafka.queue.depth}: gauge of events awaiting the sender-thread</li>
+ * </ul>
+ * To use, install the {@link Module}, and configure at least {@code upstart.telemetry.kafka.bootstrapServers}.
+ */
+@Singleton
+@ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
+public class KafkaEventSink extends ExecutionThreadService implements PackagedEventSink {
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaEventSink.class);
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  private final KafkaEventSinkConfig config;
+  private final EnvelopePublisher envelopePublisher;
+  private final PrioritySheddingQueue<QueuedEvent> queue;
+  private final PendingFutureSet<Object> pendingDeliveries = new PendingFutureSet<>();
+  private final Meter sentMeter;
+  private final Meter failedMeter;
+  private final MetricFamily<Meter> droppedMeters;
+  private Producer<byte[], byte[]> producer;
+  private volatile boolean flushRequested = false;
+
+  @Inject
+  public KafkaEventSink(
+          KafkaEventSinkConfig config,
+          @DataStore(EventLogModule.TELEMETRY) EnvelopePublisher envelopePublisher,
+          TaggedMetricRegistry metricRegistry
+  ) {
+    this.config = config;
+    this.envelopePublisher = envelopePublisher;
+    queue = new PrioritySheddingQueue<>(LogLevel.values().length, config.queueCapacity());
+
+    Map<String, String> tags = ImmutableMap.of("topic", config.topic());
+    sentMeter = metricRegistry.meter("telemetry.kafka.events.sent", tags);
+    failedMeter = metricRegistry.meter("telemetry.kafka.events.failed", tags);
+    droppedMeters = metricRegistry.meterFamily("telemetry.kafka.events.dropped", "topic", "level");
+    metricRegistry.register("telemetry.kafka.queue.depth", tags, (Gauge<Integer>) queue::size);
+  }
+
+  @Override
+  public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+    QueuedEvent queued = new QueuedEvent(diagnosticLogLevel, event);
+    QueuedEvent shed;
+    try {
+      shed = queue.offer(queued, diagnosticLogLevel.ordinal());
+    } catch (IllegalStateException e) {
+      return Promise.failedPromise(new IllegalStateException("KafkaEventSink is closed; cannot publish " + event));
+    }
+    pendingDeliveries.track(queued.promise.exceptionally(e -> null));
+    if (shed != null) {
+      droppedMeters.get(config.topic(), shed.level.name()).mark();
+      shed.promise.completeExceptionally(new RejectedExecutionException(
+              "Telemetry queue is full (capacity " + queue.capacity() + "); dropped " + shed.level + " event"));
+    }
+    return queued.promise;
+  }
+
+  /**
+   * @return a future which completes when all events published before this call have been either acknowledged by
+   * kafka or dropped
+   */
+  @Override
+  public CompletableFuture<?> flush() {
+    flushRequested = true;
+    return pendingDeliveries.flush();
+  }
+
+  public int queueDepth() {
+    return queue.size();
+  }
+
+  @Override
+  protected void startUp() {
+    producer = createProducer(config.producerProperties());
+  }
+
+  protected Producer<byte[], byte[]> createProducer(Properties properties) {
+    return new KafkaProducer<>(properties, new ByteArraySerializer(), new ByteArraySerializer());
+  }
+
+  @Override
+  protected void run() {
+    // after stopAsync, keep going until the queue is drained
+    while (isRunning() || queue.size() > 0) {
+      QueuedEvent next = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      if (next != null) {
+        send(next);
+      } else if (flushRequested) {
+        flushRequested = false;
+        producer.flush();
+      }
+    }
+  }
+
+  private void send(QueuedEvent queued) {
+    PackagedEvent event = queued.event;
+    try {
+      byte[] key = event.key().map(k -> k.getBytes(StandardCharsets.UTF_8)).orElse(null);
+      byte[] value = event.serialize(envelopePublisher);
+      producer.send(new ProducerRecord<>(config.topic(), key, value), (metadata, e) -> {
+        if (e == null) {
+          sentMeter.mark();
+          queued.promise.complete(metadata);
+        } else {
+          failed(queued, e);
+        }
+      });
+    } catch (Exception e) {
+      failed(queued, e);
+    }
+  }
+
+  private void failed(QueuedEvent queued, Throwable e) {
+    failedMeter.mark();
+    LOG.warn("Failed to publish telemetry event {}", queued.event, e);
+    queued.promise.completeExceptionally(e);
+  }
+
+  @Override
+  protected void shutDown() {
+    // close the queue atomically with respect to publish, and fail any stragglers which arrived after the
+    // sender-thread exited
+    for (QueuedEvent remaining : queue.close()) {
+      remaining.promise.completeExceptionally(new IllegalStateException("KafkaEventSink was closed before sending " + remaining.event));
+    }
+    if (producer != null) producer.close(config.closeTimeout());
+  }
+
+  private static class QueuedEvent {
+    final LogLevel level;
+    final PackagedEvent event;
+    final Promise<Object> promise = new Promise<>();
+
+    QueuedEvent(LogLevel level, PackagedEvent event) {
+      this.level = level;
+      this.event = event;
+    }
+  }
+
+  @ConfigPath("upstart.telemetry.kafka")
+  public interface KafkaEventSinkConfig {
+    /** Comma-separated list of {@code host:port} pairs for connecting to the kafka cluster */
+    String bootstrapServers();
+
+    String topic();
+
+    String clientId();
+
+    /** Maximum number of events buffered in memory before shedding */
+    int queueCapacity();
+
+    /** How long the producer waits to fill a batch before sending it (kafka {@code linger.ms}) */
+    Duration linger();
+
+    /** Maximum size in bytes of a per-partition batch (kafka {@code batch.size}) */
+    int batchSize();
+
+    /** Compression codec for batches: none, gzip, snappy, lz4 or zstd (kafka {@code compression.type}) */
+    String compression();
+
+    /** Whether to enable the idempotent producer (which also requires {@code acks=all}) */
+    boolean idempotence();
+
+    Duration closeTimeout();
+
+    /** Additional kafka producer-configs, which override those derived from the settings above */
+    Map<String, String> additionalProducerProperties();
+
+    default Properties producerProperties() {
+      Properties properties = new Properties();
+      properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers());
+      properties.put(ProducerConfig.CLIENT_ID_CONFIG, clientId());
+      properties.put(ProducerConfig.LINGER_MS_CONFIG, Long.toString(linger().toMillis()));
+      properties.put(ProducerConfig.BATCH_SIZE_CONFIG, Integer.toString(batchSize()));
+      properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression());
+      properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, Boolean.toString(idempotence()));
+      if (idempotence()) properties.put(ProducerConfig.ACKS_CONFIG, "all");
+      properties.putAll(additionalProducerProperties());
+      return properties;
+    }
+  }
+
+  public static class Module extends UpstartModule {
+    @Override
+    protected void configure() {
+      install(EventLogModule.INSTANCE);
+      bindConfig(KafkaEventSinkConfig.class);
+      EventLogModule.bindEventSink(binder()).to(KafkaEventSink.class);
+      serviceManager().manage(KafkaEventSink.class);
+    }
+  }
+}
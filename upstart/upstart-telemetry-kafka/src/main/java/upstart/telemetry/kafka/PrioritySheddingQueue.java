@@ -0,0 +1,178 @@
+package upstart.telemetry.kafka;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded FIFO queue of elements with integer priorities in the range {@code [0, priorityLevels)}. Priorities only
+ * matter when the queue is full: offering an element then evicts the oldest element of the lowest priority present,
+ * provided that priority is strictly lower than the new element's; otherwise, the offered element itself is rejected.
+ * <p/>
+ * Elements are {@link #poll polled} in the order they were offered, regardless of priority, so that the relative
+ * order of the elements which are not shed is preserved.
+ * <p/>
+ * Once {@link #close closed}, the queue rejects any further offers with an {@link IllegalStateException}.
+ */
+final class PrioritySheddingQueue<E> {
+  private final ArrayDeque<Node<E>>[] lanes;
+  private final int capacity;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  // a doubly-linked list of all queued nodes in arrival-order, so that shed nodes can be unlinked in constant time
+  private Node<E> head = null;
+  private Node<E> tail = null;
+  private int size = 0;
+  private boolean closed = false;
+
+  @SuppressWarnings("unchecked")
+  PrioritySheddingQueue(int priorityLevels, int capacity) {
+    checkArgument(priorityLevels > 0, "priorityLevels must be positive: %s", priorityLevels);
+    checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    this.capacity = capacity;
+    lanes = new ArrayDeque[priorityLevels];
+    for (int i = 0; i < priorityLevels; i++) {
+      lanes[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Adds the given element to the queue, shedding an element if the queue is full.
+   *
+   * @return the element which was shed to honor the capacity (possibly {@code element} itself), or null if the
+   * element was enqueued without shedding
+   * @throws IllegalStateException if the queue has been {@link #close closed}
+   */
+  E offer(E element, int priority) {
+    lock.lock();
+    try {
+      if (closed) throw new IllegalStateException("Queue is closed");
+      E shed = null;
+      if (size == capacity) {
+        int lowest = lowestNonEmptyPriority();
+        if (lowest >= priority) return element;
+        Node<E> evicted = lanes[lowest].pollFirst();
+        unlink(evicted);
+        shed = evicted.element;
+      }
+      Node<E> node = new Node<>(element, priority);
+      lanes[priority].addLast(node);
+      link(node);
+      notEmpty.signal();
+      return shed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the oldest element, waiting up to the given timeout for one to arrive.
+   *
+   * @return the element, or null if the timeout elapsed (or the thread was interrupted) while the queue was empty
+   */
+  E poll(long timeout, TimeUnit unit) {
+    long remainingNanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (size == 0) {
+        if (remainingNanos <= 0) return null;
+        remainingNanos = notEmpty.awaitNanos(remainingNanos);
+      }
+      return removeHead();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the queue to further offers, atomically removing and returning any remaining elements (in FIFO order).
+   */
+  List<E> close() {
+    lock.lock();
+    try {
+      closed = true;
+      List<E> remaining = new ArrayList<>(size);
+      while (size > 0) {
+        remaining.add(removeHead());
+      }
+      return remaining;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  private E removeHead() {
+    Node<E> node = head;
+    // the oldest node overall is necessarily also the oldest in its lane
+    Node<E> laneHead = lanes[node.priority].pollFirst();
+    assert laneHead == node;
+    unlink(node);
+    return node.element;
+  }
+
+  private void link(Node<E> node) {
+    node.prev = tail;
+    if (tail == null) {
+      head = node;
+    } else {
+      tail.next = node;
+    }
+    tail = node;
+    size++;
+  }
+
+  private void unlink(Node<E> node) {
+    if (node.prev == null) {
+      head = node.next;
+    } else {
+      node.prev.next = node.next;
+    }
+    if (node.next == null) {
+      tail = node.prev;
+    } else {
+      node.next.prev = node.prev;
+    }
+    node.prev = node.next = null;
+    size--;
+  }
+
+  private int lowestNonEmptyPriority() {
+    for (int i = 0; i < lanes.length; i++) {
+      if (!lanes[i].isEmpty()) return i;
+    }
+    throw new AssertionError("Queue is full, but all lanes were empty");
+  }
+
+  private static final class Node<E> {
+    final E element;
+    final int priority;
+    Node<E> prev;
+    Node<E> next;
+
+    Node(E element, int priority) {
+      this.element = element;
+      this.priority = priority;
+    }
+  }
+}
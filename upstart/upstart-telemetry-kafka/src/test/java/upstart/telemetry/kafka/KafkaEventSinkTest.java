@@ -0,0 +1,109 @@
+package upstart.telemetry.kafka;
+
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.event.ServiceCleanShutdownEvent;
+import io.upstartproject.avro.event.ServiceConfigLoadedEvent;
+import io.upstartproject.avrocodec.AvroDecoder;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.AvroTaxonomy;
+import io.upstartproject.avrocodec.EnvelopeDecoder;
+import io.upstartproject.avrocodec.MemorySchemaRegistry;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import io.upstartproject.avrocodec.UnpackableMessageEnvelope;
+import io.upstartproject.avrocodec.upstart.AvroEnvelopeModule;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.log4j.test.SuppressLogs;
+import upstart.managedservices.LifecycleCoordinator;
+import upstart.managedservices.ManagedServiceGraph;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.telemetry.EventLogModule;
+import upstart.telemetry.ServiceTelemetry;
+import upstart.test.UpstartLibraryTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.test.kafka.EphemeralKafkaBroker;
+import upstart.test.kafka.LocalKafkaTopic;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@LocalKafkaTopic(value = KafkaEventSinkTest.TOPIC, partitions = 1)
+@SuppressLogs({LifecycleCoordinator.class, TaggedMetricRegistry.class})
+@UpstartLibraryTest(ServiceTelemetry.Module.class)
+class KafkaEventSinkTest extends UpstartModule {
+  static final String TOPIC = "test-telemetry";
+
+  @Inject
+  @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
+  ManagedServiceGraph infrastructureServiceGraph;
+  @Inject TaggedMetricRegistry metricRegistry;
+  private EphemeralKafkaBroker broker;
+  private AvroDecoder decoder;
+  private EnvelopeDecoder envelopeCodec;
+
+  @Override
+  protected void configure() {
+    install(new AvroEnvelopeModule(EventLogModule.TELEMETRY_DATA_STORE));
+    bind(SchemaRegistry.class).annotatedWith(EventLogModule.TELEMETRY_DATA_STORE).to(MemorySchemaRegistry.class);
+    install(new KafkaEventSink.Module());
+  }
+
+  @BeforeEach
+  void setup(UpstartTestBuilder testBuilder, EphemeralKafkaBroker broker) {
+    this.broker = broker;
+    testBuilder.subConfig("upstart.telemetry.kafka", config -> config
+            .overrideConfig("bootstrapServers", broker.getBrokerList().orElseThrow())
+            .overrideConfig("topic", TOPIC)
+            .overrideConfig("linger", Duration.ofMillis(10))
+    );
+
+    AvroTaxonomy taxonomy = new AvroTaxonomy(new MemorySchemaRegistry());
+    decoder = new AvroDecoder(taxonomy);
+    envelopeCodec = new EnvelopeDecoder(decoder);
+    AvroPublisher avroPublisher = new AvroPublisher(taxonomy);
+    taxonomy.start().join();
+    avroPublisher.ensureRegistered(MessageEnvelope.class).join();
+    avroPublisher.registerSpecificRecordSchemas(AvroPublisher.PackageKey.fromRecordPackage(ServiceConfigLoadedEvent.class)).join();
+  }
+
+  @Test
+  void publishesEnvelopesToKafka() {
+    infrastructureServiceGraph.start().join();
+    infrastructureServiceGraph.stop().join();
+
+    List<UnpackableMessageEnvelope> envelopes = consumeEnvelopes(2);
+    unpack(envelopes.get(0), ServiceConfigLoadedEvent.class);
+    unpack(envelopes.get(1), ServiceCleanShutdownEvent.class);
+
+    assertThat(metricRegistry.meter("telemetry.kafka.events.sent", Map.of("topic", TOPIC)).getCount()).isEqualTo(2);
+  }
+
+  private List<UnpackableMessageEnvelope> consumeEnvelopes(int expectedCount) {
+    List<UnpackableMessageEnvelope> envelopes = new ArrayList<>();
+    try (KafkaConsumer<byte[], byte[]> consumer = broker.createByteConsumer(Map.of())) {
+      consumer.subscribe(List.of(TOPIC));
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (envelopes.size() < expectedCount && System.currentTimeMillis() < deadline) {
+        for (ConsumerRecord<byte[], byte[]> record : consumer.poll(Duration.ofMillis(200))) {
+          envelopes.add(envelopeCodec.loadEnvelope(record.value()).join());
+        }
+      }
+    }
+    assertThat(envelopes).hasSize(expectedCount);
+    return envelopes;
+  }
+
+  private <T extends SpecificRecordBase> T unpack(UnpackableMessageEnvelope envelope, Class<T> recordClass) {
+    return envelope.convertMessage(decoder.recordConverter(recordClass)).orElseThrow();
+  }
+}
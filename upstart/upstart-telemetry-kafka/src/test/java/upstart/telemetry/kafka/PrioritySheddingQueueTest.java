@@ -0,0 +1,56 @@
+package upstart.telemetry.kafka;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PrioritySheddingQueueTest {
+  private final PrioritySheddingQueue<String> queue = new PrioritySheddingQueue<>(3, 3);
+
+  @Test
+  void pollsInFifoOrder() {
+    queue.offer("low", 0);
+    queue.offer("high", 2);
+    queue.offer("mid", 1);
+
+    assertThat(poll()).isEqualTo("low");
+    assertThat(poll()).isEqualTo("high");
+    assertThat(poll()).isEqualTo("mid");
+    assertThat(poll()).isNull();
+  }
+
+  @Test
+  void shedsOldestLowestPriorityWhenFull() {
+    assertThat(queue.offer("low-1", 0)).isNull();
+    assertThat(queue.offer("low-2", 0)).isNull();
+    assertThat(queue.offer("mid-1", 1)).isNull();
+
+    assertThat(queue.offer("high-1", 2)).isEqualTo("low-1");
+    assertThat(queue.offer("mid-2", 1)).isEqualTo("low-2");
+    // nothing of lower priority remains: the offered element is rejected
+    assertThat(queue.offer("mid-3", 1)).isEqualTo("mid-3");
+    assertThat(queue.offer("low-3", 0)).isEqualTo("low-3");
+
+    assertThat(queue.size()).isEqualTo(3);
+    assertThat(poll()).isEqualTo("mid-1");
+    assertThat(poll()).isEqualTo("high-1");
+    assertThat(poll()).isEqualTo("mid-2");
+  }
+
+  @Test
+  void closeDrainsRemainingAndRejectsOffers() {
+    queue.offer("a", 1);
+    queue.offer("b", 0);
+
+    assertThat(queue.close()).containsExactly("a", "b").inOrder();
+    assertThat(queue.size()).isEqualTo(0);
+    assertThrows(IllegalStateException.class, () -> queue.offer("c", 2));
+  }
+
+  private String poll() {
+    return queue.poll(0, TimeUnit.MILLISECONDS);
+  }
+}
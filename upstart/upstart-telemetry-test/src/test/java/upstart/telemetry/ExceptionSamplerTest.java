@@ -0,0 +1,113 @@
+package upstart.telemetry;
+
+import com.codahale.metrics.MetricRegistry;
+import io.upstartproject.avro.event.ExceptionEvent;
+import io.upstartproject.avro.event.ExceptionSummaryEvent;
+import io.upstartproject.avrocodec.MemorySchemaRegistry;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import org.junit.jupiter.api.Test;
+import upstart.config.EnvironmentConfig;
+import upstart.config.UpstartModule;
+import upstart.telemetry.test.CapturingEventSink;
+import upstart.test.FakeTime;
+import upstart.test.FakeTimeTest;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.util.LogLevel;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest(ServiceTelemetry.Module.class)
+@EnvironmentConfig.Fixture("""
+        upstart.telemetry.exceptions {
+          window: 1m
+          headSamples: 3
+          ratePerSecond: 0.01
+          burst: 4
+        }
+        """)
+@FakeTimeTest(interceptSchedules = ExceptionSampler.class)
+class ExceptionSamplerTest extends UpstartModule {
+  @Inject ExceptionSampler sampler;
+  @Inject CapturingEventSink eventSink;
+  @Inject MetricRegistry metricRegistry;
+
+  @Override
+  protected void configure() {
+    install(new CapturingEventSink.Module());
+    bind(SchemaRegistry.class).annotatedWith(EventLogModule.TELEMETRY_DATA_STORE).toInstance(new MemorySchemaRegistry());
+  }
+
+  @Test
+  void repeatedExceptionsAreSummarized(FakeTime time) {
+    for (int i = 0; i < 10; i++) {
+      sampler.publish(LogLevel.Info, failure("occurrence " + i)).join();
+    }
+    sampler.publish(LogLevel.Info, otherFailure()).join();
+
+    List<ExceptionEvent> published = exceptionEvents();
+    assertThat(published).hasSize(4);
+    assertThat(published.get(0).getFingerprint()).isEqualTo(published.get(2).getFingerprint());
+    assertThat(published.get(3).getFingerprint()).isNotEqualTo(published.get(0).getFingerprint());
+    assertThat(summaryEvents()).isEmpty();
+
+    time.advance(Duration.ofMinutes(1));
+
+    ExceptionSummaryEvent summary = summaryEvents().get(0);
+    assertThat(summaryEvents()).hasSize(1);
+    assertThat(summary.getFingerprint()).isEqualTo(published.get(0).getFingerprint());
+    assertThat(summary.getOccurrences()).isEqualTo(10);
+    assertThat(summary.getSuppressed()).isEqualTo(7);
+    assertThat(summary.getLastOccurrence().getMessage()).isEqualTo("occurrence 9");
+  }
+
+  @Test
+  void tokenBucketLimitsSustainedBursts(FakeTime time) {
+    for (int window = 0; window < 3; window++) {
+      for (int i = 0; i < 5; i++) {
+        sampler.publish(LogLevel.Info, failure("storm")).join();
+      }
+      time.advance(Duration.ofMinutes(1));
+    }
+
+    // 3 head-samples drain the bucket to 1 token (plus 0.6 refilled per minute), so later windows publish just 1 each
+    assertThat(exceptionEvents()).hasSize(5);
+    assertThat(summaryEvents().stream().mapToLong(ExceptionSummaryEvent::getSuppressed).sum()).isEqualTo(10);
+  }
+
+  @Test
+  void idleFingerprintsAreRetired(FakeTime time) {
+    sampler.publish(LogLevel.Info, failure("first")).join();
+    time.advance(Duration.ofMinutes(1)); // rolls the window
+    time.advance(Duration.ofMinutes(1)); // finds it idle, and retires it
+    assertThat(metricRegistry.getGauges().get("telemetry.exceptions.fingerprints").getValue()).isEqualTo(0L);
+
+    // a later occurrence starts a fresh window, rather than being recorded in the retired one
+    sampler.publish(LogLevel.Info, failure("second")).join();
+    assertThat(metricRegistry.getGauges().get("telemetry.exceptions.fingerprints").getValue()).isEqualTo(1L);
+    assertThat(exceptionEvents()).hasSize(2);
+  }
+
+  private List<ExceptionEvent> exceptionEvents() {
+    return eventSink.findEvents(ExceptionEvent.class)
+            .map(event -> (ExceptionEvent) event.messageRecord().unpackSpecificOrGeneric())
+            .toList();
+  }
+
+  private List<ExceptionSummaryEvent> summaryEvents() {
+    return eventSink.findEvents(ExceptionSummaryEvent.class)
+            .map(event -> (ExceptionSummaryEvent) event.messageRecord().unpackSpecificOrGeneric())
+            .toList();
+  }
+
+  private static Exception failure(String message) {
+    return new IllegalStateException(message);
+  }
+
+  private static Exception otherFailure() {
+    return new IllegalArgumentException("different");
+  }
+}
@@ -0,0 +1,75 @@
+package upstart.telemetry;
+
+import io.upstartproject.avrocodec.MemorySchemaRegistry;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.avrocodec.events.PackagedEventSink;
+import io.upstartproject.avrocodec.upstart.AvroEnvelopeModule;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import upstart.config.UpstartModule;
+import upstart.managedservices.ManagedServiceGraph;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.test.UpstartLibraryTest;
+import upstart.test.UpstartServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.services.IdleService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartServiceTest
+@UpstartLibraryTest
+class SpoolingEventSinkModuleTest extends UpstartModule {
+  @TempDir static Path spoolDirectory;
+  @Inject @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure) ManagedServiceGraph infrastructureGraph;
+  @Inject SpoolingEventSink spoolingSink;
+  @Inject DelegateSink delegateSink;
+
+  @Override
+  protected void configure() {
+    install(new AvroEnvelopeModule(EventLogModule.TELEMETRY_DATA_STORE));
+    bind(SchemaRegistry.class).annotatedWith(EventLogModule.TELEMETRY_DATA_STORE).to(MemorySchemaRegistry.class);
+    install(new SpoolingEventSink.Module(DelegateSink.class));
+    serviceManager().manage(DelegateSink.class);
+  }
+
+  @BeforeEach
+  void setup(UpstartTestBuilder testBuilder) {
+    testBuilder.overrideConfig("upstart.telemetry.spool.directory", spoolDirectory.toString());
+  }
+
+  @Test
+  void replayWaitsForDelegateToStart() {
+    assertThat(infrastructureGraph.getRequiredDependencies(spoolingSink)).contains(delegateSink);
+  }
+
+  @Singleton
+  @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
+  static class DelegateSink extends IdleService implements PackagedEventSink {
+    @Override
+    protected void startUp() {
+    }
+
+    @Override
+    protected void shutDown() {
+    }
+
+    @Override
+    public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<?> flush() {
+      return CompletableFutures.nullFuture();
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package upstart.telemetry;
+
+import com.codahale.metrics.MetricRegistry;
+import io.upstartproject.avro.DeploymentStage;
+import io.upstartproject.avro.MessageEnvelope;
+import io.upstartproject.avro.event.ServiceCleanShutdownEvent;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.AvroTaxonomy;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.MessageMetadata;
+import io.upstartproject.avrocodec.SchemaDescriptor;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.avrocodec.events.PackagedEventSink;
+import io.upstartproject.hojack.Size;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.Promise;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpoolingEventSinkTest {
+  @TempDir Path spoolDirectory;
+  private final CapturingSink delegate = new CapturingSink();
+  private final List<SpoolingEventSink> sinks = new ArrayList<>();
+  private final SharedSchemaRegistry schemaRegistry = new SharedSchemaRegistry();
+  private final List<AvroTaxonomy> taxonomies = new ArrayList<>();
+  private AvroPublisher avroPublisher;
+  private AvroTaxonomy taxonomy;
+
+  @BeforeEach
+  void setupCodec() {
+    startCodec();
+    avroPublisher.ensureRegistered(MessageEnvelope.class, ServiceCleanShutdownEvent.class).join();
+  }
+
+  @AfterEach
+  void stopSinks() {
+    sinks.forEach(sink -> sink.stop().join());
+    taxonomies.forEach(taxonomy -> taxonomy.stop().join());
+  }
+
+  @Test
+  void forwardsSpooledEventsWhenDelegateRecovers() throws Exception {
+    SpoolingEventSink sink = newSink();
+    sink.start().join();
+    delegate.failing = true;
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(sink.publish(LogLevel.Info, event(i)).isDone()).isTrue();
+    }
+    CompletableFuture<?> flushed = sink.flush();
+    Thread.sleep(50);
+    assertThat(flushed.isDone()).isFalse();
+
+    delegate.failing = false;
+    flushed.get(5, TimeUnit.SECONDS);
+
+    assertThat(delegate.uniqueIds()).containsExactly("event-0", "event-1", "event-2", "event-3", "event-4").inOrder();
+    assertThat(delegate.events.get(0).key().orElseThrow()).isEqualTo("key-0");
+    assertThat(sink.spoolBytes()).isEqualTo(0);
+  }
+
+  @Test
+  void replaysSpoolAfterRestart() throws Exception {
+    // events are spooled, but the sink "crashes" before forwarding them
+    SpoolingEventSink crashed = newSink();
+    for (int i = 0; i < 3; i++) {
+      crashed.publish(LogLevel.Warn, event(i)).join();
+    }
+    sinks.remove(crashed);
+
+    SpoolingEventSink restarted = newSink();
+    assertThat(restarted.spoolBytes()).isEqualTo(0); // not loaded until started
+    restarted.start().join();
+    assertThat(restarted.spoolBytes()).isGreaterThan(0);
+    restarted.publish(LogLevel.Info, event(3)).join();
+    restarted.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(delegate.uniqueIds()).containsExactly("event-0", "event-1", "event-2", "event-3").inOrder();
+    assertThat(delegate.levels).containsExactly(LogLevel.Warn, LogLevel.Warn, LogLevel.Warn, LogLevel.Info).inOrder();
+  }
+
+  @Test
+  void replaysSpoolBeforeApplicationRegistersSchemas() throws Exception {
+    SpoolingEventSink crashed = newSink();
+    for (int i = 0; i < 3; i++) {
+      crashed.publish(LogLevel.Warn, event(i)).join();
+    }
+    sinks.remove(crashed);
+
+    // a new process sharing the schema-registry, which has not (yet) registered the schemas of the spooled events
+    startCodec();
+    SpoolingEventSink restarted = newSink();
+    restarted.start().join();
+    restarted.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(delegate.uniqueIds()).containsExactly("event-0", "event-1", "event-2").inOrder();
+  }
+
+  @Test
+  void flushFailsAfterTimeoutWhileDelegateIsFailing() throws Exception {
+    SpoolingEventSink sink = newSink(new TestConfig(spoolDirectory).withFlushTimeout(Duration.ofMillis(100)));
+    sink.start().join();
+    delegate.failing = true;
+
+    sink.publish(LogLevel.Info, event(0)).join();
+    ExecutionException e = assertThrows(ExecutionException.class, () -> sink.flush().get(5, TimeUnit.SECONDS));
+    assertThat(e).hasCauseThat().isInstanceOf(TimeoutException.class);
+
+    // the event remains spooled, and is forwarded once the delegate recovers
+    delegate.failing = false;
+    sink.flush().get(5, TimeUnit.SECONDS);
+    assertThat(delegate.uniqueIds()).containsExactly("event-0");
+  }
+
+  private void startCodec() {
+    taxonomy = new AvroTaxonomy(schemaRegistry);
+    avroPublisher = new AvroPublisher(taxonomy);
+    taxonomy.start().join();
+    taxonomies.add(taxonomy);
+  }
+
+  private SpoolingEventSink newSink() {
+    return newSink(new TestConfig(spoolDirectory));
+  }
+
+  private SpoolingEventSink newSink(TestConfig config) {
+    SpoolingEventSink sink = new SpoolingEventSink(
+            config,
+            delegate,
+            new EnvelopePublisher(avroPublisher),
+            taxonomy,
+            new MetricRegistry()
+    );
+    sinks.add(sink);
+    return sink;
+  }
+
+  private PackagedEvent event(int i) {
+    return PackagedEvent.builder()
+            .key("key-" + i)
+            .uniqueId("event-" + i)
+            .timestamp(Instant.now())
+            .metadata(MessageMetadata.builder()
+                    .application("test-app")
+                    .owner("test-owner")
+                    .environment("test")
+                    .deploymentStage(DeploymentStage.test)
+                    .build())
+            .event(avroPublisher.getPreRegisteredPacker(ServiceCleanShutdownEvent.class).makePackable(new ServiceCleanShutdownEvent()))
+            .build();
+  }
+
+  record TestConfig(
+          Path directory,
+          Size segmentSize,
+          Duration maxSegmentAge,
+          Size maxSpoolSize,
+          boolean fsync,
+          int maxInFlight,
+          Duration initialBackoff,
+          Duration maxBackoff,
+          Duration flushTimeout
+  ) implements SpoolingEventSink.SpoolConfig {
+    TestConfig(Path directory) {
+      this(directory, Size.bytes(256), Duration.ofMillis(20), Size.megabytes(1), false, 2, Duration.ofMillis(5), Duration.ofMillis(20), Duration.ofSeconds(30));
+    }
+
+    TestConfig withFlushTimeout(Duration flushTimeout) {
+      return new TestConfig(directory, segmentSize, maxSegmentAge, maxSpoolSize, fsync, maxInFlight, initialBackoff, maxBackoff, flushTimeout);
+    }
+  }
+
+  /**
+   * An in-memory registry whose contents outlive the codecs using it, standing in for a durable registry shared across
+   * process restarts
+   */
+  static class SharedSchemaRegistry implements SchemaRegistry {
+    private final List<SchemaDescriptor> schemas = new ArrayList<>();
+    private final List<SchemaListener> listeners = new ArrayList<>();
+
+    @Override
+    public synchronized CompletableFuture<?> startUp(SchemaListener schemaListener) {
+      schemas.forEach(schemaListener::onSchemaAdded);
+      listeners.add(schemaListener);
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public synchronized CompletableFuture<?> insert(List<? extends SchemaDescriptor> newSchemas) {
+      for (SchemaDescriptor schema : newSchemas) {
+        schemas.add(schema);
+        listeners.forEach(listener -> listener.onSchemaAdded(schema));
+      }
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<?> delete(SchemaDescriptor schema) {
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> refresh() {
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<?> shutDown() {
+      return CompletableFutures.nullFuture();
+    }
+  }
+
+  static class CapturingSink implements PackagedEventSink {
+    final List<PackagedEvent> events = new CopyOnWriteArrayList<>();
+    final List<LogLevel> levels = new CopyOnWriteArrayList<>();
+    volatile boolean failing = false;
+
+    @Override
+    public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+      if (failing) return Promise.failedPromise(new IllegalStateException("Unavailable"));
+      events.add(event);
+      levels.add(diagnosticLogLevel);
+      return CompletableFutures.nullFuture();
+    }
+
+    @Override
+    public CompletableFuture<?> flush() {
+      return CompletableFutures.nullFuture();
+    }
+
+    List<String> uniqueIds() {
+      return events.stream().map(PackagedEvent::uniqueId).toList();
+    }
+  }
+}
@@ -1,10 +1,15 @@
 package upstart.telemetry;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.upstartproject.avro.event.ExceptionEvent;
 import io.upstartproject.avro.event.ExceptionRecord;
+import io.upstartproject.avro.event.ExceptionSummaryEvent;
 import io.upstartproject.avro.event.StackElement;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -12,8 +17,30 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ExceptionRecordBuilder {
+  /** Bounds the work of fingerprinting (pathologically) deep cause-chains, which may even be cyclic */
+  private static final int MAX_FINGERPRINT_CAUSES = 16;
+
   public ExceptionEvent toExceptionEvent(Throwable throwable) {
-    return new ExceptionEvent(toExceptionRecord(throwable));
+    return new ExceptionEvent(toExceptionRecord(throwable), fingerprint(throwable));
+  }
+
+  public ExceptionSummaryEvent toSummaryEvent(
+          String fingerprint,
+          Throwable lastOccurrence,
+          Instant windowStart,
+          Instant windowEnd,
+          long occurrences,
+          long suppressed
+  ) {
+    return new ExceptionSummaryEvent(
+            fingerprint,
+            lastOccurrence.getClass().getName(),
+            windowStart,
+            windowEnd,
+            occurrences,
+            suppressed,
+            toExceptionRecord(lastOccurrence)
+    );
   }
 
   public ExceptionRecord toExceptionRecord(Throwable throwable) {
@@ -36,6 +63,26 @@ public class ExceptionRecordBuilder {
     );
   }
 
+  /**
+   * Computes a fingerprint which identifies repeated occurrences of "the same" exception: it covers the types and
+   * stack-frames of the throwable and its causes, but not their messages (which often embed varying ids or values).
+   */
+  public String fingerprint(Throwable throwable) {
+    Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
+    Throwable current = throwable;
+    for (int depth = 0; current != null && depth < MAX_FINGERPRINT_CAUSES; depth++) {
+      hasher.putString(current.getClass().getName(), StandardCharsets.UTF_8);
+      for (StackTraceElement frame : current.getStackTrace()) {
+        hasher.putString(frame.getClassName(), StandardCharsets.UTF_8)
+                .putString(frame.getMethodName(), StandardCharsets.UTF_8)
+                .putInt(frame.getLineNumber());
+      }
+      hasher.putByte((byte) 0);
+      current = current.getCause();
+    }
+    return hasher.hash().toString();
+  }
+
   private static StackElement toStackElement(StackTraceElement ste) {
     return new StackElement(ste.getClassName(), ste.getMethodName(), ste.getFileName(), ste.getLineNumber());
   }
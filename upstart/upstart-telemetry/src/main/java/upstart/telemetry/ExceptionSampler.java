@@ -0,0 +1,260 @@
+package upstart.telemetry;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import io.upstartproject.avro.event.ExceptionEvent;
+import io.upstartproject.avro.event.ExceptionSummaryEvent;
+import io.upstartproject.avrocodec.upstart.EventLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.config.annotations.ConfigPath;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.services.ScheduledService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Publishes {@link ExceptionEvent ExceptionEvents} at a bounded rate, regardless of how often exceptions occur.
+ * <p/>
+ * Exceptions are grouped by their {@link ExceptionRecordBuilder#fingerprint fingerprint}. Within each
+ * {@link SamplingConfig#window}, only the first {@link SamplingConfig#headSamples} occurrences of a fingerprint are
+ * serialized and published individually ("head" samples), and each of those must also obtain a token from a
+ * per-fingerprint token-bucket (refilled at {@link SamplingConfig#ratePerSecond}, holding up to
+ * {@link SamplingConfig#burst} tokens), which bounds the rate across consecutive windows during a sustained storm.
+ * <p/>
+ * Further occurrences are merely counted; when the window closes, they are reported by a single
+ * {@link ExceptionSummaryEvent}, which includes the last suppressed occurrence in full (the "tail" sample).
+ * <p/>
+ * At most {@link SamplingConfig#maxFingerprints} fingerprints are tracked; if more are seen, the least-recently seen
+ * are evicted (after publishing their summaries).
+ */
+@Singleton
+@ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
+public class ExceptionSampler extends ScheduledService {
+  private static final Logger LOG = LoggerFactory.getLogger(ExceptionSampler.class);
+
+  private final SamplingConfig config;
+  private final ExceptionRecordBuilder recordBuilder;
+  private final EventLogger<ExceptionEvent> exceptionLogger;
+  private final EventLogger<ExceptionSummaryEvent> summaryLogger;
+  private final Clock clock;
+  private final Cache<String, FingerprintWindow> windows;
+  private final Meter publishedMeter;
+  private final Meter suppressedMeter;
+  private final Meter summaryMeter;
+
+  @Inject
+  public ExceptionSampler(
+          SamplingConfig config,
+          ExceptionRecordBuilder recordBuilder,
+          EventLogger<ExceptionEvent> exceptionLogger,
+          EventLogger<ExceptionSummaryEvent> summaryLogger,
+          Clock clock,
+          MetricRegistry metricRegistry
+  ) {
+    config.validate();
+    this.config = config;
+    this.recordBuilder = recordBuilder;
+    this.exceptionLogger = exceptionLogger;
+    this.summaryLogger = summaryLogger;
+    this.clock = clock;
+    windows = CacheBuilder.newBuilder()
+            .maximumSize(config.maxFingerprints())
+            .removalListener(this::onEvicted)
+            .build();
+
+    publishedMeter = metricRegistry.meter("telemetry.exceptions.published");
+    suppressedMeter = metricRegistry.meter("telemetry.exceptions.suppressed");
+    summaryMeter = metricRegistry.meter("telemetry.exceptions.summaries");
+    metricRegistry.register("telemetry.exceptions.fingerprints", (Gauge<Long>) windows::size);
+  }
+
+  /**
+   * Publishes an {@link ExceptionEvent} for the given throwable, unless it is suppressed by sampling (in which case
+   * it will be counted in a subsequent {@link ExceptionSummaryEvent}).
+   */
+  public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, Throwable throwable) {
+    String fingerprint = recordBuilder.fingerprint(throwable);
+    Instant now = clock.instant();
+    FingerprintWindow window;
+    ExceptionSummaryEvent summary = null;
+    boolean sampled = false;
+    boolean recorded = false;
+    do {
+      window = windows.asMap().computeIfAbsent(fingerprint, fp -> new FingerprintWindow(fp, now));
+      synchronized (window) {
+        // if the window was concurrently retired as idle, it has been (or is about to be) removed: start a new one
+        if (!window.retired) {
+          summary = window.isExpired(now) ? window.roll(now) : null;
+          sampled = window.record(throwable, diagnosticLogLevel, now);
+          recorded = true;
+        }
+      }
+    } while (!recorded);
+    if (summary != null) publishSummary(window.summaryLevel, summary);
+
+    if (!sampled) {
+      suppressedMeter.mark();
+      return CompletableFutures.nullFuture();
+    }
+    publishedMeter.mark();
+    return exceptionLogger.publish(diagnosticLogLevel, new ExceptionEvent(recordBuilder.toExceptionRecord(throwable), fingerprint));
+  }
+
+  @Override
+  protected Schedule schedule() {
+    return fixedRateSchedule(config.window(), config.window());
+  }
+
+  @Override
+  protected void runOneIteration() {
+    Instant now = clock.instant();
+    for (FingerprintWindow window : windows.asMap().values()) {
+      ExceptionSummaryEvent summary = null;
+      boolean idle = false;
+      synchronized (window) {
+        if (window.isExpired(now)) {
+          if (window.occurrences == 0) {
+            // retire the window while holding its lock, so a concurrent publish can't record into it after removal
+            window.retired = true;
+            idle = true;
+          } else {
+            summary = window.roll(now);
+          }
+        }
+      }
+      if (idle) windows.asMap().remove(window.fingerprint, window);
+      if (summary != null) publishSummary(window.summaryLevel, summary);
+    }
+  }
+
+  @Override
+  protected void shutDown() {
+    Instant now = clock.instant();
+    for (FingerprintWindow window : windows.asMap().values()) {
+      ExceptionSummaryEvent summary;
+      synchronized (window) {
+        summary = window.roll(now);
+      }
+      if (summary != null) publishSummary(window.summaryLevel, summary);
+    }
+  }
+
+  private void onEvicted(RemovalNotification<String, FingerprintWindow> notification) {
+    if (!notification.wasEvicted()) return;
+    FingerprintWindow window = notification.getValue();
+    ExceptionSummaryEvent summary;
+    synchronized (window) {
+      summary = window.roll(clock.instant());
+    }
+    if (summary != null) publishSummary(window.summaryLevel, summary);
+  }
+
+  private void publishSummary(LogLevel level, ExceptionSummaryEvent summary) {
+    summaryMeter.mark();
+    summaryLogger.unreliablePublishOrWarn(level, summary, LOG);
+  }
+
+  private class FingerprintWindow {
+    final String fingerprint;
+    boolean retired = false;
+    Instant windowStart;
+    long occurrences = 0;
+    long suppressed = 0;
+    int headSamples = 0;
+    Throwable lastSuppressed = null;
+    LogLevel summaryLevel = LogLevel.Info;
+    double tokens;
+    Instant lastRefill;
+
+    FingerprintWindow(String fingerprint, Instant now) {
+      this.fingerprint = fingerprint;
+      windowStart = now;
+      lastRefill = now;
+      tokens = config.burst();
+    }
+
+    boolean isExpired(Instant now) {
+      return !now.isBefore(windowStart.plus(config.window()));
+    }
+
+    /**
+     * @return true if this occurrence should be published individually
+     */
+    boolean record(Throwable throwable, LogLevel level, Instant now) {
+      occurrences++;
+      if (headSamples < config.headSamples() && tryAcquireToken(now)) {
+        headSamples++;
+        return true;
+      }
+      suppressed++;
+      lastSuppressed = throwable;
+      summaryLevel = level;
+      return false;
+    }
+
+    /**
+     * Starts a new window.
+     *
+     * @return a summary of the suppressed occurrences in the previous window, if there were any
+     */
+    ExceptionSummaryEvent roll(Instant now) {
+      ExceptionSummaryEvent summary = suppressed == 0
+              ? null
+              : recordBuilder.toSummaryEvent(fingerprint, lastSuppressed, windowStart, now, occurrences, suppressed);
+      windowStart = now;
+      occurrences = 0;
+      suppressed = 0;
+      headSamples = 0;
+      lastSuppressed = null;
+      return summary;
+    }
+
+    private boolean tryAcquireToken(Instant now) {
+      double elapsedSeconds = Duration.between(lastRefill, now).toNanos() / 1e9;
+      tokens = Math.min(config.burst(), tokens + elapsedSeconds * config.ratePerSecond());
+      lastRefill = now;
+      if (tokens < 1) return false;
+      tokens -= 1;
+      return true;
+    }
+  }
+
+  @ConfigPath("upstart.telemetry.exceptions")
+  public interface SamplingConfig {
+    /** Period over which repeated occurrences of an exception are summarized */
+    Duration window();
+
+    /** Number of occurrences of each fingerprint to publish individually within each window */
+    int headSamples();
+
+    /** Long-term limit on the rate of individually-published occurrences of each fingerprint */
+    double ratePerSecond();
+
+    /** Maximum number of occurrences of each fingerprint to publish individually in a burst */
+    int burst();
+
+    int maxFingerprints();
+
+    default void validate() {
+      checkArgument(window().compareTo(Duration.ZERO) > 0, "window must be positive: %s", window());
+      checkArgument(headSamples() >= 0, "headSamples must not be negative: %s", headSamples());
+      checkArgument(ratePerSecond() >= 0, "ratePerSecond must not be negative: %s", ratePerSecond());
+      checkArgument(burst() >= 0, "burst must not be negative: %s", burst());
+      checkArgument(maxFingerprints() > 0, "maxFingerprints must be positive: %s", maxFingerprints());
+    }
+  }
+}
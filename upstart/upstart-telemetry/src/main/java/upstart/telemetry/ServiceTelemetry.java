@@ -6,7 +6,6 @@ import com.google.common.util.concurrent.Service;
 import io.upstartproject.avro.event.ConfigValueRecord;
 import io.upstartproject.avro.event.ServiceCleanShutdownEvent;
 import io.upstartproject.avro.event.ServiceConfigLoadedEvent;
-import io.upstartproject.avro.event.ExceptionEvent;
 import io.upstartproject.avrocodec.upstart.AvroPublicationModule;
 import io.upstartproject.avrocodec.upstart.EventLogger;
 import org.slf4j.Logger;
@@ -28,8 +27,7 @@ import javax.inject.Singleton;
 @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
 public class ServiceTelemetry extends IdleService {
   private static final Logger LOG = LoggerFactory.getLogger(ServiceTelemetry.class);
-  private final ExceptionRecordBuilder exceptionRecordBuilder;
-  private final EventLogger<ExceptionEvent> errorEventLogger;
+  private final ExceptionSampler exceptionSampler;
   private final EventLogger<ServiceConfigLoadedEvent> configLogger;
   private final EventLogger<ServiceCleanShutdownEvent> shutdownEventLogger;
   private final UpstartApplicationConfig appConfig;
@@ -37,15 +35,13 @@ public class ServiceTelemetry extends IdleService {
 
   @Inject
   public ServiceTelemetry(
-          ExceptionRecordBuilder exceptionRecordBuilder,
-          EventLogger<ExceptionEvent> errorEventLogger,
+          ExceptionSampler exceptionSampler,
           EventLogger<ServiceConfigLoadedEvent> configLogger,
           EventLogger<ServiceCleanShutdownEvent> shutdownEventLogger,
           UpstartApplicationConfig appConfig,
           MetricRegistry metricRegistry
   ) {
-    this.exceptionRecordBuilder = exceptionRecordBuilder;
-    this.errorEventLogger = errorEventLogger;
+    this.exceptionSampler = exceptionSampler;
     this.configLogger = configLogger;
     this.appConfig = appConfig;
     this.shutdownEventLogger = shutdownEventLogger;
@@ -78,8 +74,7 @@ public class ServiceTelemetry extends IdleService {
   synchronized protected void failed(Throwable failure) {
     failureDetected = true;
     if (isRunning()) {
-      ExceptionEvent exceptionEvent = exceptionRecordBuilder.toExceptionEvent(failure);
-      errorEventLogger.publish(LogLevel.Info, exceptionEvent);
+      exceptionSampler.publish(LogLevel.Info, failure);
     } else {
       LOG.error("Service failed outside of normal running-phase", failure);
     }
@@ -89,7 +84,9 @@ public class ServiceTelemetry extends IdleService {
     @Override
     protected void configure() {
       install(new EventLogModule());
-      serviceManager().manage(ServiceTelemetry.class);
+      bindConfig(ExceptionSampler.SamplingConfig.class);
+      serviceManager().manage(ServiceTelemetry.class)
+              .manage(ExceptionSampler.class);
       AvroPublicationModule.publishAvroFromRecordPackage(binder(), EventLogModule.TELEMETRY_DATA_STORE, ServiceConfigLoadedEvent.class);
       ManagedServicesModule.bindServiceListener(binder()).to(ServiceListener.class);
     }
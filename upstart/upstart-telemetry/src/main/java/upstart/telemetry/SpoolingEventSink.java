@@ -0,0 +1,555 @@
+package upstart.telemetry;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.inject.BindingAnnotation;
+import com.google.inject.Key;
+import io.upstartproject.avrocodec.AvroDecoder;
+import io.upstartproject.avrocodec.AvroPackedLogFileAccumulator;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.AvroTaxonomy;
+import io.upstartproject.avrocodec.EnvelopeDecoder;
+import io.upstartproject.avrocodec.EnvelopePublisher;
+import io.upstartproject.avrocodec.PackableRecord;
+import io.upstartproject.avrocodec.UnpackableMessageEnvelope;
+import io.upstartproject.avrocodec.UnpackableRecord;
+import io.upstartproject.avrocodec.events.PackagedEvent;
+import io.upstartproject.avrocodec.events.PackagedEventSink;
+import io.upstartproject.avrocodec.upstart.DataStore;
+import io.upstartproject.hojack.Size;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.config.UpstartModule;
+import upstart.config.annotations.ConfigPath;
+import upstart.managedservices.ServiceLifecycle;
+import upstart.util.LogLevel;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.concurrent.ListPromise;
+import upstart.util.concurrent.Promise;
+import upstart.util.concurrent.services.ExecutionThreadService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A write-ahead {@link PackagedEventSink} which appends published events to segmented files in a local spool-directory,
+ * and forwards them to a wrapped {@link Delegate} sink from a background thread. This decouples publishers from the
+ * latency and availability of the delegate: {@link #publish} completes as soon as the event is written to the spool.
+ * <p/>
+ * Segments use the same avro data-file framing as {@link AvroPackedLogFileAccumulator}; each record holds the event's
+ * serialized {@link io.upstartproject.avro.MessageEnvelope}, along with its {@link LogLevel} and
+ * {@link PackagedEvent#key key}. The current segment is sealed when it reaches {@link SpoolConfig#segmentSize}, or
+ * after {@link SpoolConfig#maxSegmentAge}, or upon {@link #flush}; sealed segments are then forwarded in order, and
+ * deleted once all of their events have been accepted by the delegate.
+ * <p/>
+ * Progress is recorded in a checkpoint-file after each chunk of up to {@link SpoolConfig#maxInFlight} events, so
+ * after a restart (or crash), delivery resumes from the checkpoint. Delivery is at-least-once: events in a chunk
+ * which was interrupted or rejected by the delegate are forwarded again (after a backoff, in the case of rejection).
+ * <p/>
+ * If the spool grows beyond {@link SpoolConfig#maxSpoolSize} (because the delegate is unavailable), newly-published
+ * events are rejected.
+ * <p/>
+ * To use, install a {@link Module} naming the delegate sink (which should not be bound with
+ * {@link EventLogModule#bindEventSink} itself), and configure {@code upstart.telemetry.spool.directory}.
+ */
+@Singleton
+@ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure)
+public class SpoolingEventSink extends ExecutionThreadService implements PackagedEventSink {
+  private static final Logger LOG = LoggerFactory.getLogger(SpoolingEventSink.class);
+  static final Schema SPOOLED_EVENT_SCHEMA = SchemaBuilder.record("SpooledEvent").namespace("upstart.telemetry")
+          .fields()
+          .requiredString("level")
+          .optionalString("key")
+          .requiredBytes("envelope")
+          .endRecord();
+  private static final Pattern SEGMENT_FILENAME = Pattern.compile("segment-(\\d+)\\.avro");
+  private static final String CHECKPOINT_FILENAME = "checkpoint";
+  private static final long DRAIN_POLL_MILLIS = 100;
+
+  private final SpoolConfig config;
+  private final PackagedEventSink delegate;
+  private final EnvelopePublisher envelopePublisher;
+  private final AvroPublisher avroPublisher;
+  private final EnvelopeDecoder envelopeDecoder;
+  private final Path directory;
+  private final long segmentSizeBytes;
+  private final long maxSpoolBytes;
+  private final Meter spooledMeter;
+  private final Meter rejectedMeter;
+  private final Meter forwardedMeter;
+  private final Meter retriedMeter;
+  private final Meter discardedMeter;
+  private final CountDownLatch shutdownLatch = new CountDownLatch(1);
+
+  // guarded by spoolLock
+  private final Object spoolLock = new Object();
+  private final ArrayDeque<Long> sealedSegments = new ArrayDeque<>();
+  private final TreeMap<Long, List<Promise<Void>>> flushWaiters = new TreeMap<>();
+  private boolean recovered = false;
+  private SegmentWriter currentSegment = null;
+  private long nextSegmentId = 0;
+  private long spoolBytes = 0;
+
+  @Inject
+  public SpoolingEventSink(
+          SpoolConfig config,
+          @Delegate PackagedEventSink delegate,
+          @DataStore(EventLogModule.TELEMETRY) EnvelopePublisher envelopePublisher,
+          @DataStore(EventLogModule.TELEMETRY) AvroTaxonomy taxonomy,
+          MetricRegistry metricRegistry
+  ) {
+    this.config = config;
+    this.delegate = delegate;
+    this.envelopePublisher = envelopePublisher;
+    avroPublisher = envelopePublisher.avroPublisher();
+    envelopeDecoder = new EnvelopeDecoder(new AvroDecoder(taxonomy));
+    directory = config.directory();
+    segmentSizeBytes = config.segmentSize().toBytes();
+    maxSpoolBytes = config.maxSpoolSize().toBytes();
+
+    spooledMeter = metricRegistry.meter("telemetry.spool.events.spooled");
+    rejectedMeter = metricRegistry.meter("telemetry.spool.events.rejected");
+    forwardedMeter = metricRegistry.meter("telemetry.spool.events.forwarded");
+    retriedMeter = metricRegistry.meter("telemetry.spool.events.retried");
+    discardedMeter = metricRegistry.meter("telemetry.spool.events.discarded");
+    metricRegistry.register("telemetry.spool.bytes", (Gauge<Long>) this::spoolBytes);
+    metricRegistry.register("telemetry.spool.segments", (Gauge<Integer>) this::segmentCount);
+  }
+
+  @Override
+  public CompletableFuture<?> publish(LogLevel diagnosticLogLevel, PackagedEvent event) {
+    try {
+      GenericRecord record = new GenericData.Record(SPOOLED_EVENT_SCHEMA);
+      record.put("level", diagnosticLogLevel.name());
+      record.put("key", event.key().orElse(null));
+      record.put("envelope", ByteBuffer.wrap(event.serialize(envelopePublisher)));
+      synchronized (spoolLock) {
+        ensureRecovered();
+        if (spoolBytes >= maxSpoolBytes) {
+          rejectedMeter.mark();
+          return Promise.failedPromise(new RejectedExecutionException("Telemetry spool is full (" + config.maxSpoolSize() + "), rejected " + event));
+        }
+        if (currentSegment == null) {
+          currentSegment = new SegmentWriter(nextSegmentId++);
+          spoolBytes += currentSegment.size();
+        }
+        spoolBytes += currentSegment.append(record);
+        if (currentSegment.size() >= segmentSizeBytes) sealCurrentSegment();
+      }
+      spooledMeter.mark();
+      return CompletableFutures.nullFuture();
+    } catch (Exception e) {
+      return Promise.failedPromise(e);
+    }
+  }
+
+  /**
+   * Seals the current segment, and (if the forwarding thread is running) waits for all spooled events to be forwarded
+   * to the delegate, and then flushes the delegate.
+   * <p/>
+   * If forwarding is not running, the returned future completes as soon as the spooled events are durably written.
+   * If the spooled events have not all been forwarded within {@link SpoolConfig#flushTimeout} (eg, because the
+   * delegate keeps rejecting them), the returned future fails with a {@link java.util.concurrent.TimeoutException};
+   * the events remain spooled, and forwarding continues.
+   */
+  @Override
+  public CompletableFuture<?> flush() {
+    Promise<Void> drained = new Promise<>();
+    synchronized (spoolLock) {
+      try {
+        ensureRecovered();
+        sealCurrentSegment();
+      } catch (IOException e) {
+        return Promise.failedPromise(e);
+      }
+      Long lastSegment = sealedSegments.peekLast();
+      if (lastSegment == null || !isRunning()) return CompletableFutures.nullFuture();
+      flushWaiters.computeIfAbsent(lastSegment, ignored -> new ArrayList<>()).add(drained);
+    }
+    return drained.orTimeout(config.flushTimeout().toMillis(), TimeUnit.MILLISECONDS)
+            .thenCompose(ignored -> delegate.flush());
+  }
+
+  public long spoolBytes() {
+    synchronized (spoolLock) {
+      return spoolBytes;
+    }
+  }
+
+  public int segmentCount() {
+    synchronized (spoolLock) {
+      return sealedSegments.size() + (currentSegment != null ? 1 : 0);
+    }
+  }
+
+  @Override
+  protected void startUp() throws IOException {
+    synchronized (spoolLock) {
+      ensureRecovered();
+    }
+  }
+
+  @Override
+  protected void run() throws IOException, InterruptedException {
+    Checkpoint checkpoint = readCheckpoint();
+    while (isRunning()) {
+      Long segmentId = awaitSealedSegment();
+      if (segmentId == null) continue;
+      long skip = checkpoint.segmentId() == segmentId ? checkpoint.recordCount() : 0;
+      if (!forwardSegment(segmentId, skip)) break;
+      checkpoint = new Checkpoint(segmentId + 1, 0);
+      writeCheckpoint(checkpoint);
+      segmentForwarded(segmentId);
+    }
+  }
+
+  @Override
+  protected void triggerShutdown() {
+    shutdownLatch.countDown();
+    synchronized (spoolLock) {
+      spoolLock.notifyAll();
+    }
+  }
+
+  @Override
+  protected void shutDown() throws IOException {
+    synchronized (spoolLock) {
+      sealCurrentSegment();
+      IllegalStateException stopped = new IllegalStateException("SpoolingEventSink was stopped; remaining events will be forwarded after restarting");
+      flushWaiters.values().forEach(waiters -> waiters.forEach(waiter -> waiter.completeExceptionally(stopped)));
+      flushWaiters.clear();
+    }
+  }
+
+  /**
+   * Loads the state of the spool-directory left by a previous process, if we haven't already
+   */
+  private void ensureRecovered() throws IOException {
+    if (recovered) return;
+    Files.createDirectories(directory);
+    Checkpoint checkpoint = readCheckpoint();
+    List<Long> segmentIds;
+    try (Stream<Path> files = Files.list(directory)) {
+      segmentIds = files.map(path -> SEGMENT_FILENAME.matcher(path.getFileName().toString()))
+              .filter(Matcher::matches)
+              .map(matcher -> Long.parseLong(matcher.group(1)))
+              .sorted()
+              .toList();
+    }
+    for (long segmentId : segmentIds) {
+      Path path = segmentPath(segmentId);
+      if (segmentId < checkpoint.segmentId()) {
+        Files.delete(path);
+      } else {
+        sealedSegments.add(segmentId);
+        spoolBytes += Files.size(path);
+      }
+    }
+    nextSegmentId = segmentIds.isEmpty() ? checkpoint.segmentId() : Math.max(checkpoint.segmentId(), segmentIds.get(segmentIds.size() - 1) + 1);
+    if (!sealedSegments.isEmpty()) {
+      LOG.info("Recovered {} spooled telemetry segments ({} bytes) from {}", sealedSegments.size(), spoolBytes, directory);
+    }
+    recovered = true;
+  }
+
+  private void sealCurrentSegment() throws IOException {
+    SegmentWriter segment = currentSegment;
+    if (segment != null) {
+      currentSegment = null;
+      spoolBytes += segment.close();
+      sealedSegments.add(segment.segmentId);
+      spoolLock.notifyAll();
+    }
+  }
+
+  /**
+   * @return the oldest sealed segment, or null if none became available within {@link #DRAIN_POLL_MILLIS}
+   */
+  private Long awaitSealedSegment() throws IOException, InterruptedException {
+    synchronized (spoolLock) {
+      if (sealedSegments.isEmpty()) {
+        if (currentSegment != null && currentSegment.isOlderThan(Instant.now().minus(config.maxSegmentAge()))) {
+          sealCurrentSegment();
+        } else {
+          spoolLock.wait(DRAIN_POLL_MILLIS);
+        }
+      }
+      return sealedSegments.peekFirst();
+    }
+  }
+
+  private void segmentForwarded(long segmentId) throws IOException {
+    Path path = segmentPath(segmentId);
+    long size = Files.size(path);
+    Files.delete(path);
+    synchronized (spoolLock) {
+      sealedSegments.removeFirst();
+      spoolBytes -= size;
+      Map<Long, List<Promise<Void>>> completedWaiters = flushWaiters.headMap(segmentId, true);
+      completedWaiters.values().forEach(waiters -> waiters.forEach(waiter -> waiter.complete(null)));
+      completedWaiters.clear();
+    }
+  }
+
+  /**
+   * @return true if all events in the segment were forwarded, false if we were stopped first
+   */
+  private boolean forwardSegment(long segmentId, long skipRecords) throws IOException, InterruptedException {
+    Path path = segmentPath(segmentId);
+    if (Files.size(path) == 0) return true; // crashed before the header was written
+    try (DataFileReader<GenericRecord> reader = new DataFileReader<>(path.toFile(), new GenericDatumReader<>(SPOOLED_EVENT_SCHEMA))) {
+      long position = 0;
+      List<GenericRecord> chunk = new ArrayList<>(config.maxInFlight());
+      while (true) {
+        chunk.clear();
+        try {
+          while (chunk.size() < config.maxInFlight() && reader.hasNext()) {
+            GenericRecord record = reader.next();
+            if (position++ >= skipRecords) chunk.add(record);
+          }
+        } catch (AvroRuntimeException e) {
+          // a partially-written block at the end of a segment from a crashed process: everything before it is intact
+          LOG.warn("Ignoring truncated data at the end of telemetry spool-segment {}", path, e);
+          if (chunk.isEmpty()) return true;
+        }
+        if (chunk.isEmpty()) {
+          if (!reader.hasNext()) return true;
+          continue; // still skipping records which were forwarded before the last checkpoint
+        }
+        if (!forwardWithRetry(chunk)) return false;
+        writeCheckpoint(new Checkpoint(segmentId, position));
+      }
+    }
+  }
+
+  private boolean forwardWithRetry(List<GenericRecord> chunk) throws InterruptedException {
+    Duration backoff = config.initialBackoff();
+    while (isRunning()) {
+      try {
+        CompletableFuture<Void> forwarded = CompletableFutures.allOf(chunk.stream().map(this::forward));
+        // don't block stopping on a delegate (or schema-resolution) which never responds: an interrupted chunk is
+        // forwarded again after restarting
+        while (!forwarded.isDone()) {
+          if (shutdownLatch.await(DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS)) return false;
+        }
+        forwarded.get();
+        forwardedMeter.mark(chunk.size());
+        return true;
+      } catch (ExecutionException e) {
+        retriedMeter.mark(chunk.size());
+        LOG.warn("Failed to forward spooled telemetry events, retrying in {}", backoff, e.getCause());
+        if (shutdownLatch.await(backoff.toMillis(), TimeUnit.MILLISECONDS)) break;
+        backoff = backoff.multipliedBy(2);
+        if (backoff.compareTo(config.maxBackoff()) > 0) backoff = config.maxBackoff();
+      }
+    }
+    return false;
+  }
+
+  private CompletableFuture<?> forward(GenericRecord record) {
+    LogLevel level = LogLevel.valueOf(record.get("level").toString());
+    Optional<String> key = Optional.ofNullable(record.get("key")).map(Object::toString);
+    ByteBuffer envelopeBytes = (ByteBuffer) record.get("envelope");
+    return envelopeDecoder.loadEnvelope(envelopeBytes)
+            .thenCompose(envelope -> toPackagedEvent(envelope, key))
+            .handle((event, e) -> {
+              if (e != null) {
+                // not retryable: the envelope is corrupt, or its schemas conflict with those in the registry
+                discardedMeter.mark();
+                LOG.error("Discarding spooled telemetry event which could not be decoded", e);
+                return CompletableFutures.nullFuture();
+              }
+              return delegate.publish(level, event);
+            }).thenCompose(future -> future);
+  }
+
+  private CompletableFuture<PackagedEvent> toPackagedEvent(UnpackableMessageEnvelope envelope, Optional<String> key) {
+    return repack(envelope.messageRecord()).thenCombine(
+            envelope.annotationRecords().stream().map(this::repack).collect(ListPromise.toListPromise()),
+            (message, annotations) -> PackagedEvent.builder()
+                    .key(key)
+                    .uniqueId(envelope.uniqueId())
+                    .timestamp(envelope.timestamp())
+                    .metadata(envelope.metadata())
+                    .event(message)
+                    .annotations(annotations)
+                    .build()
+    );
+  }
+
+  private CompletableFuture<PackableRecord<?>> repack(UnpackableRecord record) {
+    // the writer-schema was resolved by fingerprint from the registry when the envelope was decoded; this may run
+    // before the application has registered its own schemas, so we register it here rather than requiring that
+    return avroPublisher.getOrRegisterPacker(record.schema())
+            .<PackableRecord<?>>thenApply(packer -> packer.makePackable(record.unpackSpecificOrGeneric()));
+  }
+
+  private Path segmentPath(long segmentId) {
+    return directory.resolve(String.format("segment-%020d.avro", segmentId));
+  }
+
+  private Checkpoint readCheckpoint() throws IOException {
+    Path path = directory.resolve(CHECKPOINT_FILENAME);
+    if (!Files.exists(path)) return new Checkpoint(0, 0);
+    String[] fields = Files.readString(path, StandardCharsets.UTF_8).trim().split(" ");
+    return new Checkpoint(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+  }
+
+  private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+    Path tempFile = directory.resolve(CHECKPOINT_FILENAME + ".tmp");
+    Files.writeString(tempFile, checkpoint.segmentId() + " " + checkpoint.recordCount(), StandardCharsets.UTF_8);
+    Files.move(tempFile, directory.resolve(CHECKPOINT_FILENAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * The position of the next event to forward: all events in earlier segments, and the first {@code recordCount}
+   * events in segment {@code segmentId}, have been forwarded
+   */
+  private record Checkpoint(long segmentId, long recordCount) {
+  }
+
+  private class SegmentWriter {
+    final long segmentId;
+    private final Instant openedAt = Instant.now();
+    private final FileOutputStream out;
+    private final DataFileWriter<GenericRecord> writer;
+
+    SegmentWriter(long segmentId) throws IOException {
+      this.segmentId = segmentId;
+      out = new FileOutputStream(segmentPath(segmentId).toFile());
+      writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(SPOOLED_EVENT_SCHEMA))
+              .setCodec(CodecFactory.nullCodec())
+              .create(SPOOLED_EVENT_SCHEMA, out);
+    }
+
+    /**
+     * Appends the record, and writes it through to the file before returning
+     *
+     * @return the number of bytes added to the file
+     */
+    long append(GenericRecord record) throws IOException {
+      long before = size();
+      writer.append(record);
+      writer.flush();
+      if (config.fsync()) out.getFD().sync();
+      return size() - before;
+    }
+
+    long size() throws IOException {
+      return out.getChannel().position();
+    }
+
+    boolean isOlderThan(Instant threshold) {
+      return openedAt.isBefore(threshold);
+    }
+
+    /**
+     * @return the number of bytes added to the file by closing it
+     */
+    long close() throws IOException {
+      long before = size();
+      writer.flush();
+      long after = size();
+      writer.close();
+      return after - before;
+    }
+  }
+
+  @ConfigPath("upstart.telemetry.spool")
+  public interface SpoolConfig {
+    Path directory();
+
+    /** Segments are sealed (and become eligible for forwarding) when they reach this size */
+    Size segmentSize();
+
+    /** Segments are sealed after this long, even if they haven't reached {@link #segmentSize} */
+    Duration maxSegmentAge();
+
+    /** Events are rejected while the spool-directory exceeds this size */
+    Size maxSpoolSize();
+
+    /** Whether to fsync each event to the storage-device (rather than just to the OS) before acknowledging it */
+    boolean fsync();
+
+    /** Maximum number of events forwarded to the delegate at a time */
+    int maxInFlight();
+
+    Duration initialBackoff();
+
+    Duration maxBackoff();
+
+    /** How long {@link SpoolingEventSink#flush} waits for spooled events to be forwarded before failing */
+    Duration flushTimeout();
+  }
+
+  /**
+   * Identifies the {@link PackagedEventSink} wrapped by the {@link SpoolingEventSink}
+   */
+  @BindingAnnotation
+  @Target({ElementType.FIELD, ElementType.PARAMETER, ElementType.METHOD})
+  @Retention(RetentionPolicy.RUNTIME)
+  public @interface Delegate {
+  }
+
+  public static class Module extends UpstartModule {
+    private final Key<? extends PackagedEventSink> delegateKey;
+
+    public Module(Class<? extends PackagedEventSink> delegateClass) {
+      this(Key.get(delegateClass));
+    }
+
+    public Module(Key<? extends PackagedEventSink> delegateKey) {
+      super(delegateKey);
+      this.delegateKey = delegateKey;
+    }
+
+    @Override
+    protected void configure() {
+      install(EventLogModule.INSTANCE);
+      bindConfig(SpoolConfig.class);
+      bind(PackagedEventSink.class).annotatedWith(Delegate.class).to(delegateKey);
+      EventLogModule.bindEventSink(binder()).to(SpoolingEventSink.class);
+      serviceManager().manage(SpoolingEventSink.class);
+      // ensure a managed delegate is running before we replay the spool into it
+      externalDependencyBinder().bindExternalDependency(SpoolingEventSink.class).dependsUpon(delegateKey);
+    }
+  }
+}
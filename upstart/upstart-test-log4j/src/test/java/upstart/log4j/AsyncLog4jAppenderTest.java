@@ -0,0 +1,171 @@
+package upstart.log4j;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import upstart.log.UpstartLogConfig;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class AsyncLog4jAppenderTest {
+  private static final Logger LOG = Logger.getLogger(AsyncLog4jAppenderTest.class);
+  private final CapturingAppender capturingAppender = new CapturingAppender();
+  private AsyncLog4jAppender appender;
+
+  @AfterEach
+  void closeAppender() {
+    appender.close();
+  }
+
+  @Test
+  void deliversEventsInOrder() {
+    appender = buildAppender(ImmutableAsyncLog4jAppenderConfig.builder().bufferSize(4).batchSize(2));
+
+    MDC.put(UpstartLog4jProvider.STRUCTURED_LOG_PAYLOAD, "payload");
+    try {
+      for (int i = 0; i < 100; i++) {
+        appender.doAppend(event(Level.INFO, "message " + i));
+      }
+    } finally {
+      MDC.remove(UpstartLog4jProvider.STRUCTURED_LOG_PAYLOAD);
+    }
+    assertThat(appender.flush()).isTrue();
+
+    assertThat(capturingAppender.messages()).hasSize(100);
+    assertThat(capturingAppender.messages().get(99)).isEqualTo("message 99");
+    assertThat(capturingAppender.events.get(0).getMDC(UpstartLog4jProvider.STRUCTURED_LOG_PAYLOAD)).isEqualTo("payload");
+    assertThat(appender.droppedCount()).isEqualTo(0);
+  }
+
+  @Test
+  void dropsLowLevelEventsOnOverflow() throws InterruptedException {
+    appender = buildAppender(ImmutableAsyncLog4jAppenderConfig.builder()
+            .bufferSize(2)
+            .overflowPolicy(AsyncLog4jAppenderConfig.OverflowPolicy.DropBelowLevel)
+            .overflowThreshold(UpstartLogConfig.LogThreshold.WARN));
+
+    capturingAppender.blockDelivery();
+    appender.doAppend(event(Level.INFO, "blocking"));
+    assertThat(capturingAppender.blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+    appender.doAppend(event(Level.INFO, "buffered 1"));
+    appender.doAppend(event(Level.INFO, "buffered 2"));
+    appender.doAppend(event(Level.INFO, "dropped"));
+    assertThat(appender.queueDepth()).isEqualTo(2);
+    assertThat(appender.droppedCount()).isEqualTo(1);
+
+    Thread warning = new Thread(() -> appender.doAppend(event(Level.WARN, "waited")));
+    warning.start();
+    capturingAppender.unblockDelivery();
+    warning.join(5000);
+
+    assertThat(appender.flush()).isTrue();
+    assertThat(capturingAppender.messages()).containsExactly("blocking", "buffered 1", "buffered 2", "waited").inOrder();
+    assertThat(appender.droppedCount()).isEqualTo(1);
+  }
+
+  @Test
+  void consumerSurvivesErrorsFromDelegate() {
+    appender = buildAppender(ImmutableAsyncLog4jAppenderConfig.builder().bufferSize(4));
+    capturingAppender.failOn("fatal");
+
+    appender.doAppend(event(Level.INFO, "fatal"));
+    appender.doAppend(event(Level.INFO, "after"));
+
+    assertThat(appender.flush()).isTrue();
+    assertThat(capturingAppender.messages()).containsExactly("fatal", "after").inOrder();
+  }
+
+  @Test
+  void preservesConfiguredImmediateFlush() {
+    WriterAppender writerAppender = new WriterAppender(new SimpleLayout(), new StringWriter());
+    writerAppender.setImmediateFlush(false);
+    appender = new AsyncLog4jAppender(writerAppender, ImmutableAsyncLog4jAppenderConfig.builder()
+            .appender(new CapturingAppenderConfig())
+            .batchSize(2)
+            .build());
+
+    for (int i = 0; i < 5; i++) {
+      appender.doAppend(event(Level.INFO, "message " + i));
+    }
+    assertThat(appender.flush()).isTrue();
+    assertThat(writerAppender.getImmediateFlush()).isFalse();
+
+    writerAppender.setImmediateFlush(true);
+    appender.doAppend(event(Level.INFO, "flushed"));
+    assertThat(appender.flush()).isTrue();
+    assertThat(writerAppender.getImmediateFlush()).isTrue();
+  }
+
+  private AsyncLog4jAppender buildAppender(ImmutableAsyncLog4jAppenderConfig.Builder config) {
+    return new AsyncLog4jAppender(capturingAppender, config.appender(new CapturingAppenderConfig()).build());
+  }
+
+  private static LoggingEvent event(Level level, String message) {
+    return new LoggingEvent(AsyncLog4jAppenderTest.class.getName(), LOG, level, message, null);
+  }
+
+  private static class CapturingAppender extends AppenderSkeleton {
+    final List<LoggingEvent> events = new CopyOnWriteArrayList<>();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile String failOn = null;
+
+    void failOn(String message) {
+      failOn = message;
+    }
+
+    void blockDelivery() {
+      release = new CountDownLatch(1);
+    }
+
+    void unblockDelivery() {
+      release.countDown();
+    }
+
+    List<String> messages() {
+      return events.stream().map(LoggingEvent::getRenderedMessage).collect(Collectors.toList());
+    }
+
+    @Override
+    protected void append(LoggingEvent event) {
+      events.add(event);
+      if (event.getRenderedMessage().equals(failOn)) throw new AssertionError("failing delivery for test");
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean requiresLayout() {
+      return false;
+    }
+  }
+
+  private static class CapturingAppenderConfig implements Log4jAppenderConfig {
+    @Override
+    public org.apache.log4j.Appender configureAppender(String name, UpstartLogConfig config) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
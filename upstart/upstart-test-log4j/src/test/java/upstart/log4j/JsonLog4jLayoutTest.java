@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.CharSource;
 import com.google.common.truth.OptionalSubject;
 import io.upstartproject.hojack.HojackConfigMapper;
@@ -21,7 +22,10 @@ import upstart.test.systemStreams.CaptureSystemOut;
 import upstart.test.systemStreams.SystemOutCaptor;
 import upstart.util.LogLevel;
 import com.typesafe.config.ConfigFactory;
+import org.apache.log4j.Level;
 import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
 import org.immutables.value.Value;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
@@ -128,6 +132,26 @@ class JsonLog4jLayoutTest extends UpstartModule {
     assertThat(exceptionInfo.stacktrace()).contains(causeMessage);
   }
 
+  @Test
+  void layoutOutputIsStable() {
+    JsonLog4jLayout layout = new JsonLog4jLayout(objectMapper, UpstartLogConfig.builder()
+            .rootLogger(UpstartLogConfig.LogThreshold.INFO)
+            .putContext("app", "test")
+            .putContext("empty", "")
+            .putContext("nested", ImmutableMap.of("n", 3))
+            .build());
+    org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger("test.logger");
+
+    assertThat(layout.format(new LoggingEvent("fqn", logger, 1234567890123L, Level.WARN, "quoted \"message\"", "thread-1", null, null, null, null)))
+            .isEqualTo("{\"@timestamp\":\"2009-02-13T23:31:30.123Z\",\"level\":\"WARN\",\"message\":\"quoted \\\"message\\\"\",\"logger_name\":\"test.logger\",\"thread_name\":\"thread-1\",\"@version\":1,\"app\":\"test\",\"nested\":{\"n\":3}}\n");
+
+    assertThat(layout.format(new LoggingEvent("fqn", logger, 1234656000000L, Level.ERROR, "", "thread-1", new ThrowableInformation(new String[]{"a", "b"}), null, null, null)))
+            .isEqualTo("{\"@timestamp\":\"2009-02-15T00:00:00Z\",\"level\":\"ERROR\",\"logger_name\":\"test.logger\",\"exception\":{\"stacktrace\":\"a\\nb\"},\"thread_name\":\"thread-1\",\"@version\":1,\"app\":\"test\",\"nested\":{\"n\":3}}\n");
+
+    assertThat(layout.format(new LoggingEvent("fqn", logger, -1L, Level.INFO, "before epoch", "thread-1", null, null, null, null)))
+            .startsWith("{\"@timestamp\":\"1969-12-31T23:59:59.999Z\",");
+  }
+
   @Test
   void context(SystemOutCaptor systemOutCaptor) throws IOException {
     TestPayload payload = TestPayload.builder()
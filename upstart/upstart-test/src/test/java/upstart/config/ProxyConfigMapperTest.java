@@ -0,0 +1,76 @@
+package upstart.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class ProxyConfigMapperTest {
+  private final ProxyConfigMapper mapper = new ProxyConfigMapper(new ObjectMapper());
+
+  @Test
+  void interfacesAreImplementedWithGeneratedClasses() {
+    TimeoutConfig config = mapper.map(
+            ConfigFactory.parseString("timeout: 5s, retries: 3, hosts: [a, b], nested.name: inner"),
+            TimeoutConfig.class
+    );
+
+    assertThat(Proxy.isProxyClass(config.getClass())).isFalse();
+    assertThat(config.getClass().getName()).endsWith("$$UpstartConfig");
+    assertThat(config.timeout()).isEqualTo(Duration.ofSeconds(5));
+    assertThat(config.retries()).isEqualTo(3);
+    assertThat(config.hosts()).containsExactly("a", "b").inOrder();
+    assertThat(config.label()).isEqualTo(Optional.empty());
+    assertThat(config.nested().name()).isEqualTo("inner");
+    assertThat(config.totalBudget()).isEqualTo(Duration.ofSeconds(20));
+    assertThat(config.scaledBudget(2)).isEqualTo(Duration.ofSeconds(40));
+
+    TimeoutConfig other = mapper.map(ConfigFactory.parseString("timeout: 1s, retries: 0, hosts: [], nested.name: x"), TimeoutConfig.class);
+    assertThat(other.getClass()).isSameInstanceAs(config.getClass());
+    assertThat(other.totalBudget()).isEqualTo(Duration.ofSeconds(1));
+  }
+
+  @Test
+  void abstractClassesFallBackToProxies() {
+    AbstractConfig config = mapper.map(ConfigFactory.parseString("count: 2"), AbstractConfig.class);
+
+    assertThat(config.count()).isEqualTo(2);
+    assertThat(config.doubled()).isEqualTo(4);
+    assertThat(config.doubled()).isEqualTo(4);
+  }
+
+  // package-private, to confirm that generated classes are defined alongside the interface
+  interface TimeoutConfig {
+    Duration timeout();
+    int retries();
+    List<String> hosts();
+    Optional<String> label();
+    NestedConfig nested();
+
+    default Duration totalBudget() {
+      return timeout().multipliedBy(retries() + 1);
+    }
+
+    default Duration scaledBudget(int factor) {
+      return totalBudget().multipliedBy(factor);
+    }
+  }
+
+  interface NestedConfig {
+    String name();
+  }
+
+  public abstract static class AbstractConfig {
+    public abstract int count();
+
+    public int doubled() {
+      return count() * 2;
+    }
+  }
+}
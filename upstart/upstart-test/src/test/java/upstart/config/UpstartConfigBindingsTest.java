@@ -2,6 +2,7 @@ package upstart.config;
 
 import com.google.inject.Injector;
 import io.upstartproject.hojack.Size;
+import upstart.BootstrapTimings;
 import upstart.UpstartService;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigMemorySize;
@@ -40,6 +41,44 @@ class UpstartConfigBindingsTest {
     assertThat(parsed.size2().toBytes()).isEqualTo(1073741824);
   }
 
+  @Test
+  void bootstrapTimingsAreRecorded() {
+    String hocon = "upstart { context {application: fake, owner: test}, test.fake {connectionString: testCoords, duration: 10s, size: 1k, size2: 1GB}}";
+    System.setProperty("UPSTART_ENVIRONMENT", UpstartTest.TEST_ENVIRONMENT_NAME);
+    UpstartConfigProvider environment = UpstartEnvironment.ambientEnvironment().configProvider()
+            .withOverrideConfig(ConfigFactory.parseReader(new StringReader(hocon)));
+
+    Injector injector = UpstartService.builder(environment)
+            .installModule(new UpstartModule() {
+              @Override
+              protected void configure() {
+                bindConfig(FakeConfig.class);
+              }
+            }).buildInjector();
+
+    BootstrapTimings timings = injector.getInstance(BootstrapTimings.class);
+    assertThat(timings.configLoad()).isGreaterThan(Duration.ZERO);
+    assertThat(timings.injectorCreation()).isAtLeast(timings.configLoad());
+    assertThat(timings.serviceStartup().isPresent()).isFalse();
+    assertThat(environment.configLoadTime()).isAtLeast(timings.configLoad());
+  }
+
+  @Test
+  void referenceConfigsAreAppliedToEachPath() {
+    HojackConfigProvider provider = HojackConfigProvider.builder()
+            .baseConfig(ConfigFactory.parseString("""
+                    upstart.test.fake {connectionString: testCoords, duration: 10s, size: 1k, size2: 1GB}
+                    example.config {}
+                    """))
+            .build();
+
+    FakeConfig fake = provider.loadConfigObject(ConfigKey.of("upstart.test.fake", FakeConfig.class)).mappedObject();
+    ExampleReferenceConfig example = provider.loadConfigObject(ConfigKey.of("example.config", ExampleReferenceConfig.class)).mappedObject();
+
+    assertThat(fake.defaultNumber()).isEqualTo(7);
+    assertThat(example.intValue()).isEqualTo(-1);
+  }
+
   @ConfigPath(value = "upstart.test.fake")
   public interface FakeConfig {
     String connectionString();
@@ -48,4 +87,9 @@ class UpstartConfigBindingsTest {
     Duration duration();
     int defaultNumber();
   }
-}
\ No newline at end of file
+
+  @ConfigPath(value = "example.config")
+  public interface ExampleReferenceConfig {
+    int intValue();
+  }
+}
@@ -0,0 +1,251 @@
+package upstart.config.dynamic;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.TypeLiteral;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.ConfigKey;
+import upstart.config.UpstartApplicationConfig;
+import upstart.config.UpstartModule;
+import upstart.test.FakeTime;
+import upstart.test.FakeTimeTest;
+import upstart.test.UpstartLibraryTest;
+import upstart.test.UpstartServiceTest;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.exceptions.UncheckedIO;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartServiceTest
+@UpstartLibraryTest
+@FakeTimeTest(interceptSchedules = PollingFileModificationWatchService.class)
+class DynamicConfigFileTest extends UpstartModule {
+  private static final Path CONFIG_FILE = UncheckedIO.getUnchecked(() -> Files.createTempFile("dynamic-config", ".conf"));
+  private static final Duration DEBOUNCE_INTERVAL = Duration.ofMillis(100);
+  private static Instant modificationTime = Instant.parse("2020-01-01T00:00:00Z");
+
+  @Override
+  protected void configure() {
+    install(new DynamicConfigFile.DynamicConfigModule<>(
+            CONFIG_FILE,
+            ConfigKey.of("upstart.test.dynamic", DynamicConfig.class)
+    ));
+    bind(ChangeRecorder.class).asEagerSingleton();
+  }
+
+  @BeforeEach
+  void writeInitialConfig() throws IOException {
+    writeConfig("upstart.test.dynamic { name: a, limits { low: 1, high: 2 } }");
+  }
+
+  @AfterAll
+  static void deleteConfigFile() throws IOException {
+    Files.deleteIfExists(CONFIG_FILE);
+  }
+
+  @Inject ChangeRecorder recorder;
+  @Inject UpstartApplicationConfig applicationConfig;
+
+  @Test
+  void onlyChangedConfigIsPublished(FakeTime time) throws IOException {
+    time.runPendingJobs();
+    assertThat(recorder.changes).hasSize(1);
+    assertThat(recorder.changes.get(0).changedPaths()).containsExactly("name", "limits.low", "limits.high");
+
+    // touched, with identical content
+    writeConfig("upstart.test.dynamic { name: a, limits { low: 1, high: 2 } }");
+    time.advance(Duration.ofSeconds(1));
+    assertThat(recorder.changes).hasSize(1);
+
+    // reformatted, with identical values
+    writeConfig("upstart.test.dynamic {\n  name: a\n  limits.low: 1\n  limits.high: 2\n}");
+    time.advance(Duration.ofSeconds(1));
+    assertThat(recorder.changes).hasSize(1);
+
+    writeConfig("upstart.test.dynamic { name: a, limits { low: 1, high: 3 } }");
+    time.advance(Duration.ofSeconds(1));
+    assertThat(recorder.changes).hasSize(2);
+    DynamicConfigFile.ConfigChange<DynamicConfig> change = recorder.changes.get(1);
+    assertThat(change.changedPaths()).isEqualTo(ImmutableSet.of("limits.high"));
+    assertThat(change.affects("limits")).isTrue();
+    assertThat(change.affects("name")).isFalse();
+    assertThat(change.value().limits().high()).isEqualTo(3);
+  }
+
+  @Test
+  void watchServiceDebouncesBurstsOfEvents() throws IOException {
+    JdkWatchFixture fixture = new JdkWatchFixture();
+    Path dir = CONFIG_FILE.getParent();
+    long debounceNanos = DEBOUNCE_INTERVAL.toNanos();
+
+    fixture.service.onEvents(dir, List.of(modified(CONFIG_FILE)), 0);
+    writeConfig("upstart.test.dynamic { name: b, limits { low: 1, high: 2 } }");
+    fixture.service.onEvents(dir, List.of(modified(CONFIG_FILE), modified(CONFIG_FILE)), debounceNanos / 2);
+    fixture.service.publishSettledFiles(debounceNanos).join();
+    assertThat(fixture.reloads.get()).isEqualTo(0);
+
+    fixture.service.publishSettledFiles(debounceNanos / 2 + debounceNanos).join();
+    assertThat(fixture.reloads.get()).isEqualTo(1);
+    assertThat(fixture.changes).hasSize(1);
+    assertThat(fixture.changes.get(0).value().name()).isEqualTo("b");
+
+    // nothing further is pending
+    fixture.service.publishSettledFiles(TimeUnit.SECONDS.toNanos(10)).join();
+    assertThat(fixture.reloads.get()).isEqualTo(1);
+  }
+
+  @Test
+  void watchServiceRechecksDirectoryOnOverflow() throws IOException {
+    JdkWatchFixture fixture = new JdkWatchFixture();
+    Path dir = CONFIG_FILE.getParent();
+    fixture.service.onEvents(dir, List.of(modified(CONFIG_FILE)), 0);
+    fixture.service.publishSettledFiles(DEBOUNCE_INTERVAL.toNanos()).join();
+    assertThat(fixture.reloads.get()).isEqualTo(1);
+
+    // events for other files, or other directories, are ignored
+    writeConfig("upstart.test.dynamic { name: a, limits { low: 1, high: 5 } }");
+    fixture.service.onEvents(dir, List.of(modified(dir.resolve("unrelated.conf"))), 0);
+    fixture.service.onEvents(dir.resolve("elsewhere"), List.of(OverflowEvent.INSTANCE), 0);
+    fixture.service.publishSettledFiles(DEBOUNCE_INTERVAL.toNanos()).join();
+    assertThat(fixture.reloads.get()).isEqualTo(1);
+
+    fixture.service.onEvents(dir, List.of(OverflowEvent.INSTANCE), 0);
+    fixture.service.publishSettledFiles(DEBOUNCE_INTERVAL.toNanos()).join();
+    assertThat(fixture.reloads.get()).isEqualTo(2);
+    assertThat(fixture.changes).hasSize(2);
+    assertThat(fixture.changes.get(1).changedPaths()).containsExactly("limits.high");
+  }
+
+  @Test
+  void watchServiceSkipsReloadWhenContentIsUnchanged() throws IOException {
+    JdkWatchFixture fixture = new JdkWatchFixture();
+    Path dir = CONFIG_FILE.getParent();
+    fixture.service.onEvents(dir, List.of(modified(CONFIG_FILE)), 0);
+    fixture.service.publishSettledFiles(DEBOUNCE_INTERVAL.toNanos()).join();
+    assertThat(fixture.reloads.get()).isEqualTo(1);
+
+    // touched, with identical content: the file isn't even reparsed
+    writeConfig("upstart.test.dynamic { name: a, limits { low: 1, high: 2 } }");
+    fixture.service.onEvents(dir, List.of(modified(CONFIG_FILE)), 0);
+    fixture.service.publishSettledFiles(DEBOUNCE_INTERVAL.toNanos()).join();
+    assertThat(fixture.reloads.get()).isEqualTo(1);
+    assertThat(fixture.changes).hasSize(1);
+
+    writeConfig("upstart.test.dynamic { name: c, limits { low: 1, high: 2 } }");
+    fixture.service.onEvents(dir, List.of(modified(CONFIG_FILE)), 0);
+    fixture.service.publishSettledFiles(DEBOUNCE_INTERVAL.toNanos()).join();
+    assertThat(fixture.reloads.get()).isEqualTo(2);
+    assertThat(fixture.changes.get(1).changedPaths()).containsExactly("name");
+  }
+
+  private static void writeConfig(String content) throws IOException {
+    Files.writeString(CONFIG_FILE, content);
+    modificationTime = modificationTime.plusSeconds(1);
+    Files.setLastModifiedTime(CONFIG_FILE, FileTime.from(modificationTime));
+  }
+
+  private static WatchEvent<Path> modified(Path file) {
+    return new PathEvent(StandardWatchEventKinds.ENTRY_MODIFY, file.getFileName());
+  }
+
+  /**
+   * A {@link DynamicConfigFile} watched by a {@link JdkFileModificationWatchService} which is never started, so that
+   * tests can deliver watch-events and advance the debounce-clock directly
+   */
+  class JdkWatchFixture {
+    final JdkFileModificationWatchService service = new JdkFileModificationWatchService(
+            CONFIG_FILE.getFileSystem(),
+            new WatchConfig(Duration.ofSeconds(1), false, Optional.empty(), DEBOUNCE_INTERVAL)
+    );
+    final AtomicInteger reloads = new AtomicInteger();
+    final List<DynamicConfigFile.ConfigChange<DynamicConfig>> changes = new ArrayList<>();
+
+    JdkWatchFixture() {
+      service.watch(CONFIG_FILE, path -> {
+        reloads.incrementAndGet();
+        return CompletableFutures.nullFuture();
+      });
+      DynamicConfigFile<DynamicConfig> configFile = new DynamicConfigFile<>(
+              CONFIG_FILE,
+              "upstart.test.dynamic",
+              TypeLiteral.get(DynamicConfig.class),
+              applicationConfig,
+              service
+      );
+      configFile.subscribeToChanges(change -> {
+        changes.add(change);
+        return CompletableFutures.nullFuture();
+      });
+    }
+  }
+
+  record WatchConfig(
+          Duration shutdownPollInterval,
+          boolean usePolling,
+          Optional<Duration> pollInterval,
+          Duration debounceInterval
+  ) implements FileModificationWatchService.FileModificationWatchServiceConfig {
+  }
+
+  record PathEvent(Kind<Path> kind, Path context) implements WatchEvent<Path> {
+    @Override
+    public int count() {
+      return 1;
+    }
+  }
+
+  enum OverflowEvent implements WatchEvent<Object> {
+    INSTANCE;
+
+    @Override
+    public Kind<Object> kind() {
+      return StandardWatchEventKinds.OVERFLOW;
+    }
+
+    @Override
+    public int count() {
+      return 1;
+    }
+
+    @Override
+    public Object context() {
+      return null;
+    }
+  }
+
+  @Singleton
+  static class ChangeRecorder {
+    final List<DynamicConfigFile.ConfigChange<DynamicConfig>> changes = new ArrayList<>();
+
+    @Inject
+    ChangeRecorder(DynamicConfigFile<DynamicConfig> configFile) {
+      configFile.subscribeToChanges(change -> {
+        changes.add(change);
+        return CompletableFutures.nullFuture();
+      });
+    }
+  }
+
+  record DynamicConfig(String name, Limits limits) {
+  }
+
+  record Limits(int low, int high) {
+  }
+}
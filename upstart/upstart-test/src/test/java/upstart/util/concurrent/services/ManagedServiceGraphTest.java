@@ -14,19 +14,24 @@ import upstart.config.HojackConfigProvider;
 import upstart.config.UpstartEnvironment;
 import upstart.config.UpstartModule;
 import upstart.managedservices.LifecycleCoordinator;
+import upstart.managedservices.LifecycleProfile;
 import upstart.managedservices.ManagedServiceGraph;
 import upstart.test.StacklessTestException;
 import upstart.test.UpstartLibraryTest;
 import upstart.test.UpstartExtension;
 import upstart.test.systemStreams.CaptureSystemOut;
+import upstart.util.collect.Pair;
 import upstart.util.concurrent.Deadline;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
@@ -145,6 +150,33 @@ class ManagedServiceGraphTest {
     assertThat(app.getInstance(ProviderService.class).state()).isEqualTo(Service.State.TERMINATED);
   }
 
+  @Test
+  void lifecycleProfileReportsCriticalPaths() {
+    SleepingService slow = new SleepingService("slow", 100);
+    SleepingService dependent = new SleepingService("dependent", 0);
+    SleepingService independent = new SleepingService("independent", 0);
+    ManagedServiceGraph graph = ManagedServiceGraph.buildGraph(
+            List.of(slow, dependent, independent),
+            List.of(Pair.of(dependent, slow))
+    );
+
+    graph.start().join();
+    graph.stop().join();
+
+    LifecycleProfile profile = graph.lifecycleProfile();
+    assertThat(profile.startup()).hasSize(3);
+    assertThat(serviceNames(profile.startupCriticalPath())).containsExactly("slow", "dependent").inOrder();
+    assertThat(serviceNames(profile.shutdownCriticalPath())).containsExactly("dependent", "slow").inOrder();
+    assertThat(profile.startupCriticalPath().get(0).duration()).isAtLeast(Duration.ofMillis(100));
+    assertThat(serviceNames(profile.slowStartupDependencies(Duration.ofMillis(50)))).containsExactly("dependent");
+    assertThat(profile.toChromeTrace()).contains("\"traceEvents\"");
+    assertThat(profile.toChromeTrace()).contains("\"startup (waiting)\"");
+  }
+
+  private static List<String> serviceNames(List<LifecycleProfile.Span> spans) {
+    return spans.stream().map(LifecycleProfile.Span::serviceName).collect(Collectors.toList());
+  }
+
   private static UpstartService.Builder serviceBuilder() {
     HojackConfigProvider configProvider = UpstartEnvironment.ambientEnvironment()
             .configProvider()
@@ -170,6 +202,30 @@ class ManagedServiceGraphTest {
     }
   }
 
+  static class SleepingService extends IdleService {
+    private final String name;
+    private final long startupMillis;
+
+    SleepingService(String name, long startupMillis) {
+      this.name = name;
+      this.startupMillis = startupMillis;
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+      Thread.sleep(startupMillis);
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+    }
+
+    @Override
+    public String serviceName() {
+      return name;
+    }
+  }
+
   @Singleton
   static class FailingIdleService extends IdleService {
     volatile boolean didShutDown = false;
@@ -0,0 +1,159 @@
+package upstart.javalin;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import io.javalin.Javalin;
+import io.javalin.core.plugin.Plugin;
+import io.javalin.core.security.AccessManager;
+import io.javalin.core.security.RouteRole;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HttpCode;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Request;
+import upstart.metrics.MetricFamily;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.web.WebServerConfig;
+import upstart.web.WebServerConfig.AdmissionControlConfig;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Applies the {@link AdmissionControlConfig admission control} configured for the {@link JavalinWebServer}: each
+ * matched route acquires a permit from its route-class before its handler is invoked, and releases it once the
+ * response is complete (including any async result). Requests which arrive when no permit is free, or which were
+ * already queued by the server for longer than their {@link AdmissionControlConfig#queueDeadline}, are rejected
+ * immediately, without invoking the handler: waiting for a permit would hold a server thread, and so only compound
+ * the overload.
+ * <p/>
+ * Exports metrics tagged with the {@code routeClass}:
+ * <ul>
+ *   <li>{@code http.admission.queueTime}: timer for the delay between the arrival of each admitted request and the
+ *   start of its handling</li>
+ *   <li>{@code http.admission.shed}: meter for rejected requests</li>
+ * </ul>
+ */
+@Singleton
+public class AdmissionController implements EndpointInterceptor, Plugin {
+  public static final String DEFAULT_ROUTE_CLASS = "default";
+  private static final String PERMIT_ATTRIBUTE = AdmissionController.class.getName();
+
+  private final AdmissionControlConfig config;
+  private final Set<String> priorityRoutes = ConcurrentHashMap.newKeySet();
+  private final Map<String, RouteClass> classesByRoute = new HashMap<>();
+  private final RouteClass defaultClass;
+  private final String rejectionMessage;
+  private final String retryAfterSeconds;
+
+  @Inject
+  public AdmissionController(WebServerConfig serverConfig, TaggedMetricRegistry metricRegistry) {
+    config = serverConfig.admissionControl();
+    MetricFamily<Timer> queueTime = metricRegistry.timerFamily("http.admission.queueTime", "routeClass");
+    MetricFamily<Meter> shed = metricRegistry.meterFamily("http.admission.shed", "routeClass");
+    defaultClass = new RouteClass(
+            config.maxInFlight(),
+            config.queueDeadline(),
+            queueTime.get(DEFAULT_ROUTE_CLASS),
+            shed.get(DEFAULT_ROUTE_CLASS)
+    );
+    config.routeClasses().forEach((name, classConfig) -> {
+      RouteClass routeClass = new RouteClass(
+              classConfig.maxInFlight(),
+              classConfig.queueDeadline().orElse(config.queueDeadline()),
+              queueTime.get(name),
+              shed.get(name)
+      );
+      for (String route : classConfig.routes()) {
+        checkArgument(classesByRoute.put(route, routeClass) == null, "Route %s is assigned to multiple route-classes", route);
+      }
+    });
+    priorityRoutes.addAll(config.priorityRoutes());
+    rejectionMessage = HttpCode.Companion.forStatus(config.rejectionStatus()).getMessage();
+    retryAfterSeconds = Long.toString(Math.max(1, config.retryAfter().toSeconds()));
+  }
+
+  public boolean isEnabled() {
+    return config.enabled();
+  }
+
+  /**
+   * Exempts the route with the given path-template from admission control (eg, for health-checks, which must respond
+   * promptly even when the server is overloaded)
+   */
+  public void addPriorityRoute(String pathTemplate) {
+    priorityRoutes.add(pathTemplate);
+  }
+
+  @Override
+  public void intercept(Handler handler, Context ctx, Set<RouteRole> roles, AccessManager next) throws Exception {
+    RouteClass routeClass = routeClass(ctx.endpointHandlerPath(), roles);
+    if (routeClass == null) {
+      next.manage(handler, ctx, roles);
+    } else if (routeClass.admit(ctx)) {
+      ctx.attribute(PERMIT_ATTRIBUTE, routeClass);
+      next.manage(handler, ctx, roles);
+    } else {
+      ctx.status(config.rejectionStatus())
+              .header(HttpHeader.RETRY_AFTER.asString(), retryAfterSeconds)
+              .result(rejectionMessage);
+    }
+  }
+
+  @Override
+  public void apply(Javalin javalin) {
+    // after-handlers run once any async result has completed, and even if the handler failed
+    javalin.after(ctx -> {
+      RouteClass routeClass = ctx.attribute(PERMIT_ATTRIBUTE);
+      if (routeClass != null) routeClass.permits.release();
+    });
+  }
+
+  private RouteClass routeClass(String path, Set<RouteRole> roles) {
+    if (priorityRoutes.contains(path) || (config.exemptAdminRoutes() && roles.contains(AdminRole.Instance))) {
+      return null;
+    }
+    return classesByRoute.getOrDefault(path, defaultClass);
+  }
+
+  private static class RouteClass {
+    final Semaphore permits;
+    final long queueDeadlineMillis;
+    final Timer queueTime;
+    final Meter shed;
+
+    RouteClass(int maxInFlight, Duration queueDeadline, Timer queueTime, Meter shed) {
+      permits = new Semaphore(maxInFlight);
+      queueDeadlineMillis = queueDeadline.toMillis();
+      this.queueTime = queueTime;
+      this.shed = shed;
+    }
+
+    boolean admit(Context ctx) {
+      long arrivalMillis = arrivalMillis(ctx);
+      long queuedMillis = System.currentTimeMillis() - arrivalMillis;
+      // requests which already waited too long to be dispatched are shed without even trying for a permit
+      boolean admitted = queuedMillis < queueDeadlineMillis && permits.tryAcquire();
+      if (admitted) {
+        queueTime.update(queuedMillis, TimeUnit.MILLISECONDS);
+      } else {
+        shed.mark();
+      }
+      return admitted;
+    }
+
+    private static long arrivalMillis(Context ctx) {
+      Request request = Request.getBaseRequest(ctx.req);
+      return request != null ? request.getTimeStamp() : System.currentTimeMillis();
+    }
+  }
+}
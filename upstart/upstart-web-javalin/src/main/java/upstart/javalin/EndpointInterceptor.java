@@ -0,0 +1,40 @@
+package upstart.javalin;
+
+import com.google.common.collect.ImmutableList;
+import io.javalin.core.security.AccessManager;
+import io.javalin.core.security.RouteRole;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+import java.util.Set;
+
+/**
+ * Intercepts each request served by the {@link JavalinWebServer} once its route has been matched, before its
+ * endpoint-handler is invoked (so {@link Context#endpointHandlerPath} and the route's roles are available).
+ * <p/>
+ * Javalin supports only a single {@link AccessManager}, so the {@link JavalinWebServer} installs one which chains the
+ * interceptors bound with {@link JavalinWebModule#addEndpointInterceptorBinding} ahead of the application's
+ * AccessManager (whether assigned by a {@link JavalinWebInitializer} or bound with
+ * {@link JavalinWebModule#bindAccessManager}). Each interceptor must either invoke {@code next} to
+ * proceed with the request, or respond to it directly.
+ */
+@FunctionalInterface
+public interface EndpointInterceptor {
+  void intercept(Handler handler, Context ctx, Set<RouteRole> roles, AccessManager next) throws Exception;
+
+  /**
+   * @return an AccessManager which applies the given interceptors in order (the first being outermost), followed by
+   * the given accessManager
+   */
+  static AccessManager chain(Iterable<? extends EndpointInterceptor> interceptors, AccessManager accessManager) {
+    AccessManager next = accessManager;
+    for (EndpointInterceptor interceptor : ImmutableList.copyOf(interceptors).reverse()) {
+      next = interceptor.wrap(next);
+    }
+    return next;
+  }
+
+  default AccessManager wrap(AccessManager next) {
+    return (handler, ctx, roles) -> intercept(handler, ctx, roles, next);
+  }
+}
@@ -10,15 +10,23 @@ import javax.inject.Inject;
 public class HealthCheckEndpoint implements JavalinWebInitializer {
   private final HealthChecker healthChecker;
   private final HealthCheckEndpointConfig endpointConfig;
+  private final AdmissionController admissionController;
 
   @Inject
-  public HealthCheckEndpoint(HealthCheckEndpointConfig endpointConfig, HealthChecker healthChecker) {
+  public HealthCheckEndpoint(
+          HealthCheckEndpointConfig endpointConfig,
+          HealthChecker healthChecker,
+          AdmissionController admissionController
+  ) {
     this.healthChecker = healthChecker;
     this.endpointConfig = endpointConfig;
+    this.admissionController = admissionController;
   }
 
   @Override
   public void initializeWeb(JavalinConfig config) {
+    // liveness checks must not be shed when the server is overloaded
+    admissionController.addPriorityRoute(endpointConfig.livenessCheckPath());
     config.registerPlugin(javalin -> javalin.get(
             endpointConfig.livenessCheckPath(),
             OpenApiAnnotations.openApiIgnored(ctx -> ctx.future(healthChecker.healthyPromise()))
@@ -6,12 +6,16 @@ import com.google.inject.Key;
 import com.google.inject.binder.LinkedBindingBuilder;
 import com.google.inject.multibindings.Multibinder;
 import com.google.inject.multibindings.OptionalBinder;
+import io.javalin.core.security.AccessManager;
+import io.javalin.core.security.SecurityUtil;
 import upstart.config.UpstartModule;
 import upstart.javalin.annotations.Web;
 import upstart.web.WebServerConfig;
 
 class InternalJavalinWebServerModule extends UpstartModule {
   private static final InternalJavalinWebServerModule INSTANCE = new InternalJavalinWebServerModule();
+  // default binding, indicating that the JavalinWebServer should use whatever AccessManager the initializers configured
+  static final AccessManager UNBOUND_ACCESS_MANAGER = SecurityUtil::noopAccessManager;
 
   // TODO: support multiple web-servers (on different ports), with customizable ServiceLifecycle
   static Multibinder<JavalinWebInitializer> webBinder(Binder binder) {
@@ -19,9 +23,16 @@ class InternalJavalinWebServerModule extends UpstartModule {
     return Multibinder.newSetBinder(binder, JavalinWebInitializer.class);
   }
 
+  static Multibinder<EndpointInterceptor> interceptorBinder(Binder binder) {
+    binder.install(INSTANCE);
+    return Multibinder.newSetBinder(binder, EndpointInterceptor.class);
+  }
+
   @Override
   protected void configure() {
     objectMapperBinder(binder()).setDefault().toInstance(new ObjectMapper());
+    accessManagerBinder(binder()).setDefault().toInstance(UNBOUND_ACCESS_MANAGER);
+    Multibinder.newSetBinder(binder(), EndpointInterceptor.class);
     bindConfig(WebServerConfig.class);
     serviceManager().manage(JavalinWebServer.class);
   }
@@ -33,4 +44,13 @@ class InternalJavalinWebServerModule extends UpstartModule {
   private static OptionalBinder<ObjectMapper> objectMapperBinder(Binder binder) {
     return OptionalBinder.newOptionalBinder(binder, Key.get(ObjectMapper.class, Web.class));
   }
+
+  public static LinkedBindingBuilder<AccessManager> bindAccessManager(Binder binder) {
+    binder.install(INSTANCE);
+    return accessManagerBinder(binder).setBinding();
+  }
+
+  private static OptionalBinder<AccessManager> accessManagerBinder(Binder binder) {
+    return OptionalBinder.newOptionalBinder(binder, Key.get(AccessManager.class, Web.class));
+  }
 }
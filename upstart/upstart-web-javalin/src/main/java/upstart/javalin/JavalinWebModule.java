@@ -5,7 +5,9 @@ import com.google.inject.Key;
 import com.google.inject.TypeLiteral;
 import com.google.inject.binder.LinkedBindingBuilder;
 import com.google.inject.multibindings.Multibinder;
+import io.javalin.core.security.AccessManager;
 import upstart.UpstartModuleExtension;
+import upstart.javalin.annotations.BodyCodec;
 import upstart.javalin.annotations.HttpRegistry;
 
 public interface JavalinWebModule extends UpstartModuleExtension {
@@ -21,6 +23,23 @@ public interface JavalinWebModule extends UpstartModuleExtension {
     return javalinWebBinder().addBinding();
   }
 
+  default LinkedBindingBuilder<EndpointInterceptor> addEndpointInterceptorBinding() {
+    return InternalJavalinWebServerModule.interceptorBinder(binder()).addBinding();
+  }
+
+  /**
+   * Binds the {@link AccessManager} which authorizes requests, as an alternative to assigning one from a
+   * {@link JavalinWebInitializer} via {@link io.javalin.core.JavalinConfig#accessManager}. Either way, the
+   * {@link EndpointInterceptor}s are chained ahead of it; startup fails if both are configured.
+   */
+  default LinkedBindingBuilder<AccessManager> bindAccessManager() {
+    return InternalJavalinWebServerModule.bindAccessManager(binder());
+  }
+
+  default LinkedBindingBuilder<BodyCodec> addBodyCodecBinding() {
+    return HttpRegistry.bodyCodecBinder(binder()).addBinding();
+  }
+
   default void serveHttp(Class<?> endpointPojoType) {
     serveHttp(Key.get(endpointPojoType));
   }
@@ -1,7 +1,24 @@
 package upstart.javalin;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterables;
+import io.javalin.core.LoomUtil;
+import io.javalin.core.compression.Brotli;
+import io.javalin.core.compression.CompressionStrategy;
+import io.javalin.core.compression.Gzip;
+import io.javalin.core.security.AccessManager;
+import io.javalin.jetty.LoomThreadPool;
 import io.javalin.plugin.json.JavalinJackson;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import upstart.UpstartDeploymentStage;
 import upstart.javalin.annotations.Web;
 import upstart.util.collect.PairStream;
@@ -11,15 +28,23 @@ import io.javalin.Javalin;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+import static com.google.common.base.Preconditions.checkState;
+
 @Singleton
 public class JavalinWebServer extends IdleService {
+  private static final Logger LOG = LoggerFactory.getLogger(JavalinWebServer.class);
+  private static final String JVM_BROTLI_LOADER = "com.nixxcode.jvmbrotli.common.BrotliLoader";
   private final ObjectMapper objectMapper;
   private final WebServerConfig serverConfig;
   private final Set<JavalinWebInitializer> plugins;
+  private final Iterable<EndpointInterceptor> interceptors;
+  private final AccessManager boundAccessManager;
+  private final AdmissionController admissionController;
   private final boolean allowCorsForAllOrigins;
   private Javalin javalin;
 
@@ -28,11 +53,20 @@ public class JavalinWebServer extends IdleService {
           @Web ObjectMapper objectMapper,
           WebServerConfig serverConfig,
           UpstartDeploymentStage deploymentStage,
-          Set<JavalinWebInitializer> plugins
+          Set<JavalinWebInitializer> plugins,
+          Set<EndpointInterceptor> interceptors,
+          @Web AccessManager boundAccessManager,
+          AdmissionController admissionController
   ) {
     this.objectMapper = objectMapper;
     this.serverConfig = serverConfig;
     this.plugins = plugins;
+    // admission control is outermost, so that shed requests are rejected before reaching any other interceptor
+    this.interceptors = admissionController.isEnabled()
+            ? Iterables.concat(List.of(admissionController), interceptors)
+            : interceptors;
+    this.boundAccessManager = boundAccessManager;
+    this.admissionController = admissionController;
     allowCorsForAllOrigins = serverConfig.allowCorsForAllOrigins() || deploymentStage.isDevelopmentMode();
   }
 
@@ -41,19 +75,98 @@ public class JavalinWebServer extends IdleService {
     javalin = Javalin.create(
             config -> {
               config.contextPath = serverConfig.contextPath();
+              config.server(this::buildServer);
+              config.compressionStrategy(buildCompressionStrategy(serverConfig.compression()));
               if (allowCorsForAllOrigins) {
                 config.enableCorsForAllOrigins();
               } else {
                 String[] corsAllowedOrigins = serverConfig.corsAllowedOriginsArray();
                 if (corsAllowedOrigins.length > 0) config.enableCorsForOrigin(corsAllowedOrigins);
               }
+              AccessManager javalinDefault = config.inner.accessManager;
               // TODO: should we pass the objectMapper to each plugin for initialization?
               plugins.forEach(plugin -> plugin.initializeWeb(config));
+              AccessManager accessManager = resolveAccessManager(config.inner.accessManager, javalinDefault);
+              config.accessManager(EndpointInterceptor.chain(interceptors, accessManager));
+              if (admissionController.isEnabled()) config.registerPlugin(admissionController);
               config.jsonMapper(new JavalinJackson(objectMapper));
             }
     ).start(serverConfig.host(), serverConfig.port());
   }
 
+  // the interceptors wrap whichever AccessManager the application configured, via either an initializer or the binding
+  private AccessManager resolveAccessManager(AccessManager configured, AccessManager javalinDefault) {
+    if (boundAccessManager == InternalJavalinWebServerModule.UNBOUND_ACCESS_MANAGER) return configured;
+    checkState(
+            configured == javalinDefault,
+            "An AccessManager is bound with JavalinWebModule.bindAccessManager, but a JavalinWebInitializer also "
+                    + "assigned one via JavalinConfig.accessManager; configure only one of them"
+    );
+    return boundAccessManager;
+  }
+
+  private Server buildServer() {
+    WebServerConfig.JettyConfig jettyConfig = serverConfig.jetty();
+    Server server = new Server(buildThreadPool(jettyConfig));
+
+    HttpConfiguration httpConfig = new HttpConfiguration();
+    httpConfig.setRequestHeaderSize(jettyConfig.requestHeaderSize());
+    httpConfig.setResponseHeaderSize(jettyConfig.responseHeaderSize());
+    ConnectionFactory[] connectionFactories = jettyConfig.http2Cleartext()
+            ? new ConnectionFactory[]{new HttpConnectionFactory(httpConfig), new HTTP2CServerConnectionFactory(httpConfig)}
+            : new ConnectionFactory[]{new HttpConnectionFactory(httpConfig)};
+
+    ServerConnector connector = new ServerConnector(
+            server,
+            jettyConfig.acceptors(),
+            jettyConfig.selectors(),
+            connectionFactories
+    );
+    connector.setHost(serverConfig.host());
+    connector.setPort(serverConfig.port());
+    connector.setIdleTimeout(jettyConfig.idleTimeout().toMillis());
+    server.addConnector(connector);
+    return server;
+  }
+
+  private static CompressionStrategy buildCompressionStrategy(WebServerConfig.CompressionConfig compressionConfig) {
+    Brotli brotli = null;
+    if (compressionConfig.brotli()) {
+      if (isBrotliAvailable()) {
+        brotli = new Brotli(compressionConfig.brotliLevel());
+      } else {
+        LOG.warn("Brotli compression requires the jvm-brotli library ({} not found); using gzip only", JVM_BROTLI_LOADER);
+      }
+    }
+    Gzip gzip = compressionConfig.gzip() ? new Gzip(compressionConfig.gzipLevel()) : null;
+    CompressionStrategy strategy = new CompressionStrategy(brotli, gzip);
+    strategy.setMinSizeForCompression(compressionConfig.minSize());
+    return strategy;
+  }
+
+  private static boolean isBrotliAvailable() {
+    try {
+      Class.forName(JVM_BROTLI_LOADER, false, JavalinWebServer.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static ThreadPool buildThreadPool(WebServerConfig.JettyConfig jettyConfig) {
+    if (jettyConfig.virtualThreads()) {
+      if (LoomUtil.INSTANCE.getLoomAvailable()) return new LoomThreadPool();
+      LOG.warn("Virtual threads are not supported by this JVM ({}); using a bounded thread-pool instead", Runtime.version());
+    }
+    QueuedThreadPool threadPool = new QueuedThreadPool(
+            jettyConfig.maxThreads(),
+            jettyConfig.minThreads(),
+            (int) jettyConfig.threadIdleTimeout().toMillis()
+    );
+    threadPool.setName("JettyServerThreadPool");
+    return threadPool;
+  }
+
   @Override
   protected void shutDown() throws Exception {
     if (javalin != null) javalin.stop();
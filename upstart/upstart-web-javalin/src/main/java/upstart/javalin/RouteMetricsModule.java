@@ -0,0 +1,139 @@
+package upstart.javalin;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import io.javalin.Javalin;
+import io.javalin.core.JavalinConfig;
+import io.javalin.core.security.AccessManager;
+import io.javalin.core.security.RouteRole;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.HandlerType;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+import upstart.config.UpstartModule;
+import upstart.metrics.MetricFamily;
+import upstart.metrics.TaggedMetricRegistry;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records metrics for each route served by the {@link JavalinWebServer}, tagged with the route's http {@code method}
+ * and declared path-template as its {@code route} (eg, {@code /users/{id}}, rather than the requested url):
+ * <ul>
+ *   <li>{@code http.route.latency}: timer for each request, from the invocation of the endpoint-handler until the
+ *   response is ready to be written (including the completion of any {@link java.util.concurrent.CompletionStage}
+ *   passed to {@link Context#future})</li>
+ *   <li>{@code http.route.inFlight}: counter of the requests currently being handled</li>
+ *   <li>{@code http.route.requestBytes}: histogram of request-body sizes: the bytes consumed from the body (or its
+ *   declared Content-Length, if larger), for requests with a body</li>
+ *   <li>{@code http.route.responseBytes}: histogram of the response-body bytes written (after any compression)</li>
+ * </ul>
+ * Body sizes are counted by jetty, and recorded when the exchange completes.
+ * The metrics for each route are resolved once, and then looked up by the route's path-template for each request, so
+ * recording them involves no string-formatting.
+ * <p/>
+ * Requests which don't match any route (or are rejected by {@code before}-handlers) are not recorded; see
+ * {@link ResponseStatusMetricsModule} for metrics covering all responses.
+ */
+public class RouteMetricsModule extends UpstartModule implements JavalinWebModule {
+  @Override
+  protected void configure() {
+    addJavalinWebBinding().to(RouteMetricsInitializer.class);
+    addEndpointInterceptorBinding().to(RouteMetricsInitializer.class);
+  }
+
+  @Singleton
+  static class RouteMetricsInitializer implements JavalinWebInitializer, EndpointInterceptor, HttpChannel.Listener {
+    private static final String ROUTE_METRICS_ATTRIBUTE = RouteMetricsInitializer.class.getName();
+    private final MetricFamily<Timer> latency;
+    private final MetricFamily<Counter> inFlight;
+    private final MetricFamily<Histogram> requestBytes;
+    private final MetricFamily<Histogram> responseBytes;
+    private final Map<HandlerType, ConcurrentMap<String, RouteMetrics>> routesByType = new EnumMap<>(HandlerType.class);
+
+    @Inject
+    RouteMetricsInitializer(TaggedMetricRegistry metricRegistry) {
+      latency = metricRegistry.timerFamily("http.route.latency", "method", "route");
+      inFlight = metricRegistry.counterFamily("http.route.inFlight", "method", "route");
+      requestBytes = metricRegistry.histogramFamily("http.route.requestBytes", "method", "route");
+      responseBytes = metricRegistry.histogramFamily("http.route.responseBytes", "method", "route");
+      for (HandlerType type : HandlerType.values()) {
+        routesByType.put(type, new ConcurrentHashMap<>());
+      }
+    }
+
+    @Override
+    public void initializeWeb(JavalinConfig config) {
+      config.registerPlugin(this::instrument);
+    }
+
+    @Override
+    public void intercept(Handler handler, Context ctx, Set<RouteRole> roles, AccessManager next) throws Exception {
+      RouteMetrics route = routeMetrics(ctx.handlerType(), ctx.endpointHandlerPath());
+      ctx.attribute(ROUTE_METRICS_ATTRIBUTE, new InFlightRequest(route, System.nanoTime()));
+      route.inFlight.inc();
+      next.manage(handler, ctx, roles);
+    }
+
+    private void instrument(Javalin javalin) {
+      // after-handlers run once any async result has completed, and even if the endpoint failed
+      javalin.after(this::requestCompleted);
+      // the channel-listeners are notified once the response has been written
+      for (Connector connector : javalin.jettyServer().server().getConnectors()) {
+        connector.addBean(this);
+      }
+    }
+
+    private void requestCompleted(Context ctx) {
+      InFlightRequest request = ctx.attribute(ROUTE_METRICS_ATTRIBUTE);
+      if (request == null) return;
+      RouteMetrics route = request.route();
+      route.latency.update(System.nanoTime() - request.startNanos(), TimeUnit.NANOSECONDS);
+      route.inFlight.dec();
+    }
+
+    @Override
+    public void onComplete(Request request) {
+      if (!(request.getAttribute(ROUTE_METRICS_ATTRIBUTE) instanceof InFlightRequest inFlightRequest)) return;
+      RouteMetrics route = inFlightRequest.route();
+      // chunked uploads have no Content-Length, and handlers may not consume the entire body
+      long contentRead = request.getContentRead();
+      long contentLength = request.getContentLengthLong();
+      if (contentRead > 0 || contentLength >= 0) route.requestBytes.update(Math.max(contentRead, contentLength));
+      route.responseBytes.update(request.getResponse().getHttpChannel().getBytesWritten());
+    }
+
+    private RouteMetrics routeMetrics(HandlerType type, String path) {
+      ConcurrentMap<String, RouteMetrics> routes = routesByType.get(type);
+      RouteMetrics route = routes.get(path);
+      return route != null ? route : routes.computeIfAbsent(path, ignored -> new RouteMetrics(type.name(), path));
+    }
+
+    private class RouteMetrics {
+      final Timer latency;
+      final Counter inFlight;
+      final Histogram requestBytes;
+      final Histogram responseBytes;
+
+      RouteMetrics(String method, String route) {
+        latency = RouteMetricsInitializer.this.latency.get(method, route);
+        inFlight = RouteMetricsInitializer.this.inFlight.get(method, route);
+        requestBytes = RouteMetricsInitializer.this.requestBytes.get(method, route);
+        responseBytes = RouteMetricsInitializer.this.responseBytes.get(method, route);
+      }
+    }
+
+    private record InFlightRequest(RouteMetrics route, long startNanos) {
+    }
+  }
+}
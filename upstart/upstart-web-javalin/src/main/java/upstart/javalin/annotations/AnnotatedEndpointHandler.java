@@ -9,6 +9,7 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ObjectArrays;
 import com.google.common.primitives.Primitives;
+import com.google.common.reflect.TypeToken;
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.ContentType;
@@ -23,12 +24,14 @@ import io.javalin.plugin.openapi.dsl.DocumentedHandler;
 import io.javalin.plugin.openapi.dsl.OpenApiDocumentation;
 import io.javalin.plugin.openapi.dsl.OpenApiUpdater;
 import io.javalin.plugin.openapi.dsl.OpenApiUpdaterKt;
+import org.eclipse.jetty.http.HttpHeader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import upstart.javalin.AsyncHandler;
 import upstart.javalin.UnprocessableEntityResponse;
 import upstart.proxy.Proxies;
 import upstart.util.collect.PairStream;
+import upstart.util.concurrent.CompletableFutures;
 import upstart.util.concurrent.LazyReference;
 import upstart.util.concurrent.Promise;
 import upstart.util.concurrent.ThreadLocalReference;
@@ -39,20 +42,27 @@ import upstart.util.strings.MoreStrings;
 
 import javax.annotation.Nullable;
 import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Executable;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -61,6 +71,8 @@ import static com.google.common.base.Preconditions.checkState;
 public class AnnotatedEndpointHandler<T> {
   private static final Logger LOG = LoggerFactory.getLogger(AnnotatedEndpointHandler.class);
   public static final String OBJECT_MAPPER_ATTRIBUTE = "ObjectMapper";
+  public static final String BODY_CODECS_ATTRIBUTE = "BodyCodecs";
+  private static final String DECODED_BODY_ATTRIBUTE = AnnotatedEndpointHandler.class.getName() + ".decodedBody";
   private final Map<Method, Endpoint> endpoints;
   private final Class<T> type;
   private final LazyReference<RouteProxyInterceptor> routeProxy = LazyReference.from(RouteProxyInterceptor::new);
@@ -96,18 +108,48 @@ public class AnnotatedEndpointHandler<T> {
     }
   }
 
+  /**
+   * Invites the given codecs to {@link BodyCodec#prepareEncoder prepare} for the result-types of these endpoints
+   */
+  public void prepareEncoders(List<BodyCodec> codecs) {
+    for (Endpoint endpoint : endpoints.values()) {
+      endpoint.prepareEncoders(codecs);
+    }
+  }
+
   public HttpUrl urlFor(Consumer<? super T> methodInvoker) {
     return routeProxy.get().capture(methodInvoker);
   }
 
   public static class Endpoint {
+    private static final MethodHandle RESOLVE_PARAM;
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Context.class);
+    private static final int PUBLISHER_BUFFER_SIZE = 64;
+
+    static {
+      try {
+        RESOLVE_PARAM = MethodHandles.lookup().findVirtual(
+                ParamResolver.class,
+                "resolve",
+                MethodType.methodType(Object.class, Context.class)
+        );
+      } catch (ReflectiveOperationException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+
     private final Method method;
     private final HandlerType handlerType;
     private final String path;
     private final SecurityConstraints securityConstraints;
     private final List<ParamResolver> paramResolvers;
     private final BiFunction<Context, Object, Promise<?>> resultDispatcher;
+    @Nullable private final BiConsumer<Context, Object> syncResponder;
+    private final MethodHandle invoker;
     private final OpenApiDocumentation documentation;
+    // the types which may be exchanged via a BodyCodec, rather than json
+    @Nullable private final Class<?> resultType;
+    @Nullable private Class<?> codecBodyType = null;
     private boolean mappedBody = false;
 
     private Endpoint(
@@ -145,14 +187,17 @@ public class AnnotatedEndpointHandler<T> {
                 if (ctx.status() == 200) ctx.status(successStatus);
               };
       BiFunction<Context, Object, Promise<?>> responder;
+      BiConsumer<Context, Object> syncResponder;
       Class<?> returnType = method.getReturnType();
       OpenApiContent[] openApiContent;
+      Class<?> resultType = null;
       if (returnType == void.class) {
         openApiContent = openApiResponse.content();
         responder = (t, u) -> {
           assignStatus.accept(t, u);
           return Promise.nullPromise();
         };
+        syncResponder = assignStatus;
       } else if (InputStream.class.isAssignableFrom(returnType)) {
         // TODO: is this correct?
         openApiContent = openApiContent(byte[].class, ContentType.OCTET_STREAM, openApiResponse);
@@ -160,11 +205,13 @@ public class AnnotatedEndpointHandler<T> {
           assignStatus.accept(context, o);
           return Promise.completed(o);
         };
+        syncResponder = assignStatus.andThen(Endpoint::writeResult);
       } else if (CompletionStage.class.isAssignableFrom(returnType)) {
         // TODO: deal with further generics, arrays, etc
         // TODO: use TypeToken to reliably get the correct CompletionStage type
-        Class<?> futureType = Reflect.getFirstGenericType(method.getGenericReturnType());
+        Class<?> futureType = documentedType(Reflect.getFirstGenericType(method.getGenericReturnType()));
         openApiContent = openApiContent(futureType, ContentType.JSON, openApiResponse);
+        resultType = futureType;
         responder = (Context context, Object o) ->
                 Promise.of((CompletionStage<?>) o)
                         .whenComplete((ignored, e) -> {
@@ -178,18 +225,157 @@ public class AnnotatedEndpointHandler<T> {
                             }
                           }
                         });
+        syncResponder = null;
       } else {
-        openApiContent = openApiContent(returnType, ContentType.JSON, openApiResponse);
+        if (ETagged.class.isAssignableFrom(returnType)) {
+          Class<?> contentType = documentedType(method.getGenericReturnType());
+          openApiContent = openApiContent(contentType, ContentType.JSON, openApiResponse);
+        } else if (isStreamed(returnType)) {
+          Class<?> elementType = documentedType(Reflect.getFirstGenericType(method.getGenericReturnType()));
+          openApiContent = streamedApiContent(elementType, openApiResponse);
+        } else {
+          openApiContent = openApiContent(returnType, ContentType.JSON, openApiResponse);
+          resultType = returnType;
+        }
         responder = (context, o) -> {
           assignStatus.accept(context, o);
           return Promise.completed(o);
         };
+        syncResponder = assignStatus.andThen(Endpoint::writeResult);
       }
 
       documentation = hideApiDoc
               ? OpenApiAnnotations.DOCUMENTATION_IGNORE
               : buildDocumentation(apiResponse.content(openApiContent).build());
       resultDispatcher = responder;
+      this.syncResponder = syncResponder;
+      this.resultType = resultType;
+      invoker = linkInvoker();
+    }
+
+    /**
+     * Links the endpoint-method with its {@link ParamResolver ParamResolvers} into a single {@link MethodHandle} of
+     * type {@code (Object target, Context ctx) -> Object}, which computes each argument from the Context and invokes
+     * the method directly, without allocating an argument-array or performing reflective access-checks per request.
+     */
+    private MethodHandle linkInvoker() {
+      MethodHandle handle;
+      try {
+        checkArgument(method.trySetAccessible(), "@Http method %s is not accessible", method);
+        handle = MethodHandles.lookup().unreflect(method);
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException("@Http method " + method + " is not accessible", e);
+      }
+      MethodType methodType = handle.type();
+      int paramCount = paramResolvers.size();
+      MethodHandle[] resolvers = new MethodHandle[paramCount];
+      int[] argumentOrder = new int[paramCount + 1];
+      for (int i = 0; i < paramCount; i++) {
+        resolvers[i] = RESOLVE_PARAM.bindTo(paramResolvers.get(i))
+                .asType(MethodType.methodType(methodType.parameterType(i + 1), Context.class));
+        argumentOrder[i + 1] = 1;
+      }
+      return MethodHandles.permuteArguments(
+              MethodHandles.filterArguments(handle, 1, resolvers),
+              MethodType.methodType(methodType.returnType(), methodType.parameterType(0), Context.class),
+              argumentOrder
+      ).asType(INVOKER_TYPE);
+    }
+
+    /**
+     * Renders an endpoint's result (or the value of its future) into the response. Beyond javalin's default handling
+     * of Strings, InputStreams and json, this supports {@link ETagged} results, and streams elements from
+     * {@link Stream Streams}, {@link Iterator Iterators} and {@link Flow.Publisher Publishers} as they're written
+     * (see {@link StreamingJsonBody}). Other results are rendered as json, unless the client accepts the content-type
+     * of a registered {@link BodyCodec} which supports them (responding with 503 if that codec can't encode them yet
+     * and the client doesn't accept json).
+     */
+    private static void writeResult(Context ctx, Object result) {
+      if (result instanceof String str) {
+        ctx.result(str);
+      } else if (result instanceof InputStream stream) {
+        ctx.result(stream);
+      } else if (result instanceof ETagged<?> tagged) {
+        writeTagged(ctx, tagged);
+      } else if (result instanceof Stream<?> stream) {
+        StreamingJsonBody.render(ctx, objectMapper(ctx).writer(), stream.iterator(), stream::close);
+      } else if (result instanceof Iterator<?> iterator) {
+        StreamingJsonBody.render(ctx, objectMapper(ctx).writer(), iterator, () -> {});
+      } else if (result instanceof Flow.Publisher<?> publisher) {
+        PublisherIterator<?> iterator = new PublisherIterator<>(publisher, PUBLISHER_BUFFER_SIZE);
+        StreamingJsonBody.render(ctx, objectMapper(ctx).writer(), iterator, iterator::cancel);
+      } else if (result != null) {
+        BodyCodec codec = acceptedCodec(ctx, result.getClass());
+        if (codec == null) {
+          ctx.json(result);
+        } else if (!codec.encode(ctx, result)) {
+          if (acceptsJson(ctx)) {
+            ctx.json(result);
+          } else {
+            // the codec can't encode the result yet, and the client doesn't accept json
+            ctx.status(HttpCode.SERVICE_UNAVAILABLE)
+                    .header(HttpHeader.RETRY_AFTER.asString(), "1")
+                    .result(codec.contentType() + " encoding is not yet available for " + result.getClass().getSimpleName());
+          }
+        }
+      }
+    }
+
+    private static boolean acceptsJson(Context ctx) {
+      String accept = ctx.header(HttpHeader.ACCEPT.asString());
+      return accept == null
+              || accept.contains(ContentType.JSON)
+              || accept.contains("*/*")
+              || accept.contains("application/*");
+    }
+
+    @Nullable
+    private static BodyCodec acceptedCodec(Context ctx, Class<?> resultType) {
+      List<BodyCodec> codecs = bodyCodecs(ctx);
+      if (codecs.isEmpty()) return null;
+      String accept = ctx.header(HttpHeader.ACCEPT.asString());
+      if (accept == null) return null;
+      for (BodyCodec codec : codecs) {
+        if (accept.contains(codec.contentType()) && codec.supports(resultType)) return codec;
+      }
+      return null;
+    }
+
+    @Nullable
+    private static BodyCodec requestCodec(Context ctx, Class<?> paramType) {
+      List<BodyCodec> codecs = bodyCodecs(ctx);
+      if (codecs.isEmpty()) return null;
+      String contentType = ctx.contentType();
+      if (contentType == null) return null;
+      for (BodyCodec codec : codecs) {
+        if (contentType.startsWith(codec.contentType()) && codec.supports(paramType)) return codec;
+      }
+      return null;
+    }
+
+    private static void writeTagged(Context ctx, ETagged<?> tagged) {
+      ctx.header(HttpHeader.ETAG.asString(), tagged.etag());
+      HandlerType method = ctx.handlerType();
+      if ((method == HandlerType.GET || method == HandlerType.HEAD)
+              && tagged.matches(ctx.header(HttpHeader.IF_NONE_MATCH.asString()))) {
+        ctx.status(HttpCode.NOT_MODIFIED);
+      } else {
+        writeResult(ctx, tagged.content());
+      }
+    }
+
+    // the raw class of a (possibly parameterized) result-type, unwrapping ETagged
+    private static Class<?> documentedType(Type type) {
+      Class<?> rawType = TypeToken.of(type).getRawType();
+      return ETagged.class.isAssignableFrom(rawType)
+              ? documentedType(Reflect.getFirstGenericType(type))
+              : rawType;
+    }
+
+    private static boolean isStreamed(Class<?> returnType) {
+      return Stream.class.isAssignableFrom(returnType)
+              || Iterator.class.isAssignableFrom(returnType)
+              || Flow.Publisher.class.isAssignableFrom(returnType);
     }
 
     private static int reconcileSuccessStatus(
@@ -233,6 +419,23 @@ public class AnnotatedEndpointHandler<T> {
       return ObjectArrays.concat(addedContent, providedResponse.content());
     }
 
+    private static OpenApiContent[] streamedApiContent(Class<?> elementType, OpenApiResponse providedResponse) {
+      ImmutableOpenApiContent arrayContent = OpenApiAnnotations.contentBuilder()
+              .from(elementType)
+              .isArray(true)
+              .type(ContentType.JSON)
+              .build();
+      ImmutableOpenApiContent ndjsonContent = OpenApiAnnotations.contentBuilder()
+              .from(elementType)
+              .type(StreamingJsonBody.NDJSON)
+              .build();
+      return ObjectArrays.concat(
+              new OpenApiContent[]{arrayContent, ndjsonContent},
+              providedResponse.content(),
+              OpenApiContent.class
+      );
+    }
+
     private OpenApiDocumentation buildDocumentation(OpenApiResponse openApiResponse) {
       OpenApi compositeOpenApi = OpenApiAnnotations.openApi(
               Optional.ofNullable(method.getAnnotation(OpenApi.class)),
@@ -260,23 +463,66 @@ public class AnnotatedEndpointHandler<T> {
     }
 
     public Promise<?> invokeEndpoint(Object target, Context ctx) {
-      var args = new Object[paramResolvers.size()];
-      for (int i = 0; i < paramResolvers.size(); i++) {
-        args[i] = paramResolvers.get(i).resolve(ctx);
+      CompletableFuture<Void> decodedBody = decodeBody(ctx);
+      return decodedBody == null
+              ? resultDispatcher.apply(ctx, invokeTarget(target, ctx))
+              : invokeAfter(decodedBody, target, ctx);
+    }
+
+    /**
+     * Handles a request: synchronous results are written to the response immediately, while {@link CompletionStage}
+     * results are passed to {@link Context#future} (as is the entire invocation, if the request-body is being
+     * decoded asynchronously by a {@link BodyCodec})
+     */
+    public void handleRequest(Object target, Context ctx) {
+      CompletableFuture<Void> decodedBody = decodeBody(ctx);
+      if (decodedBody != null && !CompletableFutures.isCompletedNormally(decodedBody)) {
+        ctx.future(invokeAfter(decodedBody, target, ctx), value -> writeResult(ctx, value));
+        return;
+      }
+      Object result = invokeTarget(target, ctx);
+      if (syncResponder != null) {
+        syncResponder.accept(ctx, result);
+      } else {
+        ctx.future(resultDispatcher.apply(ctx, result), value -> writeResult(ctx, value));
       }
+    }
 
+    private Promise<?> invokeAfter(CompletableFuture<Void> decodedBody, Object target, Context ctx) {
+      return Promise.of(decodedBody)
+              .thenCompose(ignored -> Reflect.blindCast(resultDispatcher.apply(ctx, invokeTarget(target, ctx))));
+    }
+
+    /**
+     * @return a future which completes when the request-body has been decoded by the matching {@link BodyCodec}, or
+     * null if the body isn't handled by a codec
+     */
+    @Nullable
+    private CompletableFuture<Void> decodeBody(Context ctx) {
+      if (codecBodyType == null) return null;
+      BodyCodec codec = requestCodec(ctx, codecBodyType);
+      if (codec == null) return null;
+      return codec.decode(ctx, codecBodyType)
+              .thenAccept(body -> ctx.attribute(DECODED_BODY_ATTRIBUTE, body))
+              .toCompletableFuture();
+    }
+
+    private void prepareEncoders(List<BodyCodec> codecs) {
+      if (resultType == null) return;
+      for (BodyCodec codec : codecs) {
+        if (codec.supports(resultType)) codec.prepareEncoder(resultType);
+      }
+    }
+
+    private Object invokeTarget(Object target, Context ctx) {
       try {
-        Object result = method.invoke(target, args);
-        return resultDispatcher.apply(ctx, result);
-      } catch (InvocationTargetException e) {
-        Throwable cause = e.getCause();
-        Throwables.throwIfUnchecked(cause);
-        throw new RuntimeException(e);
-      } catch (IllegalAccessException e) {
+        return (Object) invoker.invokeExact(target, ctx);
+      } catch (Throwable e) {
+        Throwables.throwIfUnchecked(e);
         throw new RuntimeException(e);
       }
-
     }
+
     public HttpUrl buildUrl(Object... args) {
       assert args.length == paramResolvers.size();
       var builder = new UrlBuilder(path);
@@ -321,7 +567,11 @@ public class AnnotatedEndpointHandler<T> {
           return ParamResolver.nonUrlParam(parameter, Optional.of(byte[].class), Context::bodyAsInputStream);
         } else {
           JavaType valueType = TypeFactory.defaultInstance().constructType(parameter.getParameterizedType());
+          codecBodyType = paramType;
           return ParamResolver.nonUrlParam(parameter, Optional.of(paramType), ctx -> {
+            // bodies with a BodyCodec's content-type are decoded before the endpoint is invoked
+            Object decoded = ctx.attribute(DECODED_BODY_ATTRIBUTE);
+            if (decoded != null) return decoded;
             try {
               return objectMapper(ctx).readValue(ctx.bodyAsInputStream(), valueType);
             } catch (Exception e) {
@@ -346,6 +596,10 @@ public class AnnotatedEndpointHandler<T> {
       return ctx.appAttribute(OBJECT_MAPPER_ATTRIBUTE);
     }
 
+    private static List<BodyCodec> bodyCodecs(Context ctx) {
+      return ctx.appAttribute(BODY_CODECS_ATTRIBUTE);
+    }
+
     private static String paramName(String annotatedName, Parameter param) {
       if (annotatedName.isEmpty()) {
         String name = param.getName();
@@ -502,7 +756,7 @@ public class AnnotatedEndpointHandler<T> {
       private final Object target;
 
       public AsyncDocumentedHandler(Object target) {
-        super(documentation, ctx -> ctx.future(invokeEndpoint(target, ctx)));
+        super(documentation, ctx -> handleRequest(target, ctx));
         this.target = target;
       }
 
@@ -0,0 +1,51 @@
+package upstart.javalin.annotations;
+
+import io.javalin.http.Context;
+import upstart.javalin.JavalinWebModule;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An alternative (non-JSON) encoding for the request-bodies and results of {@link Http} endpoints, negotiated via the
+ * {@code Content-Type} and {@code Accept} headers.
+ * <p/>
+ * A request-body is decoded by the first registered codec whose {@link #contentType} matches the request's
+ * {@code Content-Type} and which {@link #supports} the parameter-type; a result is encoded by the first codec which
+ * supports its type and whose {@link #contentType} is listed in the {@code Accept} header. All other requests and
+ * results are handled as JSON, as usual.
+ *
+ * @see JavalinWebModule#addBodyCodecBinding
+ */
+public interface BodyCodec {
+  /**
+   * @return the media-type (without parameters) handled by this codec, eg {@code application/avro}
+   */
+  String contentType();
+
+  boolean supports(Class<?> type);
+
+  /**
+   * Reads the body of the request as an instance of the given type (for which {@link #supports} returned true).
+   * Decoding may complete asynchronously (eg, if it requires a remote lookup), in which case the endpoint is invoked
+   * once it completes, without holding a server thread. Malformed input should be reported with an
+   * {@link io.javalin.http.HttpResponseException}, such as {@link io.javalin.http.BadRequestResponse}.
+   */
+  CompletionStage<?> decode(Context ctx, Class<?> type);
+
+  /**
+   * Renders the given result (whose type this codec {@link #supports}) as the response, including its
+   * {@code Content-Type}.
+   *
+   * @return false if the result can't be encoded without waiting (eg, for initialization begun by
+   * {@link #prepareEncoder}), in which case it is rendered as JSON instead if the client accepts JSON, or else
+   * rejected with 503 (Service Unavailable)
+   */
+  boolean encode(Context ctx, Object result);
+
+  /**
+   * Invoked when an {@link Http} endpoint whose result-type this codec {@link #supports} is registered, to begin any
+   * initialization required to {@link #encode} that type.
+   */
+  default void prepareEncoder(Class<?> type) {
+  }
+}
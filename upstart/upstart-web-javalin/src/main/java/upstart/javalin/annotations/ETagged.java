@@ -0,0 +1,66 @@
+package upstart.javalin.annotations;
+
+import com.google.common.base.Suppliers;
+
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A result for an {@link Http} endpoint, identified by a strong entity-tag which is sent as the {@code ETag} response
+ * header.
+ * <p/>
+ * When a {@code GET} or {@code HEAD} request carries a matching {@code If-None-Match} header, the response is
+ * {@code 304 Not Modified}, and the content is neither serialized nor (for {@link #lazy} results) even computed. The
+ * tag must therefore change whenever the content does (eg, by deriving it from a version-number or content-hash).
+ * <p/>
+ * The content may be any result supported for an {@link Http} method, including streamed results.
+ */
+public final class ETagged<T> {
+  private final String etag;
+  private final Supplier<? extends T> content;
+
+  private ETagged(String tag, Supplier<? extends T> content) {
+    checkArgument(!tag.isEmpty() && tag.indexOf('"') < 0, "Invalid entity-tag: %s", tag);
+    this.etag = '"' + tag + '"';
+    this.content = content;
+  }
+
+  public static <T> ETagged<T> of(String tag, T content) {
+    return new ETagged<>(tag, () -> content);
+  }
+
+  public static <T> ETagged<T> lazy(String tag, Supplier<? extends T> content) {
+    return new ETagged<>(tag, Suppliers.memoize(content::get));
+  }
+
+  /**
+   * @return the quoted entity-tag, as sent in the {@code ETag} header
+   */
+  public String etag() {
+    return etag;
+  }
+
+  public T content() {
+    return content.get();
+  }
+
+  /**
+   * @return true if the given {@code If-None-Match} header-value lists this entity-tag (or is {@code *})
+   */
+  public boolean matches(String ifNoneMatch) {
+    if (ifNoneMatch == null) return false;
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      // If-None-Match uses the weak comparison function
+      if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+      if (candidate.equals(etag) || candidate.equals("*")) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "ETagged{" + etag + '}';
+  }
+}
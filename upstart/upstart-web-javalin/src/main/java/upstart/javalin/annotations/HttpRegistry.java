@@ -4,8 +4,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.inject.Binder;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.PrivateModule;
@@ -20,6 +22,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
@@ -116,6 +119,11 @@ public class HttpRegistry {
     return (AnnotatedEndpointHandler<T>) handlerCache.getUnchecked(targetClass);
   }
 
+  public static Multibinder<BodyCodec> bodyCodecBinder(Binder binder) {
+    binder.install(new AnnotatedWebInitializer.Module());
+    return Multibinder.newSetBinder(binder, BodyCodec.class);
+  }
+
   public Module webEndpointModule(Key<?> endpointPojoKey) {
     return new AnnotatedEndpointModule<>(endpointPojoKey);
   }
@@ -160,12 +168,16 @@ public class HttpRegistry {
   private static class AnnotatedWebInitializer implements JavalinWebInitializer {
     private final ObjectMapper objectMapper;
     private final Set<AnnotatedEndpointInitializer<?>> endpointInitializers;
+    private final List<BodyCodec> bodyCodecs;
 
     @Inject
     AnnotatedWebInitializer(
-        @Web ObjectMapper objectMapper, Set<AnnotatedEndpointInitializer<?>> endpointInitializers) {
+        @Web ObjectMapper objectMapper,
+        Set<AnnotatedEndpointInitializer<?>> endpointInitializers,
+        Set<BodyCodec> bodyCodecs) {
       this.objectMapper = objectMapper;
       this.endpointInitializers = endpointInitializers;
+      this.bodyCodecs = ImmutableList.copyOf(bodyCodecs);
     }
 
     @Override
@@ -177,8 +189,10 @@ public class HttpRegistry {
           javalin -> {
             for (AnnotatedEndpointInitializer<?> endpointInitializer : endpointInitializers) {
               endpointInitializer.installHandlers(javalin);
+              endpointInitializer.prepareEncoders(bodyCodecs);
             }
             javalin.attribute(AnnotatedEndpointHandler.OBJECT_MAPPER_ATTRIBUTE, objectMapper);
+            javalin.attribute(AnnotatedEndpointHandler.BODY_CODECS_ATTRIBUTE, bodyCodecs);
           });
     }
 
@@ -186,6 +200,7 @@ public class HttpRegistry {
       @Override
       protected void configure() {
         addJavalinWebBinding().to(AnnotatedWebInitializer.class);
+        Multibinder.newSetBinder(binder(), BodyCodec.class);
       }
     }
   }
@@ -211,5 +226,9 @@ public class HttpRegistry {
     void installHandlers(Javalin javalin) {
       handler.installHandlers(target, javalin);
     }
+
+    void prepareEncoders(List<BodyCodec> codecs) {
+      handler.prepareEncoders(codecs);
+    }
   }
 }
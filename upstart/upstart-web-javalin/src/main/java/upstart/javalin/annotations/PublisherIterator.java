@@ -0,0 +1,99 @@
+package upstart.javalin.annotations;
+
+import com.google.common.base.Throwables;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Adapts a {@link Flow.Publisher} into a blocking {@link Iterator}, which requests more elements from the publisher
+ * only as the consumer frees space in its buffer.
+ */
+class PublisherIterator<T> implements Iterator<T>, Flow.Subscriber<T> {
+  private static final Object COMPLETE = new Object();
+
+  private final int bufferSize;
+  private final int refillThreshold;
+  // elements, followed by COMPLETE or a Failure; sized to hold a terminal signal beyond the requested elements
+  private final BlockingQueue<Object> queue;
+  private volatile Flow.Subscription subscription;
+  private Object next;
+  private int consumedSinceRequest = 0;
+
+  PublisherIterator(Flow.Publisher<? extends T> publisher, int bufferSize) {
+    this.bufferSize = bufferSize;
+    refillThreshold = Math.max(1, bufferSize / 2);
+    queue = new ArrayBlockingQueue<>(bufferSize + 1);
+    publisher.subscribe(this);
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    checkState(this.subscription == null, "Already subscribed");
+    this.subscription = subscription;
+    subscription.request(bufferSize);
+  }
+
+  @Override
+  public void onNext(T item) {
+    if (!queue.offer(item)) {
+      subscription.cancel();
+      queue.clear();
+      queue.offer(new Failure(new IllegalStateException("Publisher delivered more elements than requested")));
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    queue.offer(new Failure(throwable));
+  }
+
+  @Override
+  public void onComplete() {
+    queue.offer(COMPLETE);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancel();
+        throw new RuntimeException("Interrupted while awaiting published element", e);
+      }
+    }
+    if (next instanceof Failure failure) {
+      Throwables.throwIfUnchecked(failure.cause);
+      throw new RuntimeException(failure.cause);
+    }
+    return next != COMPLETE;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    T item = (T) next;
+    next = null;
+    if (++consumedSinceRequest >= refillThreshold) {
+      subscription.request(consumedSinceRequest);
+      consumedSinceRequest = 0;
+    }
+    return item;
+  }
+
+  void cancel() {
+    Flow.Subscription subscription = this.subscription;
+    if (subscription != null) subscription.cancel();
+  }
+
+  private record Failure(Throwable cause) {
+  }
+}
@@ -0,0 +1,121 @@
+package upstart.javalin.annotations;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import org.eclipse.jetty.http.HttpHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * An {@link InputStream} which serializes the elements of an {@link Iterator} only as the stream is read, rendering
+ * them either as a JSON array or as newline-delimited JSON (NDJSON, if requested via the {@code Accept} header).
+ * <p/>
+ * Javalin copies the result-stream into the (possibly compressed) response as the client consumes it, so at most a
+ * buffer's worth of serialized elements is held in memory, and a slow client simply stops elements from being
+ * pulled from the source.
+ */
+class StreamingJsonBody extends InputStream {
+  static final String NDJSON = "application/x-ndjson";
+
+  private final Iterator<?> elements;
+  private final ObjectWriter writer;
+  private final Format format;
+  private final Runnable onClose;
+  private final Buffer buffer = new Buffer();
+  private int position = 0;
+  private boolean started = false;
+  private boolean wroteElement = false;
+  private boolean finished = false;
+
+  private StreamingJsonBody(Iterator<?> elements, ObjectWriter writer, Format format, Runnable onClose) {
+    this.elements = elements;
+    this.writer = writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    this.format = format;
+    this.onClose = onClose;
+  }
+
+  static void render(Context ctx, ObjectWriter writer, Iterator<?> elements, Runnable onClose) {
+    String accept = ctx.header(HttpHeader.ACCEPT.asString());
+    Format format = accept != null && accept.contains(NDJSON) ? Format.Ndjson : Format.JsonArray;
+    ctx.contentType(format.contentType);
+    ctx.result(new StreamingJsonBody(elements, writer, format, onClose));
+  }
+
+  @Override
+  public int read() throws IOException {
+    return fill() ? buffer.bytes()[position++] & 0xff : -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int copied = 0;
+    while (copied < len && fill()) {
+      int count = Math.min(len - copied, buffer.size() - position);
+      System.arraycopy(buffer.bytes(), position, b, off + copied, count);
+      position += count;
+      copied += count;
+    }
+    return copied == 0 && len > 0 ? -1 : copied;
+  }
+
+  @Override
+  public void close() {
+    onClose.run();
+  }
+
+  /**
+   * Ensures that the buffer holds unread bytes, by serializing the next element if necessary
+   *
+   * @return false if the stream is exhausted
+   */
+  private boolean fill() throws IOException {
+    if (position < buffer.size()) return true;
+    if (finished) return false;
+    buffer.reset();
+    position = 0;
+    if (!started) {
+      buffer.write(format.prefix);
+      started = true;
+    } else if (elements.hasNext()) {
+      if (wroteElement) buffer.write(format.separator);
+      writer.writeValue(buffer, elements.next());
+      buffer.write(format.terminator);
+      wroteElement = true;
+    } else {
+      buffer.write(format.suffix);
+      finished = true;
+    }
+    return buffer.size() > 0 || fill();
+  }
+
+  private enum Format {
+    JsonArray(ContentType.JSON, "[", ",", "", "]"),
+    Ndjson(NDJSON, "", "", "\n", "");
+
+    final String contentType;
+    final byte[] prefix;
+    final byte[] separator;
+    final byte[] terminator;
+    final byte[] suffix;
+
+    Format(String contentType, String prefix, String separator, String terminator, String suffix) {
+      this.contentType = contentType;
+      this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+      this.separator = separator.getBytes(StandardCharsets.UTF_8);
+      this.terminator = terminator.getBytes(StandardCharsets.UTF_8);
+      this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  private static class Buffer extends ByteArrayOutputStream {
+    byte[] bytes() {
+      return buf;
+    }
+  }
+}
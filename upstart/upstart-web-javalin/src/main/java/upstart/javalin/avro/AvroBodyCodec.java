@@ -0,0 +1,203 @@
+package upstart.javalin.avro;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.upstartproject.avro.PackedRecord;
+import io.upstartproject.avrocodec.AvroDecoder;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.SchemaFingerprint;
+import io.upstartproject.avrocodec.SpecificRecordPacker;
+import io.upstartproject.avrocodec.SpecificRecordType;
+import io.upstartproject.avrocodec.SpecificRecordUnpacker;
+import io.upstartproject.avrocodec.UnpackableRecord;
+import io.upstartproject.avrocodec.upstart.AvroPublicationModule;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.config.UpstartModule;
+import upstart.javalin.JavalinWebModule;
+import upstart.javalin.annotations.BodyCodec;
+import upstart.javalin.annotations.Http;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.exceptions.Exceptions;
+import upstart.util.reflect.Reflect;
+
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link BodyCodec} which exchanges code-generated avro records ({@link SpecificRecordBase}) with {@link Http}
+ * endpoints in avro's binary encoding, avoiding the cost of json for service-to-service calls between applications
+ * which share a {@link io.upstartproject.avrocodec.SchemaRegistry}.
+ * <p/>
+ * Bodies with content-type {@value #CONTENT_TYPE} carry the binary-encoded record alone, with the
+ * {@link io.upstartproject.avrocodec.SchemaFingerprint} of its writer-schema in the {@value #FINGERPRINT_HEADER}
+ * header. Request-bodies are resolved through the {@link AvroDecoder} (and so may be written with any compatible
+ * version of the parameter's schema) without blocking the server thread; results are packed by the
+ * {@link AvroPublisher}, whose schemas are registered when their endpoints are. A result whose schema isn't registered
+ * yet (or failed to register, in which case it's retried) is rendered as json if the client accepts it, or else
+ * rejected with 503. A request-body whose fingerprint remains unrecognized after refreshing the registry is rejected
+ * with 400. Clients which don't send or accept {@value #CONTENT_TYPE} continue to exchange json.
+ * <p/>
+ * Install via {@link Module}, with the binding-annotation of the {@link io.upstartproject.avrocodec.SchemaRegistry}
+ * to use.
+ */
+public class AvroBodyCodec implements BodyCodec {
+  public static final String CONTENT_TYPE = "application/avro";
+  public static final String FINGERPRINT_HEADER = "Avro-Schema-Fingerprint";
+  private static final Logger LOG = LoggerFactory.getLogger(AvroBodyCodec.class);
+  private static final Duration SCHEMA_RESOLUTION_TIMEOUT = Duration.ofSeconds(10);
+
+  private final AvroPublisher publisher;
+  private final AvroDecoder decoder;
+  private final LoadingCache<Class<? extends SpecificRecordBase>, CompletableFuture<SpecificRecordPacker<?>>> packers =
+          CacheBuilder.newBuilder().build(CacheLoader.from(this::registerPacker));
+  private final LoadingCache<Class<? extends SpecificRecordBase>, SpecificRecordUnpacker<?>> unpackers =
+          CacheBuilder.newBuilder().build(CacheLoader.from(recordClass -> new SpecificRecordUnpacker<>(recordClass)));
+
+  public AvroBodyCodec(AvroPublisher publisher, AvroDecoder decoder) {
+    this.publisher = publisher;
+    this.decoder = decoder;
+  }
+
+  @Override
+  public String contentType() {
+    return CONTENT_TYPE;
+  }
+
+  @Override
+  public boolean supports(Class<?> type) {
+    return SpecificRecordBase.class.isAssignableFrom(type);
+  }
+
+  @Override
+  public CompletableFuture<?> decode(Context ctx, Class<?> type) {
+    String fingerprintHeader = ctx.header(FINGERPRINT_HEADER);
+    SchemaFingerprint fingerprint = SchemaFingerprint.of(parseFingerprint(fingerprintHeader));
+    CompletableFuture<UnpackableRecord> unpackable =
+            decoder.toUnpackable(fingerprint.value(), ByteBuffer.wrap(ctx.bodyAsBytes()));
+    // schemas are usually already known. The decoder awaits the arrival of an unknown schema indefinitely, so we
+    // refresh the SchemaRegistry ourselves, and reject the request if the fingerprint is still unrecognized
+    CompletableFuture<UnpackableRecord> resolved = unpackable.isDone()
+            ? unpackable
+            : publisher.findPreRegisteredPacker(fingerprint).thenCompose(ignored -> unpackable);
+    return resolved.copy()
+            .orTimeout(SCHEMA_RESOLUTION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+            .handle((record, e) -> {
+              if (e != null) {
+                Throwable cause = CompletableFutures.unwrapExecutionException(e);
+                if (cause instanceof IllegalStateException) {
+                  throw new BadRequestResponse("Unrecognized " + FINGERPRINT_HEADER + ": " + fingerprintHeader);
+                }
+                if (cause instanceof TimeoutException) {
+                  throw new ServiceUnavailableResponse("Timed out resolving " + FINGERPRINT_HEADER + ": " + fingerprintHeader);
+                }
+                throw Exceptions.throwUnchecked(cause);
+              }
+              try {
+                return record.unpackWith(unpacker(type));
+              } catch (AvroRuntimeException | UncheckedIOException | IndexOutOfBoundsException ex) {
+                throw new BadRequestResponse("Malformed avro body: " + ex.getMessage());
+              }
+            });
+  }
+
+  @Override
+  public boolean encode(Context ctx, Object result) {
+    CompletableFuture<SpecificRecordPacker<?>> packerFuture = packer(result.getClass());
+    if (!CompletableFutures.isCompletedNormally(packerFuture)) return false;
+    SpecificRecordPacker<SpecificRecordBase> packer = Reflect.blindCast(packerFuture.join());
+    PackedRecord packed = packer.pack((SpecificRecordBase) result);
+    ctx.header(FINGERPRINT_HEADER, packer.fingerprint().hexValue());
+    ctx.contentType(CONTENT_TYPE);
+    ctx.result(toBytes(packed.getData()));
+    return true;
+  }
+
+  @Override
+  public void prepareEncoder(Class<?> type) {
+    packer(type);
+  }
+
+  private CompletableFuture<SpecificRecordPacker<?>> packer(Class<?> type) {
+    Class<? extends SpecificRecordBase> recordClass = Reflect.blindCast(type);
+    CompletableFuture<SpecificRecordPacker<?>> packer = packers.getUnchecked(recordClass);
+    if (packer.isCompletedExceptionally()) {
+      // discard the failed registration, to retry it
+      packers.asMap().remove(recordClass, packer);
+      packer = packers.getUnchecked(recordClass);
+    }
+    return packer;
+  }
+
+  private CompletableFuture<SpecificRecordPacker<?>> registerPacker(Class<? extends SpecificRecordBase> recordClass) {
+    SpecificRecordType<? extends SpecificRecordBase> recordType = SpecificRecordType.of(recordClass);
+    CompletableFuture<SpecificRecordPacker<?>> packer = publisher.getOrRegisterPacker(recordType.schema())
+            .thenApply(recordPacker -> recordPacker.specificPacker(recordType));
+    packer.whenComplete((ignored, e) -> {
+      if (e != null) LOG.warn("Failed to register avro schema for {}; encoding as json", recordClass.getName(), e);
+    });
+    return packer;
+  }
+
+  private SpecificRecordUnpacker<?> unpacker(Class<?> type) {
+    return unpackers.getUnchecked(Reflect.blindCast(type));
+  }
+
+  private static long parseFingerprint(String header) {
+    if (header == null) throw new BadRequestResponse("Missing " + FINGERPRINT_HEADER + " header");
+    String hex = header.startsWith("0x") ? header.substring(2) : header;
+    try {
+      return Long.parseUnsignedLong(hex, 16);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Invalid " + FINGERPRINT_HEADER + ": " + header);
+    }
+  }
+
+  // packed data usually wraps an exactly-sized array, which we can send without copying
+  private static byte[] toBytes(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+            && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Registers an {@link AvroBodyCodec} for the {@link AvroPublisher} and {@link AvroDecoder} bound with the given
+   * annotation (installing an {@link AvroPublicationModule} for it).
+   */
+  public static class Module extends UpstartModule implements JavalinWebModule {
+    private final Annotation annotation;
+
+    public Module(Annotation annotation) {
+      super(annotation);
+      this.annotation = annotation;
+    }
+
+    @Override
+    protected void configure() {
+      install(new AvroPublicationModule(annotation));
+      Provider<AvroPublisher> publisher = getProvider(Key.get(AvroPublisher.class, annotation));
+      Provider<AvroDecoder> decoder = getProvider(Key.get(AvroDecoder.class, annotation));
+      addBodyCodecBinding()
+              .toProvider(() -> new AvroBodyCodec(publisher.get(), decoder.get()))
+              .in(Scopes.SINGLETON);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package upstart.javalin;
+
+import io.restassured.response.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.EnvironmentConfig;
+import upstart.config.UpstartModule;
+import upstart.javalin.annotations.Http;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest
+@EnvironmentConfig.Fixture("""
+        upstart.web.server.admissionControl {
+          enabled: true
+          maxInFlight: 1
+          queueDeadline: 10s
+          rejectionStatus: 429
+          retryAfter: 2s
+          priorityRoutes: [/ping]
+          routeClasses.other {
+            routes: [/other]
+            maxInFlight: 5
+          }
+        }
+        """)
+class AdmissionControllerTest extends UpstartModule implements JavalinWebModule {
+  @Inject WebFixture web;
+  @Inject Endpoints endpoints;
+  @Inject TaggedMetricRegistry metricRegistry;
+
+  @Override
+  protected void configure() {
+    serveHttp(Endpoints.class);
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @AfterEach
+  void unblock() {
+    endpoints.release.countDown();
+  }
+
+  @Test
+  void saturatedRouteClassesAreShed() throws Exception {
+    CompletableFuture<Response> blocked = CompletableFuture.supplyAsync(() -> web.request().get("/block"));
+    assertThat(endpoints.entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // saturated route-classes reject requests immediately, rather than holding a server thread until the deadline
+    long startNanos = System.nanoTime();
+    Response rejected = web.request().get("/block");
+    assertThat(Duration.ofNanos(System.nanoTime() - startNanos)).isLessThan(Duration.ofSeconds(5));
+    assertThat(rejected.statusCode()).isEqualTo(429);
+    assertThat(rejected.header("Retry-After")).isEqualTo("2");
+    assertThat(metricRegistry.meter("http.admission.shed", Map.of("routeClass", "default")).getCount()).isEqualTo(1);
+
+    // priority routes and other route-classes are unaffected
+    assertThat(web.request().get("/ping").statusCode()).isEqualTo(200);
+    assertThat(web.request().get("/other").statusCode()).isEqualTo(200);
+
+    endpoints.release.countDown();
+    assertThat(blocked.get(5, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+
+    // the permit is released once the response completes
+    assertThat(web.request().get("/block").statusCode()).isEqualTo(200);
+    assertThat(metricRegistry.timer("http.admission.queueTime", Map.of("routeClass", "default")).getCount())
+            .isEqualTo(2);
+  }
+
+  @Singleton
+  public static class Endpoints {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Http(method = Http.Method.GET, path = "/block")
+    public CompletableFuture<String> block() {
+      entered.countDown();
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "done";
+      });
+    }
+
+    @Http(method = Http.Method.GET, path = "/ping")
+    public String ping() {
+      return "pong";
+    }
+
+    @Http(method = Http.Method.GET, path = "/other")
+    public String other() {
+      return "other";
+    }
+  }
+}
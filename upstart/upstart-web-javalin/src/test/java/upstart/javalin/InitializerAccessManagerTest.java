@@ -0,0 +1,58 @@
+package upstart.javalin;
+
+import io.javalin.http.UnauthorizedResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.javalin.annotations.Http;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest
+class InitializerAccessManagerTest extends UpstartModule implements JavalinWebModule {
+  private static final AtomicInteger INTERCEPTED = new AtomicInteger();
+
+  @Inject WebFixture web;
+
+  @Override
+  protected void configure() {
+    serveHttp(Endpoints.class);
+    addJavalinWebBinding().toInstance(config -> config.accessManager((handler, ctx, roles) -> {
+      if (ctx.header("Authorization") == null) throw new UnauthorizedResponse();
+      handler.handle(ctx);
+    }));
+    addEndpointInterceptorBinding().toInstance((handler, ctx, roles, next) -> {
+      INTERCEPTED.incrementAndGet();
+      next.manage(handler, ctx, roles);
+    });
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @Test
+  void initializerAccessManagerStillAuthenticatesRequests() {
+    int interceptedBefore = INTERCEPTED.get();
+
+    web.request().get("/ping").then().statusCode(401);
+    web.request().header("Authorization", "Bearer token").get("/ping").then().statusCode(200);
+
+    // interceptors are chained ahead of the initializer's AccessManager
+    assertThat(INTERCEPTED.get() - interceptedBefore).isEqualTo(2);
+  }
+
+  public static class Endpoints {
+    @Http(method = Http.Method.GET, path = "/ping")
+    public String ping() {
+      return "pong";
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package upstart.javalin;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.EnvironmentConfig;
+import upstart.config.UpstartModule;
+import upstart.javalin.annotations.Http;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest
+@EnvironmentConfig.Fixture("""
+        upstart.web.server.jetty {
+          minThreads: 4
+          maxThreads: 16
+          acceptors: 1
+          selectors: 1
+          http2Cleartext: true
+        }
+        """)
+class JettyServerConfigTest extends UpstartModule implements JavalinWebModule {
+  @Inject WebFixture web;
+
+  @Override
+  protected void configure() {
+    serveHttp(Endpoints.class);
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @Test
+  void servesHttp1() {
+    assertThat(web.request().get("/hello").body().asString()).isEqualTo("hello");
+  }
+
+  @Test
+  void servesCleartextHttp2() throws Exception {
+    HttpResponse<String> response = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .build()
+            .send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + web.getPort() + "/hello")).build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+
+    assertThat(response.version()).isEqualTo(HttpClient.Version.HTTP_2);
+    assertThat(response.body()).isEqualTo("hello");
+  }
+
+  public static class Endpoints {
+    @Http(method = Http.Method.GET, path = "/hello")
+    public String hello() {
+      return "hello";
+    }
+  }
+}
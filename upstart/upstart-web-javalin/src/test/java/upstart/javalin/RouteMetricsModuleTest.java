@@ -0,0 +1,135 @@
+package upstart.javalin;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.javalin.annotations.Http;
+import upstart.javalin.annotations.PathParam;
+import upstart.metrics.TaggedMetricRegistry;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@UpstartLibraryServiceTest
+class RouteMetricsModuleTest extends UpstartModule implements JavalinWebModule {
+  private static final Duration ASYNC_DELAY = Duration.ofMillis(200);
+
+  @Inject WebFixture web;
+  @Inject TaggedMetricRegistry metricRegistry;
+
+  @Override
+  protected void configure() {
+    install(new RouteMetricsModule());
+    serveHttp(Endpoints.class);
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @Test
+  void metricsAreTaggedWithPathTemplate() {
+    web.request().get("/items/{id}", "a").then().statusCode(200);
+    web.request().get("/items/{id}", "b").then().statusCode(200);
+
+    assertThat(latency("GET", "/items/{id}").getCount()).isEqualTo(2);
+    assertThat(metricRegistry.counter("http.route.inFlight", tags("GET", "/items/{id}")).getCount()).isEqualTo(0);
+    Histogram responseBytes = metricRegistry.histogram("http.route.responseBytes", tags("GET", "/items/{id}"));
+    awaitCount(responseBytes, 2);
+    assertThat(responseBytes.getSnapshot().getMax()).isEqualTo("item a".length());
+  }
+
+  @Test
+  void requestBytesAreRecorded() {
+    web.request().body("twelve bytes").post("/items").then().statusCode(200);
+
+    Histogram requestBytes = metricRegistry.histogram("http.route.requestBytes", tags("POST", "/items"));
+    awaitCount(requestBytes, 1);
+    assertThat(requestBytes.getSnapshot().getMax()).isEqualTo(12);
+  }
+
+  @Test
+  void chunkedRequestBytesAreRecorded() throws Exception {
+    // a stream of unknown length is sent with chunked transfer-encoding, without a Content-Length
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + web.getPort() + "/items"))
+            .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream("twelve bytes".getBytes(StandardCharsets.UTF_8))))
+            .build();
+    HttpResponse<Void> response = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build()
+            .send(request, HttpResponse.BodyHandlers.discarding());
+    assertThat(response.statusCode()).isEqualTo(200);
+
+    Histogram requestBytes = metricRegistry.histogram("http.route.requestBytes", tags("POST", "/items"));
+    awaitCount(requestBytes, 1);
+    assertThat(requestBytes.getSnapshot().getMax()).isEqualTo(12);
+  }
+
+  @Test
+  void asyncResponseBytesAreRecorded() {
+    web.request().get("/slow").then().statusCode(200);
+
+    Histogram responseBytes = metricRegistry.histogram("http.route.responseBytes", tags("GET", "/slow"));
+    awaitCount(responseBytes, 1);
+    assertThat(responseBytes.getSnapshot().getMax()).isEqualTo("done".length());
+  }
+
+  @Test
+  void asyncLatencyIncludesCompletion() {
+    web.request().get("/slow").then().statusCode(200);
+
+    Timer timer = latency("GET", "/slow");
+    assertThat(timer.getCount()).isEqualTo(1);
+    assertThat(timer.getSnapshot().getMax()).isAtLeast(ASYNC_DELAY.toNanos());
+  }
+
+  // body-sizes are recorded when jetty completes the exchange, which may be after the client has read the response
+  private static void awaitCount(Histogram histogram, long count) {
+    await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> assertThat(histogram.getCount()).isEqualTo(count));
+  }
+
+  private Timer latency(String method, String route) {
+    return metricRegistry.timer("http.route.latency", tags(method, route));
+  }
+
+  private static Map<String, String> tags(String method, String route) {
+    return Map.of("method", method, "route", route);
+  }
+
+  public static class Endpoints {
+    @Http(method = Http.Method.GET, path = "/items/{id}")
+    public String item(@PathParam String id) {
+      return "item " + id;
+    }
+
+    @Http(method = Http.Method.POST, path = "/items")
+    public void addItem(String item) {
+    }
+
+    @Http(method = Http.Method.GET, path = "/slow")
+    public CompletableFuture<String> slow() {
+      return CompletableFuture.supplyAsync(
+              () -> "done",
+              CompletableFuture.delayedExecutor(ASYNC_DELAY.toMillis(), TimeUnit.MILLISECONDS)
+      );
+    }
+  }
+}
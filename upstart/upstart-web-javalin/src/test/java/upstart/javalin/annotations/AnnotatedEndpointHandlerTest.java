@@ -0,0 +1,151 @@
+package upstart.javalin.annotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpCode;
+import io.javalin.http.NotFoundResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.javalin.JavalinWebModule;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest
+class AnnotatedEndpointHandlerTest extends UpstartModule implements JavalinWebModule {
+  @Inject WebFixture web;
+  @Inject Endpoints endpoints;
+
+  @Override
+  protected void configure() {
+    serveHttp(Endpoints.class);
+    addBodyCodecBinding().toInstance(new UnpreparedCodec());
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @Test
+  void synchronousResultsAreRendered() {
+    assertThat(web.request().get("/greetings/{name}", "ada").body().asString())
+            .isEqualTo("{\"message\":\"hello, ada\"}");
+    assertThat(web.request().get("/text").body().asString()).isEqualTo("plain text");
+    assertThat(web.request().get("/sum?a=2&b=3").body().asString()).isEqualTo("5");
+  }
+
+  @Test
+  void voidEndpointsUseSuccessCode() {
+    var response = web.request().body("pumpkin").post("/items");
+
+    assertThat(response.statusCode()).isEqualTo(201);
+    assertThat(endpoints.items).containsExactly("pumpkin");
+  }
+
+  @Test
+  void asyncResultsAreRendered() {
+    assertThat(web.request().get("/async/{name}", "grace").body().asString())
+            .isEqualTo("{\"message\":\"hello later, grace\"}");
+  }
+
+  @Test
+  void missingParametersAreRejected() {
+    assertThat(web.request().get("/sum?a=2").statusCode()).isEqualTo(400);
+  }
+
+  @Test
+  void exceptionsPropagateUnwrapped() {
+    assertThat(web.request().get("/missing").statusCode()).isEqualTo(404);
+  }
+
+  @Test
+  void unencodableResultsFallBackToJsonOnlyIfAccepted() {
+    var unavailable = web.request().accept(UnpreparedCodec.CONTENT_TYPE).get("/unprepared");
+    assertThat(unavailable.statusCode()).isEqualTo(503);
+
+    var fallback = web.request().accept(UnpreparedCodec.CONTENT_TYPE + ", application/json;q=0.5").get("/unprepared");
+    assertThat(fallback.statusCode()).isEqualTo(200);
+    assertThat(fallback.body().asString()).isEqualTo("{\"value\":\"json\"}");
+  }
+
+  public record Greeting(String message) {
+  }
+
+  public record Unprepared(String value) {
+  }
+
+  // a codec whose encoder never becomes ready
+  static class UnpreparedCodec implements BodyCodec {
+    static final String CONTENT_TYPE = "application/x-unprepared";
+
+    @Override
+    public String contentType() {
+      return CONTENT_TYPE;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+      return type == Unprepared.class;
+    }
+
+    @Override
+    public CompletionStage<?> decode(Context ctx, Class<?> type) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean encode(Context ctx, Object result) {
+      return false;
+    }
+  }
+
+  @Singleton
+  public static class Endpoints {
+    final List<String> items = new ArrayList<>();
+
+    @Http(method = Http.Method.GET, path = "/greetings/{name}")
+    public Greeting greet(@PathParam String name) {
+      return new Greeting("hello, " + name);
+    }
+
+    @Http(method = Http.Method.GET, path = "/text")
+    public String text() {
+      return "plain text";
+    }
+
+    @Http(method = Http.Method.GET, path = "/sum")
+    public int sum(@QueryParam int a, @QueryParam int b) {
+      return a + b;
+    }
+
+    @Http(method = Http.Method.POST, path = "/items", successCode = HttpCode.CREATED)
+    public void addItem(String item) {
+      items.add(item);
+    }
+
+    @Http(method = Http.Method.GET, path = "/async/{name}")
+    public CompletableFuture<Greeting> greetLater(@PathParam String name) {
+      return CompletableFuture.supplyAsync(() -> new Greeting("hello later, " + name));
+    }
+
+    @Http(method = Http.Method.GET, path = "/unprepared")
+    public Unprepared unprepared() {
+      return new Unprepared("json");
+    }
+
+    @Http(method = Http.Method.GET, path = "/missing")
+    public String missing() {
+      throw new NotFoundResponse("nothing here");
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package upstart.javalin.annotations;
+
+import io.restassured.response.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.javalin.JavalinWebModule;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@UpstartLibraryServiceTest
+class StreamingResponseTest extends UpstartModule implements JavalinWebModule {
+  @Inject WebFixture web;
+  @Inject Endpoints endpoints;
+
+  @Override
+  protected void configure() {
+    serveHttp(Endpoints.class);
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @Test
+  void streamsAreRenderedAsJsonArrays() {
+    Response response = web.request().get("/stream");
+
+    assertThat(response.contentType()).startsWith("application/json");
+    assertThat(response.body().asString()).isEqualTo("[{\"value\":1},{\"value\":2},{\"value\":3}]");
+    assertThat(web.request().get("/empty").body().asString()).isEqualTo("[]");
+  }
+
+  @Test
+  void ndjsonIsNegotiated() {
+    Response response = web.request().accept("application/x-ndjson").get("/stream");
+
+    assertThat(response.contentType()).startsWith("application/x-ndjson");
+    assertThat(response.body().asString()).isEqualTo("{\"value\":1}\n{\"value\":2}\n{\"value\":3}\n");
+  }
+
+  @Test
+  void publishersAreStreamed() {
+    String expected = IntStream.range(0, 500)
+            .mapToObj(i -> "{\"value\":" + i + "}\n")
+            .collect(Collectors.joining());
+
+    assertThat(web.request().accept("application/x-ndjson").get("/published").body().asString()).isEqualTo(expected);
+  }
+
+  @Test
+  void largeResponsesAreCompressed() {
+    Response response = web.request().header("Accept-Encoding", "gzip").get("/published");
+
+    assertThat(response.header("Content-Encoding")).isEqualTo("gzip");
+    assertThat(response.body().asString()).startsWith("[{\"value\":0},");
+  }
+
+  @Test
+  void matchingETagsSkipRendering() {
+    Response response = web.request().get("/tagged");
+    assertThat(response.header("ETag")).isEqualTo("\"v1\"");
+    assertThat(response.body().asString()).isEqualTo("{\"value\":42}");
+    assertThat(endpoints.renderCount.get()).isEqualTo(1);
+
+    Response notModified = web.request().header("If-None-Match", "\"v0\", W/\"v1\"").get("/tagged");
+    assertThat(notModified.statusCode()).isEqualTo(304);
+    assertThat(notModified.header("ETag")).isEqualTo("\"v1\"");
+    assertThat(notModified.body().asString()).isEmpty();
+    assertThat(endpoints.renderCount.get()).isEqualTo(1);
+
+    assertThat(web.request().header("If-None-Match", "\"v1\"").get("/tagged-later").statusCode()).isEqualTo(304);
+    assertThat(web.request().header("If-None-Match", "\"v0\"").get("/tagged-later").body().asString())
+            .isEqualTo("{\"value\":7}");
+  }
+
+  public record Item(int value) {
+  }
+
+  @Singleton
+  public static class Endpoints {
+    final AtomicInteger renderCount = new AtomicInteger();
+
+    @Http(method = Http.Method.GET, path = "/stream")
+    public Stream<Item> stream() {
+      return Stream.of(new Item(1), new Item(2), new Item(3));
+    }
+
+    @Http(method = Http.Method.GET, path = "/empty")
+    public Iterator<Item> empty() {
+      return Collections.emptyIterator();
+    }
+
+    @Http(method = Http.Method.GET, path = "/published")
+    public Flow.Publisher<Item> published() {
+      return subscriber -> {
+        SubmissionPublisher<Item> publisher = new SubmissionPublisher<>();
+        publisher.subscribe(subscriber);
+        CompletableFuture.runAsync(() -> {
+          for (int i = 0; i < 500; i++) {
+            publisher.submit(new Item(i));
+          }
+          publisher.close();
+        });
+      };
+    }
+
+    @Http(method = Http.Method.GET, path = "/tagged")
+    public ETagged<Item> tagged() {
+      return ETagged.lazy("v1", () -> new Item(renderCount.incrementAndGet() * 42));
+    }
+
+    @Http(method = Http.Method.GET, path = "/tagged-later")
+    public CompletableFuture<ETagged<Item>> taggedLater() {
+      return CompletableFuture.supplyAsync(() -> ETagged.of("v1", new Item(7)));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package upstart.javalin.avro;
+
+import io.restassured.response.Response;
+import io.upstartproject.avro.event.UpstartContextAnnotation;
+import io.upstartproject.avrocodec.AvroDecoder;
+import io.upstartproject.avrocodec.AvroPublisher;
+import io.upstartproject.avrocodec.MemorySchemaRegistry;
+import io.upstartproject.avrocodec.SchemaRegistry;
+import io.upstartproject.avrocodec.SpecificRecordPacker;
+import io.upstartproject.avrocodec.SpecificRecordUnpacker;
+import io.upstartproject.avrocodec.upstart.DataStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import upstart.config.UpstartModule;
+import upstart.javalin.JavalinWebModule;
+import upstart.javalin.annotations.Http;
+import upstart.test.UpstartLibraryServiceTest;
+import upstart.test.UpstartTestBuilder;
+import upstart.web.test.WebFixture;
+
+import javax.inject.Inject;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@UpstartLibraryServiceTest
+class AvroBodyCodecTest extends UpstartModule implements JavalinWebModule {
+  private static final DataStore DATA_STORE = DataStore.Factory.dataStore("web");
+  private static final UpstartContextAnnotation ANNOTATION = UpstartContextAnnotation.newBuilder()
+          .setEnvironment("test")
+          .setApplication("app")
+          .setDeploymentStage("dev")
+          .setOwner("me")
+          .build();
+
+  @Inject WebFixture web;
+  @Inject @DataStore("web") AvroPublisher publisher;
+  @Inject @DataStore("web") AvroDecoder decoder;
+
+  @Override
+  protected void configure() {
+    install(new AvroBodyCodec.Module(DATA_STORE));
+    bind(SchemaRegistry.class).annotatedWith(DATA_STORE).to(MemorySchemaRegistry.class);
+    serveHttp(Endpoints.class);
+  }
+
+  @BeforeEach
+  void setupPort(UpstartTestBuilder builder) {
+    WebFixture.configureRandomPort(builder);
+  }
+
+  @Test
+  void exchangesBinaryAvro() {
+    publisher.ensureRegistered(UpstartContextAnnotation.class).join();
+    SpecificRecordPacker<UpstartContextAnnotation> packer = publisher.getPreRegisteredPacker(UpstartContextAnnotation.class);
+    ByteBuffer requestData = packer.pack(ANNOTATION).getData();
+    byte[] requestBody = new byte[requestData.remaining()];
+    requestData.get(requestBody);
+
+    Response response = web.request()
+            .contentType(AvroBodyCodec.CONTENT_TYPE)
+            .accept(AvroBodyCodec.CONTENT_TYPE)
+            .header(AvroBodyCodec.FINGERPRINT_HEADER, packer.fingerprint().hexValue())
+            .body(requestBody)
+            .post("/annotation");
+
+    assertThat(response.statusCode()).isEqualTo(200);
+    assertThat(response.contentType()).isEqualTo(AvroBodyCodec.CONTENT_TYPE);
+    assertThat(response.header(AvroBodyCodec.FINGERPRINT_HEADER)).isEqualTo(packer.fingerprint().hexValue());
+
+    UpstartContextAnnotation echoed = decoder.toUnpackable(
+            packer.fingerprint().value(),
+            ByteBuffer.wrap(response.body().asByteArray())
+    ).join().unpackWith(new SpecificRecordUnpacker<>(UpstartContextAnnotation.class));
+
+    assertThat(echoed.getOwner()).isEqualTo("you");
+    assertThat(echoed.getApplication()).isEqualTo("app");
+  }
+
+  @Test
+  void missingFingerprintIsRejected() {
+    Response response = web.request()
+            .contentType(AvroBodyCodec.CONTENT_TYPE)
+            .body(new byte[]{1, 2, 3})
+            .post("/annotation");
+
+    assertThat(response.statusCode()).isEqualTo(400);
+  }
+
+  @Test
+  void unrecognizedFingerprintsAreRejectedAfterRefreshing() {
+    long startNanos = System.nanoTime();
+    Response response = web.request()
+            .contentType(AvroBodyCodec.CONTENT_TYPE)
+            .header(AvroBodyCodec.FINGERPRINT_HEADER, "0x0123456789abcdef")
+            .body(new byte[]{1, 2, 3})
+            .post("/annotation");
+
+    assertThat(response.statusCode()).isEqualTo(400);
+    // without awaiting the schema-resolution timeout
+    assertThat(Duration.ofNanos(System.nanoTime() - startNanos)).isLessThan(Duration.ofSeconds(5));
+  }
+
+  @Test
+  void otherTypesRemainJson() {
+    Response response = web.request().accept(AvroBodyCodec.CONTENT_TYPE).get("/plain");
+
+    assertThat(response.contentType()).startsWith("application/json");
+    assertThat(response.body().asString()).isEqualTo("{\"value\":\"plain\"}");
+  }
+
+  @Test
+  void failedSchemaRegistrationIsRetried() {
+    AvroPublisher failingPublisher = mock(AvroPublisher.class);
+    when(failingPublisher.getOrRegisterPacker(any()))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("registry unavailable")))
+            .thenReturn(new CompletableFuture<>());
+    AvroBodyCodec codec = new AvroBodyCodec(failingPublisher, decoder);
+
+    codec.prepareEncoder(UpstartContextAnnotation.class);
+    codec.prepareEncoder(UpstartContextAnnotation.class);
+    // the retried registration is still pending, so isn't repeated
+    codec.prepareEncoder(UpstartContextAnnotation.class);
+
+    verify(failingPublisher, times(2)).getOrRegisterPacker(UpstartContextAnnotation.getClassSchema());
+  }
+
+  public record Plain(String value) {
+  }
+
+  public static class Endpoints {
+    @Http(method = Http.Method.POST, path = "/annotation")
+    public UpstartContextAnnotation echo(UpstartContextAnnotation annotation) {
+      return UpstartContextAnnotation.newBuilder(annotation).setOwner("you").build();
+    }
+
+    @Http(method = Http.Method.GET, path = "/plain")
+    public Plain plain() {
+      return new Plain("plain");
+    }
+  }
+}
@@ -1,12 +1,18 @@
 package upstart.web;
 
+import org.immutables.value.Value;
 import upstart.config.annotations.ConfigPath;
+import upstart.config.annotations.DeserializedImmutable;
 import upstart.util.collect.PairStream;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 @ConfigPath("upstart.web.server")
 public interface WebServerConfig {
   String host();
@@ -22,4 +28,127 @@ public interface WebServerConfig {
   default String[] corsAllowedOriginsArray() {
     return corsAllowedOrigins().toArray(String[]::new);
   }
+
+  JettyConfig jetty();
+
+  CompressionConfig compression();
+
+  AdmissionControlConfig admissionControl();
+
+  /**
+   * Compression of response bodies of at least {@link #minSize} bytes, negotiated via the {@code Accept-Encoding}
+   * header. Brotli additionally requires the jvm-brotli library on the classpath; without it, only gzip is offered.
+   */
+  @DeserializedImmutable
+  interface CompressionConfig {
+    boolean gzip();
+
+    int gzipLevel();
+
+    boolean brotli();
+
+    int brotliLevel();
+
+    int minSize();
+  }
+
+  /**
+   * Tuning for the embedded Jetty server. The thread-pool settings are ignored if {@link #virtualThreads} is enabled
+   * (and supported by the JVM).
+   */
+  @DeserializedImmutable
+  interface JettyConfig {
+    int minThreads();
+
+    int maxThreads();
+
+    /** How long threads beyond {@link #minThreads} may remain idle before being stopped */
+    Duration threadIdleTimeout();
+
+    /** Number of acceptor threads, or -1 for Jetty's default (based on the number of cores) */
+    int acceptors();
+
+    /** Number of selector threads, or -1 for Jetty's default (based on the number of cores) */
+    int selectors();
+
+    /** How long a connection may remain idle before it is closed */
+    Duration idleTimeout();
+
+    int requestHeaderSize();
+
+    int responseHeaderSize();
+
+    /** Whether to accept cleartext HTTP/2 ({@code h2c}) connections, alongside HTTP/1.1 */
+    boolean http2Cleartext();
+
+    /**
+     * Whether to run the server's threads (including those invoking request-handlers) as virtual threads, so that
+     * blocking handlers don't occupy platform threads. Requires a JVM with virtual-thread support; on other JVMs, a
+     * warning is logged and the bounded thread-pool is used instead.
+     */
+    boolean virtualThreads();
+
+    @Value.Check
+    default void checkValid() {
+      checkArgument(minThreads() > 0 && maxThreads() >= minThreads(),
+                    "Invalid thread-pool bounds: minThreads=%s, maxThreads=%s", minThreads(), maxThreads());
+      checkArgument(requestHeaderSize() > 0, "requestHeaderSize must be positive: %s", requestHeaderSize());
+      checkArgument(responseHeaderSize() > 0, "responseHeaderSize must be positive: %s", responseHeaderSize());
+    }
+  }
+
+  /**
+   * Limits the number of requests handled concurrently, to shed excess load quickly rather than queueing requests
+   * until every response is too late to be useful.
+   * <p/>
+   * Each route belongs to a route-class (listed in {@link #routeClasses}, or else the default class, limited by
+   * {@link #maxInFlight}). A request which arrives while its route-class is saturated, or which was queued by the
+   * server for longer than {@link #queueDeadline} before it was dispatched, is rejected immediately (without waiting
+   * on a server thread) with {@link #rejectionStatus} and a {@code Retry-After} header. Requests for {@link #priorityRoutes} (and admin routes, if
+   * {@link #exemptAdminRoutes} is set) bypass admission control entirely.
+   */
+  @DeserializedImmutable
+  interface AdmissionControlConfig {
+    boolean enabled();
+
+    /** Maximum concurrent requests for routes in the default route-class */
+    int maxInFlight();
+
+    Duration queueDeadline();
+
+    /** Either 503 (Service Unavailable) or 429 (Too Many Requests) */
+    int rejectionStatus();
+
+    Duration retryAfter();
+
+    boolean exemptAdminRoutes();
+
+    /** Route path-templates (eg, {@code /users/{id}}) which are never shed */
+    List<String> priorityRoutes();
+
+    Map<String, RouteClassConfig> routeClasses();
+
+    @Value.Check
+    default void checkValid() {
+      checkArgument(maxInFlight() > 0, "maxInFlight must be positive: %s", maxInFlight());
+      checkArgument(rejectionStatus() == 503 || rejectionStatus() == 429,
+                    "rejectionStatus must be 503 or 429: %s", rejectionStatus());
+    }
+  }
+
+  @DeserializedImmutable
+  interface RouteClassConfig {
+    /** Route path-templates belonging to this class */
+    List<String> routes();
+
+    int maxInFlight();
+
+    /** Overrides {@link AdmissionControlConfig#queueDeadline} for this class */
+    Optional<Duration> queueDeadline();
+
+    @Value.Check
+    default void checkValid() {
+      checkArgument(maxInFlight() > 0, "maxInFlight must be positive: %s", maxInFlight());
+    }
+  }
 }
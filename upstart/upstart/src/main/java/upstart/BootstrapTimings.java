@@ -0,0 +1,64 @@
+package upstart;
+
+import com.google.inject.Binder;
+import com.google.inject.multibindings.OptionalBinder;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Durations of the phases of bootstrapping an {@link UpstartService}: loading config-objects, creating the Guice
+ * {@link com.google.inject.Injector} (which includes loading config), and starting the services.
+ * <p/>
+ * Bound by {@link UpstartService.Builder#buildInjector}, logged when the {@link UpstartService} is running, and
+ * published as gauges when upstart-metrics is installed. Injectors created by other means have no timings, so
+ * consumers should inject an {@code Optional<BootstrapTimings>} (see {@link #optionalBinder}).
+ */
+public final class BootstrapTimings {
+  private volatile Duration configLoad = Duration.ZERO;
+  private volatile Duration injectorCreation = Duration.ZERO;
+  private volatile Duration serviceStartup = null;
+
+  BootstrapTimings() {
+  }
+
+  public static OptionalBinder<BootstrapTimings> optionalBinder(Binder binder) {
+    return OptionalBinder.newOptionalBinder(binder, BootstrapTimings.class);
+  }
+
+  /**
+   * @return the time spent resolving and mapping config-objects while creating the injector
+   */
+  public Duration configLoad() {
+    return configLoad;
+  }
+
+  /**
+   * @return the time spent creating the injector, including {@link #configLoad}
+   */
+  public Duration injectorCreation() {
+    return injectorCreation;
+  }
+
+  /**
+   * @return the time taken for the {@link UpstartService} to start, once it has started
+   */
+  public Optional<Duration> serviceStartup() {
+    return Optional.ofNullable(serviceStartup);
+  }
+
+  void recordInjectorCreation(Duration injectorCreation, Duration configLoad) {
+    this.injectorCreation = injectorCreation;
+    this.configLoad = configLoad;
+  }
+
+  void recordServiceStartup(Duration serviceStartup) {
+    this.serviceStartup = serviceStartup;
+  }
+
+  @Override
+  public String toString() {
+    return "config=" + configLoad.toMillis() + "ms, injector=" + injectorCreation.toMillis() + "ms, services="
+            + serviceStartup().map(d -> d.toMillis() + "ms").orElse("(not started)");
+  }
+}
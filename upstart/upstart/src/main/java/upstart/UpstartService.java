@@ -1,8 +1,11 @@
 package upstart;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Joiner;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
 import com.google.inject.AbstractModule;
 import com.google.inject.CreationException;
@@ -28,6 +31,8 @@ import upstart.config.annotations.ConfigPath;
 import upstart.log.UpstartLogConfig;
 import upstart.log.UpstartLogProvider;
 import upstart.util.concurrent.services.BaseComposableService;
+import upstart.managedservices.LifecycleProfile;
+import upstart.managedservices.LifecycleProfileConfig;
 import upstart.managedservices.ManagedServiceGraph;
 import upstart.managedservices.ManagedServicesModule;
 import upstart.managedservices.ManagedServicesModule.ServiceManager;
@@ -41,12 +46,16 @@ import upstart.util.reflect.Reflect;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.ServiceLoader;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -94,11 +103,54 @@ public final class UpstartService extends BaseComposableService<ManagedServiceGr
   UpstartService(
           @ServiceLifecycle(ServiceLifecycle.Phase.Infrastructure) ManagedServiceGraph serviceGraph,
           UpstartApplicationConfig applicationConfig,
-          Injector injector
+          Injector injector,
+          Optional<BootstrapTimings> bootstrapTimings,
+          LifecycleProfileConfig profileConfig
   ) {
     super(serviceGraph);
     this.applicationConfig = applicationConfig;
     this.injector = injector;
+    addListener(new Listener() {
+      private long startingNanos;
+
+      @Override
+      public void starting() {
+        startingNanos = System.nanoTime();
+      }
+
+      @Override
+      public void running() {
+        bootstrapTimings.ifPresent(timings -> {
+          timings.recordServiceStartup(Duration.ofNanos(System.nanoTime() - startingNanos));
+          LOG.info("Bootstrap timings: {}", timings);
+        });
+        LifecycleProfile profile = serviceGraph.lifecycleProfile();
+        LOG.info("Startup critical path:\n  {}", Joiner.on("\n  ").join(profile.startupCriticalPath()));
+        for (LifecycleProfile.Span span : profile.slowStartupDependencies(profileConfig.slowDependencyThreshold())) {
+          LOG.warn("Service spent most of its startup waiting for its dependencies: {}", span);
+        }
+        writeTrace(profile);
+      }
+
+      @Override
+      public void terminated(State from) {
+        LifecycleProfile profile = serviceGraph.lifecycleProfile();
+        LOG.info("Shutdown critical path:\n  {}", Joiner.on("\n  ").join(profile.shutdownCriticalPath()));
+        writeTrace(profile);
+      }
+
+      private void writeTrace(LifecycleProfile profile) {
+        profileConfig.traceFile().ifPresent(traceFile -> {
+          try {
+            Files.writeString(traceFile, profile.toChromeTrace());
+          } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to write lifecycle trace to {}", traceFile, e);
+          }
+        });
+      }
+    }, MoreExecutors.directExecutor());
+    // deliver any log-events still buffered by asynchronous appenders once all services have stopped
+    getStoppedFuture().whenComplete((state, e) -> UpstartLogProvider.CLASSPATH_PROVIDER.ifPresent(UpstartLogProvider::flush));
     LOG.info("Services created:\n{}\n", delegate());
   }
 
@@ -214,18 +266,26 @@ public final class UpstartService extends BaseComposableService<ManagedServiceGr
      * @see #build
      */
     public Injector buildInjector() {
+      BootstrapTimings bootstrapTimings = new BootstrapTimings();
+      Duration priorConfigLoad = configProvider.configLoadTime();
+      long startNanos = System.nanoTime();
       Injector injector = s_latestInjector = UpstartConfigBinder.withBinder(
               configProvider,
               () -> {
                 Stage stage = configProvider.deploymentStage().isProductionLike()
                         ? Stage.PRODUCTION
                         : Stage.DEVELOPMENT;
+                Module timingsModule = binder -> BootstrapTimings.optionalBinder(binder).setBinding().toInstance(bootstrapTimings);
                 try {
-                  return Guice.createInjector(stage, modules);
+                  return Guice.createInjector(stage, Iterables.concat(modules, List.of(timingsModule)));
                 } catch (RuntimeException e) {
                   throw summarizeCreationErrors(e);
                 }
               });
+      bootstrapTimings.recordInjectorCreation(
+              Duration.ofNanos(System.nanoTime() - startNanos),
+              configProvider.configLoadTime().minus(priorConfigLoad)
+      );
 
       if (LOG.isInfoEnabled()) {
         LOG.info("Loaded config:\n{}", injector.getInstance(UpstartApplicationConfig.class).describeConfig());
@@ -310,6 +370,8 @@ public final class UpstartService extends BaseComposableService<ManagedServiceGr
         install(bindConfig(AutoModules.class));
 
         bindConfig("upstart.localhost", LocalHost.class);
+        bindConfig(LifecycleProfileConfig.class);
+        BootstrapTimings.optionalBinder(binder());
 
         bind(Clock.class).toInstance(Clock.systemUTC());
         bind(Ticker.class).toInstance(Ticker.systemTicker());
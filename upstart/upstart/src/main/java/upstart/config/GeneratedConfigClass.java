@@ -0,0 +1,96 @@
+package upstart.config;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.FieldManifestation;
+import net.bytebuddy.description.modifier.TypeManifestation;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.dynamic.scaffold.subclass.ConstructorStrategy;
+import net.bytebuddy.implementation.FieldAccessor;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.MethodCall;
+import upstart.util.exceptions.Exceptions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static net.bytebuddy.matcher.ElementMatchers.isAbstract;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * A class generated to implement a config-interface, in place of a {@link java.lang.reflect.Proxy}: each mapped
+ * method returns a final field assigned by the constructor, and {@code default} methods are simply inherited, so
+ * reading a config value costs no more than reading a field.
+ * <p/>
+ * The class is defined alongside the interface (in the same package and ClassLoader), so package-private config
+ * interfaces are supported.
+ */
+final class GeneratedConfigClass {
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  private final Class<?> generatedClass;
+  private final MethodHandle constructor;
+
+  private GeneratedConfigClass(Class<?> generatedClass, MethodHandle constructor) {
+    this.generatedClass = generatedClass;
+    this.constructor = constructor;
+  }
+
+  /**
+   * @param mappedMethods the abstract methods of the interface, in the order their values will be provided to
+   * {@link #newInstance}
+   */
+  static GeneratedConfigClass generate(Class<?> configInterface, List<Method> mappedMethods) {
+    checkArgument(configInterface.isInterface(), "Not an interface: %s", configInterface);
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(configInterface, LOOKUP);
+      Class<?>[] fieldTypes = new Class<?>[mappedMethods.size()];
+      DynamicType.Builder<?> builder = new ByteBuddy()
+              .subclass(Object.class, ConstructorStrategy.Default.NO_CONSTRUCTORS)
+              .implement(configInterface)
+              .name(configInterface.getName() + "$$UpstartConfig")
+              .modifiers(Visibility.PUBLIC, TypeManifestation.FINAL);
+      Implementation.Composable constructorBody = MethodCall.invoke(Object.class.getConstructor());
+      for (int i = 0; i < fieldTypes.length; i++) {
+        Method method = mappedMethods.get(i);
+        String fieldName = method.getName();
+        fieldTypes[i] = method.getReturnType();
+        builder = builder.defineField(fieldName, fieldTypes[i], Visibility.PRIVATE, FieldManifestation.FINAL)
+                .method(named(fieldName).and(takesArguments(0)).and(isAbstract()))
+                .intercept(FieldAccessor.ofField(fieldName));
+        constructorBody = constructorBody.andThen(FieldAccessor.ofField(fieldName).setsArgumentAt(i));
+      }
+      Class<?> generatedClass = builder.defineConstructor(Visibility.PUBLIC)
+              .withParameters(fieldTypes)
+              .intercept(constructorBody)
+              .make()
+              .load(configInterface.getClassLoader(), ClassLoadingStrategy.UsingLookup.of(lookup))
+              .getLoaded();
+
+      MethodHandle constructor = lookup.findConstructor(generatedClass, MethodType.methodType(void.class, fieldTypes))
+              .asType(MethodType.genericMethodType(fieldTypes.length))
+              .asSpreader(Object[].class, fieldTypes.length);
+      return new GeneratedConfigClass(generatedClass, constructor);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Failed to generate config implementation for " + configInterface.getName(), e);
+    }
+  }
+
+  Class<?> generatedClass() {
+    return generatedClass;
+  }
+
+  Object newInstance(Object[] values) {
+    try {
+      return (Object) constructor.invokeExact(values);
+    } catch (Throwable e) {
+      throw Exceptions.throwUnchecked(e);
+    }
+  }
+}
@@ -17,6 +17,8 @@ import org.immutables.value.Value;
 import java.lang.reflect.Type;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiFunction;
 
 @Value.Immutable
@@ -31,6 +33,11 @@ public abstract class HojackConfigProvider extends UpstartConfigProvider {
             }
           });
 
+  // resolved subtrees by config-path, shared by all ConfigKeys for the same path
+  private final ConcurrentMap<String, Config> resolvedObjectConfigs = new ConcurrentHashMap<>();
+  // the resolved base config, merged with each reference-config loaded so far (guarded by this)
+  private Config referenceMergedConfig = null;
+
   public static ImmutableHojackConfigProvider.Builder builder() {
     return ImmutableHojackConfigProvider.builder();
   }
@@ -86,15 +93,36 @@ public abstract class HojackConfigProvider extends UpstartConfigProvider {
 
   @Override
   public <T> ConfigObject<T> loadConfigObject(ConfigKey<T> key) {
-    Config objectConfig = resolvedBaseConfig()
-            .withFallback(getReferenceConfig(key.configPath()))
-            .resolve()
-            .withOnlyPath(key.configPath());
+    Config objectConfig = resolvedObjectConfig(key.configPath());
 
     T value = mapConfigValue(key.configPath(), key.mappedType().getType(), objectConfig);
     return ConfigObject.of(value, objectConfig);
   }
 
+  /**
+   * The resolved config at the given path, with the path's reference-config (if any) as a fallback. This is computed
+   * once per path: most paths have no reference-config, and are extracted directly from the (already resolved)
+   * {@link #resolvedBaseConfig}, without merging or re-resolving the whole tree.
+   */
+  private Config resolvedObjectConfig(String path) {
+    return resolvedObjectConfigs.computeIfAbsent(path, p -> {
+      Config reference = getReferenceConfig(p);
+      Config merged = reference.isEmpty() ? resolvedBaseConfig() : mergeReferenceConfig(reference);
+      return merged.withOnlyPath(p);
+    });
+  }
+
+  /**
+   * Merges the given reference-config into the accumulated {@link #referenceMergedConfig}, so that each merge builds
+   * upon the (already resolved) result of the previous ones, rather than upon the bare base config. Reference-configs
+   * apply to distinct paths, so the order in which they're merged is immaterial.
+   */
+  private synchronized Config mergeReferenceConfig(Config reference) {
+    Config merged = referenceMergedConfig != null ? referenceMergedConfig : resolvedBaseConfig();
+    referenceMergedConfig = merged.withFallback(reference).resolve();
+    return referenceMergedConfig;
+  }
+
   private <T> Optional<T> getIfPresent(String path, BiFunction<Config, String, T> accessor) {
     return Optionals.onlyIfFrom(baseConfig().hasPath(path), () -> accessor.apply(baseConfig(), path));
   }
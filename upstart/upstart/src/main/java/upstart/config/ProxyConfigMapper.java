@@ -21,7 +21,6 @@ import upstart.config.annotations.ConfigPath;
 import upstart.proxy.Proxies;
 import upstart.util.concurrent.ListPromise;
 import upstart.util.reflect.Modifiers;
-import upstart.util.collect.MoreCollectors;
 import upstart.util.collect.Optionals;
 import upstart.util.collect.PairStream;
 import upstart.util.reflect.Reflect;
@@ -34,13 +33,16 @@ import com.typesafe.config.ConfigObject;
 import com.typesafe.config.ConfigValue;
 import org.immutables.value.Value;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -264,21 +266,35 @@ public class ProxyConfigMapper {
             });
   }
 
+  /**
+   * Maps config into instances of a config-type. Interfaces are implemented by a {@link GeneratedConfigClass}, whose
+   * accessors read final fields; other (abstract) types fall back to a dynamic proxy.
+   */
   private static class ConfigObjectProxyMapper {
     private final Class<?> mappedType;
-    private final Map<Method, MethodMapper> methodMappers;
+    private final List<MethodMapper> methodMappers;
     private final Set<String> validKeys;
     private final Function<Object, Object> postProc;
+    private final Optional<GeneratedConfigClass> generatedClass;
+    private final DefaultMethodInvoker defaultMethodInvoker;
 
     private ConfigObjectProxyMapper(Class<?> mappedType, List<MethodMapper> methodMappers) {
       this.mappedType = mappedType;
-      this.methodMappers = methodMappers.stream().collect(MoreCollectors.toImmutableIndexMap(MethodMapper::method));
+      this.methodMappers = ImmutableList.copyOf(methodMappers);
       this.validKeys = methodMappers.stream().map(MethodMapper::configPath).collect(Collectors.toSet());
       postProc = Arrays.stream(this.mappedType.getDeclaredMethods())
               .filter(method -> Modifiers.Static.matches(method) && method.getName().equals("builder") && method.getParameterCount() == 0)
               .findFirst()
               .flatMap(ProxyConfigMapper::copyConstructor)
               .orElse(Function.identity());
+      generatedClass = Optionals.onlyIfFrom(
+              mappedType.isInterface(),
+              () -> GeneratedConfigClass.generate(
+                      mappedType,
+                      methodMappers.stream().map(MethodMapper::method).collect(Collectors.toList())
+              )
+      );
+      defaultMethodInvoker = generatedClass.isPresent() ? null : new DefaultMethodInvoker(mappedType);
     }
 
     static CompletableFuture<ConfigObjectProxyMapper> forClass(Class<?> mappedType) {
@@ -301,33 +317,45 @@ public class ProxyConfigMapper {
               invalidKeys,
               config.root()
       );
-      Map<Method, Object> values = PairStream.of(methodMappers)
-                      .mapValues((method, mapper) -> mapper.mapValue(config, objectMapper))
-                      .toImmutableMap();
+      Object[] values = new Object[methodMappers.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = methodMappers.get(i).mapValue(config, objectMapper);
+      }
 
-      DefaultMethodInvoker methodHandleLookup = new DefaultMethodInvoker(ConfigObjectProxyMapper.this.mappedType);
+      return postProc.apply(generatedClass.isPresent()
+              ? generatedClass.get().newInstance(values)
+              : createProxy(values));
+    }
 
-      return postProc.apply(Proxies.createProxy(mappedType, new AbstractInvocationHandler() {
+    private Object createProxy(Object[] values) {
+      Map<Method, Object> valuesByMethod = new HashMap<>(values.length * 2);
+      for (int i = 0; i < values.length; i++) {
+        valuesByMethod.put(methodMappers.get(i).method(), values[i]);
+      }
+      return Proxies.createProxy(mappedType, new AbstractInvocationHandler() {
         @Override
         protected Object handleInvocation(Object proxy, Method method, Object[] args) throws Throwable {
           // TODO what about toString, hashCode, etc
-          Object result = values.get(method);
-          if (result == null && !values.containsKey(method)) {
-            result = methodHandleLookup.invokeDefaultMethod(proxy, method, args);
+          Object result = valuesByMethod.get(method);
+          if (result == null && !valuesByMethod.containsKey(method)) {
+            result = defaultMethodInvoker.invokeDefaultMethod(proxy, method, args);
           }
           return result;
         }
-      }));
+      });
     }
 
     /**
      * this is awful: invoking interface-defined `default` methods from a java proxy is pretty awkward; see:
      * https://blog.jooq.org/2018/03/28/correct-reflective-access-to-interface-default-methods-in-java-8-9-10/
+     * <p/>
+     * The resolved {@link MethodHandle} for each method is cached, so only the first invocation pays for the lookup.
      */
     public static class DefaultMethodInvoker {
       private static final MethodHandles.Lookup METHODHANDLES_LOOKUP = MethodHandles.lookup();
       private final Class<?> mappedType;
       private final MethodHandles.Lookup privateLookup;
+      private final Map<Method, MethodHandle> methodHandles = new ConcurrentHashMap<>();
 
       public DefaultMethodInvoker(Class<?> mappedType) {
         this.mappedType = mappedType;
@@ -339,9 +367,19 @@ public class ProxyConfigMapper {
       }
 
       public Object invokeDefaultMethod(Object proxy, Method method, Object... args) throws Throwable {
-        return privateLookup.unreflectSpecial(method, mappedType)
-                .bindTo(proxy)
-                .invokeWithArguments(args);
+        return (Object) methodHandles.computeIfAbsent(method, this::spreadSpecialHandle).invokeExact(proxy, args);
+      }
+
+      // (Object target, Object[] args) -> Object
+      private MethodHandle spreadSpecialHandle(Method method) {
+        int paramCount = method.getParameterCount();
+        try {
+          return privateLookup.unreflectSpecial(method, mappedType)
+                  .asType(MethodType.genericMethodType(paramCount + 1))
+                  .asSpreader(Object[].class, paramCount);
+        } catch (IllegalAccessException e) {
+          throw new IllegalArgumentException("Cannot invoke default method: " + method, e);
+        }
       }
     }
   }
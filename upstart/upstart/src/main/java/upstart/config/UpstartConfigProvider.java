@@ -11,8 +11,10 @@ import upstart.util.annotations.Tuple;
 import com.typesafe.config.Config;
 import org.immutables.value.Value;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Holds the configuration required to start a {@link UpstartService}.
@@ -26,7 +28,8 @@ import java.util.Optional;
  */
 public abstract class UpstartConfigProvider {
   private final LoadingCache<ConfigKey<?>, ConfigObject<?>> loadedObjects = CacheBuilder.newBuilder()
-          .build(CacheLoader.from(this::loadConfigObject));
+          .build(CacheLoader.from(this::timedLoadConfigObject));
+  private final LongAdder configLoadNanos = new LongAdder();
 
   public abstract UpstartDeploymentStage deploymentStage();
 
@@ -51,6 +54,22 @@ public abstract class UpstartConfigProvider {
 
   protected abstract <T> ConfigObject<T> loadConfigObject(ConfigKey<T> key);
 
+  /**
+   * @return the total time this provider has spent loading (resolving and mapping) config-objects
+   */
+  public Duration configLoadTime() {
+    return Duration.ofNanos(configLoadNanos.sum());
+  }
+
+  private ConfigObject<?> timedLoadConfigObject(ConfigKey<?> key) {
+    long start = System.nanoTime();
+    try {
+      return loadConfigObject(key);
+    } finally {
+      configLoadNanos.add(System.nanoTime() - start);
+    }
+  }
+
   @Value.Immutable
   @Tuple
   public abstract static class ConfigObject<T> {
@@ -1,9 +1,13 @@
 package upstart.config.dynamic;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.inject.PrivateModule;
 import com.google.inject.TypeLiteral;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValue;
 import io.upstartproject.hojack.ConfigMapper;
 import upstart.config.ConfigKey;
 import upstart.config.HojackConfigProvider;
@@ -18,20 +22,32 @@ import javax.inject.Inject;
 import java.lang.reflect.Type;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
+/**
+ * A config-object loaded from a file which is reloaded whenever the file changes, as observed by the
+ * {@link FileModificationWatchService}.
+ * <p/>
+ * Subscribers are only notified when the config at the {@link ConfigKey#configPath} actually differs from the previous
+ * load (not merely when the file is touched or reformatted); {@link #subscribeToChanges} subscribers are told which
+ * sub-paths changed, and may ignore changes that don't concern them.
+ */
 public class DynamicConfigFile<T> implements Supplier<T> {
   private final Path filePath;
   private final String configPath;
   private final Type mappedType;
   private final ConfigMapper configMapper;
   private final FileModificationWatchService service;
-  private final Set<AsyncConsumer<T>> consumers = new HashSet<>();
+  private final List<AsyncConsumer<? super ConfigChange<T>>> consumers = new ArrayList<>();
   private final Config appConfig;
   private volatile T value;
+  private Map<String, ConfigValue> loadedValues = null;
 
 
   @Inject
@@ -61,17 +77,39 @@ public class DynamicConfigFile<T> implements Supplier<T> {
     return filePath;
   }
 
-  private T reload() {
-    return configMapper.mapSubConfig(reloadConfig(), configPath, this.mappedType);
+  /**
+   * Subscribes to every new value of this config
+   */
+  public void subscribe(AsyncConsumer<T> consumer) {
+    subscribeToChanges(change -> consumer.apply(change.value()));
   }
 
-  public void subscribe(AsyncConsumer<T> consumer) {
+  /**
+   * Subscribes to new values of this config, along with the sub-paths whose values changed
+   */
+  public void subscribeToChanges(AsyncConsumer<? super ConfigChange<T>> consumer) {
     service.initialize(() -> consumers.add(consumer));
   }
 
-  private CompletableFuture<Void> refresh(Path path) {
-    T newConfig = value = reload();
-    return CompletableFutures.allOf(consumers.stream().map(c -> c.apply(newConfig).toCompletableFuture()));
+  private synchronized CompletableFuture<Void> refresh(Path path) {
+    Config config = reloadConfig();
+    Map<String, ConfigValue> newValues = config.hasPath(configPath)
+            ? config.getConfig(configPath).entrySet().stream()
+                    .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue))
+            : ImmutableMap.of();
+    Set<String> changedPaths = loadedValues == null ? newValues.keySet() : changedPaths(loadedValues, newValues);
+    if (loadedValues != null && changedPaths.isEmpty()) return CompletableFutures.nullFuture();
+
+    T newValue = value = configMapper.mapSubConfig(config, configPath, this.mappedType);
+    loadedValues = newValues;
+    ConfigChange<T> change = new ConfigChange<>(newValue, changedPaths);
+    return CompletableFutures.allOf(consumers.stream().map(c -> c.apply(change).toCompletableFuture()));
+  }
+
+  private static Set<String> changedPaths(Map<String, ConfigValue> before, Map<String, ConfigValue> after) {
+    return Sets.union(before.keySet(), after.keySet()).stream()
+            .filter(path -> !Objects.equals(before.get(path), after.get(path)))
+            .collect(ImmutableSet.toImmutableSet());
   }
 
   private Config reloadConfig() {
@@ -81,6 +119,22 @@ public class DynamicConfigFile<T> implements Supplier<T> {
     return fileConfig.withFallback(appConfig).resolve();
   }
 
+  /**
+   * A newly-loaded value of a {@link DynamicConfigFile}
+   *
+   * @param changedPaths the (leaf) paths, relative to the config-path of the file, whose values were added, removed or
+   *                     changed; on the initial load, all paths are included
+   */
+  public record ConfigChange<T>(T value, Set<String> changedPaths) {
+    /**
+     * @return true if the value at the given relative path (or any path beneath it) has changed
+     */
+    public boolean affects(String subPath) {
+      String prefix = subPath + ".";
+      return changedPaths.stream().anyMatch(path -> path.equals(subPath) || path.startsWith(prefix));
+    }
+  }
+
   public static class DynamicConfigModule<T> extends UpstartModule {
 
     private final Path path;
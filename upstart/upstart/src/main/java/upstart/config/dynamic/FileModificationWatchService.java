@@ -38,6 +38,12 @@ public interface FileModificationWatchService extends Service {
 
     Optional<Duration> pollInterval();
 
+    /**
+     * How long to wait for a burst of modification-events for a file to settle before it is reloaded (when not
+     * {@link #usePolling}; polling coalesces events within each {@link #pollInterval})
+     */
+    Duration debounceInterval();
+
     @Value.Auxiliary
     @Value.Derived
     default long shutdownPollMillis() {
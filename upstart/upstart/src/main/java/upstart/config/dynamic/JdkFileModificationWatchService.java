@@ -1,12 +1,7 @@
 package upstart.config.dynamic;
 
 import com.sun.nio.file.SensitivityWatchEventModifier;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import upstart.util.annotations.Tuple;
-import upstart.util.collect.MoreCollectors;
 import upstart.util.concurrent.CompletableFutures;
-import upstart.util.concurrent.SimpleReference;
 import upstart.util.concurrent.services.ExecutionThreadService;
 import upstart.util.exceptions.UncheckedIO;
 import upstart.util.functions.AsyncFunction;
@@ -19,23 +14,31 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.time.Instant;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Watches files via the JDK {@link WatchService}, registering each distinct parent-directory once regardless of how
+ * many files are watched within it.
+ * <p/>
+ * Events are debounced: a file is only republished once no further events have been observed for it within the
+ * configured {@link FileModificationWatchServiceConfig#debounceInterval}, and then only if its content has changed.
+ */
 @Singleton
 public class JdkFileModificationWatchService extends ExecutionThreadService implements FileModificationWatchService {
-  private static final Logger LOG = LoggerFactory.getLogger(JdkFileModificationWatchService.class);
   private final FileSystem fileSystem;
   private final FileModificationWatchServiceConfig config;
-  private final Set<Watcher> watchedFiles = new HashSet<>();
-  private Map<Path, Watcher> fileWatchers;
+  private final Map<Path, WatchedFile> watchedFiles = new HashMap<>();
+  // files with pending events, mapped to the System.nanoTime() deadline after which they will be republished
+  private final Map<WatchedFile, Long> pendingFiles = new LinkedHashMap<>();
   private WatchService watcher;
 
   @Inject
@@ -50,9 +53,8 @@ public class JdkFileModificationWatchService extends ExecutionThreadService impl
   @Override
   protected synchronized void startUp() throws Exception {
     watcher = fileSystem.newWatchService();
-    fileWatchers = watchedFiles.stream().collect(MoreCollectors.toImmutableIndexMap(Watcher::path));
-    fileWatchers.keySet().stream()
-            .map(path -> path.toAbsolutePath().getParent())
+    watchedFiles.keySet().stream()
+            .map(Path::getParent)
             .distinct()
             .forEach(UncheckedIO.consumer(dir -> {
               dir.register(
@@ -64,29 +66,67 @@ public class JdkFileModificationWatchService extends ExecutionThreadService impl
               );
             }));
 
-    CompletableFutures.allOf(fileWatchers.values().stream().map(Watcher::publish)).join();
+    CompletableFutures.allOf(watchedFiles.values().stream().map(WatchedFile::publish)).join();
   }
 
   @Override
   protected void run() throws Exception {
     while (isRunning()) {
-      WatchKey watchKey = watcher.poll(config.shutdownPollMillis(), TimeUnit.MILLISECONDS);
+      WatchKey watchKey = watcher.poll(nextPollMillis(), TimeUnit.MILLISECONDS);
       if (watchKey != null) {
-        Path dir = (Path) watchKey.watchable();
-        CompletableFutures.allOf(
-                watchKey.pollEvents().stream()
-                        .filter(event -> !event.kind().equals(StandardWatchEventKinds.OVERFLOW))
-                        .flatMap(event -> Optional.ofNullable(fileWatchers.get(dir.resolve((Path) event.context()))).stream())
-                        .distinct()
-                        .map(Watcher::notifyModification)
-        ).join();
+        onEvents((Path) watchKey.watchable(), watchKey.pollEvents(), System.nanoTime());
+        watchKey.reset();
       }
+      publishSettledFiles(System.nanoTime()).join();
     }
   }
 
+  /**
+   * Marks the files affected by the given events (observed in the given directory) as pending, deferring their
+   * republication until the debounce-interval has elapsed without further events
+   */
+  void onEvents(Path dir, List<WatchEvent<?>> events, long nowNanos) {
+    long deadline = nowNanos + config.debounceInterval().toNanos();
+    for (WatchEvent<?> event : events) {
+      if (event.kind().equals(StandardWatchEventKinds.OVERFLOW)) {
+        // events were lost: recheck everything in this directory
+        watchedFiles.values().stream()
+                .filter(file -> file.path().getParent().equals(dir))
+                .forEach(file -> pendingFiles.put(file, deadline));
+      } else {
+        WatchedFile file = watchedFiles.get(dir.resolve((Path) event.context()));
+        if (file != null) pendingFiles.put(file, deadline);
+      }
+    }
+  }
+
+  private long nextPollMillis() {
+    long shutdownPollMillis = config.shutdownPollMillis();
+    if (pendingFiles.isEmpty()) return shutdownPollMillis;
+    long now = System.nanoTime();
+    long nextDeadline = pendingFiles.values().stream().mapToLong(Long::longValue).min().orElseThrow();
+    return Math.max(0, Math.min(shutdownPollMillis, TimeUnit.NANOSECONDS.toMillis(nextDeadline - now)));
+  }
+
+  /**
+   * Republishes (if their content has changed) the pending files whose debounce-deadlines have passed
+   */
+  CompletableFuture<Void> publishSettledFiles(long nowNanos) {
+    if (pendingFiles.isEmpty()) return CompletableFutures.nullFuture();
+    List<CompletableFuture<Void>> published = new ArrayList<>();
+    for (Iterator<Map.Entry<WatchedFile, Long>> iter = pendingFiles.entrySet().iterator(); iter.hasNext(); ) {
+      Map.Entry<WatchedFile, Long> entry = iter.next();
+      if (entry.getValue() - nowNanos <= 0) {
+        iter.remove();
+        published.add(entry.getKey().publishIfChanged());
+      }
+    }
+    return CompletableFutures.allOf(published);
+  }
+
   @Override
   public void watch(Path path, AsyncFunction<? super Path, Void> callback) {
-    initialize(() -> watchedFiles.add(Watcher.of(path, callback.withSafeWrapper())));
+    initialize(() -> watchedFiles.computeIfAbsent(path.toAbsolutePath(), WatchedFile::new).addCallback(callback));
   }
 
   @Override
@@ -94,25 +134,4 @@ public class JdkFileModificationWatchService extends ExecutionThreadService impl
     checkState(state() == State.NEW, "Cannot watch a config file after the service has started");
     runnable.run();
   }
-
-  @Tuple
-  interface Watcher {
-    static Watcher of(Path path, AsyncFunction<? super Path, Void> callback) {
-      return ImmutableWatcher.of(path, new SimpleReference<>(Instant.EPOCH), callback);
-    }
-
-    Path path();
-
-    SimpleReference<Instant> modificationTime();
-    AsyncFunction<? super Path, Void> callback();
-
-    default CompletableFuture<Void> notifyModification() {
-      LOG.info("Triggering watched file update: {}", path());
-      return publish();
-    }
-
-    default CompletableFuture<Void> publish() {
-      return callback().apply(path()).toCompletableFuture();
-    }
-  }
 }
@@ -1,8 +1,5 @@
 package upstart.config.dynamic;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import upstart.util.collect.MoreCollectors;
 import upstart.util.concurrent.CompletableFutures;
 import upstart.util.concurrent.Deadline;
 import upstart.util.concurrent.Promise;
@@ -11,24 +8,29 @@ import upstart.util.functions.AsyncFunction;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Watches files by polling their modification-times at the configured
+ * {@link FileModificationWatchServiceConfig#pollInterval}. Only files whose modification-time has changed are read,
+ * and they are only republished if their content has changed; all events within a poll-interval are thereby
+ * coalesced.
+ */
 @Singleton
 public class PollingFileModificationWatchService extends ScheduledService implements FileModificationWatchService {
-  private static final Logger LOG = LoggerFactory.getLogger(PollingFileModificationWatchService.class);
   private final FileModificationWatchServiceConfig config;
-  private final Set<Watcher> watchedFiles = new HashSet<>();
-  private Map<Path, Watcher> fileWatchers;
+  private final Map<Path, Watcher> watchers = new LinkedHashMap<>();
 
   @Inject
   public PollingFileModificationWatchService(FileModificationWatchServiceConfig config) {
@@ -37,7 +39,6 @@ public class PollingFileModificationWatchService extends ScheduledService implem
 
   @Override
   protected synchronized void startUp() throws Exception {
-    fileWatchers = watchedFiles.stream().collect(MoreCollectors.toImmutableIndexMap(Watcher::path));
     poll().join();
   }
 
@@ -59,14 +60,15 @@ public class PollingFileModificationWatchService extends ScheduledService implem
 
   private Promise<Void> poll() {
     return Promise.allOf(
-            fileWatchers.values().stream()
+            watchers.values().stream()
                     .map(Watcher::poll)
+                    .filter(future -> !future.isDone() || future.isCompletedExceptionally())
     );
   }
 
   @Override
   public void watch(Path path, AsyncFunction<? super Path, Void> callback) {
-    initialize(() -> watchedFiles.add(new Watcher(path, callback.withSafeWrapper())));
+    initialize(() -> watchers.computeIfAbsent(path, Watcher::new).file().addCallback(callback));
   }
 
   @Override
@@ -75,27 +77,31 @@ public class PollingFileModificationWatchService extends ScheduledService implem
     runnable.run();
   }
 
-  //  @Tuple
-  record Watcher(Path path, AtomicReference<Instant> lastModified, AsyncFunction<? super Path, Void> callback) {
-    public Watcher(Path path, AsyncFunction<? super Path, Void> callback) {
-      this(path, new AtomicReference<>(Instant.EPOCH), callback);
-    }
-
-    CompletableFuture<Void> publish() {
-      return callback.apply(path).toCompletableFuture();
+  record Watcher(WatchedFile file, AtomicReference<Instant> lastModified) {
+    Watcher(Path path) {
+      this(new WatchedFile(path), new AtomicReference<>(null));
     }
 
     CompletableFuture<Void> poll() {
       return CompletableFutures.callSafely(() -> {
-        Instant currentModified = Files.getLastModifiedTime(path).toInstant();
-        if (!currentModified.equals(lastModified.get())) {
-          LOG.info("Triggering watched file update: {}", path);
-          lastModified.set(currentModified);
-          return publish();
+        Instant currentModified = lastModifiedTime();
+        Instant previousModified = lastModified.getAndSet(currentModified);
+        if (previousModified == null) {
+          return file.publish();
+        } else if (!currentModified.equals(previousModified)) {
+          return file.publishIfChanged();
         } else {
           return CompletableFutures.nullFuture();
         }
       });
     }
+
+    private Instant lastModifiedTime() throws IOException {
+      try {
+        return Files.getLastModifiedTime(file.path()).toInstant();
+      } catch (NoSuchFileException e) {
+        return Instant.EPOCH;
+      }
+    }
   }
 }
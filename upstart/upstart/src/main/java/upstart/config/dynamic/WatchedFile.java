@@ -0,0 +1,81 @@
+package upstart.config.dynamic;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import upstart.util.concurrent.CompletableFutures;
+import upstart.util.functions.AsyncFunction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A file watched by a {@link FileModificationWatchService}, with all of the callbacks registered for it.
+ * <p/>
+ * Notifications are gated by a hash of the file's content: events which leave the content unchanged (eg, the file
+ * being touched, or the redundant events emitted by tools which save in several steps) do not trigger the callbacks.
+ */
+class WatchedFile {
+  private static final Logger LOG = LoggerFactory.getLogger(WatchedFile.class);
+  private static final HashCode ABSENT = HashCode.fromInt(0);
+
+  private final Path path;
+  private final List<AsyncFunction<? super Path, Void>> callbacks = new CopyOnWriteArrayList<>();
+  private volatile HashCode contentHash = null;
+
+  WatchedFile(Path path) {
+    this.path = path;
+  }
+
+  Path path() {
+    return path;
+  }
+
+  void addCallback(AsyncFunction<? super Path, Void> callback) {
+    callbacks.add(callback.withSafeWrapper());
+  }
+
+  /**
+   * Notifies all callbacks unconditionally, recording the current content-hash for subsequent comparisons
+   */
+  CompletableFuture<Void> publish() {
+    return CompletableFutures.callSafely(() -> {
+      contentHash = hashContent();
+      return notifyCallbacks();
+    });
+  }
+
+  /**
+   * Notifies all callbacks if the content of the file has changed since it was last published
+   */
+  CompletableFuture<Void> publishIfChanged() {
+    return CompletableFutures.callSafely(() -> {
+      HashCode currentHash = hashContent();
+      if (currentHash.equals(contentHash)) {
+        LOG.debug("Ignoring watched file event with unchanged content: {}", path);
+        return CompletableFutures.nullFuture();
+      }
+      LOG.info("Triggering watched file update: {}", path);
+      contentHash = currentHash;
+      return notifyCallbacks();
+    });
+  }
+
+  private CompletableFuture<Void> notifyCallbacks() {
+    return CompletableFutures.allOf(callbacks.stream().map(callback -> callback.apply(path).toCompletableFuture()));
+  }
+
+  private HashCode hashContent() throws IOException {
+    try {
+      return Hashing.murmur3_128().hashBytes(Files.readAllBytes(path));
+    } catch (NoSuchFileException e) {
+      return ABSENT;
+    }
+  }
+}
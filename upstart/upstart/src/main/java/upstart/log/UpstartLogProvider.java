@@ -8,8 +8,10 @@ import upstart.util.LogLevel;
 import org.kohsuke.MetaInfServices;
 import org.slf4j.Logger;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.function.LongSupplier;
 
 /**
  * An abstract SPI integration-point for configuring  log-subsystem-specific settings with the abstract
@@ -34,4 +36,30 @@ public interface UpstartLogProvider {
   }
 
   void logWithPayload(Logger logger, LogLevel level, Object structuredLogEvent, String message);
+
+  /**
+   * Delivers any log-events still buffered by the log-subsystem (eg, by asynchronous appenders). Invoked when the
+   * {@link upstart.UpstartService} stops.
+   */
+  default void flush() {
+  }
+
+  /**
+   * Gauges describing the internal state of the log-subsystem (eg, the queue-depth of asynchronous appenders), keyed
+   * by metric-name. These are published to the metric-registry when upstart-metrics is present.
+   */
+  default Map<String, LongSupplier> gauges() {
+    return Map.of();
+  }
+
+  /**
+   * Registers a callback to be invoked whenever the set of {@link #gauges} may have changed (eg, when appenders are
+   * added by {@link #applyLogConfig}). Listeners should be {@link #removeGaugesListener removed} when they are no
+   * longer needed, because providers are usually held statically.
+   */
+  default void addGaugesListener(Runnable listener) {
+  }
+
+  default void removeGaugesListener(Runnable listener) {
+  }
 }
@@ -13,6 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
@@ -33,6 +34,14 @@ import static com.google.common.base.Preconditions.checkState;
 public class LifecycleCoordinator extends NotifyingService {
   private static final String LOG_CATEGORY_PREFIX = LifecycleCoordinator.class.getName() + ".";
   private final Logger logger;
+  private final String serviceName;
+  // System.nanoTime() of each lifecycle event, or 0 if it hasn't (yet) happened
+  private volatile long startRequestedNanos;
+  private volatile long requirementsStartedNanos;
+  private volatile long startedNanos;
+  private volatile long stopRequestedNanos;
+  private volatile long dependentsStoppedNanos;
+  private volatile long stoppedNanos;
 
   private final ComposableService underlyingService;
   private final Set<LifecycleCoordinator> dependentServices = Sets.newHashSet();
@@ -42,14 +51,10 @@ public class LifecycleCoordinator extends NotifyingService {
     underlyingService.addListener(new UnderlyingServiceListener(), MoreExecutors.directExecutor());
     checkState(underlyingService.state() == State.NEW, "Underlying service was not NEW!", underlyingService);
     this.underlyingService = ComposableService.enhance(underlyingService);
-    logger = getLifecycleLogger(underlyingService);
-  }
-
-  private static Logger getLifecycleLogger(Service underlyingService) {
-    String serviceName = Optionals.asInstance(underlyingService, ComposableService.class)
+    serviceName = Optionals.asInstance(underlyingService, ComposableService.class)
             .map(ComposableService::serviceName)
             .orElseGet(() -> Reflect.getUnenhancedClass(underlyingService.getClass()).getName());
-    return LoggerFactory.getLogger(LOG_CATEGORY_PREFIX + serviceName);
+    logger = LoggerFactory.getLogger(LOG_CATEGORY_PREFIX + serviceName);
   }
 
   void addRequiredService(LifecycleCoordinator requiredService) {
@@ -75,6 +80,24 @@ public class LifecycleCoordinator extends NotifyingService {
     return Collections.unmodifiableSet(requiredServices);
   }
 
+  public String serviceName() {
+    return serviceName;
+  }
+
+  /**
+   * @return the timing of the startup of the underlying service, once it has started
+   */
+  public Optional<LifecycleProfile.Span> startupSpan() {
+    return LifecycleProfile.Span.of(serviceName, startRequestedNanos, requirementsStartedNanos, startedNanos);
+  }
+
+  /**
+   * @return the timing of the shutdown of the underlying service, once it has stopped
+   */
+  public Optional<LifecycleProfile.Span> shutdownSpan() {
+    return LifecycleProfile.Span.of(serviceName, stopRequestedNanos, dependentsStoppedNanos, stoppedNanos);
+  }
+
   @Override
   protected void onStartupCanceled() {
     logger.warn("startup canceled");
@@ -84,16 +107,24 @@ public class LifecycleCoordinator extends NotifyingService {
   @Override
   protected void doStart() {
     logger.debug("Wrapper starting... {}", underlyingService);
+    startRequestedNanos = System.nanoTime();
     startWith(
             CompletableFutures.allOf(requiredServices.stream().map(BaseComposableService::getStartedFuture))
-                    .thenCompose(ignored -> underlyingService.start())
-                    .thenAccept(state -> logger.info("Started ({}): {}", state, underlyingService))
+                    .thenCompose(ignored -> {
+                      requirementsStartedNanos = System.nanoTime();
+                      return underlyingService.start();
+                    })
+                    .thenAccept(state -> {
+                      startedNanos = System.nanoTime();
+                      logger.info("Started ({}): {}", state, underlyingService);
+                    })
     );
   }
 
   @Override
   protected void doStop() {
     logger.debug("Wrapper stopping... {}", underlyingService);
+    stopRequestedNanos = System.nanoTime();
 
     CompletableFuture<?> readyToStop;
     if (underlyingService.isStoppable()) {
@@ -107,8 +138,12 @@ public class LifecycleCoordinator extends NotifyingService {
     }
 
     failWith(readyToStop
-            .thenCompose(__ -> STOP_QUIETLY.apply(underlyingService))
+            .thenCompose(__ -> {
+              dependentsStoppedNanos = System.nanoTime();
+              return STOP_QUIETLY.apply(underlyingService);
+            })
             .thenAccept(state -> {
+              stoppedNanos = System.nanoTime();
               switch (state) {
                 case TERMINATED:
                   logger.info("Stopped ({}): {}", state, underlyingService);
@@ -0,0 +1,251 @@
+package upstart.managedservices;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import upstart.util.exceptions.Exceptions;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The timing of the startup and shutdown of the services in a {@link ManagedServiceGraph} (including any nested
+ * graphs), as recorded by their {@link LifecycleCoordinator LifecycleCoordinators}.
+ * <p/>
+ * Each service's {@link Span} distinguishes the time spent waiting for the services it depends upon (required services
+ * during startup, dependent services during shutdown) from the time spent in its own startUp/shutDown. The
+ * {@link #startupCriticalPath} is the chain of services which gated the completion of startup: beginning with the
+ * last service to start, each preceding entry is the required service which was last to start before it (and
+ * likewise for the {@link #shutdownCriticalPath}, following dependents). Reducing the duration of any service on the
+ * critical path reduces the total startup (or shutdown) time.
+ *
+ * @see ManagedServiceGraph#lifecycleProfile
+ */
+public final class LifecycleProfile {
+  private static final ObjectMapper TRACE_MAPPER = new ObjectMapper();
+
+  private final List<Span> startup;
+  private final List<Span> shutdown;
+  private final List<Span> startupCriticalPath;
+  private final List<Span> shutdownCriticalPath;
+
+  private LifecycleProfile(
+          List<Span> startup,
+          List<Span> shutdown,
+          List<Span> startupCriticalPath,
+          List<Span> shutdownCriticalPath
+  ) {
+    this.startup = startup;
+    this.shutdown = shutdown;
+    this.startupCriticalPath = startupCriticalPath;
+    this.shutdownCriticalPath = shutdownCriticalPath;
+  }
+
+  static LifecycleProfile of(Collection<LifecycleCoordinator> services) {
+    return new LifecycleProfile(
+            flatten(services, LifecycleCoordinator::startupSpan, LifecycleProfile::startup),
+            flatten(services, LifecycleCoordinator::shutdownSpan, LifecycleProfile::shutdown),
+            criticalPath(services, LifecycleCoordinator::startupSpan, LifecycleCoordinator::getRequiredServices, LifecycleProfile::startupCriticalPath),
+            criticalPath(services, LifecycleCoordinator::shutdownSpan, LifecycleCoordinator::getDependentServices, LifecycleProfile::shutdownCriticalPath)
+    );
+  }
+
+  /**
+   * @return the startup-spans of all services which have started, ordered by the time they began waiting to start
+   */
+  public List<Span> startup() {
+    return startup;
+  }
+
+  /**
+   * @return the shutdown-spans of all services which have stopped, ordered by the time they began waiting to stop
+   */
+  public List<Span> shutdown() {
+    return shutdown;
+  }
+
+  /**
+   * @return the chain of services which gated the completion of startup, in the order they started
+   */
+  public List<Span> startupCriticalPath() {
+    return startupCriticalPath;
+  }
+
+  /**
+   * @return the chain of services which gated the completion of shutdown, in the order they stopped
+   */
+  public List<Span> shutdownCriticalPath() {
+    return shutdownCriticalPath;
+  }
+
+  /**
+   * @return the services which spent at least the given threshold waiting for their required services to start,
+   * and longer waiting than starting themselves
+   */
+  public List<Span> slowStartupDependencies(Duration threshold) {
+    return startup.stream()
+            .filter(span -> span.waiting().compareTo(threshold) >= 0 && span.waiting().compareTo(span.duration()) > 0)
+            .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Renders this profile in the Chrome trace-event format, which may be loaded into chrome://tracing or
+   * <a href="https://ui.perfetto.dev">Perfetto</a> to visualize the timeline. Each service is rendered on its own
+   * row, with separate events for waiting and for its own startUp/shutDown.
+   */
+  public String toChromeTrace() {
+    long originNanos = Stream.concat(startup.stream(), shutdown.stream())
+            .mapToLong(Span::requestedNanos)
+            .min()
+            .orElse(0);
+    List<String> serviceNames = Stream.concat(startup.stream(), shutdown.stream())
+            .map(Span::serviceName)
+            .distinct()
+            .collect(Collectors.toList());
+
+    ObjectNode trace = JsonNodeFactory.instance.objectNode();
+    trace.put("displayTimeUnit", "ms");
+    ArrayNode events = trace.putArray("traceEvents");
+    for (int i = 0; i < serviceNames.size(); i++) {
+      ObjectNode threadName = events.addObject()
+              .put("name", "thread_name")
+              .put("ph", "M")
+              .put("pid", 1)
+              .put("tid", i);
+      threadName.putObject("args").put("name", serviceNames.get(i));
+    }
+    addTraceEvents(events, "startup", startup, serviceNames, originNanos);
+    addTraceEvents(events, "shutdown", shutdown, serviceNames, originNanos);
+    try {
+      return TRACE_MAPPER.writeValueAsString(trace);
+    } catch (Exception e) {
+      throw Exceptions.throwUnchecked(e);
+    }
+  }
+
+  private static void addTraceEvents(ArrayNode events, String phase, List<Span> spans, List<String> serviceNames, long originNanos) {
+    for (Span span : spans) {
+      int tid = serviceNames.indexOf(span.serviceName());
+      if (span.readyNanos() > span.requestedNanos()) {
+        addTraceEvent(events, phase + " (waiting)", tid, span.requestedNanos() - originNanos, span.readyNanos() - span.requestedNanos());
+      }
+      addTraceEvent(events, phase, tid, span.readyNanos() - originNanos, span.completedNanos() - span.readyNanos());
+    }
+  }
+
+  private static void addTraceEvent(ArrayNode events, String name, int tid, long offsetNanos, long durationNanos) {
+    events.addObject()
+            .put("name", name)
+            .put("cat", "lifecycle")
+            .put("ph", "X")
+            .put("pid", 1)
+            .put("tid", tid)
+            .put("ts", offsetNanos / 1000.0)
+            .put("dur", durationNanos / 1000.0);
+  }
+
+  private static List<Span> flatten(
+          Collection<LifecycleCoordinator> services,
+          Function<LifecycleCoordinator, Optional<Span>> spanFn,
+          Function<LifecycleProfile, List<Span>> nestedSpans
+  ) {
+    return services.stream()
+            .flatMap(service -> Stream.concat(
+                    spanFn.apply(service).stream(),
+                    nestedProfile(service).stream().flatMap(profile -> nestedSpans.apply(profile).stream())
+            ))
+            .sorted(Comparator.comparingLong(Span::requestedNanos))
+            .collect(ImmutableList.toImmutableList());
+  }
+
+  private static List<Span> criticalPath(
+          Collection<LifecycleCoordinator> services,
+          Function<LifecycleCoordinator, Optional<Span>> spanFn,
+          Function<LifecycleCoordinator, Set<LifecycleCoordinator>> gatingServices,
+          Function<LifecycleProfile, List<Span>> nestedPath
+  ) {
+    Deque<Span> path = new ArrayDeque<>();
+    Optional<LifecycleCoordinator> next = lastCompleted(services, spanFn);
+    while (next.isPresent()) {
+      LifecycleCoordinator service = next.get();
+      // a nested graph is represented by the path through its own services
+      List<Span> nested = nestedProfile(service).map(nestedPath).orElse(List.of());
+      if (nested.isEmpty()) {
+        path.addFirst(spanFn.apply(service).orElseThrow());
+      } else {
+        Lists.reverse(nested).forEach(path::addFirst);
+      }
+      next = lastCompleted(gatingServices.apply(service), spanFn);
+    }
+    return ImmutableList.copyOf(path);
+  }
+
+  private static Optional<LifecycleCoordinator> lastCompleted(
+          Collection<LifecycleCoordinator> services,
+          Function<LifecycleCoordinator, Optional<Span>> spanFn
+  ) {
+    return services.stream()
+            .filter(service -> spanFn.apply(service).isPresent())
+            .max(Comparator.comparingLong(service -> spanFn.apply(service).orElseThrow().completedNanos()));
+  }
+
+  private static Optional<LifecycleProfile> nestedProfile(LifecycleCoordinator service) {
+    return service.getUnderlyingService() instanceof ManagedServiceGraph nestedGraph
+            ? Optional.of(nestedGraph.lifecycleProfile())
+            : Optional.empty();
+  }
+
+  /**
+   * The timing of a single service's startup or shutdown, as {@link System#nanoTime} values.
+   *
+   * @param requestedNanos when the service was asked to start (or stop)
+   * @param readyNanos     when the services it depends upon had started (or stopped), so it could begin
+   * @param completedNanos when it finished starting (or stopping)
+   */
+  public record Span(String serviceName, long requestedNanos, long readyNanos, long completedNanos) {
+    static Optional<Span> of(String serviceName, long requestedNanos, long readyNanos, long completedNanos) {
+      if (requestedNanos == 0 || completedNanos == 0) return Optional.empty();
+      // a service which stopped itself doesn't wait for its dependents
+      long ready = readyNanos == 0 ? requestedNanos : readyNanos;
+      return Optional.of(new Span(serviceName, requestedNanos, ready, completedNanos));
+    }
+
+    /**
+     * @return the time spent waiting for the services this depends upon
+     */
+    public Duration waiting() {
+      return Duration.ofNanos(readyNanos - requestedNanos);
+    }
+
+    /**
+     * @return the time spent in this service's own startUp (or shutDown)
+     */
+    public Duration duration() {
+      return Duration.ofNanos(completedNanos - readyNanos);
+    }
+
+    /**
+     * @return the total time from request to completion
+     */
+    public Duration elapsed() {
+      return Duration.ofNanos(completedNanos - requestedNanos);
+    }
+
+    @Override
+    public String toString() {
+      return serviceName + " (" + duration().toMillis() + "ms, after waiting " + waiting().toMillis() + "ms)";
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package upstart.managedservices;
+
+import upstart.config.annotations.ConfigPath;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Controls the reporting of the {@link LifecycleProfile} of an {@link upstart.UpstartService}: the critical paths
+ * through startup and shutdown are always logged, and may also be written as a Chrome trace.
+ */
+@ConfigPath("upstart.lifecycleProfile")
+public interface LifecycleProfileConfig {
+  /**
+   * If present, the file to write a Chrome trace of the service lifecycle into (after startup, and again after
+   * shutdown); see {@link LifecycleProfile#toChromeTrace}
+   */
+  Optional<Path> traceFile();
+
+  /**
+   * Services which spend at least this long waiting for their required services to start (and more time waiting than
+   * starting themselves) are reported with a warning
+   */
+  Duration slowDependencyThreshold();
+}
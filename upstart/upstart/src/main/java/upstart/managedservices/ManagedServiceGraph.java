@@ -73,6 +73,14 @@ public class ManagedServiceGraph extends AggregateService {
             .orElseThrow(() -> new IllegalArgumentException("Service not found: " + serviceClass.getName()));
   }
 
+  /**
+   * @return the timing of the startup and shutdown of the services in this graph (so far), including the critical
+   * paths which determined how long they took
+   */
+  public LifecycleProfile lifecycleProfile() {
+    return LifecycleProfile.of(dependencies.values());
+  }
+
   @Override protected Iterable<? extends ComposableService> getComponentServices() {
     return dependencies.values();
   }